@@ -0,0 +1,181 @@
+/* $Id$ */
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.manifoldcf.agents.output.elasticsearch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import org.apache.manifoldcf.agents.interfaces.IOutputHistoryActivity;
+import org.apache.manifoldcf.agents.interfaces.RepositoryDocument;
+import org.apache.manifoldcf.agents.interfaces.ServiceInterruption;
+import org.apache.manifoldcf.agents.output.OutputBatcher;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.apache.manifoldcf.crawler.system.Logging;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** Sends a batch of documents to ElasticSearch in one _bulk request.
+* Each document is serialized up front, by the thread that is indexing it, into an "index" action
+* line followed by the document source line.  The bulk response carries a status per document, which
+* becomes that document's result.
+*/
+public class ElasticSearchBulkIndex extends ElasticSearchConnection implements OutputBatcher.IBatchSender<byte[]>
+{
+
+  public ElasticSearchBulkIndex(HttpClient client, ElasticSearchConfig config)
+  {
+    super(config, client);
+  }
+
+  /** Serialize a document as a bulk index action.
+  *@return the action and source lines, newline-terminated, in UTF-8.
+  */
+  public static byte[] buildAction(String documentURI, RepositoryDocument document,
+    InputStream inputStream,
+    String[] acls, String[] denyAcls, String[] shareAcls, String[] shareDenyAcls, String[] parentAcls, String[] parentDenyAcls)
+    throws ManifoldCFException, IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    // The id is the unencoded URI; the single-document path encodes it only to put it in the request path
+    bos.write(("{\"index\":{\"_id\":" + ElasticSearchIndex.jsonStringEscape(documentURI) + "}}\n").getBytes(StandardCharsets.UTF_8));
+    new ElasticSearchIndex.IndexRequestEntity(document, inputStream, acls, denyAcls, shareAcls, shareDenyAcls, parentAcls, parentDenyAcls).writeTo(bos);
+    bos.write('\n');
+    return bos.toByteArray();
+  }
+
+  @Override
+  public void sendBatch(List<OutputBatcher.BatchItem<byte[]>> batch)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    int totalLength = 0;
+    for (OutputBatcher.BatchItem<byte[]> item : batch)
+    {
+      totalLength += item.getPayload().length;
+    }
+    byte[] body = new byte[totalLength];
+    int offset = 0;
+    for (OutputBatcher.BatchItem<byte[]> item : batch)
+    {
+      byte[] payload = item.getPayload();
+      System.arraycopy(payload, 0, body, offset, payload.length);
+      offset += payload.length;
+    }
+
+    StringBuffer url = getApiUrl(config.getIndexType() + "/_bulk", false);
+    HttpPost post = new HttpPost(url.toString());
+    post.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+    boolean accepted;
+    try
+    {
+      accepted = call(post);
+    }
+    catch (ManifoldCFException e)
+    {
+      noteResultForAll(batch);
+      throw e;
+    }
+    catch (ServiceInterruption e)
+    {
+      noteResultForAll(batch);
+      throw e;
+    }
+    if (!accepted)
+    {
+      // The request as a whole was refused
+      Logging.connectors.warn("ES: Bulk index of "+batch.size()+" documents rejected: "+getResultDescription());
+      for (OutputBatcher.BatchItem<byte[]> item : batch)
+      {
+        item.complete(false, getResultCode(), getResultDescription());
+      }
+      return;
+    }
+
+    JSONArray items;
+    try
+    {
+      items = new JSONObject(getResponse()).getJSONArray("items");
+    }
+    catch (JSONException e)
+    {
+      setResult("JSONERROR", Result.ERROR, e.getMessage());
+      noteResultForAll(batch);
+      throw new ManifoldCFException("Unexpected bulk response from ElasticSearch: "+e.getMessage(), e);
+    }
+    if (items.length() != batch.size())
+    {
+      setResult("JSONERROR", Result.ERROR, "Bulk response has "+items.length()+" items; expected "+batch.size());
+      noteResultForAll(batch);
+      throw new ManifoldCFException("Bulk response from ElasticSearch has "+items.length()+" items; expected "+batch.size());
+    }
+
+    long currentTime = System.currentTimeMillis();
+    for (int i = 0; i < items.length(); i++)
+    {
+      OutputBatcher.BatchItem<byte[]> item = batch.get(i);
+      JSONObject actionResult = items.optJSONObject(i);
+      if (actionResult != null)
+        actionResult = actionResult.optJSONObject("index");
+      if (actionResult == null)
+      {
+        item.complete(false, "JSONERROR", "Missing bulk response item");
+        continue;
+      }
+      int status = actionResult.optInt("status", -1);
+      Object error = actionResult.opt("error");
+      if ((status == 200 || status == 201) && error == null)
+        item.complete(true, "OK", null);
+      else if (status == 429 || (status >= 500 && status < 600))
+      {
+        // Overloaded or broken; the same handling as for a single document
+        String description = "Server exception: "+error;
+        item.fail(new ServiceInterruption(description,
+            new ManifoldCFException(String.valueOf(error)),
+            currentTime + 300000L,
+            currentTime + 20L * 60000L,
+            -1,
+            false),
+          IOutputHistoryActivity.HTTP_ERROR, description);
+      }
+      else
+      {
+        Logging.connectors.warn("ES: Index failed: "+error);
+        item.complete(false, IOutputHistoryActivity.HTTP_ERROR, "HTTP code = "+status+", Response = "+error);
+      }
+    }
+  }
+
+  /** Copy the result of the request onto every document in it, for the activity history. */
+  protected void noteResultForAll(List<OutputBatcher.BatchItem<byte[]>> batch)
+  {
+    for (OutputBatcher.BatchItem<byte[]> item : batch)
+    {
+      item.setResult(getResultCode(), getResultDescription());
+    }
+  }
+
+}
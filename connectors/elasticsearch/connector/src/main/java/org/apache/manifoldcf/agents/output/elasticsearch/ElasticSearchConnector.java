@@ -50,6 +50,7 @@ import org.apache.manifoldcf.agents.interfaces.IOutputCheckActivity;
 import org.apache.manifoldcf.agents.interfaces.RepositoryDocument;
 import org.apache.manifoldcf.agents.interfaces.ServiceInterruption;
 import org.apache.manifoldcf.agents.output.BaseOutputConnector;
+import org.apache.manifoldcf.agents.output.OutputBatcher;
 import org.apache.manifoldcf.agents.output.elasticsearch.ElasticSearchAction.CommandEnum;
 import org.apache.manifoldcf.agents.output.elasticsearch.ElasticSearchConnection.Result;
 import org.apache.manifoldcf.core.interfaces.Specification;
@@ -58,6 +59,7 @@ import org.apache.manifoldcf.core.interfaces.ConfigurationNode;
 import org.apache.manifoldcf.core.interfaces.IHTTPOutput;
 import org.apache.manifoldcf.core.interfaces.IPostParameters;
 import org.apache.manifoldcf.core.interfaces.IThreadContext;
+import org.apache.manifoldcf.core.interfaces.LockManagerFactory;
 import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
 import org.apache.manifoldcf.core.interfaces.SpecificationNode;
 import org.apache.manifoldcf.core.interfaces.VersionContext;
@@ -94,9 +96,26 @@ public class ElasticSearchConnector extends BaseOutputConnector
   /** Connection expiration interval */
   private static final long EXPIRATION_INTERVAL = 60000L;
 
+  /** Maximum number of documents per _bulk request.  Zero (the default) means each document is sent in its own request. */
+  public static final String bulkSizeProperty = "org.apache.manifoldcf.elasticsearch.bulk.size";
+  /** Maximum size of a _bulk request body, in bytes.  Documents too big to fit are sent in their own request. */
+  public static final String bulkMaxBytesProperty = "org.apache.manifoldcf.elasticsearch.bulk.maxbytes";
+  /** Maximum number of _bulk requests outstanding at once against one index. */
+  public static final String bulkMaxRequestsProperty = "org.apache.manifoldcf.elasticsearch.bulk.maxrequests";
+
+  /** Batchers, keyed by index, shared by all connector instances that write to it */
+  private static final OutputBatcher.SharedBatchers<byte[]> bulkBatchers = new OutputBatcher.SharedBatchers<byte[]>();
+
   private HttpClientConnectionManager connectionManager = null;
   private HttpClient client = null;
   private long expirationTime = -1L;
+
+  /** The batcher for our index, or null if bulk indexing is off; valid if bulkChecked is true */
+  private OutputBatcher<byte[]> bulkBatcher = null;
+  /** The key bulkBatcher is held under in bulkBatchers */
+  private String bulkBatcherKey = null;
+  private long bulkMaxBytes = 0L;
+  private boolean bulkChecked = false;
   
   public ElasticSearchConnector()
   {
@@ -177,6 +196,34 @@ public class ElasticSearchConnector extends BaseOutputConnector
   {
     super.disconnect();
     closeSession();
+    if (bulkBatcherKey != null)
+    {
+      bulkBatchers.release(bulkBatcherKey);
+      bulkBatcherKey = null;
+    }
+    bulkBatcher = null;
+    bulkChecked = false;
+  }
+
+  /** Get the batcher to use for bulk indexing.
+  *@return the batcher, or null if bulk indexing is not enabled.
+  */
+  protected OutputBatcher<byte[]> getBulkBatcher(ElasticSearchConfig config)
+    throws ManifoldCFException
+  {
+    if (!bulkChecked)
+    {
+      int bulkSize = LockManagerFactory.getIntProperty(currentContext,bulkSizeProperty,0);
+      if (bulkSize > 0)
+      {
+        bulkMaxBytes = LockManagerFactory.getLongProperty(currentContext,bulkMaxBytesProperty,5L * 1024L * 1024L);
+        int bulkMaxRequests = LockManagerFactory.getIntProperty(currentContext,bulkMaxRequestsProperty,2);
+        bulkBatcherKey = config.getUniqueIndexIdentifier() + "/" + config.getIndexType();
+        bulkBatcher = bulkBatchers.acquire(bulkBatcherKey,bulkSize,bulkMaxBytes,Math.max(1,bulkMaxRequests));
+      }
+      bulkChecked = true;
+    }
+    return bulkBatcher;
   }
   
   
@@ -370,6 +417,28 @@ public class ElasticSearchConnector extends BaseOutputConnector
       }
     }
     
+    // Documents small enough to buffer go through the bulk batcher, if there is one.  The base64 encoding
+    // makes the content about a third bigger.
+    OutputBatcher<byte[]> batcher = getBulkBatcher(config);
+    if (batcher != null && document.getBinaryLength() <= bulkMaxBytes / 4L * 3L)
+    {
+      long startTime = System.currentTimeMillis();
+      OutputBatcher.BatchItem<byte[]> item = null;
+      try
+      {
+        byte[] action = ElasticSearchBulkIndex.buildAction(documentURI, document, inputStream, acls, denyAcls, shareAcls, shareDenyAcls, parentAcls, parentDenyAcls);
+        item = new OutputBatcher.BatchItem<byte[]>(action, action.length);
+        batcher.execute(item, new ElasticSearchBulkIndex(client, config));
+        return item.isAccepted()?DOCUMENTSTATUS_ACCEPTED:DOCUMENTSTATUS_REJECTED;
+      }
+      finally
+      {
+        if (item != null)
+          activities.recordActivity(startTime, ELASTICSEARCH_INDEXATION_ACTIVITY,
+            document.getBinaryLength(), documentURI, item.getResultCode(), item.getResultDescription());
+      }
+    }
+
     long startTime = System.currentTimeMillis();
     ElasticSearchIndex oi = new ElasticSearchIndex(client, config);
     try
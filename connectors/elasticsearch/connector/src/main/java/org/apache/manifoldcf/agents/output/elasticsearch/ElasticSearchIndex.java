@@ -58,7 +58,7 @@ public class ElasticSearchIndex extends ElasticSearchConnection
   * so we have to do everything in the connector. */
   protected final static boolean useNullValue = false;
   
-  private class IndexRequestEntity implements HttpEntity
+  protected static class IndexRequestEntity implements HttpEntity
   {
 
     private final RepositoryDocument document;
@@ -0,0 +1,162 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.authorities.authorities.nullauthority.tests;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.authorities.interfaces.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import org.junit.*;
+
+/** Load test for the authority service: many clients asking for user ACLs at once, against several
+* null authority connections.  Reports throughput and p50/p99 latency.
+*/
+public class UserACLLoadHSQLDBLT extends org.apache.manifoldcf.crawler.tests.BaseITHSQLDB
+{
+  protected final static int authorityCount = 5;
+  protected final static int clientCount = 50;
+  protected final static int requestsPerClient = 400;
+
+  protected String[] getAuthorityClasses()
+  {
+    return new String[]{"org.apache.manifoldcf.authorities.authorities.nullauthority.NullAuthority"};
+  }
+  
+  protected String[] getAuthorityNames()
+  {
+    return new String[]{"Null authority"};
+  }
+
+  @Test
+  public void userACLLoad()
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    
+    IAuthorityGroupManager groupManager = AuthorityGroupManagerFactory.make(tc);
+    IAuthorityGroup group = groupManager.create();
+    group.setName("Null group");
+    group.setDescription("Null group");
+    groupManager.save(group);
+
+    IAuthorityConnectionManager connectionManager = AuthorityConnectionManagerFactory.make(tc);
+    for (int i = 0; i < authorityCount; i++)
+    {
+      IAuthorityConnection connection = connectionManager.create();
+      connection.setName("Null authority "+i);
+      connection.setDescription("Null authority "+i);
+      connection.setClassName("org.apache.manifoldcf.authorities.authorities.nullauthority.NullAuthority");
+      connection.setAuthGroup("Null group");
+      connection.setMaxConnections(10);
+      connectionManager.save(connection);
+    }
+
+    // Warm up, and make sure the answers are right
+    String answer = getUserACLs("warmup");
+    int authorizedCount = 0;
+    for (String line : answer.split("\n"))
+    {
+      if (line.startsWith("AUTHORIZED:"))
+        authorizedCount++;
+    }
+    if (authorizedCount != authorityCount)
+      throw new Exception("Expected "+authorityCount+" authorities to answer; response was: "+answer);
+
+    final long[] latencies = new long[clientCount * requestsPerClient];
+    final AtomicInteger nextSlot = new AtomicInteger(0);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>(null);
+    Thread[] clients = new Thread[clientCount];
+    for (int i = 0; i < clientCount; i++)
+    {
+      final int clientNumber = i;
+      clients[i] = new Thread()
+        {
+          public void run()
+          {
+            try
+            {
+              for (int j = 0; j < requestsPerClient; j++)
+              {
+                long startTime = System.nanoTime();
+                getUserACLs("user"+clientNumber+"_"+j);
+                latencies[nextSlot.getAndIncrement()] = System.nanoTime() - startTime;
+              }
+            }
+            catch (Throwable e)
+            {
+              failure.compareAndSet(null,e);
+            }
+          }
+        };
+    }
+
+    long startTime = System.currentTimeMillis();
+    for (Thread client : clients)
+    {
+      client.start();
+    }
+    for (Thread client : clients)
+    {
+      client.join();
+    }
+    long elapsedTime = System.currentTimeMillis() - startTime;
+    if (failure.get() != null)
+      throw new Exception("Client failed: "+failure.get().getMessage(),failure.get());
+
+    int count = nextSlot.get();
+    Arrays.sort(latencies,0,count);
+    System.err.println("User ACL load: "+count+" requests, "+clientCount+" clients, "+authorityCount+" authorities, in "+elapsedTime+" ms ("+
+      (count * 1000L / Math.max(elapsedTime,1L))+" requests/sec)");
+    System.err.println("User ACL load: p50 = "+(latencies[count/2]/1000L)+" us, p99 = "+(latencies[(int)(count * 0.99)]/1000L)+" us, max = "+
+      (latencies[count-1]/1000L)+" us");
+  }
+
+  protected static String getUserACLs(String userName)
+    throws Exception
+  {
+    URL url = new URL("http://localhost:8346/mcf-authority-service/UserACLs?username="+URLEncoder.encode(userName,"UTF-8"));
+    HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+    int responseCode = connection.getResponseCode();
+    if (responseCode != 200)
+      throw new Exception("User ACL request failed with code "+responseCode);
+    InputStream is = connection.getInputStream();
+    try
+    {
+      // Read it all so the connection can be reused
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      while (true)
+      {
+        int amt = is.read(buffer);
+        if (amt == -1)
+          break;
+        baos.write(buffer,0,amt);
+      }
+      return new String(baos.toByteArray(),"ISO-8859-1");
+    }
+    finally
+    {
+      is.close();
+    }
+  }
+
+}
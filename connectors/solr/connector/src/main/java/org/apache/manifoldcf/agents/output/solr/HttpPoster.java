@@ -35,6 +35,7 @@ import org.apache.manifoldcf.connectorcommon.interfaces.*;
 import org.apache.manifoldcf.core.common.DateParser;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.agents.system.*;
+import org.apache.manifoldcf.agents.output.OutputBatcher;
 
 import java.io.*;
 import java.net.MalformedURLException;
@@ -90,6 +91,9 @@ public class HttpPoster
   // Solrj connection-associated objects
   protected PoolingHttpClientConnectionManager connectionManager = null;
   protected SolrClient solrServer = null;
+
+  /** Batcher for coalescing documents into multi-document update requests, or null */
+  protected OutputBatcher<SolrInputDocument> batcher = null;
   
   // Action URI pieces
   private final String postUpdateAction;
@@ -518,6 +522,16 @@ public class HttpPoster
       true);
   }
   
+  /** Set the batcher to use for coalescing documents into multi-document update requests.
+  * Batching only applies when the extracting update handler is not in use, since that handler takes
+  * one document per request.
+  *@param batcher is the batcher, shared by all posters that write to the same target, or null.
+  */
+  public void setBatcher(OutputBatcher<SolrInputDocument> batcher)
+  {
+    this.batcher = batcher;
+  }
+
   /**
   * Post the input stream to ingest
   *
@@ -565,6 +579,9 @@ public class HttpPoster
 
     }
 
+    if (batcher != null && !useExtractUpdateHandler)
+      return indexPostBatched(documentURI,document,arguments,aclsMap,denyAclsMap,activities);
+
     try
     {
       IngestThread t = new IngestThread(documentURI,document,arguments,
@@ -632,6 +649,164 @@ public class HttpPoster
 
   }
 
+  /** Post a document as part of a multi-document update request.
+  *@return true if the ingestion was successful, or false if the ingestion is illegal.
+  */
+  protected boolean indexPostBatched(String documentURI,
+    RepositoryDocument document, Map<String,List<String>> arguments,
+    Map<String,String[]> aclsMap, Map<String,String[]> denyAclsMap,
+    IOutputAddActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    long startTime = System.currentTimeMillis();
+    long length = document.getBinaryLength();
+    // Build the document in this thread, while its stream is still ours to read
+    SolrInputDocument solrDoc = null;
+    try
+    {
+      solrDoc = buildSolrDocument(documentURI,document,arguments,aclsMap,denyAclsMap,length,document.getBinaryStream());
+    }
+    catch (IOException e)
+    {
+      // This always throws
+      handleIOException(e, "indexing "+documentURI);
+    }
+
+    OutputBatcher.BatchItem<SolrInputDocument> item = new OutputBatcher.BatchItem<SolrInputDocument>(solrDoc,length);
+    try
+    {
+      batcher.execute(item,new BatchSender());
+      return item.isAccepted();
+    }
+    finally
+    {
+      if (item.getResultCode() != null)
+        activities.recordActivity(startTime,SolrConnector.INGEST_ACTIVITY,length,documentURI,item.getResultCode(),item.getResultDescription());
+    }
+  }
+
+  /** Sends a batch of documents to Solr in one update request.
+  * If Solr refuses the request because of one of the documents in it, the documents are resent one at a time, so
+  * that only the offending document is rejected.
+  */
+  protected class BatchSender implements OutputBatcher.IBatchSender<SolrInputDocument>
+  {
+    @Override
+    public void sendBatch(List<OutputBatcher.BatchItem<SolrInputDocument>> batch)
+      throws ManifoldCFException, ServiceInterruption
+    {
+      List<SolrInputDocument> documents = new ArrayList<SolrInputDocument>(batch.size());
+      for (OutputBatcher.BatchItem<SolrInputDocument> item : batch)
+      {
+        documents.add(item.getPayload());
+      }
+      String context = "indexing "+Integer.toString(batch.size())+" documents";
+      try
+      {
+        BatchIngestThread t = new BatchIngestThread(documents);
+        try
+        {
+          t.start();
+          t.finishUp();
+        }
+        catch (InterruptedException e)
+        {
+          t.interrupt();
+          throw new ManifoldCFException("Interrupted: "+e.getMessage(),ManifoldCFException.INTERRUPTED);
+        }
+        for (OutputBatcher.BatchItem<SolrInputDocument> item : batch)
+        {
+          item.complete(true,"OK",null);
+        }
+      }
+      catch (SolrException e)
+      {
+        noteResultForAll(batch,Integer.toString(e.code()),e.getMessage() +
+          ((e.getCause() != null)?": "+e.getCause().getMessage():""));
+        handleSolrException(e, context);
+        // If we get here, a document was refused
+        rejectOrRetryIndividually(batch);
+      }
+      catch (SolrServerException e)
+      {
+        String details = e.getMessage() +
+          ((e.getCause() != null)?": "+e.getCause().getMessage():"");
+        // As for a single document, broken pipes usually mean Solr refused the content.  With several
+        // documents, find out which one by sending each by itself; a single document is retried for a
+        // while, as it would be without batching.
+        if (e.getCause() != null && e.getCause().getClass().getName().equals("java.net.SocketException") &&
+          (details.toLowerCase(Locale.ROOT).indexOf("broken pipe") != -1 ||
+            details.toLowerCase(Locale.ROOT).indexOf("connection reset") != -1 ||
+            details.toLowerCase(Locale.ROOT).indexOf("target server failed to respond") != -1))
+        {
+          noteResultForAll(batch,"SOLRREJECT",details);
+          if (batch.size() > 1)
+          {
+            rejectOrRetryIndividually(batch);
+            return;
+          }
+        }
+        else
+          noteResultForAll(batch,e.getClass().getSimpleName().toUpperCase(Locale.ROOT),details);
+        // This always throws
+        handleSolrServerException(e, context);
+      }
+      catch (RuntimeException e)
+      {
+        handleRuntimeException(e, context);
+      }
+      catch (IOException e)
+      {
+        if (!(e instanceof InterruptedIOException) || (e instanceof java.net.SocketTimeoutException))
+        {
+          Logging.ingest.warn("Error indexing into Solr: "+e.getMessage(),e);
+          noteResultForAll(batch,e.getClass().getSimpleName().toUpperCase(Locale.ROOT),e.getMessage());
+        }
+        // This always throws
+        handleIOException(e, context);
+      }
+    }
+
+    /** A request was refused because of its content.  For a single document, that means the document is
+    * rejected.  For several, find out which ones by sending each by itself.
+    */
+    protected void rejectOrRetryIndividually(List<OutputBatcher.BatchItem<SolrInputDocument>> batch)
+      throws ManifoldCFException
+    {
+      if (batch.size() == 1)
+      {
+        OutputBatcher.BatchItem<SolrInputDocument> item = batch.get(0);
+        item.complete(false,item.getResultCode(),item.getResultDescription());
+        return;
+      }
+      for (OutputBatcher.BatchItem<SolrInputDocument> item : batch)
+      {
+        try
+        {
+          sendBatch(Collections.singletonList(item));
+        }
+        catch (ManifoldCFException e)
+        {
+          if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+            throw e;
+          item.fail(e);
+        }
+        catch (ServiceInterruption e)
+        {
+          item.fail(e);
+        }
+      }
+    }
+
+    protected void noteResultForAll(List<OutputBatcher.BatchItem<SolrInputDocument>> batch, String code, String details)
+    {
+      for (OutputBatcher.BatchItem<SolrInputDocument> item : batch)
+      {
+        item.setResult(code,details);
+      }
+    }
+  }
+
   /** Post a check request.
   */
   public void checkPost()
@@ -827,6 +1002,119 @@ public class HttpPoster
     inputDoc.addField( metadataDenyACLName, denyAcl );
   }
 
+  /** Build a Solr document from a repository document, for the plain update handler.  Used both by the
+  * single-document ingest thread and when documents are batched.
+  */
+  protected SolrInputDocument buildSolrDocument( String documentURI, RepositoryDocument document,
+    Map<String,List<String>> arguments, Map<String,String[]> aclsMap, Map<String,String[]> denyAclsMap,
+    long length, InputStream is )
+    throws IOException
+  {
+    SolrInputDocument outputDoc = new SolrInputDocument();
+
+    // Write the id field
+    outputDoc.addField( idAttributeName, documentURI );
+    
+    if (contentAttributeName != null)
+    {
+      // Copy the content into a string.  This is a bad thing to do, but we have no choice given SolrJ architecture at this time.
+      // We enforce a size limit upstream.
+      Reader r = new InputStreamReader(is, Consts.UTF_8);
+      StringBuilder sb = new StringBuilder((int)length);
+      char[] buffer = new char[65536];
+      while (true)
+      {
+        int amt = r.read(buffer,0,buffer.length);
+        if (amt == -1)
+          break;
+        sb.append(buffer,0,amt);
+      }
+      outputDoc.addField( contentAttributeName, sb.toString() );
+    }
+    
+    // Write the rest of the attributes
+    if ( modifiedDateAttributeName != null )
+    {
+      Date date = document.getModifiedDate();
+      if ( date != null )
+      {
+        outputDoc.addField( modifiedDateAttributeName, DateParser.formatISO8601Date( date ) );
+      }
+    }
+    if ( createdDateAttributeName != null )
+    {
+      Date date = document.getCreatedDate();
+      if ( date != null )
+      {
+        outputDoc.addField( createdDateAttributeName, DateParser.formatISO8601Date( date ) );
+      }
+
+    }
+    if ( indexedDateAttributeName != null )
+    {
+      Date date = document.getIndexingDate();
+      if ( date != null )
+      {
+        outputDoc.addField( indexedDateAttributeName, DateParser.formatISO8601Date( date ) );
+      }
+    }
+    if ( fileNameAttributeName != null )
+    {
+      String fileName = document.getFileName();
+      if ( !StringUtils.isBlank(fileName) )
+      {
+        outputDoc.addField( fileNameAttributeName, fileName );
+      }
+    }
+    if ( mimeTypeAttributeName != null )
+    {
+      String mimeType = document.getMimeType();
+      if ( !StringUtils.isBlank(mimeType) )
+      {
+        outputDoc.addField( mimeTypeAttributeName, mimeType );
+      }
+    }
+
+    Iterator<String> typeIterator = aclsMap.keySet().iterator();
+    while (typeIterator.hasNext())
+    {
+      String aclType = typeIterator.next();
+      writeACLsInSolrDoc(outputDoc,aclType,aclsMap.get(aclType),denyAclsMap.get(aclType));
+    }
+
+    // Write the arguments
+    for ( String name : arguments.keySet() )
+    {
+      List<String> values = arguments.get( name );
+      outputDoc.addField( name, values );
+    }
+
+    // Write the metadata, each in a field by itself
+    buildSolrParamsFromMetadata( document, outputDoc );
+
+    return outputDoc;
+  }
+
+  protected void buildSolrParamsFromMetadata(RepositoryDocument document, SolrInputDocument outputDocument) throws IOException
+  {
+    Iterator<String> iter = document.getFields();
+    while (iter.hasNext())
+    {
+      String fieldName = makeSafeLuceneField(iter.next());
+      applySingleMapping(document, fieldName, outputDocument, fieldName);
+    }
+  }
+
+  protected void applySingleMapping(RepositoryDocument document, String originalFieldName, SolrInputDocument outputDocument, String newFieldName) throws IOException {
+    if(newFieldName != null && !newFieldName.isEmpty()) {
+      if (newFieldName.toLowerCase(Locale.ROOT).equals(idAttributeName.toLowerCase(Locale.ROOT))) {
+        newFieldName = ID_METADATA;
+      }
+      String[] values = document.getFieldAsStrings(originalFieldName);
+      outputDocument.addField( newFieldName, values );
+    }
+  }
+
   /** Killable thread that does ingestions.
   * Java 1.5 stopped permitting thread interruptions to abort socket waits.  As a result, it is impossible to get threads to shutdown cleanly that are doing
   * such waits.  So, the places where this happens are segregated in their own threads so that they can be just abandoned.
@@ -886,7 +1174,7 @@ public class HttpPoster
           }
           else
           {
-            currentSolrDoc = buildSolrDocument( length, is );
+            currentSolrDoc = buildSolrDocument( documentURI, document, arguments, aclsMap, denyAclsMap, length, is );
           }
 
           // Fire off the request.
@@ -969,94 +1257,6 @@ public class HttpPoster
       }
     }
 
-    private SolrInputDocument buildSolrDocument( long length, InputStream is )
-      throws IOException
-    {
-      SolrInputDocument outputDoc = new SolrInputDocument();
-
-      // Write the id field
-      outputDoc.addField( idAttributeName, documentURI );
-      
-      if (contentAttributeName != null)
-      {
-        // Copy the content into a string.  This is a bad thing to do, but we have no choice given SolrJ architecture at this time.
-        // We enforce a size limit upstream.
-        Reader r = new InputStreamReader(is, Consts.UTF_8);
-        StringBuilder sb = new StringBuilder((int)length);
-        char[] buffer = new char[65536];
-        while (true)
-        {
-          int amt = r.read(buffer,0,buffer.length);
-          if (amt == -1)
-            break;
-          sb.append(buffer,0,amt);
-        }
-        outputDoc.addField( contentAttributeName, sb.toString() );
-      }
-      
-      // Write the rest of the attributes
-      if ( modifiedDateAttributeName != null )
-      {
-        Date date = document.getModifiedDate();
-        if ( date != null )
-        {
-          outputDoc.addField( modifiedDateAttributeName, DateParser.formatISO8601Date( date ) );
-        }
-      }
-      if ( createdDateAttributeName != null )
-      {
-        Date date = document.getCreatedDate();
-        if ( date != null )
-        {
-          outputDoc.addField( createdDateAttributeName, DateParser.formatISO8601Date( date ) );
-        }
-
-      }
-      if ( indexedDateAttributeName != null )
-      {
-        Date date = document.getIndexingDate();
-        if ( date != null )
-        {
-          outputDoc.addField( indexedDateAttributeName, DateParser.formatISO8601Date( date ) );
-        }
-      }
-      if ( fileNameAttributeName != null )
-      {
-        String fileName = document.getFileName();
-        if ( !StringUtils.isBlank(fileName) )
-        {
-          outputDoc.addField( fileNameAttributeName, fileName );
-        }
-      }
-      if ( mimeTypeAttributeName != null )
-      {
-        String mimeType = document.getMimeType();
-        if ( !StringUtils.isBlank(mimeType) )
-        {
-          outputDoc.addField( mimeTypeAttributeName, mimeType );
-        }
-      }
-
-      Iterator<String> typeIterator = aclsMap.keySet().iterator();
-      while (typeIterator.hasNext())
-      {
-        String aclType = typeIterator.next();
-        writeACLsInSolrDoc(outputDoc,aclType,aclsMap.get(aclType),denyAclsMap.get(aclType));
-      }
-
-      // Write the arguments
-      for ( String name : arguments.keySet() )
-      {
-        List<String> values = arguments.get( name );
-        outputDoc.addField( name, values );
-      }
-
-      // Write the metadata, each in a field by itself
-      buildSolrParamsFromMetadata( outputDoc );
-
-      return outputDoc;
-    }
-
     private void buildExtractUpdateHandlerRequest( long length, InputStream is, String contentType,
       String contentName,
       ContentStreamUpdateRequest contentStreamUpdateRequest )
@@ -1155,16 +1355,6 @@ public class HttpPoster
       }
     }
 
-    private void buildSolrParamsFromMetadata(SolrInputDocument outputDocument) throws IOException
-    {
-      Iterator<String> iter = document.getFields();
-      while (iter.hasNext())
-      {
-        String fieldName = makeSafeLuceneField(iter.next());
-        applySingleMapping(fieldName, outputDocument, fieldName);
-      }
-    }
-
     private void applySingleMapping(String originalFieldName, ModifiableSolrParams out, String newFieldName) throws IOException {
       if(newFieldName != null && !newFieldName.isEmpty()) {
         if (newFieldName.toLowerCase(Locale.ROOT).equals(idAttributeName.toLowerCase(Locale.ROOT))) {
@@ -1175,16 +1365,6 @@ public class HttpPoster
       }
     }
 
-    private void applySingleMapping(String originalFieldName, SolrInputDocument outputDocument, String newFieldName) throws IOException {
-      if(newFieldName != null && !newFieldName.isEmpty()) {
-        if (newFieldName.toLowerCase(Locale.ROOT).equals(idAttributeName.toLowerCase(Locale.ROOT))) {
-          newFieldName = ID_METADATA;
-        }
-        String[] values = document.getFieldAsStrings(originalFieldName);
-        outputDocument.addField( newFieldName, values );
-      }
-    }
-
     public void finishUp()
       throws InterruptedException, SolrServerException, IOException
     {
@@ -1237,6 +1417,56 @@ public class HttpPoster
     }
   }
 
+  /** Killable thread that adds several documents in one update request.
+  * This is the multi-document counterpart of IngestThread; the documents have already been built.
+  */
+  protected class BatchIngestThread extends java.lang.Thread
+  {
+    protected final List<SolrInputDocument> documents;
+
+    protected Throwable exception = null;
+
+    public BatchIngestThread(List<SolrInputDocument> documents)
+    {
+      super();
+      setDaemon(true);
+      this.documents = documents;
+    }
+
+    public void run()
+    {
+      try
+      {
+        solrServer.add(documents);
+      }
+      catch (Throwable e)
+      {
+        this.exception = e;
+      }
+    }
+
+    public void finishUp()
+      throws InterruptedException, SolrServerException, IOException
+    {
+      join();
+
+      Throwable thr = exception;
+      if (thr != null)
+      {
+        if (thr instanceof SolrServerException)
+          throw (SolrServerException)thr;
+        if (thr instanceof IOException)
+          throw (IOException)thr;
+        if (thr instanceof RuntimeException)
+          throw (RuntimeException)thr;
+        if (thr instanceof Error)
+          throw (Error)thr;
+        else
+          throw new RuntimeException("Unexpected exception type: "+thr.getClass().getName()+": "+thr.getMessage(),thr);
+      }
+    }
+  }
+
   /** Killable thread that does deletions.
   * Java 1.5 stopped permitting thread interruptions to abort socket waits.  As a result, it is impossible to get threads to shutdown cleanly that are doing
   * such waits.  So, the places where this happens are segregated in their own threads so that they can be just abandoned.
@@ -34,6 +34,7 @@ import org.apache.manifoldcf.agents.interfaces.IOutputRemoveActivity;
 import org.apache.manifoldcf.agents.interfaces.IOutputCheckActivity;
 import org.apache.manifoldcf.agents.interfaces.RepositoryDocument;
 import org.apache.manifoldcf.agents.interfaces.ServiceInterruption;
+import org.apache.manifoldcf.agents.output.OutputBatcher;
 import org.apache.manifoldcf.core.interfaces.Specification;
 import org.apache.manifoldcf.core.interfaces.ConfigNode;
 import org.apache.manifoldcf.core.interfaces.ConfigParams;
@@ -42,11 +43,13 @@ import org.apache.manifoldcf.core.interfaces.IDFactory;
 import org.apache.manifoldcf.core.interfaces.IHTTPOutput;
 import org.apache.manifoldcf.core.interfaces.IPostParameters;
 import org.apache.manifoldcf.core.interfaces.IThreadContext;
+import org.apache.manifoldcf.core.interfaces.LockManagerFactory;
 import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
 import org.apache.manifoldcf.core.interfaces.SpecificationNode;
 import org.apache.manifoldcf.core.interfaces.VersionContext;
 import org.apache.manifoldcf.connectorcommon.interfaces.KeystoreManagerFactory;
 import org.apache.manifoldcf.connectorcommon.interfaces.IKeystoreManager;
+import org.apache.solr.common.SolrInputDocument;
 
 
 /** This is the output connector for SOLR.  Currently, no frills.
@@ -62,8 +65,21 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
   /** Document removal activity */
   public final static String REMOVE_ACTIVITY = "document deletion";
 
+  /** Maximum number of documents per update request, when the extracting update handler is not in use.
+  * Zero (the default) means each document is sent in its own request. */
+  public final static String batchSizeProperty = "org.apache.manifoldcf.solr.batch.size";
+  /** Maximum total content length of the documents in one update request */
+  public final static String batchMaxBytesProperty = "org.apache.manifoldcf.solr.batch.maxbytes";
+  /** Maximum number of update requests outstanding at once against one Solr target */
+  public final static String batchMaxRequestsProperty = "org.apache.manifoldcf.solr.batch.maxrequests";
+
+  /** Batchers, keyed by Solr target, shared by all connector instances that write to it */
+  protected final static OutputBatcher.SharedBatchers<SolrInputDocument> batchers = new OutputBatcher.SharedBatchers<SolrInputDocument>();
+
   /** Local connection */
   protected HttpPoster poster = null;
+  /** The key of the batcher the poster is using, or null if it has none */
+  protected String batcherKey = null;
   
   /** Expiration */
   protected long expirationTime = -1L;
@@ -148,6 +164,7 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
         // Expire connection
         poster.shutdown();
         poster = null;
+        releaseBatcher();
         expirationTime = -1L;
       }
     }
@@ -173,6 +190,7 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
     {
       poster.shutdown();
       poster = null;
+      releaseBatcher();
       expirationTime = -1L;
     }
     maxDocumentLength = null;
@@ -358,6 +376,8 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
             modifiedDateAttributeName,createdDateAttributeName,indexedDateAttributeName,
             fileNameAttributeName,mimeTypeAttributeName,contentAttributeName,
             keystoreManager,maxDocumentLength,commitWithin,useExtractUpdateHandler);
+          if (!useExtractUpdateHandler)
+            poster.setBatcher(getBatcher(protocol+"://"+server+":"+port+"/"+webapp+"/"+core+updatePath));
           
         }
         catch (NumberFormatException e)
@@ -414,6 +434,8 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
             modifiedDateAttributeName,createdDateAttributeName,indexedDateAttributeName,
             fileNameAttributeName,mimeTypeAttributeName,contentAttributeName,
             maxDocumentLength,commitWithin,useExtractUpdateHandler);
+          if (!useExtractUpdateHandler)
+            poster.setBatcher(getBatcher(zookeeperHost+"/"+collection+updatePath));
           
         }
         catch (NumberFormatException e)
@@ -429,6 +451,36 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
     expirationTime = System.currentTimeMillis() + EXPIRATION_INTERVAL;
   }
 
+  /** Get the batcher shared by everything writing to a Solr target.  It is held until releaseBatcher() is
+  * called.
+  *@param key describes the target.
+  *@return the batcher, or null if batching is not enabled.
+  */
+  protected OutputBatcher<SolrInputDocument> getBatcher(String key)
+    throws ManifoldCFException
+  {
+    int batchSize = LockManagerFactory.getIntProperty(currentContext,batchSizeProperty,0);
+    if (batchSize <= 0)
+      return null;
+    long batchMaxBytes = LockManagerFactory.getLongProperty(currentContext,batchMaxBytesProperty,5L * 1024L * 1024L);
+    int batchMaxRequests = LockManagerFactory.getIntProperty(currentContext,batchMaxRequestsProperty,2);
+    releaseBatcher();
+    OutputBatcher<SolrInputDocument> batcher = batchers.acquire(key,batchSize,batchMaxBytes,Math.max(1,batchMaxRequests));
+    batcherKey = key;
+    return batcher;
+  }
+
+  /** Let go of the batcher obtained by getBatcher(), if any.
+  */
+  protected void releaseBatcher()
+  {
+    if (batcherKey != null)
+    {
+      batchers.release(batcherKey);
+      batcherKey = null;
+    }
+  }
+
   /** Parse a mime type field into individual mime types in a hash */
   protected static Map<String,String> parseMimeTypes(String mimeTypes)
     throws ManifoldCFException
@@ -34,6 +34,11 @@ import java.util.*;
 import java.io.*;
 import java.util.zip.GZIPInputStream;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.client.HttpClient;
@@ -131,6 +136,12 @@ public class ThrottledFetcher
   /** Connection pools.
   /* This is a static hash of the connection pools in existence.  Each connection pool represents a set of identical connections. */
   protected final static Map<ConnectionPoolKey,ConnectionPool> connectionPools = new HashMap<ConnectionPoolKey,ConnectionPool>();
+
+  /** The executor that runs fetches for all connections.  A fetch occupies a thread for as long as its
+  * response body is being read, but threads are reused from one fetch to the next rather than being
+  * created and torn down for each.  Idle threads go away after a minute. */
+  protected final static ExecutorService fetchExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+    60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new FetchThreadFactory());
   
   /** Current host name */
   private static String currentHost = null;
@@ -226,6 +237,8 @@ public class ThrottledFetcher
           socketTimeoutMilliseconds,connectionTimeoutMilliseconds);
         connectionPools.put(poolKey,p);
       }
+      // Keep the pool from being dropped while we wait for a connection from it
+      p.reserve();
     }
     
     return p.grab(activities);
@@ -238,9 +251,17 @@ public class ThrottledFetcher
     // Go through outstanding connection pools and clean them up.
     synchronized (connectionPools)
     {
-      for (ConnectionPool pool : connectionPools.values())
+      Iterator<ConnectionPool> iter = connectionPools.values().iterator();
+      while (iter.hasNext())
       {
+        ConnectionPool pool = iter.next();
         pool.flushIdleConnections();
+        // A pool with no connections left, pooled or handed out, is dropped, along with its sockets
+        if (pool.isUnused())
+        {
+          iter.remove();
+          pool.shutdown();
+        }
       }
     }
   }
@@ -265,8 +286,8 @@ public class ThrottledFetcher
     /** This is when the connection will expire.  Only valid if connection is in the pool. */
     protected long expireTime = -1L;
 
-    /** The http connection manager.  The pool is of size 1.  */
-    protected HttpClientConnectionManager connManager = null;
+    /** The http connection manager, shared with the other connections in the pool */
+    protected final HttpClientConnectionManager connManager;
     /** The http client object. */
     protected HttpClient httpClient = null;
     /** The method object */
@@ -302,9 +323,9 @@ public class ThrottledFetcher
     /** Connection timeout milliseconds */
     protected final int connectionTimeoutMilliseconds;
 
-    /** The thread that is actually doing the work */
-    protected ExecuteMethodThread methodThread = null;
-    /** Set if thread has been started */
+    /** The task that is actually doing the work */
+    protected ExecuteMethodTask methodThread = null;
+    /** Set if task has been started */
     protected boolean threadStarted = false;
     
     /** Abort checker */
@@ -319,6 +340,7 @@ public class ThrottledFetcher
       int socketTimeoutMilliseconds, int connectionTimeoutMilliseconds)
     {
       this.myPool = myPool;
+      this.connManager = myPool.getConnectionManager();
       this.fetchThrottler = fetchThrottler;
       this.proxyHost = proxyHost;
       this.proxyPort = proxyPort;
@@ -349,11 +371,6 @@ public class ThrottledFetcher
     @Override
     public boolean hasExpired(long currentTime)
     {
-      if (connManager != null)
-      {
-        connManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
-        connManager.closeExpiredConnections();
-      }
       return (currentTime > expireTime);
     }
 
@@ -367,13 +384,8 @@ public class ThrottledFetcher
     @Override
     public void destroy()
     {
-      // Kill the actual connection object.
-      if (connManager != null)
-      {
-        connManager.shutdown();
-        connManager = null;
-      }
-
+      // The connection manager belongs to the pool, and any socket this connection last used
+      // is closed by the pool once it has been idle long enough.
     }
 
 
@@ -423,10 +435,6 @@ public class ThrottledFetcher
       LoginCookies loginCookies)
       throws ManifoldCFException, ServiceInterruption
     {
-      // Set up scheme
-      SSLConnectionSocketFactory myFactory = new SSLConnectionSocketFactory(new InterruptibleSocketFactory(httpsSocketFactory,connectionTimeoutMilliseconds),
-        NoopHostnameVerifier.INSTANCE);
-
       int hostPort;
       String displayedPort;
       if (port != -1)
@@ -469,21 +477,6 @@ public class ThrottledFetcher
         hostHost = fetchHost;
       }
       
-      if (connManager == null)
-      {
-        PoolingHttpClientConnectionManager poolingConnManager = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
-          .register("http", PlainConnectionSocketFactory.getSocketFactory())
-          .register("https", myFactory)
-          .build());
-        poolingConnManager.setDefaultMaxPerRoute(1);
-        poolingConnManager.setValidateAfterInactivity(60000);
-        poolingConnManager.setDefaultSocketConfig(SocketConfig.custom()
-          .setTcpNoDelay(true)
-          .setSoTimeout(socketTimeoutMilliseconds)
-          .build());
-        connManager = poolingConnManager;
-      }
-      
       long startTime = 0L;
       if (Logging.connectors.isDebugEnabled())
       {
@@ -530,6 +523,7 @@ public class ThrottledFetcher
 
       httpClient = HttpClients.custom()
         .setConnectionManager(connManager)
+        .setConnectionManagerShared(true)
         .disableAutomaticRetries()
         .setDefaultRequestConfig(requestBuilder.build())
         .setDefaultCredentialsProvider(credentialsProvider)
@@ -693,8 +687,8 @@ public class ThrottledFetcher
       // Copy out the current cookies, in case the fetch fails
       lastFetchCookies = loginCookies;
 
-      // Create the thread
-      methodThread = new ExecuteMethodThread(this, fetchThrottler, httpClient, hostHost, fetchMethod, cookieStore);
+      // Create the task
+      methodThread = new ExecuteMethodTask(this, fetchThrottler, httpClient, hostHost, fetchMethod, cookieStore);
       try
       {
         methodThread.start();
@@ -1004,7 +998,7 @@ public class ThrottledFetcher
             Logging.connectors.debug("WEB: Fetch exception for '"+myUrl+"'",throwable);
         }
 
-        // Shut down (join) the connection thread, if any, and if it started
+        // Shut down (wait for) the fetch task, if any, and if it started
         if (methodThread != null)
         {
           if (threadStarted)
@@ -1330,8 +1324,8 @@ public class ThrottledFetcher
     }
   }
 
-  /** This thread does the actual socket communication with the server.
-  * It's set up so that it can be abandoned at shutdown time.
+  /** This task does the actual socket communication with the server.  It runs on a thread
+  * borrowed from the shared fetch executor, and it's set up so that it can be abandoned at shutdown time.
   *
   * The way it works is as follows:
   * - it starts the transaction
@@ -1343,10 +1337,10 @@ public class ThrottledFetcher
   * for the calling class to examine.
   *
   * The calling class basically accepts the sequence above.  It starts the
-  * thread, and tries to get a response code.  If instead an exception is seen,
+  * task, and tries to get a response code.  If instead an exception is seen,
   * the exception is thrown up the stack.
   */
-  protected static class ExecuteMethodThread extends Thread
+  protected static class ExecuteMethodTask implements Runnable
   {
     /** The connection */
     protected final ThrottledConnection theConnection;
@@ -1373,12 +1367,17 @@ public class ThrottledFetcher
     protected Throwable shutdownException = null;
 
     protected Throwable generalException = null;
+
+    /** The thread running this task, while it is running */
+    protected Thread runThread = null;
+    /** Set when the task has been interrupted */
+    protected boolean interrupted = false;
+    /** Set when the task has finished */
+    protected boolean done = false;
     
-    public ExecuteMethodThread(ThrottledConnection theConnection, IFetchThrottler fetchThrottler,
+    public ExecuteMethodTask(ThrottledConnection theConnection, IFetchThrottler fetchThrottler,
       HttpClient httpClient, HttpHost target, HttpRequestBase executeMethod, CookieStore cookieStore)
     {
-      super();
-      setDaemon(true);
       this.theConnection = theConnection;
       this.fetchThrottler = fetchThrottler;
       this.httpClient = httpClient;
@@ -1387,7 +1386,52 @@ public class ThrottledFetcher
       this.cookieStore = cookieStore;
     }
 
+    /** Hand the task to the shared fetch executor.
+    */
+    public void start()
+    {
+      fetchExecutor.execute(this);
+    }
+
+    /** Interrupt the task, if it is running.  A task that has not yet started will not do anything
+    * when it does.
+    */
+    public synchronized void interrupt()
+    {
+      interrupted = true;
+      abortThread = true;
+      if (runThread != null)
+        runThread.interrupt();
+    }
+
+    @Override
     public void run()
+    {
+      synchronized (this)
+      {
+        runThread = Thread.currentThread();
+        // Honor an interruption that happened before we got a thread
+        if (interrupted)
+          runThread.interrupt();
+      }
+      try
+      {
+        runTask();
+      }
+      finally
+      {
+        synchronized (this)
+        {
+          // Clear any interruption we caused before the thread goes back to the pool
+          runThread = null;
+          Thread.interrupted();
+          done = true;
+          notifyAll();
+        }
+      }
+    }
+
+    protected void runTask()
     {
       try
       {
@@ -1715,7 +1759,11 @@ public class ThrottledFetcher
     public void finishUp()
       throws InterruptedException
     {
-      join();
+      synchronized (this)
+      {
+        while (!done)
+          wait();
+      }
     }
     
     protected synchronized void checkException(Throwable exception)
@@ -1834,6 +1882,21 @@ public class ThrottledFetcher
 
   }
 
+  /** Thread factory for the shared fetch executor.
+  */
+  protected static class FetchThreadFactory implements ThreadFactory
+  {
+    protected final AtomicInteger threadNumber = new AtomicInteger(0);
+
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r,"Web fetch thread "+threadNumber.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
   /** Connection pool key */
   protected static class ConnectionPoolKey
   {
@@ -1985,6 +2048,11 @@ public class ThrottledFetcher
 
     /** The actual pool of connections */
     protected final List<IThrottledConnection> connections = new ArrayList<IThrottledConnection>();
+    /** Number of connections handed out, or being waited for, and not yet released.  Guarded by connections. */
+    protected int outstandingCount = 0;
+    /** The http connection manager shared by all the connections, so that sockets are kept alive and reused
+    * across them */
+    protected final PoolingHttpClientConnectionManager connManager;
     
     public ConnectionPool(IConnectionThrottler connectionThrottler,
       String protocol,
@@ -2008,12 +2076,76 @@ public class ThrottledFetcher
       this.proxyAuthPassword = proxyAuthPassword;
       this.socketTimeoutMilliseconds = socketTimeoutMilliseconds;
       this.connectionTimeoutMilliseconds = connectionTimeoutMilliseconds;
+
+      SSLConnectionSocketFactory myFactory = new SSLConnectionSocketFactory(new InterruptibleSocketFactory(baseFactory,connectionTimeoutMilliseconds),
+        NoopHostnameVerifier.INSTANCE);
+      connManager = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
+        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+        .register("https", myFactory)
+        .build());
+      // Each connection has at most one request in flight, and the connection throttler already limits
+      // the number of connections per bin, so the manager itself should not impose another limit.
+      connManager.setMaxTotal(Integer.MAX_VALUE);
+      connManager.setDefaultMaxPerRoute(Integer.MAX_VALUE);
+      connManager.setValidateAfterInactivity(60000);
+      connManager.setDefaultSocketConfig(SocketConfig.custom()
+        .setTcpNoDelay(true)
+        .setSoTimeout(socketTimeoutMilliseconds)
+        .build());
+    }
+
+    /** Get the http connection manager for the pool.
+    */
+    public HttpClientConnectionManager getConnectionManager()
+    {
+      return connManager;
+    }
+
+    /** Note that a connection is about to be grabbed from this pool.  Call this with the
+    * connectionPools monitor held, before grab().
+    */
+    public void reserve()
+    {
+      synchronized (connections)
+      {
+        outstandingCount++;
+      }
+    }
+
+    /** Undo a reservation that did not result in a connection.
+    */
+    protected void unreserve()
+    {
+      synchronized (connections)
+      {
+        outstandingCount--;
+      }
+    }
+
+    /** Check whether the pool has neither pooled nor outstanding connections.  Call this with
+    * the connectionPools monitor held.
+    */
+    public boolean isUnused()
+    {
+      synchronized (connections)
+      {
+        return outstandingCount == 0 && connections.size() == 0;
+      }
+    }
+
+    /** Shut down the pool's http connection manager, closing any sockets it still holds.
+    * Call this only once the pool has been removed from connectionPools.
+    */
+    public void shutdown()
+    {
+      connManager.shutdown();
     }
     
     public IThrottledConnection grab(IAbortActivity activities)
       throws ManifoldCFException, ServiceInterruption
     {
       AbortChecker abortCheck = new AbortChecker(activities);
+      boolean succeeded = false;
       try
       {
         // Wait for a connection
@@ -2038,6 +2170,7 @@ public class ThrottledFetcher
         else
           throw new IllegalStateException("Unexpected return value from waitConnectionAvailable(): "+result);
         connection.setAbortChecker(abortCheck);
+        succeeded = true;
         return connection;
       }
       catch (InterruptedException e)
@@ -2049,6 +2182,11 @@ public class ThrottledFetcher
         abortCheck.rethrowExceptions();
         return null;
       }
+      finally
+      {
+        if (!succeeded)
+          unreserve();
+      }
     }
     
     public void release(IThrottledConnection connection)
@@ -2058,6 +2196,7 @@ public class ThrottledFetcher
         // Destroy this connection
         connection.destroy();
         connectionThrottler.noteConnectionDestroyed();
+        unreserve();
       }
       else
       {
@@ -2066,6 +2205,7 @@ public class ThrottledFetcher
         synchronized (connections)
         {
           connections.add(connection);
+          outstandingCount--;
         }
         connectionThrottler.noteConnectionReturnedToPool();
       }
@@ -2073,6 +2213,10 @@ public class ThrottledFetcher
     
     public void flushIdleConnections()
     {
+      // Close sockets that nobody has used for a while
+      connManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+      connManager.closeExpiredConnections();
+
       long currentTime = System.currentTimeMillis();
       // First, remove connections that are over the quota
       while (connectionThrottler.checkDestroyPooledConnection())
@@ -43,12 +43,21 @@ public class MockWebService
   }
   
   public MockWebService(int docsPerLevel, int maxLevels, boolean generateBadPages)
+  {
+    this(docsPerLevel, maxLevels, generateBadPages, 0L);
+  }
+
+  /** Constructor.
+  *@param responseDelay is the time, in milliseconds, that each page takes to begin, and again to finish,
+  * so that the service behaves like a slow host.
+  */
+  public MockWebService(int docsPerLevel, int maxLevels, boolean generateBadPages, long responseDelay)
   {
     server = new Server(new QueuedThreadPool(100));
     ServerConnector connector = new ServerConnector(server);
     connector.setPort(8191);
     server.addConnector(connector);
-    servlet = new WebServlet(docsPerLevel, maxLevels, generateBadPages);
+    servlet = new WebServlet(docsPerLevel, maxLevels, generateBadPages, responseDelay);
     ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
     context.setContextPath("/web");
     server.setHandler(context);
@@ -71,12 +80,14 @@ public class MockWebService
     final int docsPerLevel;
     final int maxLevels;
     final boolean generateBadPages;
+    final long responseDelay;
     
-    public WebServlet(int docsPerLevel, int maxLevels, boolean generateBadPages)
+    public WebServlet(int docsPerLevel, int maxLevels, boolean generateBadPages, long responseDelay)
     {
       this.docsPerLevel = docsPerLevel;
       this.maxLevels = maxLevels;
       this.generateBadPages = generateBadPages;
+      this.responseDelay = responseDelay;
     }
     
     @Override
@@ -131,6 +142,9 @@ public class MockWebService
           // Not legal
           throw new IOException("Doc number too big: "+theItem+" ; level "+theLevel+" ; docsPerLevel "+docsPerLevel);
 
+        // Be slow to answer
+        pause();
+
         // Generate the page
         if (generateBadPages && (theItem % 2) == 1)
         {
@@ -152,6 +166,13 @@ public class MockWebService
 
           res.getWriter().printf("This is doc number "+theItem+" and level number "+theLevel+" in site "+site+"\n");
 
+          // Be slow to finish, too, so the body trickles in
+          if (responseDelay > 0L)
+          {
+            res.getWriter().flush();
+            pause();
+          }
+
           // Generate links to all parents
           int parentLevel = theLevel;
           int parentItem = theItem;
@@ -190,6 +211,22 @@ public class MockWebService
       }
     }
     
+    protected void pause()
+      throws IOException
+    {
+      if (responseDelay > 0L)
+      {
+        try
+        {
+          Thread.sleep(responseDelay);
+        }
+        catch (InterruptedException e)
+        {
+          throw new InterruptedIOException(e.getMessage());
+        }
+      }
+    }
+
     protected void generateLink(HttpServletResponse res, String site, int level, int item)
       throws IOException
     {
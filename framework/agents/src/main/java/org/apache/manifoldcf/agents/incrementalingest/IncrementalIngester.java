@@ -75,6 +75,9 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
   protected final static String lastIngestField = "lastingest";
   protected final static String authorityNameField = "authorityname";
 
+  /** Property giving the largest document stream, in bytes, kept in memory when a pipeline splits */
+  protected final static String maxInMemorySizeProperty = "org.apache.manifoldcf.pipeline.maxinmemorysize";
+
   // Thread context.
   protected final IThreadContext threadContext;
   // Lock manager.
@@ -85,6 +88,8 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
   protected final IOutputConnectorPool outputConnectorPool;
   // Transformation connector pool manager
   protected final ITransformationConnectorPool transformationConnectorPool;
+  // Largest stream kept in memory when copying a document for a pipeline split
+  protected final int maxInMemorySize;
   
   /** Constructor.
   */
@@ -97,6 +102,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     connectionManager = OutputConnectionManagerFactory.make(threadContext);
     outputConnectorPool = OutputConnectorPoolFactory.make(threadContext);
     transformationConnectorPool = TransformationConnectorPoolFactory.make(threadContext);
+    maxInMemorySize = LockManagerFactory.getIntProperty(threadContext,maxInMemorySizeProperty,RepositoryDocumentFactory.DEFAULT_MAX_IN_MEMORY_SIZE);
   }
 
   /** Install the incremental ingestion manager.
@@ -2812,7 +2818,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
         PipelineAddFanout pcf = new PipelineAddFanout(siblingEntryPoints,
           (parent==-1)?null:new TransformationRecordingActivity(finalActivity,
             fullSpec.getStageConnectionName(parent)),
-          finalActivity);
+          finalActivity,maxInMemorySize);
         if (parent == -1)
           return pcf;
         PipelineAddEntryPoint newEntry = new PipelineAddEntryPoint(
@@ -2959,13 +2965,21 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     protected final PipelineAddEntryPoint[] entryPoints;
     protected final IOutputHistoryActivity finalHistoryActivity;
     protected final IOutputQualifyActivity finalQualifyActivity;
+    protected final int maxInMemorySize;
 
     public PipelineAddFanout(PipelineAddEntryPoint[] entryPoints, IOutputHistoryActivity finalHistoryActivity,
       IOutputQualifyActivity finalQualifyActivity)
+    {
+      this(entryPoints,finalHistoryActivity,finalQualifyActivity,RepositoryDocumentFactory.DEFAULT_MAX_IN_MEMORY_SIZE);
+    }
+
+    public PipelineAddFanout(PipelineAddEntryPoint[] entryPoints, IOutputHistoryActivity finalHistoryActivity,
+      IOutputQualifyActivity finalQualifyActivity, int maxInMemorySize)
     {
       this.entryPoints = entryPoints;
       this.finalHistoryActivity = finalHistoryActivity;
       this.finalQualifyActivity = finalQualifyActivity;
+      this.maxInMemorySize = maxInMemorySize;
     }
     
     public boolean checkNeedToReindex()
@@ -3077,7 +3091,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
       else
       {
         // Create a RepositoryDocumentFactory, which we'll need to clean up at the end.
-        RepositoryDocumentFactory factory = new RepositoryDocumentFactory(document);
+        RepositoryDocumentFactory factory = new RepositoryDocumentFactory(document,maxInMemorySize);
         try
         {
           // If any of them accept the document, we return "accept".
@@ -28,6 +28,9 @@ import java.io.*;
 /** This class accepts a RepositoryDocument in its constructor, and then
 * allows multiple copies to me made, as part of a split in the pipeline.
 * It must be closed in order to release all temporary resources.
+* The binary stream and each Reader are copied once, and every copy made by createDocument()
+* reads from that same saved data.  Data smaller than the in-memory limit is kept in a byte
+* array, so small documents never touch the disk.
 */
 public class RepositoryDocumentFactory
 {
@@ -37,6 +40,9 @@ public class RepositoryDocumentFactory
   // (2) All metadata values that are Readers
   // Everything else can be pulled out of the original RepositoryDocument
   
+  /** Default largest binary or character datum kept in memory rather than in a temporary file */
+  public final static int DEFAULT_MAX_IN_MEMORY_SIZE = 262144;
+
   protected final RepositoryDocument original;
 
   // The binary stream file and stream (if any)
@@ -54,11 +60,25 @@ public class RepositoryDocumentFactory
   */
   public RepositoryDocumentFactory(RepositoryDocument document)
     throws ManifoldCFException, IOException
+  {
+    this(document,DEFAULT_MAX_IN_MEMORY_SIZE);
+  }
+
+  /** Constructor.
+  * Pass a RepositoryDocument.  This constructor reads all streams and stores them in
+  * memory, or in a temporary local location if they are too large.
+  * If there is an error reading the streams, an IOException will be thrown.  Otherwise,
+  * a ManifoldCFException will be thrown instead.
+  *@param document is the repository document to read.
+  *@param maxInMemorySize is the size, in bytes, below which a stream is kept in memory.
+  */
+  public RepositoryDocumentFactory(RepositoryDocument document, int maxInMemorySize)
+    throws ManifoldCFException, IOException
   {
     this.original = document;
     try
     {
-      this.binaryTracker = new TempFileInput(document.getBinaryStream());
+      this.binaryTracker = new TempFileInput(document.getBinaryStream(),-1L,maxInMemorySize);
       // Copy all reader streams
       Iterator<String> iter = document.getFields();
       while (iter.hasNext())
@@ -72,7 +92,7 @@ public class RepositoryDocumentFactory
           // Populate newValues
           for (int i = 0; i < newValues.length; i++)
           {
-            newValues[i] = new TempFileCharacterInput((Reader)objects[i]);
+            newValues[i] = new TempFileCharacterInput((Reader)objects[i],-1L,maxInMemorySize);
           }
         }
       }
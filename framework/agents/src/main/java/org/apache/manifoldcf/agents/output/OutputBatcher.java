@@ -0,0 +1,431 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.output;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+
+import java.util.*;
+
+/** This class lets an output connector coalesce documents from concurrent addOrReplaceDocumentWithException()
+* calls into multi-document requests, while each call still gets its own per-document result.
+*
+* Each worker thread wraps its (already serialized) document in a BatchItem and calls execute().  If a request
+* slot is free, the caller becomes the sender for everything pending, its own document included.  Otherwise it
+* waits; documents that arrive while every slot is busy pile up and go out together in the next request.  So
+* there is no added latency when the output is idle, and batches grow only as the output falls behind.
+*
+* The sender completes each item by calling complete() or fail() on it.  When execute() returns, the caller
+* has the outcome for its own document, and records its own activity history and returns its own status,
+* exactly as it would for a single-document request.
+*
+* The batch is sent using whatever IBatchSender the caller that ends up sending it passed in, so a connector
+* can keep one OutputBatcher per target (shared by all its pooled instances) and hand in a sender bound
+* to its own connection.  SharedBatchers keeps such per-target batchers, and forgets each one once the last
+* connector instance using it has released it.
+*/
+public class OutputBatcher<T>
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Item states */
+  protected final static int STATE_NEW = 0;
+  protected final static int STATE_PENDING = 1;
+  protected final static int STATE_SENDING = 2;
+  protected final static int STATE_DONE = 3;
+
+  /** Maximum number of documents per request */
+  protected final int maxBatchSize;
+  /** Maximum total item size per request */
+  protected final long maxBatchBytes;
+  /** Maximum number of requests in flight at once */
+  protected final int maxInFlight;
+
+  /** Items waiting to be sent, in arrival order */
+  protected final LinkedList<BatchItem<T>> pending = new LinkedList<BatchItem<T>>();
+  /** Number of requests currently in flight */
+  protected int inFlight = 0;
+
+  /** Constructor.
+  *@param maxBatchSize is the maximum number of documents to put in one request.
+  *@param maxBatchBytes is the maximum total size of the items in one request.  A single item that is bigger
+  * than this is still sent, by itself.
+  *@param maxInFlight is the maximum number of requests that may be outstanding at once.
+  */
+  public OutputBatcher(int maxBatchSize, long maxBatchBytes, int maxInFlight)
+  {
+    if (maxBatchSize < 1 || maxInFlight < 1)
+      throw new IllegalArgumentException("Batch size and request count must be at least 1");
+    this.maxBatchSize = maxBatchSize;
+    this.maxBatchBytes = maxBatchBytes;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /** Send one document as part of a batch, and wait for its outcome.
+  * On return, the item's accepted flag, result code, and result description are set.
+  *@param item is the item describing the document.
+  *@param sender is the object to use to send a batch, if this thread winds up doing it.
+  */
+  public void execute(BatchItem<T> item, IBatchSender<T> sender)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    if (item.state != STATE_NEW)
+      throw new IllegalStateException("Batch item has already been submitted");
+    try
+    {
+      while (true)
+      {
+        List<BatchItem<T>> batch;
+        synchronized (this)
+        {
+          if (item.state == STATE_NEW)
+          {
+            item.state = STATE_PENDING;
+            pending.add(item);
+          }
+          while (true)
+          {
+            if (item.state == STATE_DONE)
+            {
+              item.rethrow();
+              return;
+            }
+            if (item.state == STATE_PENDING && inFlight < maxInFlight)
+              break;
+            wait();
+          }
+          batch = takeBatch();
+          inFlight++;
+        }
+        if (sendBatch(batch,sender,item))
+        {
+          // We were interrupted while sending somebody else's documents
+          synchronized (this)
+          {
+            if (item.state == STATE_PENDING)
+            {
+              pending.remove(item);
+              item.state = STATE_NEW;
+            }
+          }
+          throw new ManifoldCFException("Interrupted",ManifoldCFException.INTERRUPTED);
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+      synchronized (this)
+      {
+        if (item.state == STATE_PENDING)
+        {
+          pending.remove(item);
+          item.state = STATE_NEW;
+        }
+      }
+      throw new ManifoldCFException("Interrupted: "+e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+    }
+  }
+
+  /** Get the number of documents waiting to be sent. */
+  public synchronized int getPendingCount()
+  {
+    return pending.size();
+  }
+
+  /** Take the next batch from the pending list.  Call this only while synchronized. */
+  protected List<BatchItem<T>> takeBatch()
+  {
+    List<BatchItem<T>> batch = new ArrayList<BatchItem<T>>();
+    long batchBytes = 0L;
+    while (!pending.isEmpty() && batch.size() < maxBatchSize)
+    {
+      BatchItem<T> next = pending.getFirst();
+      if (batch.size() > 0 && batchBytes + next.size > maxBatchBytes)
+        break;
+      pending.removeFirst();
+      next.state = STATE_SENDING;
+      batchBytes += next.size;
+      batch.add(next);
+    }
+    return batch;
+  }
+
+  /** Send a batch and complete its items.
+  *@return true if the sending thread was interrupted.  In that case, the items belonging to other threads
+  * are put back at the head of the pending list, so that somebody else sends them.
+  */
+  protected boolean sendBatch(List<BatchItem<T>> batch, IBatchSender<T> sender, BatchItem<T> ownItem)
+  {
+    Throwable failure = null;
+    boolean interrupted = false;
+    try
+    {
+      sender.sendBatch(batch);
+    }
+    catch (ManifoldCFException e)
+    {
+      if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+        interrupted = true;
+      failure = e;
+    }
+    catch (ServiceInterruption e)
+    {
+      failure = e;
+    }
+    catch (RuntimeException e)
+    {
+      failure = e;
+    }
+    catch (Error e)
+    {
+      failure = e;
+    }
+
+    synchronized (this)
+    {
+      inFlight--;
+      List<BatchItem<T>> requeue = new ArrayList<BatchItem<T>>();
+      for (BatchItem<T> bi : batch)
+      {
+        if (interrupted && bi != ownItem)
+        {
+          bi.reset();
+          bi.state = STATE_PENDING;
+          requeue.add(bi);
+          continue;
+        }
+        // An item's own outcome wins over a failure of the request as a whole
+        if (!bi.hasOutcome())
+        {
+          if (failure != null)
+            bi.fail(failure);
+          else
+            bi.fail(new ManifoldCFException("Batch sender did not report a result for a document"));
+        }
+        bi.state = STATE_DONE;
+      }
+      pending.addAll(0,requeue);
+      notifyAll();
+    }
+    return interrupted;
+  }
+
+  /** A set of batchers shared by key (typically one per output target), each with a count of the connector
+  * instances holding it.  A batcher is dropped once its count reaches zero, so targets that are no longer
+  * written to do not accumulate.
+  */
+  public static class SharedBatchers<T>
+  {
+    /** Batchers, and their reference counts, by key */
+    protected final Map<String,SharedBatcher<T>> batchers = new HashMap<String,SharedBatcher<T>>();
+
+    /** Get the batcher for a key, creating it if there is none, and count a reference to it.  Every call
+    * must be matched by a call to release().
+    *@param key describes the target.
+    *@param maxBatchSize is the maximum number of documents per request, if a batcher is created.
+    *@param maxBatchBytes is the maximum total item size per request, if a batcher is created.
+    *@param maxInFlight is the maximum number of requests outstanding at once, if a batcher is created.
+    *@return the batcher.
+    */
+    public synchronized OutputBatcher<T> acquire(String key, int maxBatchSize, long maxBatchBytes, int maxInFlight)
+    {
+      SharedBatcher<T> sb = batchers.get(key);
+      if (sb == null)
+      {
+        sb = new SharedBatcher<T>(new OutputBatcher<T>(maxBatchSize,maxBatchBytes,maxInFlight));
+        batchers.put(key,sb);
+      }
+      sb.referenceCount++;
+      return sb.batcher;
+    }
+
+    /** Release a reference obtained with acquire().
+    *@param key describes the target.
+    */
+    public synchronized void release(String key)
+    {
+      SharedBatcher<T> sb = batchers.get(key);
+      if (sb == null)
+        return;
+      if (--sb.referenceCount == 0)
+        batchers.remove(key);
+    }
+
+    /** Get the number of batchers currently held.
+    */
+    public synchronized int size()
+    {
+      return batchers.size();
+    }
+  }
+
+  /** A shared batcher and its reference count */
+  protected static class SharedBatcher<T>
+  {
+    protected final OutputBatcher<T> batcher;
+    protected int referenceCount = 0;
+
+    public SharedBatcher(OutputBatcher<T> batcher)
+    {
+      this.batcher = batcher;
+    }
+  }
+
+  /** A connector implements this to send one multi-document request.
+  */
+  public interface IBatchSender<T>
+  {
+    /** Send a batch of documents.  Call complete() or fail() on each item as its outcome becomes known.
+    * Throwing an exception fails every item that has not been given an outcome.
+    *@param batch is the list of items, in the order they should be sent.
+    */
+    public void sendBatch(List<BatchItem<T>> batch)
+      throws ManifoldCFException, ServiceInterruption;
+  }
+
+  /** One document in a batch, along with its eventual outcome.
+  */
+  public static class BatchItem<T>
+  {
+    /** The document, in whatever form the sender needs */
+    protected final T payload;
+    /** The size of the payload, for limiting the size of a request */
+    protected final long size;
+
+    /** State, protected by the batcher's monitor */
+    protected int state = STATE_NEW;
+
+    // The outcome
+    protected boolean hasOutcome = false;
+    protected boolean accepted = false;
+    protected String resultCode = null;
+    protected String resultDescription = null;
+    protected Throwable exception = null;
+
+    /** Constructor.
+    *@param payload is the document, in whatever form the sender needs.
+    *@param size is the size of the payload.
+    */
+    public BatchItem(T payload, long size)
+    {
+      this.payload = payload;
+      this.size = size;
+    }
+
+    public T getPayload()
+    {
+      return payload;
+    }
+
+    public long getSize()
+    {
+      return size;
+    }
+
+    /** Note that the document was handled by the target.
+    *@param accepted is true if the document was indexed, false if the target rejected it.
+    *@param resultCode is the result code to record in the activity history.
+    *@param resultDescription is the result description to record, or null.
+    */
+    public void complete(boolean accepted, String resultCode, String resultDescription)
+    {
+      this.hasOutcome = true;
+      this.accepted = accepted;
+      this.resultCode = resultCode;
+      this.resultDescription = resultDescription;
+    }
+
+    /** Note that the document could not be handled.  The exception will be thrown to the thread
+    * that submitted the document.
+    *@param exception is the exception, normally a ManifoldCFException or a ServiceInterruption.
+    *@param resultCode is the result code to record in the activity history, or null.
+    *@param resultDescription is the result description to record, or null.
+    */
+    public void fail(Throwable exception, String resultCode, String resultDescription)
+    {
+      this.hasOutcome = true;
+      this.accepted = false;
+      this.exception = exception;
+      this.resultCode = resultCode;
+      this.resultDescription = resultDescription;
+    }
+
+    /** Note that the document could not be handled, keeping any result code already set.
+    */
+    public void fail(Throwable exception)
+    {
+      fail(exception,resultCode,resultDescription);
+    }
+
+    /** Set the result code and description to record, without deciding the outcome yet.
+    */
+    public void setResult(String resultCode, String resultDescription)
+    {
+      this.resultCode = resultCode;
+      this.resultDescription = resultDescription;
+    }
+
+    public boolean isAccepted()
+    {
+      return accepted;
+    }
+
+    public String getResultCode()
+    {
+      return resultCode;
+    }
+
+    public String getResultDescription()
+    {
+      return resultDescription;
+    }
+
+    protected boolean hasOutcome()
+    {
+      return hasOutcome;
+    }
+
+    protected void reset()
+    {
+      hasOutcome = false;
+      accepted = false;
+      resultCode = null;
+      resultDescription = null;
+      exception = null;
+    }
+
+    protected void rethrow()
+      throws ManifoldCFException, ServiceInterruption
+    {
+      Throwable e = exception;
+      if (e == null)
+        return;
+      if (e instanceof ManifoldCFException)
+        throw (ManifoldCFException)e;
+      if (e instanceof ServiceInterruption)
+        throw (ServiceInterruption)e;
+      if (e instanceof RuntimeException)
+        throw (RuntimeException)e;
+      if (e instanceof Error)
+        throw (Error)e;
+      throw new ManifoldCFException("Unexpected exception sending batch: "+e.getMessage(),e);
+    }
+  }
+
+}
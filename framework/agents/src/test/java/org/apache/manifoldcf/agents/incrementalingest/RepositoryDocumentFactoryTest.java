@@ -0,0 +1,99 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.incrementalingest;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+import java.io.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class RepositoryDocumentFactoryTest
+{
+
+  @Test
+  public void copiesReplayTheSameData()
+    throws Exception
+  {
+    // Below the in-memory limit, so no temporary file (and no ManifoldCF file tracking) is involved
+    byte[] data = new byte[100000];
+    new Random(1L).nextBytes(data);
+    char[] text = new char[50000];
+    Arrays.fill(text,'x');
+    String textValue = new String(text);
+
+    RepositoryDocument original = new RepositoryDocument();
+    original.setBinary(new ByteArrayInputStream(data),(long)data.length);
+    original.setMimeType("application/octet-stream");
+    original.addField("body",new Reader[]{new StringReader(textValue)});
+    original.addField("title",new String[]{"t"});
+
+    RepositoryDocumentFactory factory = new RepositoryDocumentFactory(original,200000);
+    try
+    {
+      for (int i = 0; i < 3; i++)
+      {
+        RepositoryDocument copy = factory.createDocument();
+        assertEquals((long)data.length,copy.getBinaryLength());
+        assertEquals("application/octet-stream",copy.getMimeType());
+        assertArrayEquals(data,readAll(copy.getBinaryStream()));
+        Reader[] readers = (Reader[])copy.getField("body");
+        assertEquals(1,readers.length);
+        assertEquals(textValue,readAll(readers[0]));
+        assertArrayEquals(new String[]{"t"},copy.getFieldAsStrings("title"));
+      }
+    }
+    finally
+    {
+      factory.close();
+    }
+  }
+
+  protected static byte[] readAll(InputStream is)
+    throws IOException
+  {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    while (true)
+    {
+      int amt = is.read(buffer);
+      if (amt == -1)
+        break;
+      os.write(buffer,0,amt);
+    }
+    return os.toByteArray();
+  }
+
+  protected static String readAll(Reader r)
+    throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    char[] buffer = new char[4096];
+    while (true)
+    {
+      int amt = r.read(buffer);
+      if (amt == -1)
+        break;
+      sb.append(buffer,0,amt);
+    }
+    return sb.toString();
+  }
+
+}
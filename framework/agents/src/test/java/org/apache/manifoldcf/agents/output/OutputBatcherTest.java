@@ -0,0 +1,180 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.output;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class OutputBatcherTest
+{
+
+  @Test
+  public void coalescesUnderLoadWithPerDocumentResults()
+    throws Exception
+  {
+    final OutputBatcher<Integer> batcher = new OutputBatcher<Integer>(50,Long.MAX_VALUE,2);
+    final AtomicInteger requests = new AtomicInteger(0);
+    final AtomicInteger maxInFlight = new AtomicInteger(0);
+    final AtomicInteger inFlight = new AtomicInteger(0);
+    // Rejects odd documents, and takes a while, like a real request
+    final OutputBatcher.IBatchSender<Integer> sender = new OutputBatcher.IBatchSender<Integer>()
+      {
+        public void sendBatch(List<OutputBatcher.BatchItem<Integer>> batch)
+          throws ManifoldCFException, ServiceInterruption
+        {
+          int current = inFlight.incrementAndGet();
+          synchronized (maxInFlight)
+          {
+            if (current > maxInFlight.get())
+              maxInFlight.set(current);
+          }
+          requests.incrementAndGet();
+          try
+          {
+            Thread.sleep(5L);
+          }
+          catch (InterruptedException e)
+          {
+            throw new ManifoldCFException("Interrupted",ManifoldCFException.INTERRUPTED);
+          }
+          for (OutputBatcher.BatchItem<Integer> item : batch)
+          {
+            boolean even = (item.getPayload().intValue() % 2) == 0;
+            item.complete(even,even?"OK":"REJECTED",null);
+          }
+          inFlight.decrementAndGet();
+        }
+      };
+
+    final int threadCount = 20;
+    final int perThread = 25;
+    final AtomicInteger wrong = new AtomicInteger(0);
+    Thread[] threads = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++)
+    {
+      final int base = t * perThread;
+      threads[t] = new Thread()
+        {
+          public void run()
+          {
+            try
+            {
+              for (int i = 0; i < perThread; i++)
+              {
+                int value = base + i;
+                OutputBatcher.BatchItem<Integer> item = new OutputBatcher.BatchItem<Integer>(value,1L);
+                batcher.execute(item,sender);
+                if (item.isAccepted() != ((value % 2) == 0))
+                  wrong.incrementAndGet();
+              }
+            }
+            catch (Exception e)
+            {
+              wrong.incrementAndGet();
+            }
+          }
+        };
+      threads[t].start();
+    }
+    for (Thread t : threads)
+    {
+      t.join();
+    }
+    assertEquals(0,wrong.get());
+    assertTrue(maxInFlight.get() <= 2);
+    // With twenty threads and two request slots, documents must have shared requests
+    assertTrue(requests.get() < threadCount * perThread);
+    assertEquals(0,batcher.getPendingCount());
+  }
+
+  @Test
+  public void requestFailureGoesToEveryDocument()
+    throws Exception
+  {
+    OutputBatcher<String> batcher = new OutputBatcher<String>(10,Long.MAX_VALUE,1);
+    OutputBatcher.BatchItem<String> item = new OutputBatcher.BatchItem<String>("doc",3L);
+    try
+    {
+      batcher.execute(item,new OutputBatcher.IBatchSender<String>()
+        {
+          public void sendBatch(List<OutputBatcher.BatchItem<String>> batch)
+            throws ManifoldCFException, ServiceInterruption
+          {
+            for (OutputBatcher.BatchItem<String> bi : batch)
+            {
+              bi.setResult("HTTPERROR","down");
+            }
+            throw new ServiceInterruption("down",0L);
+          }
+        });
+      fail("Should have thrown");
+    }
+    catch (ServiceInterruption e)
+    {
+      assertEquals("HTTPERROR",item.getResultCode());
+      assertFalse(item.isAccepted());
+    }
+  }
+
+  @Test
+  public void oversizedDocumentGoesAlone()
+    throws Exception
+  {
+    final List<Integer> batchSizes = new ArrayList<Integer>();
+    OutputBatcher<String> batcher = new OutputBatcher<String>(10,100L,1);
+    OutputBatcher.BatchItem<String> item = new OutputBatcher.BatchItem<String>("big",1000L);
+    batcher.execute(item,new OutputBatcher.IBatchSender<String>()
+      {
+        public void sendBatch(List<OutputBatcher.BatchItem<String>> batch)
+        {
+          batchSizes.add(batch.size());
+          for (OutputBatcher.BatchItem<String> bi : batch)
+          {
+            bi.complete(true,"OK",null);
+          }
+        }
+      });
+    assertTrue(item.isAccepted());
+    assertEquals(Arrays.asList(1),batchSizes);
+  }
+
+  @Test
+  public void sharedBatchersAreDroppedWhenReleased()
+    throws Exception
+  {
+    OutputBatcher.SharedBatchers<String> shared = new OutputBatcher.SharedBatchers<String>();
+    OutputBatcher<String> first = shared.acquire("a",10,100L,1);
+    assertSame(first,shared.acquire("a",10,100L,1));
+    assertNotSame(first,shared.acquire("b",10,100L,1));
+    assertEquals(2,shared.size());
+    shared.release("a");
+    // Still held by the second connector instance
+    assertSame(first,shared.acquire("a",10,100L,1));
+    shared.release("a");
+    shared.release("a");
+    shared.release("b");
+    assertEquals(0,shared.size());
+    assertNotSame(first,shared.acquire("a",10,100L,1));
+  }
+
+}
@@ -191,6 +191,10 @@ public class UserACLServlet extends HttpServlet
       }
 
       
+      // Past the deadline, we stop waiting for answers and report the authorities that haven't answered as unreachable
+      long requestTimeout = ManifoldCF.getRequestTimeout();
+      long deadline = (requestTimeout == 0L)?Long.MAX_VALUE:(System.currentTimeMillis() + requestTimeout);
+
       IThreadContext itc = ThreadContextFactory.make();
       
       IMappingConnectionManager mappingConnManager = MappingConnectionManagerFactory.make(itc);
@@ -199,10 +203,10 @@ public class UserACLServlet extends HttpServlet
       // Get all mapping connections; we may not need them all but we do need to be able to look them all up
       IMappingConnection[] mappingConnections = mappingConnManager.getAllConnections();
       
-      // One thread per connection, which is responsible for starting the mapping process when it is ready.
-      List<MappingOrderThread> mappingThreads = new ArrayList<MappingOrderThread>();
-      // One thread per authority, which is responsible for starting the auth request when it is ready.
-      List<AuthOrderThread> authThreads = new ArrayList<AuthOrderThread>();
+      // Mapping requests that must wait for a prerequisite mapping, which start them when it completes.
+      List<MappingOrderListener> mappingListeners = new ArrayList<MappingOrderListener>();
+      // Authority requests that must wait for a prerequisite mapping, which start them when it completes.
+      List<AuthOrderListener> authListeners = new ArrayList<AuthOrderListener>();
 
       Map<MapperDescription,MappingRequest> mappingRequests = new HashMap<MapperDescription,MappingRequest>();
       Map<String,AuthRequest> authRequests = new HashMap<String,AuthRequest>();
@@ -236,7 +240,7 @@ public class UserACLServlet extends HttpServlet
           AuthRequest ar = new AuthRequest(thisConnection,identifyingString);
           authRequests.put(thisConnection.getName(), ar);
           
-          // We create an auth thread if there are prerequisites to meet.
+          // We wait for the prerequisite mapping if there is one.
           // Otherwise, we just fire off the request
           String domainUserID = domainMap.get(authDomain);
           if (thisConnection.getPrerequisiteMapping() == null)
@@ -247,10 +251,7 @@ public class UserACLServlet extends HttpServlet
           else
           {
             MapperDescription md = new MapperDescription(thisConnection.getPrerequisiteMapping(),authDomain);
-            AuthOrderThread thread = new AuthOrderThread(identifyingString,
-              ar, md,
-              queue, mappingRequests);
-            authThreads.add(thread);
+            authListeners.add(new AuthOrderListener(ar, md, queue, mappingRequests));
             // The same mapper can be used for multiple domains, although this is likely to be uncommon.  Nevertheless,
             // mapper invocations need to be segregated to prevent trouble
             activeConnections.add(md);
@@ -274,7 +275,7 @@ public class UserACLServlet extends HttpServlet
         MappingRequest mr = new MappingRequest(thisConnection,identifyingString);
         mappingRequests.put(mapperDesc, mr);
 
-        // Either start up a thread, or just fire it off immediately.
+        // Either wait for the prerequisite, or just fire it off immediately.
         if (thisConnection.getPrerequisiteMapping() == null)
         {
           mr.setUserID(domainMap.get(authDomain));
@@ -284,40 +285,32 @@ public class UserACLServlet extends HttpServlet
         {
           //System.out.println("Mapper: prerequisite found: '"+thisConnection.getPrerequisiteMapping()+"'");
           MapperDescription p = new MapperDescription(thisConnection.getPrerequisiteMapping(),authDomain);
-          MappingOrderThread thread = new MappingOrderThread(identifyingString,
-            mr, p, mappingQueue, mappingRequests);
-          mappingThreads.add(thread);
+          mappingListeners.add(new MappingOrderListener(mr, p, mappingQueue, mappingRequests));
           if (mappingRequests.get(p) == null)
             activeConnections.add(p);
         }
         activeConnections.remove(mapperDesc);
       }
       
-      // Start threads.  We have to wait until all the requests have been
-      // at least created before we do this.
-      for (MappingOrderThread thread : mappingThreads)
+      // Hook up the dependent requests.  We have to wait until all the requests have been
+      // at least created before we do this.  A request whose prerequisite is already done is queued right here.
+      for (MappingOrderListener listener : mappingListeners)
       {
-        thread.start();
+        mappingRequests.get(listener.prerequisite).addCompletionListener(listener);
       }
-      for (AuthOrderThread thread : authThreads)
+      for (AuthOrderListener listener : authListeners)
       {
-        thread.start();
+        mappingRequests.get(listener.prerequisite).addCompletionListener(listener);
       }
       
-      // Wait for the threads to finish up.  This will guarantee that all entities have run to completion.
-      for (MappingOrderThread thread : mappingThreads)
-      {
-        thread.finishUp();
-      }
-      for (AuthOrderThread thread : authThreads)
-      {
-        thread.finishUp();
-      }
-      
-      // This is probably unnecessary, but we do it anyway just to adhere to the contract
+      // Wait for the mappings to finish up, or the deadline, whichever comes first.
       for (MappingRequest mr : mappingRequests.values())
       {
-        mr.waitForComplete();
+        if (!mr.waitForComplete(deadline))
+        {
+          Logging.authorityService.warn("Mapper "+mr.getIdentifyingString()+" did not answer in time; mapper abandoned");
+          mr.abandon();
+        }
       }
       
       // Handle all exceptions thrown during mapping.  In general this just means logging them, because
@@ -347,7 +340,14 @@ public class UserACLServlet extends HttpServlet
           if (Logging.authorityService.isDebugEnabled())
             Logging.authorityService.debug("Waiting for answer from authority connection "+ar.getIdentifyingString()+" for user '"+ar.getUserID()+"'");
 
-          ar.waitForComplete();
+          if (!ar.waitForComplete(deadline))
+          {
+            // Nobody wants the answer now, so don't let it use up a connector if it hasn't started
+            ar.abandon();
+            Logging.authorityService.warn("Authority '"+ar.getIdentifyingString()+"' did not answer in time for user '"+ar.getUserID()+"'");
+            sb.append(UNREACHABLE_VALUE).append(URLEncoder.encode(ar.getIdentifyingString())).append("\n");
+            continue;
+          }
 
           if (Logging.authorityService.isDebugEnabled())
             Logging.authorityService.debug("Received answer from authority connection "+ar.getIdentifyingString()+" for user '"+ar.getUserID()+"'");
@@ -481,128 +481,68 @@ public class UserACLServlet extends HttpServlet
     }
   }
   
-  /** This thread is responsible for making sure that the constraints for a given mapping connection
-  * are met, and then when they are, firing off a MappingRequest.  One of these threads is spun up
-  * for every IMappingConnection being handled.
-  * NOTE WELL: The number of threads this might require is worrisome.  It is essentially
-  * <number_of_app_server_threads> * <number_of_mappers>.  I will try later to see if I can find
-  * a way of limiting this to sane numbers.
+  /** This is run when the prerequisite of a mapping request completes, and fires off the request
+  * with the user the prerequisite mapped to.
   */
-  protected static class MappingOrderThread extends Thread
+  protected static class MappingOrderListener implements Runnable
   {
     protected final MappingRequest request;
     protected final MapperDescription prerequisite;
     protected final Map<MapperDescription,MappingRequest> requests;
     protected final RequestQueue<MappingRequest> mappingRequestQueue;
 
-    protected Throwable exception = null;
-    
-    public MappingOrderThread(
-      String identifyingString,
+    public MappingOrderListener(
       MappingRequest request,
       MapperDescription prerequisite,
       RequestQueue<MappingRequest> mappingRequestQueue,
       Map<MapperDescription, MappingRequest> requests)
     {
-      super();
       this.request = request;
       this.prerequisite = prerequisite;
       this.mappingRequestQueue = mappingRequestQueue;
       this.requests = requests;
-      setName("Constraint matcher for mapper '"+identifyingString+"'");
-      setDaemon(true);
     }
     
+    @Override
     public void run()
     {
-      try
-      {
-        MappingRequest mappingRequest = requests.get(prerequisite);
-        mappingRequest.waitForComplete();
-        // Constraints are met.  Fire off the request.
-        request.setUserID(mappingRequest.getAnswerResponse());
-        mappingRequestQueue.addRequest(request);
-      }
-      catch (Throwable e)
-      {
-        exception = e;
-      }
-    }
-
-    public void finishUp()
-      throws InterruptedException
-    {
-      join();
-      if (exception != null)
-      {
-        if (exception instanceof Error)
-          throw (Error)exception;
-        else if (exception instanceof RuntimeException)
-          throw (RuntimeException)exception;
-      }
+      MappingRequest mappingRequest = requests.get(prerequisite);
+      // Constraints are met.  Fire off the request.
+      request.setUserID(mappingRequest.getAnswerResponse());
+      mappingRequestQueue.addRequest(request);
     }
     
   }
 
-  /** This thread is responsible for making sure that the constraints for a given authority connection
-  * are met, and then when they are, firing off an AuthRequest.  One of these threads is spun up
-  * for every IAuthorityConnection being handled.
-  * NOTE WELL: The number of threads this might require is worrisome.  It is essentially
-  * <number_of_app_server_threads> * <number_of_authorities>.  I will try later to see if I can find
-  * a way of limiting this to sane numbers.
+  /** This is run when the prerequisite mapping of an authority request completes, and fires off the
+  * request with the user the mapping produced.
   */
-  protected static class AuthOrderThread extends Thread
+  protected static class AuthOrderListener implements Runnable
   {
     protected final AuthRequest request;
     protected final MapperDescription prerequisite;
     protected final Map<MapperDescription,MappingRequest> mappingRequests;
     protected final RequestQueue<AuthRequest> authRequestQueue;
     
-    protected Throwable exception = null;
-    
-    public AuthOrderThread(
-      String identifyingString,
+    public AuthOrderListener(
       AuthRequest request,
       MapperDescription prerequisite,
       RequestQueue<AuthRequest> authRequestQueue,
       Map<MapperDescription, MappingRequest> mappingRequests)
     {
-      super();
       this.request = request;
       this.prerequisite = prerequisite;
       this.authRequestQueue = authRequestQueue;
       this.mappingRequests = mappingRequests;
-      setName("Constraint matcher for authority '"+identifyingString+"'");
-      setDaemon(true);
     }
     
+    @Override
     public void run()
     {
-      try
-      {
-        MappingRequest mappingRequest = mappingRequests.get(prerequisite);
-        mappingRequest.waitForComplete();
-        // Constraints are met.  Fire off the request.  User may be null if mapper failed!!
-        request.setUserID(mappingRequest.getAnswerResponse());
-        authRequestQueue.addRequest(request);
-      }
-      catch (Throwable e)
-      {
-        exception = e;
-      }
-    }
-
-    public void finishUp()
-      throws InterruptedException
-    {
-      join();
-      if (exception != null)
-      {
-        if (exception instanceof Error)
-          throw (Error)exception;
-        else if (exception instanceof RuntimeException)
-          throw (RuntimeException)exception;
-      }
+      MappingRequest mappingRequest = mappingRequests.get(prerequisite);
+      // Constraints are met.  Fire off the request.  User may be null if mapper failed!!
+      request.setUserID(mappingRequest.getAnswerResponse());
+      authRequestQueue.addRequest(request);
     }
     
   }
@@ -0,0 +1,185 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/** This class sets up a ManifoldCF environment for benchmarks that need one.  It writes a properties file
+* and a logging file to a scratch directory, and points the system at an in-memory HSQLDB instance, so
+* nothing a benchmark does touches the disk.  Benchmarks running in the same JVM share one environment; it
+* is torn down when the last of them is done with it.
+*
+* Setting the system property org.apache.manifoldcf.benchmarks.database to "postgresql" runs against a
+* PostgreSQL server instead, for benchmarks whose subject behaves differently there.  The server is given by
+* org.apache.manifoldcf.benchmarks.postgresql.hostname and .port (default localhost:5432), and the superuser
+* used to create and drop the benchmark database by .superuser and .superpassword (default postgres/postgres).
+*/
+public class BenchmarkEnvironment
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** System property selecting the database */
+  public static final String databaseProperty = "org.apache.manifoldcf.benchmarks.database";
+  /** Value of databaseProperty that selects PostgreSQL */
+  public static final String DATABASE_POSTGRESQL = "postgresql";
+
+  protected static final String postgresqlPropertyPrefix = "org.apache.manifoldcf.benchmarks.postgresql.";
+
+  protected static File scratchDirectory = null;
+  protected static int useCount = 0;
+
+  private BenchmarkEnvironment()
+  {
+  }
+
+  /** Set up the environment, if it isn't already.
+  *@return a thread context to use.
+  */
+  public static synchronized IThreadContext initialize()
+    throws Exception
+  {
+    if (useCount == 0)
+    {
+      scratchDirectory = File.createTempFile("mcf-benchmarks",null);
+      scratchDirectory.delete();
+      scratchDirectory.mkdirs();
+
+      File configFile = new File(scratchDirectory,"properties.xml");
+      File loggingFile = new File(scratchDirectory,"logging.ini");
+      File connectorFile = new File(scratchDirectory,"connectors.xml");
+
+      writeFile(loggingFile,
+        "log4j.rootLogger=WARN, MAIN\n" +
+        "log4j.appender.MAIN=org.apache.log4j.ConsoleAppender\n" +
+        "log4j.appender.MAIN.layout=org.apache.log4j.PatternLayout\n" +
+        "log4j.appender.MAIN.layout.ConversionPattern=%5p %d{ISO8601} (%t) - %m%n\n");
+      writeFile(connectorFile,
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n" +
+        "<connectors>\n" +
+        "</connectors>\n");
+      writeFile(configFile,
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n" +
+        "<configuration>\n" +
+        "  <property name=\"org.apache.manifoldcf.logconfigfile\" value=\""+forwardSlashes(loggingFile)+"\"/>\n" +
+        "  <property name=\"org.apache.manifoldcf.connectorsconfigurationfile\" value=\""+forwardSlashes(connectorFile)+"\"/>\n" +
+        getDatabaseProperties() +
+        "  <property name=\"org.apache.manifoldcf.database.maxhandles\" value=\"100\"/>\n" +
+        "</configuration>\n");
+
+      System.setProperty("org.apache.manifoldcf.configfile",configFile.getAbsolutePath());
+
+      IThreadContext tc = ThreadContextFactory.make();
+      org.apache.manifoldcf.crawler.system.ManifoldCF.initializeEnvironment(tc);
+      org.apache.manifoldcf.core.system.ManifoldCF.createSystemDatabase(tc,getSuperuserName(),getSuperuserPassword());
+    }
+    useCount++;
+    return ThreadContextFactory.make();
+  }
+
+  /** Release the environment.  Every call to initialize() must be matched by a call to this method.
+  */
+  public static synchronized void cleanUp()
+    throws Exception
+  {
+    useCount--;
+    if (useCount == 0)
+    {
+      IThreadContext tc = ThreadContextFactory.make();
+      try
+      {
+        org.apache.manifoldcf.core.system.ManifoldCF.dropSystemDatabase(tc,getSuperuserName(),getSuperuserPassword());
+      }
+      finally
+      {
+        org.apache.manifoldcf.crawler.system.ManifoldCF.cleanUpEnvironment(tc);
+        File[] files = scratchDirectory.listFiles();
+        if (files != null)
+        {
+          for (File f : files)
+          {
+            f.delete();
+          }
+        }
+        scratchDirectory.delete();
+        scratchDirectory = null;
+      }
+    }
+  }
+
+  /** Check whether the benchmarks are running against PostgreSQL.
+  */
+  public static boolean isPostgreSQL()
+  {
+    return DATABASE_POSTGRESQL.equals(System.getProperty(databaseProperty));
+  }
+
+  protected static String getDatabaseProperties()
+  {
+    if (!isPostgreSQL())
+      return
+        "  <property name=\"org.apache.manifoldcf.databaseimplementationclass\" value=\"org.apache.manifoldcf.core.database.DBInterfaceHSQLDB\"/>\n" +
+        "  <property name=\"org.apache.manifoldcf.hsqldbdatabaseprotocol\" value=\"mem\"/>\n";
+    return
+      "  <property name=\"org.apache.manifoldcf.databaseimplementationclass\" value=\"org.apache.manifoldcf.core.database.DBInterfacePostgreSQL\"/>\n" +
+      "  <property name=\"org.apache.manifoldcf.postgresql.hostname\" value=\""+System.getProperty(postgresqlPropertyPrefix+"hostname","localhost")+"\"/>\n" +
+      "  <property name=\"org.apache.manifoldcf.postgresql.port\" value=\""+System.getProperty(postgresqlPropertyPrefix+"port","5432")+"\"/>\n" +
+      "  <property name=\"org.apache.manifoldcf.database.name\" value=\"mcfbenchmarks\"/>\n" +
+      "  <property name=\"org.apache.manifoldcf.database.username\" value=\"mcfbenchmarks\"/>\n" +
+      "  <property name=\"org.apache.manifoldcf.database.password\" value=\"mcfbenchmarks\"/>\n";
+  }
+
+  protected static String getSuperuserName()
+  {
+    if (!isPostgreSQL())
+      return "";
+    return System.getProperty(postgresqlPropertyPrefix+"superuser","postgres");
+  }
+
+  protected static String getSuperuserPassword()
+  {
+    if (!isPostgreSQL())
+      return "";
+    return System.getProperty(postgresqlPropertyPrefix+"superpassword","postgres");
+  }
+
+  protected static String forwardSlashes(File f)
+  {
+    return f.getAbsolutePath().replaceAll("\\\\","/");
+  }
+
+  protected static void writeFile(File f, String contents)
+    throws IOException
+  {
+    OutputStream os = new FileOutputStream(f);
+    try
+    {
+      Writer w = new OutputStreamWriter(os,StandardCharsets.UTF_8);
+      w.write(contents);
+      w.flush();
+    }
+    finally
+    {
+      os.close();
+    }
+  }
+
+}
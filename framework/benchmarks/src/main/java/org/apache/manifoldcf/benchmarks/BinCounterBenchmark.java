@@ -0,0 +1,110 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.crawler.bins.BinManager;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Many threads taking document priority counter values from the docbins table at once, as workers and
+* stuffers do when a crawl is dominated by a few hosts.  With a lease size of 0 every value locks the bin's
+* row; otherwise each process reserves that many values per round trip and hands them out from memory.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BinCounterBenchmark
+{
+  /** Number of values reserved at a time */
+  @Param({"0","100","1000"})
+  public int leaseSize;
+
+  /** Number of distinct bins; 1 means every thread contends for the same row */
+  @Param({"1","10"})
+  public int binCount;
+
+  protected BinManager setupBinManager;
+  protected String[] binNames;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws Exception
+  {
+    IThreadContext tc = BenchmarkEnvironment.initialize();
+    setupBinManager = new BinManager(makeDatabase(tc),leaseSize);
+    setupBinManager.install();
+    // Also throws away any leases left from another trial
+    setupBinManager.reset();
+    binNames = new String[binCount];
+    for (int i = 0; i < binCount; i++)
+    {
+      binNames[i] = "host"+i+".example.com";
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    setupBinManager.deinstall();
+    BenchmarkEnvironment.cleanUp();
+  }
+
+  /** Each thread uses its own thread context and database handle, as worker threads do */
+  @State(Scope.Thread)
+  public static class ThreadState
+  {
+    protected BinManager binManager = null;
+    public Random random = new Random();
+
+    public BinManager getBinManager(int leaseSize)
+      throws ManifoldCFException
+    {
+      if (binManager == null)
+        binManager = new BinManager(makeDatabase(ThreadContextFactory.make()),leaseSize);
+      return binManager;
+    }
+  }
+
+  @Benchmark
+  @Threads(500)
+  public double[] incrementBinValue(ThreadState state)
+    throws ManifoldCFException
+  {
+    return state.getBinManager(leaseSize).getIncrementBinValuesInTransaction(binNames[state.random.nextInt(binCount)],0.0,1);
+  }
+
+  protected static IDBInterface makeDatabase(IThreadContext tc)
+    throws ManifoldCFException
+  {
+    return DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+  }
+
+}
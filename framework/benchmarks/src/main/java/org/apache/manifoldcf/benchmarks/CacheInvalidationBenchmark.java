@@ -0,0 +1,212 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.lockmanager.ZooKeeperConnection;
+import org.apache.manifoldcf.core.lockmanager.ZooKeeperDataMirror;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.server.*;
+import org.apache.zookeeper.server.quorum.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Reads of cache invalidation timestamps against an embedded, single-node ZooKeeper.  A clustered cache
+* manager does one of these reads for every invalidation key of every cached object it looks at.  This
+* compares going to ZooKeeper each time with answering from the watched local mirror, and also runs the
+* mirror while another client keeps rewriting the nodes, so that watches fire and copies are re-read.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheInvalidationBenchmark
+{
+  protected final static String nodePrefix = "/org.apache.manifoldcf/benchmark-cache-";
+
+  /** Port the embedded ZooKeeper listens on */
+  @Param({"8349"})
+  public int zkPort;
+
+  /** Number of distinct invalidation keys */
+  @Param({"100"})
+  public int keyCount;
+
+  /** Staleness bound given to the mirror, in milliseconds */
+  @Param({"1000"})
+  public long maxStaleness;
+
+  protected File dataDirectory;
+  protected ServerThread serverThread;
+  protected String connectString;
+  protected ZooKeeperConnection directConnection;
+  protected ZooKeeperConnection writerConnection;
+  protected ZooKeeperDataMirror dataMirror;
+  protected String[] nodePaths;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws Exception
+  {
+    BenchmarkEnvironment.initialize();
+
+    dataDirectory = File.createTempFile("mcf-zookeeper",null);
+    dataDirectory.delete();
+    dataDirectory.mkdirs();
+
+    Properties startupProperties = new Properties();
+    startupProperties.setProperty("tickTime","2000");
+    startupProperties.setProperty("dataDir",dataDirectory.toString());
+    startupProperties.setProperty("clientPort",Integer.toString(zkPort));
+    QuorumPeerConfig quorumConfiguration = new QuorumPeerConfig();
+    quorumConfiguration.parseProperties(startupProperties);
+    ServerConfig configuration = new ServerConfig();
+    configuration.readFrom(quorumConfiguration);
+    serverThread = new ServerThread(configuration);
+    serverThread.start();
+    // The server gives no sign that it is listening, so allow it some time
+    Thread.sleep(5000L);
+
+    connectString = "localhost:"+zkPort;
+    directConnection = new ZooKeeperConnection(connectString,300000);
+    writerConnection = new ZooKeeperConnection(connectString,300000);
+    dataMirror = new ZooKeeperDataMirror(connectString,300000);
+
+    nodePaths = new String[keyCount];
+    for (int i = 0; i < keyCount; i++)
+    {
+      nodePaths[i] = nodePrefix + i;
+      writerConnection.writeData(nodePaths[i],timestamp());
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    dataMirror.close();
+    directConnection.close();
+    writerConnection.close();
+    // Interrupting the server thread is the only way to stop it
+    while (serverThread.isAlive())
+    {
+      serverThread.interrupt();
+      serverThread.join(1000L);
+    }
+    deleteRecursively(dataDirectory);
+    BenchmarkEnvironment.cleanUp();
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState
+  {
+    public Random random = new Random();
+  }
+
+  /** Every read goes to ZooKeeper, as the cache manager did before the mirror. */
+  @Benchmark
+  @Threads(4)
+  public byte[] directRead(ThreadState state)
+    throws Exception
+  {
+    String path = nodePaths[state.random.nextInt(keyCount)];
+    synchronized (directConnection)
+    {
+      return directConnection.readData(path);
+    }
+  }
+
+  /** Reads are answered from the mirror; nothing changes, so only the staleness bound causes re-reads. */
+  @Benchmark
+  @Threads(4)
+  public byte[] mirroredRead(ThreadState state)
+    throws Exception
+  {
+    return dataMirror.readData(nodePaths[state.random.nextInt(keyCount)],maxStaleness);
+  }
+
+  /** Reads from the mirror, while one thread keeps invalidating keys from another ZooKeeper session. */
+  @Benchmark
+  @Group("mirroredWithInvalidation")
+  @GroupThreads(4)
+  public byte[] mirroredReadUnderInvalidation(ThreadState state)
+    throws Exception
+  {
+    return dataMirror.readData(nodePaths[state.random.nextInt(keyCount)],maxStaleness);
+  }
+
+  @Benchmark
+  @Group("mirroredWithInvalidation")
+  @GroupThreads(1)
+  public void invalidate(ThreadState state)
+    throws Exception
+  {
+    writerConnection.writeData(nodePaths[state.random.nextInt(keyCount)],timestamp());
+  }
+
+  protected static byte[] timestamp()
+  {
+    return Long.toString(System.nanoTime()).getBytes(StandardCharsets.UTF_8);
+  }
+
+  protected static void deleteRecursively(File file)
+  {
+    File[] children = file.listFiles();
+    if (children != null)
+    {
+      for (File child : children)
+      {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  /** Thread running the embedded ZooKeeper server */
+  protected static class ServerThread extends Thread
+  {
+    protected final ServerConfig config;
+
+    public ServerThread(ServerConfig config)
+    {
+      this.config = config;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        new ZooKeeperServerMain().runFromConfig(config);
+      }
+      catch (IOException e)
+      {
+        // Expected when the thread is interrupted to shut the server down
+      }
+    }
+  }
+
+}
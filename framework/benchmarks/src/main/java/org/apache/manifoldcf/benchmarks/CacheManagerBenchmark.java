@@ -0,0 +1,194 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.cachemanager.BaseDescription;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Cache manager lookups that hit, which is the path every cached query takes.  This goes through
+* findObjectsAndExecute(), including the critical section and invalidation key checks, and not just the
+* underlying GeneralCache.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheManagerBenchmark
+{
+  /** Number of distinct objects looked up */
+  @Param({"1000"})
+  public int objectCount;
+
+  protected BenchmarkDescription[] descriptions;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws Exception
+  {
+    IThreadContext tc = BenchmarkEnvironment.initialize();
+    descriptions = new BenchmarkDescription[objectCount];
+    for (int i = 0; i < objectCount; i++)
+    {
+      descriptions[i] = new BenchmarkDescription(i);
+    }
+    // Load everything into the cache
+    ICacheManager cacheManager = CacheManagerFactory.make(tc);
+    for (BenchmarkDescription d : descriptions)
+    {
+      lookup(cacheManager,d);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    BenchmarkEnvironment.cleanUp();
+  }
+
+  /** Each thread needs its own thread context and cache manager.  These are made on first use,
+  * since the environment must be set up first. */
+  @State(Scope.Thread)
+  public static class ThreadState
+  {
+    protected ICacheManager cacheManager = null;
+    public Random random = new Random();
+
+    public ICacheManager getCacheManager()
+      throws ManifoldCFException
+    {
+      if (cacheManager == null)
+        cacheManager = CacheManagerFactory.make(ThreadContextFactory.make());
+      return cacheManager;
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Object lookupOneThread(ThreadState state)
+    throws ManifoldCFException
+  {
+    return lookup(state.getCacheManager(),descriptions[state.random.nextInt(objectCount)]);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Object lookupEightThreads(ThreadState state)
+    throws ManifoldCFException
+  {
+    return lookup(state.getCacheManager(),descriptions[state.random.nextInt(objectCount)]);
+  }
+
+  protected static Object lookup(ICacheManager cacheManager, BenchmarkDescription description)
+    throws ManifoldCFException
+  {
+    LookupExecutor executor = new LookupExecutor();
+    cacheManager.findObjectsAndExecute(new ICacheDescription[]{description},null,executor,null);
+    return executor.getResult();
+  }
+
+  /** Cache executor that creates an object on a miss, and records what it found */
+  protected static class LookupExecutor implements ICacheExecutor
+  {
+    protected Object result = null;
+
+    @Override
+    public Object[] create(ICacheDescription[] objectDescriptions)
+      throws ManifoldCFException
+    {
+      Object[] rval = new Object[objectDescriptions.length];
+      for (int i = 0; i < rval.length; i++)
+      {
+        rval[i] = new Integer(((BenchmarkDescription)objectDescriptions[i]).getIndex());
+      }
+      return rval;
+    }
+
+    @Override
+    public void exists(ICacheDescription objectDescription, Object cachedObject)
+      throws ManifoldCFException
+    {
+      result = cachedObject;
+    }
+
+    @Override
+    public void execute()
+      throws ManifoldCFException
+    {
+    }
+
+    public Object getResult()
+    {
+      return result;
+    }
+  }
+
+  /** Description of a cached object */
+  protected static class BenchmarkDescription extends BaseDescription
+  {
+    protected final int index;
+    protected final StringSet keys;
+
+    public BenchmarkDescription(int index)
+    {
+      super("benchmark");
+      this.index = index;
+      this.keys = new StringSet("benchmark-"+(index % 10));
+    }
+
+    public int getIndex()
+    {
+      return index;
+    }
+
+    @Override
+    public StringSet getObjectKeys()
+    {
+      return keys;
+    }
+
+    @Override
+    public String getCriticalSectionName()
+    {
+      return getClass().getName()+"-"+index;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return index;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof BenchmarkDescription))
+        return false;
+      return ((BenchmarkDescription)o).index == index;
+    }
+  }
+
+}
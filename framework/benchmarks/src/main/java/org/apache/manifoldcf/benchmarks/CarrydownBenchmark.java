@@ -0,0 +1,148 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.crawler.jobs.Carrydown;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Recording the carrydown data a feed hands to its children, the way an RSS or web job does once per
+* fetch of the feed.  Every child gets a title and a link-date value.  The scenario picks the state of the
+* table before the write:
+* "initial" - the table is empty, so every value is inserted;
+* "recrawl" - the feed was recorded on an earlier pass, so every value is already there and is flipped to
+*   "existing";
+* "repeat" - the feed was already recorded during this pass, so there is nothing to write at all.
+*/
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CarrydownBenchmark
+{
+  protected static final Long jobID = new Long(1234L);
+  protected static final String processID = "bench";
+  protected static final String[] dataNames = new String[]{"title","linkdate"};
+
+  /** Number of children of the feed */
+  @Param({"10000"})
+  public int childCount;
+
+  /** The state of the table before the write */
+  @Param({"initial","recrawl","repeat"})
+  public String scenario;
+
+  protected IDBInterface database;
+  protected Carrydown carrydown;
+  protected String parentHash;
+  protected String[] childHashes;
+  protected String[][] childDataNames;
+  protected String[][][] childDataValueHashes;
+  protected Object[][][] childDataValues;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws Exception
+  {
+    IThreadContext tc = BenchmarkEnvironment.initialize();
+    database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    carrydown = new Carrydown(database);
+    carrydown.install(null,null);
+
+    parentHash = ManifoldCF.hash("http://www.example.com/feed.xml");
+    childHashes = new String[childCount];
+    childDataNames = new String[childCount][];
+    childDataValueHashes = new String[childCount][][];
+    childDataValues = new Object[childCount][][];
+    for (int i = 0; i < childCount; i++)
+    {
+      String title = "Item number "+i;
+      String linkDate = Long.toString(1300000000000L + i * 60000L);
+      childHashes[i] = ManifoldCF.hash("http://www.example.com/item"+i+".html");
+      childDataNames[i] = dataNames;
+      childDataValueHashes[i] = new String[][]{new String[]{ManifoldCF.hash(title)},new String[]{ManifoldCF.hash(linkDate)}};
+      childDataValues[i] = new Object[][]{new Object[]{title},new Object[]{linkDate}};
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    carrydown.deinstall();
+    BenchmarkEnvironment.cleanUp();
+  }
+
+  /** Put the table into the state the scenario calls for, outside of the measurement */
+  @Setup(Level.Iteration)
+  public void prepareTable()
+    throws ManifoldCFException
+  {
+    carrydown.deleteOwner(jobID);
+    if (scenario.equals("initial"))
+      return;
+    record();
+    if (scenario.equals("recrawl"))
+      carrydown.restoreRecords(jobID,new String[]{parentHash});
+  }
+
+  @Benchmark
+  public boolean[] recordCarrydownData()
+    throws ManifoldCFException
+  {
+    return record();
+  }
+
+  protected boolean[] record()
+    throws ManifoldCFException
+  {
+    database.beginTransaction();
+    try
+    {
+      boolean[] rval = carrydown.recordCarrydownDataMultiple(jobID,parentHash,childHashes,
+        childDataNames,childDataValueHashes,childDataValues,processID);
+      database.performCommit();
+      return rval;
+    }
+    catch (ManifoldCFException e)
+    {
+      database.signalRollback();
+      throw e;
+    }
+    catch (RuntimeException e)
+    {
+      database.signalRollback();
+      throw e;
+    }
+    finally
+    {
+      database.endTransaction();
+    }
+  }
+
+}
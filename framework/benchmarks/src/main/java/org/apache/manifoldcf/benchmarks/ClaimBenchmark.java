@@ -0,0 +1,169 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.crawler.jobs.JobQueue;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Claiming a batch of queued documents, the way the stuffer marks jobqueue records active.  The per-row
+* path is JobQueue.updateActiveRecord() once per document; the bulk path is JobQueue.updateActiveRecords(),
+* falling back to the per-row path when it returns null, exactly as JobManager does.
+*
+* The bulk path only does anything different on PostgreSQL 9.5 or later, where it issues one
+* UPDATE ... FOR UPDATE SKIP LOCKED per status.  Everywhere else, including the default in-memory HSQLDB,
+* both benchmarks run the per-row loop, so run this one with
+* -Dorg.apache.manifoldcf.benchmarks.database=postgresql (see BenchmarkEnvironment) to get the comparison.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClaimBenchmark
+{
+  protected static final String processID = "bench";
+
+  /** Number of rows claimed at once */
+  @Param({"100"})
+  public int batchSize;
+
+  protected IDBInterface database;
+  protected JobQueue jobQueue;
+  protected Long[] ids;
+  protected int[] statuses;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws Exception
+  {
+    IThreadContext tc = BenchmarkEnvironment.initialize();
+    database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    jobQueue = new JobQueue(tc,database);
+    jobQueue.install(null,null);
+    ids = new Long[batchSize];
+    statuses = new int[batchSize];
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(batchSize);
+    for (int i = 0; i < batchSize; i++)
+    {
+      Long id = Long.valueOf(i);
+      ids[i] = id;
+      statuses[i] = JobQueue.STATUS_PENDING;
+      Map<String,Object> row = new HashMap<String,Object>();
+      row.put(JobQueue.idField,id);
+      row.put(JobQueue.jobIDField,Long.valueOf(1L));
+      row.put(JobQueue.docHashField,"hash"+i);
+      row.put(JobQueue.docIDField,"doc"+i);
+      row.put(JobQueue.statusField,JobQueue.statusToString(JobQueue.STATUS_PENDING));
+      rows.add(row);
+    }
+    database.performInsertBatch(jobQueue.getTableName(),rows,null);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    jobQueue.deinstall();
+    BenchmarkEnvironment.cleanUp();
+  }
+
+  /** Put every row back to pending, outside of the measurement */
+  @Setup(Level.Invocation)
+  public void resetRows()
+    throws ManifoldCFException
+  {
+    Map<String,Object> map = new HashMap<String,Object>();
+    map.put(JobQueue.statusField,JobQueue.statusToString(JobQueue.STATUS_PENDING));
+    map.put(JobQueue.processIDField,null);
+    database.performUpdate(jobQueue.getTableName(),map,null,null,null);
+  }
+
+  @Benchmark
+  public int claimPerRow()
+    throws ManifoldCFException
+  {
+    database.beginTransaction();
+    try
+    {
+      for (int i = 0; i < ids.length; i++)
+      {
+        jobQueue.updateActiveRecord(ids[i],statuses[i],processID);
+      }
+      return ids.length;
+    }
+    catch (ManifoldCFException e)
+    {
+      database.signalRollback();
+      throw e;
+    }
+    catch (Error e)
+    {
+      database.signalRollback();
+      throw e;
+    }
+    finally
+    {
+      database.endTransaction();
+    }
+  }
+
+  @Benchmark
+  public int claimBulk()
+    throws ManifoldCFException
+  {
+    database.beginTransaction();
+    try
+    {
+      Set<Long> claimed = jobQueue.updateActiveRecords(ids,statuses,processID);
+      if (claimed != null)
+        return claimed.size();
+      // Not supported by this database; JobManager goes row by row
+      for (int i = 0; i < ids.length; i++)
+      {
+        jobQueue.updateActiveRecord(ids[i],statuses[i],processID);
+      }
+      return ids.length;
+    }
+    catch (ManifoldCFException e)
+    {
+      database.signalRollback();
+      throw e;
+    }
+    catch (Error e)
+    {
+      database.signalRollback();
+      throw e;
+    }
+    finally
+    {
+      database.endTransaction();
+    }
+  }
+
+}
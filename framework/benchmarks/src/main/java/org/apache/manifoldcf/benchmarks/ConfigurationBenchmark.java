@@ -0,0 +1,97 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Converting a configuration to and from XML and JSON, as happens whenever a connection or job
+* specification is saved, loaded, or passed through the API.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigurationBenchmark
+{
+  /** Number of top-level nodes in the configuration */
+  @Param({"10","100"})
+  public int nodeCount;
+
+  protected Configuration configuration;
+  protected String xml;
+  protected String json;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws ManifoldCFException
+  {
+    configuration = new Configuration("configuration");
+    for (int i = 0; i < nodeCount; i++)
+    {
+      ConfigurationNode node = new ConfigurationNode("node");
+      node.setAttribute("name","node "+i);
+      node.setAttribute("type","benchmark");
+      ConfigurationNode child = new ConfigurationNode("value");
+      child.setValue("This is the value of node "+i+", with <markup> & \"quotes\" in it");
+      node.addChild(node.getChildCount(),child);
+      configuration.addChild(configuration.getChildCount(),node);
+    }
+    xml = configuration.toXML();
+    json = configuration.toJSON();
+  }
+
+  @Benchmark
+  public String toXML()
+    throws ManifoldCFException
+  {
+    return configuration.toXML();
+  }
+
+  @Benchmark
+  public Configuration fromXML()
+    throws ManifoldCFException
+  {
+    Configuration c = new Configuration("configuration");
+    c.fromXML(xml);
+    return c;
+  }
+
+  @Benchmark
+  public String toJSON()
+    throws ManifoldCFException
+  {
+    return configuration.toJSON();
+  }
+
+  @Benchmark
+  public Configuration fromJSON()
+    throws ManifoldCFException
+  {
+    Configuration c = new Configuration("configuration");
+    c.fromJSON(json);
+    return c;
+  }
+
+}
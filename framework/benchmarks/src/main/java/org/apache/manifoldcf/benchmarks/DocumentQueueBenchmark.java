@@ -0,0 +1,114 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.system.DocumentQueue;
+import org.apache.manifoldcf.crawler.system.IndexedDocumentQueue;
+import org.apache.manifoldcf.crawler.system.QueuedDocument;
+import org.apache.manifoldcf.crawler.system.QueuedDocumentSet;
+import org.apache.manifoldcf.crawler.system.Logging;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Worker thread dequeue throughput, for DocumentQueue and IndexedDocumentQueue.
+* Each operation is what a worker thread does with the queue: take the best-rated document set, begin
+* processing it, end processing it, and then (standing in for the stuffer) put it back.  The queue always
+* holds more sets than there are threads, so no thread ever waits for the stuffer.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocumentQueueBenchmark
+{
+  /** Which queue implementation to use */
+  @Param({"legacy","indexed"})
+  public String queueType;
+
+  /** Number of distinct bins the documents are spread over */
+  @Param({"50"})
+  public int binCount;
+
+  protected DocumentQueue queue;
+  protected QueueTracker queueTracker;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    if (Logging.scheduling == null)
+      Logging.scheduling = org.apache.log4j.Logger.getLogger("org.apache.manifoldcf.scheduling");
+    queueTracker = new QueueTracker();
+    if (queueType.equals("indexed"))
+      queue = new IndexedDocumentQueue();
+    else
+      queue = new DocumentQueue();
+    // Enough for the largest thread count, with room to spare
+    Random r = new Random(42L);
+    for (int i = 0; i < 2000; i++)
+    {
+      String id = Integer.toString(i);
+      String[] bins = new String[]{"bin"+r.nextInt(binCount)+".com"};
+      List<QueuedDocument> docs = new ArrayList<QueuedDocument>();
+      docs.add(new QueuedDocument(new DocumentDescription(new Long(i),new Long(1L),id,id),null,bins));
+      queue.addDocument(new QueuedDocumentSet(docs,null,null));
+    }
+  }
+
+  @Benchmark
+  @Threads(100)
+  public QueuedDocumentSet threads100()
+    throws InterruptedException
+  {
+    return cycle();
+  }
+
+  @Benchmark
+  @Threads(500)
+  public QueuedDocumentSet threads500()
+    throws InterruptedException
+  {
+    return cycle();
+  }
+
+  @Benchmark
+  @Threads(1000)
+  public QueuedDocumentSet threads1000()
+    throws InterruptedException
+  {
+    return cycle();
+  }
+
+  protected QueuedDocumentSet cycle()
+    throws InterruptedException
+  {
+    QueuedDocumentSet qds = queue.getDocument(queueTracker);
+    qds.beginProcessing(queueTracker);
+    qds.endProcessing(queueTracker);
+    queue.addDocument(qds);
+    return qds;
+  }
+
+}
@@ -0,0 +1,73 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.connectorcommon.fuzzyml.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** The fuzzyml parser, parsing a generated HTML page with charset detection, the way the web connector
+* extracts links.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FuzzyMLParserBenchmark
+{
+  /** Number of links on the page */
+  @Param({"100","1000"})
+  public int linkCount;
+
+  protected byte[] page;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    if (org.apache.manifoldcf.core.system.Logging.misc == null)
+      org.apache.manifoldcf.core.system.Logging.misc = org.apache.log4j.Logger.getLogger("org.apache.manifoldcf.misc");
+    StringBuilder sb = new StringBuilder();
+    sb.append("<html>\n<head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=utf-8\"/><title>Benchmark page</title></head>\n<body>\n");
+    for (int i = 0; i < linkCount; i++)
+    {
+      sb.append("  <p class=\"entry\">Entry number ").append(i).append(" &amp; some text, with <b>markup</b> in it.\n");
+      sb.append("  <a href=\"http://www.example.com/folder/page").append(i).append(".html?x=1&y=2\">Link ").append(i).append("</a></p>\n");
+    }
+    sb.append("</body>\n</html>\n");
+    page = sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public HTMLParseState parse()
+    throws IOException, ManifoldCFException
+  {
+    Parser p = new Parser();
+    HTMLParseState parseState = new HTMLParseState();
+    p.parseWithCharsetDetection(null,new ByteArrayInputStream(page),parseState);
+    return parseState;
+  }
+
+}
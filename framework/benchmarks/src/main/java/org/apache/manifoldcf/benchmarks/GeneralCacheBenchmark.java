@@ -0,0 +1,90 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.cachemanager.GeneralCache;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** GeneralCache under contention.  Eight threads look objects up in a shared cache, and one lookup in
+* every hundred misses and stores a replacement, as happens when a cached query result has been invalidated.
+* Compare one segment (a single lock, as the cache used to be) against the default segment count.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class GeneralCacheBenchmark
+{
+  /** Number of independently locked segments */
+  @Param({"1","16"})
+  public int segmentCount;
+
+  /** Number of distinct objects in the cache */
+  @Param({"10000"})
+  public int objectCount;
+
+  protected GeneralCache cache;
+  protected String[] descriptions;
+  protected StringSet[] keys;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    cache = new GeneralCache(segmentCount);
+    descriptions = new String[objectCount];
+    keys = new StringSet[objectCount];
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < objectCount; i++)
+    {
+      descriptions[i] = "object-"+i;
+      keys[i] = new StringSet("key-"+(i % 100));
+      cache.setObject(descriptions[i],new Integer(i),keys[i],now);
+    }
+  }
+
+  /** Per-thread random number source, so threads don't contend on that */
+  @State(Scope.Thread)
+  public static class ThreadState
+  {
+    public Random random = new Random();
+  }
+
+  @Benchmark
+  public Object lookup(ThreadState state)
+  {
+    int index = state.random.nextInt(objectCount);
+    String description = descriptions[index];
+    if (state.random.nextInt(100) == 0)
+    {
+      cache.deleteObject(description);
+      cache.setObject(description,new Integer(index),keys[index],System.currentTimeMillis());
+      return description;
+    }
+    return cache.lookup(description);
+  }
+
+}
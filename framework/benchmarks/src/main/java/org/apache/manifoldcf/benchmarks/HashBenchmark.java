@@ -0,0 +1,73 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Standard hashing of strings, as used for document identifier hashes and bin names.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashBenchmark
+{
+  /** Length of the string to hash; a typical URL, and a long one */
+  @Param({"80","1024"})
+  public int length;
+
+  protected String input;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    StringBuilder sb = new StringBuilder("http://www.example.com/");
+    int i = 0;
+    while (sb.length() < length)
+    {
+      sb.append((char)('a' + (i++ % 26)));
+    }
+    sb.setLength(length);
+    input = sb.toString();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public String hashOneThread()
+    throws ManifoldCFException
+  {
+    return ManifoldCF.hash(input);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public String hashEightThreads()
+    throws ManifoldCFException
+  {
+    return ManifoldCF.hash(input);
+  }
+
+}
@@ -0,0 +1,116 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Writing the links discovered in one document, the way the hopcount and intrinsic link tables are
+* written: one INSERT per row, against a single batched insert.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LinkWriteBenchmark
+{
+  protected static final String tableName = "benchlinks";
+  protected static final String jobIDField = "jobid";
+  protected static final String linkTypeField = "linktype";
+  protected static final String parentIDHashField = "parentidhash";
+  protected static final String childIDHashField = "childidhash";
+
+  /** Number of links written at once */
+  @Param({"100"})
+  public int linkCount;
+
+  protected IDBInterface database;
+  protected List<Map<String,Object>> rows;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws Exception
+  {
+    IThreadContext tc = BenchmarkEnvironment.initialize();
+    database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    Map<String,ColumnDescription> columns = new HashMap<String,ColumnDescription>();
+    columns.put(jobIDField,new ColumnDescription("BIGINT",false,false,null,null,false));
+    columns.put(linkTypeField,new ColumnDescription("VARCHAR(255)",false,true,null,null,false));
+    columns.put(parentIDHashField,new ColumnDescription("VARCHAR(40)",false,false,null,null,false));
+    columns.put(childIDHashField,new ColumnDescription("VARCHAR(40)",false,true,null,null,false));
+    database.performCreate(tableName,columns,null);
+    rows = new ArrayList<Map<String,Object>>(linkCount);
+    String parentHash = ManifoldCF.hash("http://www.example.com/");
+    for (int i = 0; i < linkCount; i++)
+    {
+      Map<String,Object> row = new HashMap<String,Object>();
+      row.put(jobIDField,new Long(1234L));
+      row.put(linkTypeField,"link");
+      row.put(parentIDHashField,parentHash);
+      row.put(childIDHashField,ManifoldCF.hash("http://www.example.com/page"+i+".html"));
+      rows.add(row);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    database.performDrop(tableName,null);
+    BenchmarkEnvironment.cleanUp();
+  }
+
+  /** Empty the table again, outside of the measurement */
+  @Setup(Level.Invocation)
+  public void clearRows()
+    throws ManifoldCFException
+  {
+    database.performDelete(tableName,null,null,null);
+  }
+
+  @Benchmark
+  public int insertPerRow()
+    throws ManifoldCFException
+  {
+    for (Map<String,Object> row : rows)
+    {
+      database.performInsert(tableName,row,null);
+    }
+    return rows.size();
+  }
+
+  @Benchmark
+  public int insertBatch()
+    throws ManifoldCFException
+  {
+    database.performInsertBatch(tableName,rows,null);
+    return rows.size();
+  }
+
+}
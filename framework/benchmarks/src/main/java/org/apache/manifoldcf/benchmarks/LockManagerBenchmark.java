@@ -0,0 +1,123 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Lock enter/leave throughput for the single-process lock manager, at high thread counts.  Read locks and
+* critical sections are what the cache manager takes for every cached lookup, so they are measured both
+* spread over many keys and all on one key.  A mixed case, with an occasional write lock, shows that
+* readers still queue behind writers.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LockManagerBenchmark
+{
+  /** Number of distinct lock keys */
+  @Param({"1","1000"})
+  public int keyCount;
+
+  protected String[] keys;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws Exception
+  {
+    BenchmarkEnvironment.initialize();
+    keys = new String[keyCount];
+    for (int i = 0; i < keyCount; i++)
+    {
+      keys[i] = "benchmark-lock-"+i;
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    BenchmarkEnvironment.cleanUp();
+  }
+
+  /** Each thread needs its own lock manager, made on first use in that thread */
+  @State(Scope.Thread)
+  public static class ThreadState
+  {
+    protected ILockManager lockManager = null;
+    public Random random = new Random();
+
+    public ILockManager getLockManager()
+      throws ManifoldCFException
+    {
+      if (lockManager == null)
+        lockManager = LockManagerFactory.make(ThreadContextFactory.make());
+      return lockManager;
+    }
+  }
+
+  @Benchmark
+  @Threads(64)
+  public void readLock(ThreadState state)
+    throws ManifoldCFException
+  {
+    ILockManager lockManager = state.getLockManager();
+    String key = keys[state.random.nextInt(keyCount)];
+    lockManager.enterReadLock(key);
+    lockManager.leaveReadLock(key);
+  }
+
+  @Benchmark
+  @Threads(64)
+  public void readCriticalSection(ThreadState state)
+    throws ManifoldCFException
+  {
+    ILockManager lockManager = state.getLockManager();
+    String key = keys[state.random.nextInt(keyCount)];
+    lockManager.enterReadCriticalSection(key);
+    lockManager.leaveReadCriticalSection(key);
+  }
+
+  @Benchmark
+  @Threads(64)
+  public void mixedLock(ThreadState state)
+    throws ManifoldCFException
+  {
+    ILockManager lockManager = state.getLockManager();
+    String key = keys[state.random.nextInt(keyCount)];
+    if (state.random.nextInt(100) == 0)
+    {
+      lockManager.enterWriteLock(key);
+      lockManager.leaveWriteLock(key);
+    }
+    else
+    {
+      lockManager.enterReadLock(key);
+      lockManager.leaveReadLock(key);
+    }
+  }
+
+}
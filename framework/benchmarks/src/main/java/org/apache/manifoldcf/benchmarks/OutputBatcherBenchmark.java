@@ -0,0 +1,89 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+import org.apache.manifoldcf.agents.output.OutputBatcher;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Documents indexed through the OutputBatcher by many worker threads at once, against a search engine
+* that takes a fixed time per request no matter how many documents are in it.  A batch size of one is the
+* same as sending every document on its own.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(30)
+@State(Scope.Benchmark)
+public class OutputBatcherBenchmark
+{
+  /** Maximum documents per request */
+  @Param({"1","100"})
+  public int maxBatchSize;
+
+  /** Time each request takes, in milliseconds */
+  @Param({"5"})
+  public long requestTime;
+
+  protected OutputBatcher<String> batcher;
+  protected OutputBatcher.IBatchSender<String> sender;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    batcher = new OutputBatcher<String>(maxBatchSize,10000000L,4);
+    sender = new OutputBatcher.IBatchSender<String>()
+      {
+        @Override
+        public void sendBatch(List<OutputBatcher.BatchItem<String>> batch)
+          throws ManifoldCFException, ServiceInterruption
+        {
+          try
+          {
+            Thread.sleep(requestTime);
+          }
+          catch (InterruptedException e)
+          {
+            throw new ManifoldCFException(e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+          }
+          for (OutputBatcher.BatchItem<String> item : batch)
+          {
+            item.complete(true,"OK",null);
+          }
+        }
+      };
+  }
+
+  @Benchmark
+  public boolean index()
+    throws ManifoldCFException, ServiceInterruption
+  {
+    OutputBatcher.BatchItem<String> item = new OutputBatcher.BatchItem<String>("document",1000L);
+    batcher.execute(item,sender);
+    return item.isAccepted();
+  }
+
+}
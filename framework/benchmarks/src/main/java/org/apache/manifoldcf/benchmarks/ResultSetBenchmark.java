@@ -0,0 +1,104 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.database.RRow;
+import org.apache.manifoldcf.core.database.RSet;
+import org.apache.manifoldcf.core.database.ColumnarRSet;
+import org.apache.manifoldcf.core.database.ColumnIndex;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Building a resultset from query rows and reading it back, for the row-per-map RSet and the
+* column-oriented ColumnarRSet.  The columns look like a jobqueue fetch: ids, a hash, a status, and times.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResultSetBenchmark
+{
+  protected static final String[] columnNames = new String[]{"id","jobid","dochash","status","checktime","docpriority"};
+
+  /** Number of rows in the resultset */
+  @Param({"100","10000"})
+  public int rowCount;
+
+  protected Object[][] rows;
+  protected ColumnIndex columnIndex;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    columnIndex = new ColumnIndex(columnNames);
+    rows = new Object[rowCount][];
+    for (int i = 0; i < rowCount; i++)
+    {
+      rows[i] = new Object[]{new Long(i),new Long(1234L),"0123456789ABCDEF0123456789ABCDEF"+Integer.toHexString(i),
+        "P",new Long(1400000000000L + i),new Double(i * 0.5)};
+    }
+  }
+
+  @Benchmark
+  public IResultSet buildRSet(Blackhole bh)
+  {
+    RSet set = new RSet();
+    for (Object[] values : rows)
+    {
+      RRow row = new RRow();
+      for (int j = 0; j < columnNames.length; j++)
+      {
+        row.put(columnNames[j],values[j]);
+      }
+      set.addRow(row);
+    }
+    readBack(set,bh);
+    return set;
+  }
+
+  @Benchmark
+  public IResultSet buildColumnarRSet(Blackhole bh)
+  {
+    ColumnarRSet set = new ColumnarRSet(columnIndex);
+    for (Object[] values : rows)
+    {
+      set.addRow(values);
+    }
+    readBack(set,bh);
+    return set;
+  }
+
+  protected static void readBack(IResultSet set, Blackhole bh)
+  {
+    for (int i = 0; i < set.getRowCount(); i++)
+    {
+      IResultRow row = set.getRow(i);
+      bh.consume(row.getValue("id"));
+      bh.consume(row.getValue("dochash"));
+      bh.consume(row.getValue("checktime"));
+    }
+  }
+
+}
@@ -0,0 +1,139 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.connectorcommon.interfaces.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Connection throttling overhead.  Each operation obtains a connection throttler for a set of bins,
+* waits for a connection, and hands it back to the pool, which is the bookkeeping a connector does around
+* every fetch.  The connection limit is high enough that nobody ever actually has to wait.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThrottlerBenchmark
+{
+  protected static final String throttleGroupType = "_BENCHMARK_";
+  protected static final String throttleGroupName = "benchmark";
+
+  /** Number of distinct bin sets in use */
+  @Param({"10"})
+  public int binSetCount;
+
+  protected String[][] binSets;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws Exception
+  {
+    IThreadContext tc = BenchmarkEnvironment.initialize();
+    binSets = new String[binSetCount][];
+    for (int i = 0; i < binSetCount; i++)
+    {
+      binSets[i] = new String[]{"host"+i+".com","domain"+(i % 3)};
+    }
+    ThrottleGroupsFactory.make(tc).createOrUpdateThrottleGroup(throttleGroupType,throttleGroupName,new BenchmarkThrottleSpec());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    ThrottleGroupsFactory.make(ThreadContextFactory.make()).removeThrottleGroup(throttleGroupType,throttleGroupName);
+    BenchmarkEnvironment.cleanUp();
+  }
+
+  /** Each thread needs its own thread context.  The throttle groups object is made on first use, since the
+  * environment must be set up first. */
+  @State(Scope.Thread)
+  public static class ThreadState
+  {
+    protected IThrottleGroups throttleGroups = null;
+    public Random random = new Random();
+
+    public IThrottleGroups getThrottleGroups()
+      throws ManifoldCFException
+    {
+      if (throttleGroups == null)
+        throttleGroups = ThrottleGroupsFactory.make(ThreadContextFactory.make());
+      return throttleGroups;
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int obtainAndReleaseOneThread(ThreadState state)
+    throws Exception
+  {
+    return obtainAndRelease(state);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public int obtainAndReleaseEightThreads(ThreadState state)
+    throws Exception
+  {
+    return obtainAndRelease(state);
+  }
+
+  protected int obtainAndRelease(ThreadState state)
+    throws Exception
+  {
+    IConnectionThrottler connectionThrottler = state.getThrottleGroups().obtainConnectionThrottler(throttleGroupType,throttleGroupName,
+      binSets[state.random.nextInt(binSetCount)]);
+    int result = connectionThrottler.waitConnectionAvailable();
+    if (connectionThrottler.noteReturnedConnection())
+      connectionThrottler.noteConnectionDestroyed();
+    else
+      connectionThrottler.noteConnectionReturnedToPool();
+    return result;
+  }
+
+  /** Throttle spec with no fetch or bandwidth limits, and plenty of connections */
+  protected static class BenchmarkThrottleSpec implements IThrottleSpec
+  {
+    @Override
+    public int getMaxOpenConnections(String binName)
+    {
+      return 1000;
+    }
+
+    @Override
+    public double getMinimumMillisecondsPerByte(String binName)
+    {
+      return 0.0;
+    }
+
+    @Override
+    public long getMinimumMillisecondsPerFetch(String binName)
+    {
+      return 0L;
+    }
+  }
+
+}
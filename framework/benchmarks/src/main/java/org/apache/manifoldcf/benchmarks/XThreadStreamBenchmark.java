@@ -0,0 +1,235 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.connectorcommon.common.*;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Cross-thread stream throughput.  Each operation moves 1 GB from a helper thread, which stuffs the
+* stream either from a source stream or through an XThreadOutputStream, to the benchmark thread, which
+* drains it either with ordinary reads or with transferTo().  The source and the sink do no work of their
+* own, so what is measured is the hand-off between the two threads.
+*/
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XThreadStreamBenchmark
+{
+  /** Bytes moved per operation */
+  @Param({"1073741824"})
+  public long transferSize;
+
+  /** Size of the reads done by the consumer, and of the writes done by the producer */
+  @Param({"8192","65536"})
+  public int chunkSize;
+
+  /** Helper thread stuffing from a source stream; ordinary reads. */
+  @Benchmark
+  public long streamRead()
+    throws Exception
+  {
+    XThreadInputStream stream = new XThreadInputStream(new SourceStream(transferSize));
+    Thread t = startProducer(new StreamProducer(stream));
+    long rval = drainByReading(stream);
+    t.join();
+    return rval;
+  }
+
+  /** Helper thread stuffing from a source stream; transferTo(). */
+  @Benchmark
+  public long streamTransferTo()
+    throws Exception
+  {
+    XThreadInputStream stream = new XThreadInputStream(new SourceStream(transferSize));
+    Thread t = startProducer(new StreamProducer(stream));
+    long rval = stream.transferTo(new NullOutputStream());
+    t.join();
+    return rval;
+  }
+
+  /** Helper thread writing through an XThreadOutputStream; ordinary reads. */
+  @Benchmark
+  public long writerRead()
+    throws Exception
+  {
+    XThreadInputStream stream = new XThreadInputStream();
+    Thread t = startProducer(new WriterProducer(stream,transferSize,chunkSize));
+    long rval = drainByReading(stream);
+    t.join();
+    return rval;
+  }
+
+  /** Helper thread writing through an XThreadOutputStream; transferTo(). */
+  @Benchmark
+  public long writerTransferTo()
+    throws Exception
+  {
+    XThreadInputStream stream = new XThreadInputStream();
+    Thread t = startProducer(new WriterProducer(stream,transferSize,chunkSize));
+    long rval = stream.transferTo(new NullOutputStream());
+    t.join();
+    return rval;
+  }
+
+  protected long drainByReading(XThreadInputStream stream)
+    throws IOException
+  {
+    byte[] b = new byte[chunkSize];
+    long total = 0L;
+    try
+    {
+      while (true)
+      {
+        int amt = stream.read(b);
+        if (amt == -1)
+          return total;
+        total += amt;
+      }
+    }
+    finally
+    {
+      stream.close();
+    }
+  }
+
+  protected static Thread startProducer(Runnable r)
+  {
+    Thread t = new Thread(r);
+    t.setDaemon(true);
+    t.start();
+    return t;
+  }
+
+  /** Stuffs the stream from its source stream */
+  protected static class StreamProducer implements Runnable
+  {
+    protected final XThreadInputStream stream;
+
+    public StreamProducer(XThreadInputStream stream)
+    {
+      this.stream = stream;
+    }
+
+    public void run()
+    {
+      try
+      {
+        stream.stuffQueue();
+      }
+      catch (Exception e)
+      {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /** Writes a fixed amount through an XThreadOutputStream */
+  protected static class WriterProducer implements Runnable
+  {
+    protected final XThreadInputStream stream;
+    protected final long size;
+    protected final byte[] chunk;
+
+    public WriterProducer(XThreadInputStream stream, long size, int chunkSize)
+    {
+      this.stream = stream;
+      this.size = size;
+      this.chunk = new byte[chunkSize];
+    }
+
+    public void run()
+    {
+      try
+      {
+        OutputStream os = new XThreadOutputStream(stream);
+        try
+        {
+          long remaining = size;
+          while (remaining > 0L)
+          {
+            int amt = (remaining > chunk.length)?chunk.length:(int)remaining;
+            os.write(chunk,0,amt);
+            remaining -= amt;
+          }
+        }
+        finally
+        {
+          os.close();
+        }
+      }
+      catch (Exception e)
+      {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /** A source of a fixed number of bytes, which costs nothing to read */
+  protected static class SourceStream extends InputStream
+  {
+    protected long remaining;
+
+    public SourceStream(long size)
+    {
+      this.remaining = size;
+    }
+
+    @Override
+    public int read()
+    {
+      if (remaining == 0L)
+        return -1;
+      remaining--;
+      return 0;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+      if (remaining == 0L)
+        return -1;
+      if (len > remaining)
+        len = (int)remaining;
+      remaining -= len;
+      return len;
+    }
+  }
+
+  /** A sink that discards everything */
+  protected static class NullOutputStream extends OutputStream
+  {
+    @Override
+    public void write(int b)
+    {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+    {
+    }
+  }
+
+}
@@ -19,45 +19,77 @@
 package org.apache.manifoldcf.connectorcommon.common;
 
 import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
 
 /** Cross-thread input stream.  Use this class when you have a helper thread
 * reading from a socket, and you need the ability to read safely from a ManifoldCF
 * worker thread.
+*
+* The bytes pass through a ring buffer with exactly one producer (the helper thread) and one
+* consumer (the worker thread).  Each side only ever advances its own index, so no lock is taken
+* to move data; a thread parks only when the buffer is full or empty, and is unparked by the other
+* side.  Ring buffers are pooled, and go back to the pool once both sides are finished with them.
 */
 public class XThreadInputStream extends InputStream
 {
-  private final byte[] buffer = new byte[65536];
-  private int startPoint = 0;
-  private int byteCount = 0;
-  private boolean streamEnd = false;
-  private IOException failureException = null;
-  private boolean abort = false;
+  /** Size of each ring buffer; must be a power of two */
+  private static final int bufferSize = 65536;
+  /** The largest number of idle buffers kept in the pool */
+  private static final int maxPooledBuffers = 64;
+
+  /** Idle buffers */
+  private static final ConcurrentLinkedQueue<byte[]> bufferPool = new ConcurrentLinkedQueue<byte[]>();
+  /** Number of idle buffers in the pool */
+  private static final AtomicInteger pooledBufferCount = new AtomicInteger(0);
+
+  private final byte[] buffer;
+  private final int mask;
+  /** Total bytes written into the buffer; only the producer changes this */
+  private volatile long writeIndex = 0L;
+  /** Total bytes read out of the buffer; only the consumer changes this */
+  private volatile long readIndex = 0L;
+  private volatile boolean streamEnd = false;
+  private volatile IOException failureException = null;
+  private volatile boolean abort = false;
+
+  /** The producer thread, while it is parked waiting for room */
+  private volatile Thread waitingProducer = null;
+  /** The consumer thread, while it is parked waiting for data */
+  private volatile Thread waitingConsumer = null;
+
+  /** Set when the producer side is done with the buffer */
+  private final AtomicBoolean producerReleased = new AtomicBoolean(false);
+  /** Set when the consumer side is done with the buffer */
+  private final AtomicBoolean consumerReleased = new AtomicBoolean(false);
+  /** Number of sides still using the buffer */
+  private final AtomicInteger bufferHolders = new AtomicInteger(2);
 
   private final InputStream sourceStream;
-	
+
   /** Constructor, from a given input stream. */
   public XThreadInputStream(InputStream sourceStream)
   {
     this.sourceStream = sourceStream;
+    this.buffer = acquireBuffer();
+    this.mask = buffer.length - 1;
   }
-  
+
   /** Constructor, from another source. */
   public XThreadInputStream()
   {
-    this.sourceStream = null;
+    this(null);
   }
-  
+
   /** Call this method to abort the stuffQueue() method.
   */
   public void abort()
   {
-    synchronized (this)
-    {
-      abort = true;
-      notifyAll();
-    }
+    abort = true;
+    wakeProducer();
   }
-  
+
   /** This method is called from the helper thread side, to stuff bytes onto
   * the queue when there is no input stream.
   * It exits only when interrupted or done.
@@ -67,104 +99,85 @@ public class XThreadInputStream extends InputStream
   {
     while (amount > 0)
     {
-      int maxToRead;
-      int readStartPoint;
-      synchronized (this)
+      int maxToWrite = waitForSpace();
+      if (maxToWrite == 0)
       {
-        if (abort || streamEnd)
-          return;
-        // Calculate amount to read
-        maxToRead = buffer.length - byteCount;
-        if (maxToRead == 0)
-        {
-          wait();
-          continue;
-        }
-        readStartPoint = (startPoint + byteCount) & (buffer.length-1);
+        // Aborted, or already done
+        releaseProducer();
+        return;
       }
-      if (readStartPoint + maxToRead >= buffer.length)
-        maxToRead = buffer.length - readStartPoint;
-      // Now, copy to buffer
+      int writeStartPoint = (int)writeIndex & mask;
+      if (writeStartPoint + maxToWrite > buffer.length)
+        maxToWrite = buffer.length - writeStartPoint;
       int amt;
-      if (amount > maxToRead)
-        amt = maxToRead;
+      if (amount > maxToWrite)
+        amt = maxToWrite;
       else
         amt = amount;
-      System.arraycopy(byteBuffer,offset,buffer,readStartPoint,amt);
+      System.arraycopy(byteBuffer,offset,buffer,writeStartPoint,amt);
       offset += amt;
       amount -= amt;
-      synchronized (this)
-      {
-        byteCount += amt;
-        notifyAll();
-      }
+      writeIndex += amt;
+      wakeConsumer();
     }
   }
-  
+
   /** Call this method when there is no more data to write.
   */
   public void doneStuffingQueue()
   {
-    synchronized (this)
-    {
-      streamEnd = true;
-      notifyAll();
-    }
+    streamEnd = true;
+    wakeConsumer();
+    releaseProducer();
   }
-  
+
   /** This method is called from the helper thread side, to keep the queue
   * stuffed from the input stream.
-  * It exits when the stream is empty, or when interrupted.
+  * It exits when the stream is empty or fails, or when interrupted.
   */
   public void stuffQueue()
     throws IOException, InterruptedException
   {
     while (true)
     {
-      int maxToRead;
-      int readStartPoint;
-      synchronized (this)
+      int maxToRead = waitForSpace();
+      if (maxToRead == 0)
       {
-        if (streamEnd || abort)
-          return;
-        // Calculate amount to read
-        maxToRead = buffer.length - byteCount;
-        if (maxToRead == 0)
-        {
-          wait();
-          continue;
-        }
-        readStartPoint = (startPoint + byteCount) & (buffer.length-1);
+        releaseProducer();
+        return;
       }
-      
+
       // See how to break up the reads into pieces.  We only do one piece right now.
-      if (readStartPoint + maxToRead >= buffer.length)
+      int readStartPoint = (int)writeIndex & mask;
+      if (readStartPoint + maxToRead > buffer.length)
         maxToRead = buffer.length - readStartPoint;
-      
-      int amt = -1;
-      IOException exception = null;
+
+      int amt;
       try
       {
         amt = sourceStream.read(buffer, readStartPoint, maxToRead);
       }
       catch (IOException e)
       {
-        exception = e;
+        // The consumer sees this once it has drained what is already buffered
+        failureException = e;
+        wakeConsumer();
+        releaseProducer();
+        return;
       }
-      
-      synchronized (this)
+
+      if (amt == -1)
       {
-        if (exception != null)
-          failureException = exception;
-        else if (amt == -1)
-          streamEnd = true;
-        else
-          byteCount += amt;
-        notifyAll();
+        streamEnd = true;
+        wakeConsumer();
+        releaseProducer();
+        return;
       }
+      writeIndex += amt;
+      wakeConsumer();
     }
   }
-  
+
   /** Read a byte.
   */
   @Override
@@ -175,9 +188,9 @@ public class XThreadInputStream extends InputStream
     int amt = read(b,0,1);
     if (amt == -1)
       return amt;
-    return ((int)b[0]) & 0xffff;
+    return ((int)b[0]) & 0xff;
   }
-    
+
   /** Read lots of bytes.
   */
   @Override
@@ -187,61 +200,100 @@ public class XThreadInputStream extends InputStream
     return read(b,0,b.length);
   }
 
-  /** Read lots of specific bytes.
+  /** Read lots of specific bytes.  This blocks until at least one byte is available, and then returns
+  * whatever is in the buffer, up to len bytes.
   */
   @Override
   public int read(byte[] b, int off, int len)
     throws IOException
   {
+    if (len == 0)
+      return 0;
+    if (consumerReleased.get())
+      return finishedRead();
     try
     {
+      int copyLen = waitForData();
+      if (copyLen == 0)
+      {
+        releaseConsumer();
+        return -1;
+      }
       int totalAmt = 0;
-      while (true)
+      while (copyLen > 0 && len > 0)
       {
-        if (len == 0)
-          return totalAmt;
-        int copyLen;
-        synchronized (this)
-        {
-          copyLen = byteCount;
-          if (copyLen > len)
-            copyLen = len;
-          int remLen = buffer.length - startPoint;
-          if (copyLen > remLen)
-            copyLen = remLen;
-          if (copyLen == 0)
-          {
-            if (streamEnd)
-            {
-              if (totalAmt != 0)
-                return totalAmt;
-              return -1;
-            }
-            if (failureException != null)
-              throw failureException;
-            wait();
-            continue;
-          }
-        }
-        System.arraycopy(buffer, startPoint, b, off, copyLen);
+        int readStartPoint = (int)readIndex & mask;
+        if (copyLen > len)
+          copyLen = len;
+        if (readStartPoint + copyLen > buffer.length)
+          copyLen = buffer.length - readStartPoint;
+        System.arraycopy(buffer, readStartPoint, b, off, copyLen);
         totalAmt += copyLen;
         off += copyLen;
         len -= copyLen;
-        synchronized (this)
+        readIndex += copyLen;
+        wakeProducer();
+        // Pick up anything that arrived meanwhile, or the other half of a wrapped region
+        copyLen = (int)(writeIndex - readIndex);
+      }
+      return totalAmt;
+    }
+    catch (IOException e)
+    {
+      releaseConsumer();
+      throw e;
+    }
+    catch (InterruptedException e)
+    {
+      throw new InterruptedIOException(e.getMessage());
+    }
+  }
+
+  /** Copy everything that remains in this stream to an output stream.  The bytes are written
+  * straight out of the ring buffer, without passing through an intermediate array.
+  *@param out is the output stream.
+  *@return the number of bytes transferred.
+  */
+  public long transferTo(OutputStream out)
+    throws IOException
+  {
+    if (consumerReleased.get())
+    {
+      finishedRead();
+      return 0L;
+    }
+    try
+    {
+      long totalAmt = 0L;
+      while (true)
+      {
+        int copyLen = waitForData();
+        if (copyLen == 0)
         {
-          startPoint += copyLen;
-          startPoint &= (buffer.length - 1);
-          byteCount -= copyLen;
-          notifyAll();
+          releaseConsumer();
+          return totalAmt;
         }
+        int readStartPoint = (int)readIndex & mask;
+        if (readStartPoint + copyLen > buffer.length)
+          copyLen = buffer.length - readStartPoint;
+        // The region stays ours until readIndex moves past it
+        out.write(buffer, readStartPoint, copyLen);
+        totalAmt += copyLen;
+        readIndex += copyLen;
+        wakeProducer();
       }
     }
+    catch (IOException e)
+    {
+      releaseConsumer();
+      throw e;
+    }
     catch (InterruptedException e)
     {
       throw new InterruptedIOException(e.getMessage());
     }
   }
-  
+
   /** Skip
   */
   @Override
@@ -258,8 +310,9 @@ public class XThreadInputStream extends InputStream
   public int available()
     throws IOException
   {
-    // Not supported
-    return 0;
+    if (consumerReleased.get())
+      return 0;
+    return (int)(writeIndex - readIndex);
   }
 
   /** Mark.
@@ -294,7 +347,126 @@ public class XThreadInputStream extends InputStream
   public void close()
     throws IOException
   {
-    // Do nothing; stream close is handled by the caller on the stuffer side
+    // Stream close is handled by the caller on the stuffer side; we just give up our claim on the buffer
+    releaseConsumer();
+  }
+
+  /** Result of a read once the consumer has given up the buffer.
+  */
+  private int finishedRead()
+    throws IOException
+  {
+    IOException failure = failureException;
+    if (failure != null && !streamEnd)
+      throw failure;
+    return -1;
+  }
+
+  /** Producer side: wait until there is room in the buffer.  A consumer that has closed the stream
+  * will never make room, so that counts as an abort.
+  *@return the number of free bytes, or 0 if the stream was aborted, closed, or has already ended.
+  */
+  private int waitForSpace()
+    throws InterruptedException
+  {
+    while (true)
+    {
+      if (abort || streamEnd || consumerReleased.get())
+        return 0;
+      int space = buffer.length - (int)(writeIndex - readIndex);
+      if (space > 0)
+        return space;
+      waitingProducer = Thread.currentThread();
+      // Check again, now that the consumer can see us, so that a wakeup is not lost
+      if (!abort && !consumerReleased.get() && buffer.length - (int)(writeIndex - readIndex) == 0)
+        LockSupport.park(this);
+      waitingProducer = null;
+      if (Thread.interrupted())
+        throw new InterruptedException();
+    }
+  }
+
+  /** Consumer side: wait until there is data in the buffer.
+  *@return the number of bytes available, or 0 if the stream has ended and everything has been read.
+  */
+  private int waitForData()
+    throws IOException, InterruptedException
+  {
+    while (true)
+    {
+      // Read the flags first; the producer sets them only after its last write
+      boolean ended = streamEnd;
+      IOException failure = failureException;
+      int available = (int)(writeIndex - readIndex);
+      if (available > 0)
+        return available;
+      if (ended)
+        return 0;
+      if (failure != null)
+        throw failure;
+      waitingConsumer = Thread.currentThread();
+      // Check again, now that the producer can see us, so that a wakeup is not lost
+      if (!streamEnd && failureException == null && writeIndex == readIndex)
+        LockSupport.park(this);
+      waitingConsumer = null;
+      if (Thread.interrupted())
+        throw new InterruptedException();
+    }
+  }
+
+  private void wakeProducer()
+  {
+    Thread t = waitingProducer;
+    if (t != null)
+      LockSupport.unpark(t);
+  }
+
+  private void wakeConsumer()
+  {
+    Thread t = waitingConsumer;
+    if (t != null)
+      LockSupport.unpark(t);
+  }
+
+  /** Note that the producer will not touch the buffer again. */
+  private void releaseProducer()
+  {
+    if (producerReleased.compareAndSet(false,true))
+      releaseBuffer();
+  }
+
+  /** Note that the consumer will not touch the buffer again. */
+  private void releaseConsumer()
+  {
+    if (consumerReleased.compareAndSet(false,true))
+    {
+      // A producer waiting for room would otherwise wait forever
+      wakeProducer();
+      releaseBuffer();
+    }
+  }
+
+  private void releaseBuffer()
+  {
+    if (bufferHolders.decrementAndGet() == 0)
+      returnBuffer(buffer);
+  }
+
+  private static byte[] acquireBuffer()
+  {
+    byte[] rval = bufferPool.poll();
+    if (rval == null)
+      return new byte[bufferSize];
+    pooledBufferCount.decrementAndGet();
+    return rval;
+  }
+
+  private static void returnBuffer(byte[] b)
+  {
+    if (pooledBufferCount.incrementAndGet() <= maxPooledBuffers)
+      bufferPool.offer(b);
+    else
+      pooledBufferCount.decrementAndGet();
   }
 
 }
@@ -0,0 +1,234 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.connectorcommon.common;
+
+import java.io.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestXThreadInputStream
+{
+  @Test
+  public void readAcrossWrap()
+    throws Exception
+  {
+    // Several times the buffer size, in odd-sized pieces, so that reads and writes straddle the wrap point
+    byte[] data = makeData(1000003);
+    XThreadInputStream stream = new XThreadInputStream();
+    ProducerThread t = startWriter(stream,data,777);
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] b = new byte[1234];
+    while (true)
+    {
+      int amt = stream.read(b);
+      if (amt == -1)
+        break;
+      result.write(b,0,amt);
+    }
+    t.join();
+    assertNull(t.getException());
+    assertArrayEquals(data,result.toByteArray());
+    assertEquals(-1,stream.read());
+  }
+
+  @Test
+  public void transferFromSourceStream()
+    throws Exception
+  {
+    byte[] data = makeData(300001);
+    final XThreadInputStream stream = new XThreadInputStream(new ByteArrayInputStream(data));
+    ProducerThread t = new ProducerThread()
+    {
+      protected void produce()
+        throws Exception
+      {
+        stream.stuffQueue();
+      }
+    };
+    t.start();
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    assertEquals((long)data.length,stream.transferTo(result));
+    t.join();
+    assertNull(t.getException());
+    assertArrayEquals(data,result.toByteArray());
+  }
+
+  @Test
+  public void singleByteReads()
+    throws Exception
+  {
+    XThreadInputStream stream = new XThreadInputStream();
+    stream.stuffQueue(new byte[]{(byte)0xff,(byte)0x80,(byte)0x01},0,3);
+    stream.doneStuffingQueue();
+    assertEquals(0xff,stream.read());
+    assertEquals(0x80,stream.read());
+    assertEquals(0x01,stream.read());
+    assertEquals(-1,stream.read());
+  }
+
+  @Test
+  public void failureAfterBufferedData()
+    throws Exception
+  {
+    InputStream failing = new InputStream()
+    {
+      protected boolean first = true;
+
+      public int read()
+        throws IOException
+      {
+        throw new IOException("Not expected");
+      }
+
+      public int read(byte[] b, int off, int len)
+        throws IOException
+      {
+        if (!first)
+          throw new IOException("Source failed");
+        first = false;
+        b[off] = 42;
+        return 1;
+      }
+    };
+    XThreadInputStream stream = new XThreadInputStream(failing);
+    stream.stuffQueue();
+    // What was buffered before the failure is still delivered
+    assertEquals(42,stream.read());
+    try
+    {
+      stream.read();
+      fail("Expected the source failure");
+    }
+    catch (IOException e)
+    {
+      assertEquals("Source failed",e.getMessage());
+    }
+  }
+
+  @Test
+  public void abortStopsProducer()
+    throws Exception
+  {
+    final XThreadInputStream stream = new XThreadInputStream();
+    final byte[] data = makeData(200000);
+    // Nobody reads, so the producer fills the buffer and blocks until aborted
+    ProducerThread t = new ProducerThread()
+    {
+      protected void produce()
+        throws Exception
+      {
+        stream.stuffQueue(data,0,data.length);
+      }
+    };
+    t.start();
+    Thread.sleep(100L);
+    stream.abort();
+    t.join(10000L);
+    assertFalse(t.isAlive());
+    assertNull(t.getException());
+  }
+
+  @Test
+  public void closeStopsProducer()
+    throws Exception
+  {
+    final XThreadInputStream stream = new XThreadInputStream();
+    final byte[] data = makeData(1000000);
+    ProducerThread t = new ProducerThread()
+    {
+      protected void produce()
+        throws Exception
+      {
+        stream.stuffQueue(data,0,data.length);
+      }
+    };
+    t.start();
+    // Read a little, then give up on the stream while the producer is blocked on a full buffer
+    byte[] b = new byte[1000];
+    assertTrue(stream.read(b) > 0);
+    Thread.sleep(100L);
+    stream.close();
+    t.join(10000L);
+    assertFalse(t.isAlive());
+    assertNull(t.getException());
+    assertEquals(-1,stream.read(b));
+  }
+
+  protected static byte[] makeData(int size)
+  {
+    byte[] rval = new byte[size];
+    new Random(size).nextBytes(rval);
+    return rval;
+  }
+
+  protected static ProducerThread startWriter(final XThreadInputStream stream, final byte[] data, final int chunkSize)
+  {
+    ProducerThread t = new ProducerThread()
+    {
+      protected void produce()
+        throws Exception
+      {
+        OutputStream os = new XThreadOutputStream(stream);
+        int offset = 0;
+        while (offset < data.length)
+        {
+          int amt = Math.min(chunkSize,data.length - offset);
+          os.write(data,offset,amt);
+          offset += amt;
+        }
+        os.close();
+      }
+    };
+    t.start();
+    return t;
+  }
+
+  /** Thread that feeds a stream, and keeps whatever it throws for the test to check */
+  protected static abstract class ProducerThread extends Thread
+  {
+    protected Throwable exception = null;
+
+    public ProducerThread()
+    {
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      try
+      {
+        produce();
+      }
+      catch (Throwable e)
+      {
+        exception = e;
+      }
+    }
+
+    protected abstract void produce()
+      throws Exception;
+
+    public Throwable getException()
+    {
+      return exception;
+    }
+  }
+
+}
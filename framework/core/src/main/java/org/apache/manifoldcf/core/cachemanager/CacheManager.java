@@ -37,17 +37,30 @@ public class CacheManager implements ICacheManager
 
   protected final static String cacheLockPrefix = "_Cache_";
 
+  /** The greatest age, in milliseconds, an invalidation time may have when it is read from the lock manager's local
+  * copy rather than from the shared resource.  Zero means always read the shared resource. */
+  public final static String invalidationMaxStalenessProperty = "org.apache.manifoldcf.cache.invalidation.maxstaleness";
+
   protected ILockManager lockManager;
+  protected final long invalidationMaxStaleness;
   protected static GeneralCache cache = new GeneralCache();
 
   // This is the hash mapping transaction id's to CacheTransactionHandle objects.
   // It is thread specific because transactions are thread local.
   protected HashMap transactionHash = new HashMap();
 
+  /** Get the hit, miss, and eviction counters for the local cache.
+  */
+  public static CacheStatistics getStatistics()
+  {
+    return cache.getStatistics();
+  }
+
   public CacheManager(IThreadContext context)
     throws ManifoldCFException
   {
     lockManager = LockManagerFactory.make(context);
+    invalidationMaxStaleness = lockManager.getSharedConfiguration().getLongProperty(invalidationMaxStalenessProperty,0L);
   }
 
   /** Locate or create a set of objects in the cached object pool, and/or destroy and invalidate
@@ -424,9 +437,14 @@ public class CacheManager implements ICacheManager
       // If nothing stops us, look in the global cache too
     }
 
+    ICacheClass lookupClass = objectDescription.getObjectClass();
+    String lookupClassName = (lookupClass == null)?null:lookupClass.getClassName();
     Object o = cache.lookup(objectDescription);
     if (o == null)
+    {
+      cache.getStatistics().noteMiss(lookupClassName);
       return null;
+    }
 
     if (Logging.cache.isDebugEnabled())
     {
@@ -439,6 +457,7 @@ public class CacheManager implements ICacheManager
     {
       // Blow away the entry in cache, since it has expired
       cache.deleteObject(objectDescription);
+      cache.getStatistics().noteMiss(lookupClassName);
       return null;
     }
     
@@ -455,6 +474,7 @@ public class CacheManager implements ICacheManager
       {
         // Blow away the entry in cache, since it has expired
         cache.deleteObject(objectDescription);
+        cache.getStatistics().noteMiss(lookupClassName);
         return null;
       }
     }
@@ -469,6 +489,7 @@ public class CacheManager implements ICacheManager
     // Update the expiration time for this object.
     resetObjectExpiration(objectDescription,handle.getLookupTime());
 
+    cache.getStatistics().noteHit(lookupClassName);
     return o;
   }
 
@@ -846,7 +867,7 @@ public class CacheManager implements ICacheManager
     throws ManifoldCFException
   {
     // Read cache resource
-    byte[] cacheResourceData = lockManager.readData("cache-"+key);
+    byte[] cacheResourceData = lockManager.readMirroredData("cache-"+key,invalidationMaxStaleness);
     if (cacheResourceData == null)
       return 0L;
 
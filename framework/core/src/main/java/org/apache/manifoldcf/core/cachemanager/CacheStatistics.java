@@ -0,0 +1,115 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.cachemanager;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** This class keeps hit, miss, and eviction counts for the general cache, per object class.
+* A hit is a lookup that found a valid object in the cache; a miss is one that did not, including
+* lookups that found an object that had expired or been invalidated by another JVM.  An eviction
+* is an object removed to keep its class within its maximum count.  Objects without a class are
+* counted under the empty class name.  Counts are cumulative since startup.
+*/
+public class CacheStatistics
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The counters, keyed by object class */
+  protected final ConcurrentMap<String,ClassCounters> counters = new ConcurrentHashMap<String,ClassCounters>();
+
+  /** Constructor */
+  public CacheStatistics()
+  {
+  }
+
+  /** Note a lookup that found a valid object. */
+  public void noteHit(String objectClass)
+  {
+    findCounters(objectClass).hits.incrementAndGet();
+  }
+
+  /** Note a lookup that did not find a valid object. */
+  public void noteMiss(String objectClass)
+  {
+    findCounters(objectClass).misses.incrementAndGet();
+  }
+
+  /** Note an object evicted to meet its class's maximum count. */
+  public void noteEviction(String objectClass)
+  {
+    findCounters(objectClass).evictions.incrementAndGet();
+  }
+
+  /** Get the object classes seen since startup. */
+  public Set<String> getObjectClasses()
+  {
+    return new HashSet<String>(counters.keySet());
+  }
+
+  /** Get the number of hits for an object class. */
+  public long getHitCount(String objectClass)
+  {
+    ClassCounters c = counters.get(normalize(objectClass));
+    return (c==null)?0L:c.hits.get();
+  }
+
+  /** Get the number of misses for an object class. */
+  public long getMissCount(String objectClass)
+  {
+    ClassCounters c = counters.get(normalize(objectClass));
+    return (c==null)?0L:c.misses.get();
+  }
+
+  /** Get the number of evictions for an object class. */
+  public long getEvictionCount(String objectClass)
+  {
+    ClassCounters c = counters.get(normalize(objectClass));
+    return (c==null)?0L:c.evictions.get();
+  }
+
+  protected ClassCounters findCounters(String objectClass)
+  {
+    objectClass = normalize(objectClass);
+    ClassCounters c = counters.get(objectClass);
+    if (c == null)
+    {
+      c = new ClassCounters();
+      ClassCounters existing = counters.putIfAbsent(objectClass,c);
+      if (existing != null)
+        c = existing;
+    }
+    return c;
+  }
+
+  protected static String normalize(String objectClass)
+  {
+    return (objectClass==null)?"":objectClass;
+  }
+
+  /** The counters for one object class */
+  protected static class ClassCounters
+  {
+    public final AtomicLong hits = new AtomicLong();
+    public final AtomicLong misses = new AtomicLong();
+    public final AtomicLong evictions = new AtomicLong();
+  }
+
+}
@@ -20,86 +20,135 @@ package org.apache.manifoldcf.core.cachemanager;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /** General cache class.  This class will be statically instantiated.  It contains all the structures
 * needed to maintain a cache of objects, with both LRU flushing behavior, and timed expiration of
 * objects.
 * This cache is entirely local to a JVM and does NOT have any locking and synchronization semantics
 * cross-JVM.  That is handled at a higher level.
+*
+* The cache is divided into segments by object description hash, and each segment has its own lock,
+* so threads looking up different objects do not contend with one another.  Invalidation and expiration
+* visit every segment in turn.  The maximum count for an object class is enforced across the whole cache,
+* but the least-recently-used ordering is kept per segment, so an eviction removes the oldest member of
+* the class in one segment rather than necessarily the oldest member overall.
 */
 public class GeneralCache
 {
   public static final String _rcsid = "@(#)$Id: GeneralCache.java 988245 2010-08-23 18:39:35Z kwright $";
 
-  // This table is for looking stuff up by object description
-  protected ObjectRecordTable hashtable = new ObjectRecordTable();
-  // This table is for looking stuff up by cache key - hash table of hash tables
-  protected InvalidationTable invalidationTable = new InvalidationTable();
-  // This table keeps the running count of each object class
-  protected ObjectClassTable objectClassTable = new ObjectClassTable();
-  // This structure is the general expiration tree
-  public ExpirationTree expirationTree = new ExpirationTree();
+  /** Default number of segments */
+  protected final static int defaultSegmentCount = 16;
+
+  /** The segments */
+  protected final Segment[] segments;
+  /** The number of cached objects in each object class, across all segments */
+  protected final ConcurrentMap<String,AtomicInteger> classCounts = new ConcurrentHashMap<String,AtomicInteger>();
+  /** Hit, miss, and eviction counters */
+  protected final CacheStatistics statistics = new CacheStatistics();
 
   public GeneralCache()
   {
+    this(defaultSegmentCount);
+  }
+
+  /** Constructor.
+  *@param segmentCount is the number of independently locked segments.
+  */
+  public GeneralCache(int segmentCount)
+  {
+    segments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++)
+    {
+      segments[i] = new Segment();
+    }
+  }
+
+  /** Get the hit, miss, and eviction counters for this cache.
+  */
+  public CacheStatistics getStatistics()
+  {
+    return statistics;
   }
 
   /** Locate an object in the cache, and return it if found.
   *@param objectDescription is the object's unique identifier.
   *@return the object if found, or null if not present in the cache.
   */
-  public synchronized Object lookup(Object objectDescription)
+  public Object lookup(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
-    if (o == null)
-      return null;
-    return o.getObject();
+    Segment segment = segmentFor(objectDescription);
+    synchronized (segment)
+    {
+      ObjectRecord o = segment.hashtable.lookup(objectDescription);
+      if (o == null)
+        return null;
+      return o.getObject();
+    }
   }
 
   /** Get the creation time of an object in the cache.
   *@param objectDescription is the object's unique identifier.
   *@return the creation time, or -1 if object not found.
   */
-  public synchronized long getObjectCreationTime(Object objectDescription)
+  public long getObjectCreationTime(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
-    if (o == null)
-      return -1L;
-    return o.getCreationTime();
+    Segment segment = segmentFor(objectDescription);
+    synchronized (segment)
+    {
+      ObjectRecord o = segment.hashtable.lookup(objectDescription);
+      if (o == null)
+        return -1L;
+      return o.getCreationTime();
+    }
   }
 
   /** Get the invalidation keys for an object in the cache.
   *@param objectDescription is the object's unique identifier.
   *@return the keys, or null if not found.
   */
-  public synchronized StringSet getObjectInvalidationKeys(Object objectDescription)
+  public StringSet getObjectInvalidationKeys(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
-    if (o == null)
-      return null;
-    return o.getKeys();
+    Segment segment = segmentFor(objectDescription);
+    synchronized (segment)
+    {
+      ObjectRecord o = segment.hashtable.lookup(objectDescription);
+      if (o == null)
+        return null;
+      return o.getKeys();
+    }
   }
 
   /** Get the expiration time for an object in the cache.
   *@param objectDescription is the object's unique identifier.
   *@return the expiration time (-1L means none).
   */
-  public synchronized long getObjectExpirationTime(Object objectDescription)
+  public long getObjectExpirationTime(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
-    if (o == null)
-      return -1L;
-    return o.getObjectExpiration();
+    Segment segment = segmentFor(objectDescription);
+    synchronized (segment)
+    {
+      ObjectRecord o = segment.hashtable.lookup(objectDescription);
+      if (o == null)
+        return -1L;
+      return o.getObjectExpiration();
+    }
   }
 
   /** Delete a record from the cache.
   *@param objectDescription is the unique description.
   */
-  public synchronized void deleteObject(Object objectDescription)
+  public void deleteObject(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
-    if (o != null)
-      deleteEntry(o);
+    Segment segment = segmentFor(objectDescription);
+    synchronized (segment)
+    {
+      ObjectRecord o = segment.hashtable.lookup(objectDescription);
+      if (o != null)
+        segment.deleteEntry(o);
+    }
   }
 
   /** Add a newly created object to the cache.  Use ONLY for newly created objects!
@@ -108,37 +157,49 @@ public class GeneralCache
   *@param keys are the invalidation keys for the newly created object.
   *@param timestamp is the creation timestamp for this object (used for cross-JVM invalidation)
   */
-  public synchronized void setObject(Object objectDescription, Object object, StringSet keys, long timestamp)
+  public void setObject(Object objectDescription, Object object, StringSet keys, long timestamp)
   {
-    ObjectRecord record = new ObjectRecord(objectDescription,object,keys,timestamp);
-    hashtable.add(record);
-    // Make an entry in the invalidation hash
-    invalidationTable.addKeys(keys,record);
-    // Object has no expiration or class yet, so don't add it to the expiration tree, or to the object
-    // class trees
+    Segment segment = segmentFor(objectDescription);
+    synchronized (segment)
+    {
+      ObjectRecord record = new ObjectRecord(objectDescription,object,keys,timestamp);
+      // If there's already a record for this description, take it out of everything first
+      ObjectRecord existing = segment.hashtable.lookup(objectDescription);
+      if (existing != null)
+        segment.deleteEntry(existing);
+      segment.hashtable.add(record);
+      // Make an entry in the invalidation hash
+      segment.invalidationTable.addKeys(keys,record);
+      // Object has no expiration or class yet, so don't add it to the expiration tree, or to the object
+      // class trees
+    }
   }
 
   /** Set an object's expiration time.
   *@param objectDescription is the object's unique description.
   *@param expirationTime is the object's new expiration time, in milliseconds since epoch.
   */
-  public synchronized void setObjectExpiration(Object objectDescription, long expirationTime)
+  public void setObjectExpiration(Object objectDescription, long expirationTime)
   {
-    // Find existing object
-    ObjectRecord existing = hashtable.lookup(objectDescription);
-    if (existing == null)
-      return;
-    if (existing.getObjectExpiration() != -1)
-    {
-      // Pull the object from the expiration tree
-      expirationTree.removeEntry(existing);
-    }
-    // Set the new expiration
-    existing.setObjectExpiration(expirationTime);
-    if (expirationTime != -1)
+    Segment segment = segmentFor(objectDescription);
+    synchronized (segment)
     {
-      //Put the object back into the expiration tree
-      expirationTree.addEntry(existing);
+      // Find existing object
+      ObjectRecord existing = segment.hashtable.lookup(objectDescription);
+      if (existing == null)
+        return;
+      if (existing.getObjectExpiration() != -1)
+      {
+        // Pull the object from the expiration tree
+        segment.expirationTree.removeEntry(existing);
+      }
+      // Set the new expiration
+      existing.setObjectExpiration(expirationTime);
+      if (expirationTime != -1)
+      {
+        //Put the object back into the expiration tree
+        segment.expirationTree.addEntry(existing);
+      }
     }
   }
 
@@ -149,69 +210,97 @@ public class GeneralCache
   *@param maxCount is the maximum number of objects of the class to permit to
   * remain in the cache.
   */
-  public synchronized void setObjectClass(Object objectDescription, String objectClass,
+  public void setObjectClass(Object objectDescription, String objectClass,
     int maxCount)
   {
-    // Lookup the existing object class
-    ObjectRecord existing = hashtable.lookup(objectDescription);
-    if (existing == null)
-      return;
-    if (existing.getObjectClass() != null)
+    Segment segment = segmentFor(objectDescription);
+    synchronized (segment)
     {
-      // Pull the object from the object class expiration tree
-      objectClassTable.removeEntry(existing);
+      // Lookup the existing object class
+      ObjectRecord existing = segment.hashtable.lookup(objectDescription);
+      if (existing == null)
+        return;
+      if (objectClass != null && objectClass.equals(existing.getObjectClass()))
+      {
+        // Same class, so the counts don't change; just move it to the most-recently-used end
+        segment.objectClassTable.touchEntry(existing);
+      }
+      else
+      {
+        if (existing.getObjectClass() != null)
+        {
+          // Pull the object from the object class expiration tree
+          segment.objectClassTable.removeEntry(existing);
+        }
+        // Set the new object class & LRU value
+        existing.setObjectClass(objectClass);
+        if (objectClass == null)
+          return;
+        // Put the object into the object class expiration tree
+        segment.objectClassTable.addEntry(existing);
+      }
+      if (maxCount < 0)
+        return;
+      // Clean up older objects in this segment first, since we already hold its lock
+      while (getClassCount(objectClass) > maxCount)
+      {
+        ObjectRecord oldestRecord = segment.objectClassTable.getOldestEntry(objectClass);
+        if (oldestRecord == existing)
+          break;
+        // Delete this entry from all places it lives
+        segment.deleteEntry(oldestRecord);
+        statistics.noteEviction(objectClass);
+      }
+      if (getClassCount(objectClass) <= maxCount)
+        return;
     }
-    // Set the new object class & LRU value
-    existing.setObjectClass(objectClass);
-    if (objectClass != null)
-    {
-      // Put the object into the object class expiration tree
-      objectClassTable.addEntry(existing);
 
-      if (maxCount >= 0)
+    // Still over the limit; take the oldest members from the other segments, one lock at a time
+    for (Segment other : segments)
+    {
+      if (other == segment)
+        continue;
+      synchronized (other)
       {
-        // Now, clean up objects to meet the count
-        while (objectClassTable.getCurrentMemberCount(objectClass) > maxCount)
+        while (getClassCount(objectClass) > maxCount)
         {
-          ObjectRecord oldestRecord = objectClassTable.getOldestEntry(objectClass);
-          // Delete this entry from all places it lives
-          deleteEntry(oldestRecord);
+          ObjectRecord oldestRecord = other.objectClassTable.getOldestEntry(objectClass);
+          if (oldestRecord == null)
+            break;
+          other.deleteEntry(oldestRecord);
+          statistics.noteEviction(objectClass);
         }
-
       }
+      if (getClassCount(objectClass) <= maxCount)
+        return;
     }
 
+    // Nothing else to evict, so the object we were given goes too
+    synchronized (segment)
+    {
+      while (getClassCount(objectClass) > maxCount)
+      {
+        ObjectRecord oldestRecord = segment.objectClassTable.getOldestEntry(objectClass);
+        if (oldestRecord == null)
+          break;
+        segment.deleteEntry(oldestRecord);
+        statistics.noteEviction(objectClass);
+      }
+    }
   }
 
   /** Invalidate a set of keys.  This causes all objects that have any of the specified
   * keys as invalidation keys to be removed from the cache.
   *@param keys is the StringSet describing the keys to invalidate.
   */
-  public synchronized void invalidateKeys(StringSet keys)
+  public void invalidateKeys(StringSet keys)
   {
-    Iterator enum2 = keys.getKeys();
-    while (enum2.hasNext())
+    for (Segment segment : segments)
     {
-      String invalidateKey = (String)enum2.next();
-      Iterator enum1 = invalidationTable.getObjectRecordsForKey(invalidateKey);
-      while (enum1.hasNext())
+      synchronized (segment)
       {
-        ObjectRecord record = (ObjectRecord)enum1.next();
-        hashtable.remove(record);
-        // Remove from object class table
-        if (record.getObjectClass() != null)
-        {
-          objectClassTable.removeEntry(record);
-        }
-        // Remove from expiration table
-        if (record.getExpirationTime() >= 0)
-        {
-          expirationTree.removeEntry(record);
-        }
-
+        segment.invalidateKeys(keys);
       }
-      // We do this last, because we are enumerating over something in here!
-      invalidationTable.removeKey(invalidateKey);
     }
   }
 
@@ -220,47 +309,133 @@ public class GeneralCache
   */
   public void expireRecords(long expireTime)
   {
-    while (true)
+    for (Segment segment : segments)
     {
-      // Do the synchronizer inside the loop.  Cleanup is slower,
-      // but the cache does not get locked for long periods.
-      synchronized (this)
+      while (true)
       {
-        // Get the oldest record, if any
-        ObjectRecord x = expirationTree.getOldestEntry();
-        if (x == null)
-          break;
-        if (x.getExpirationTime() > expireTime)
-          break;
-        // Remove the entry
-        deleteEntry(x);
+        // Do the synchronizer inside the loop.  Cleanup is slower,
+        // but the cache does not get locked for long periods.
+        synchronized (segment)
+        {
+          // Get the oldest record, if any
+          ObjectRecord x = segment.expirationTree.getOldestEntry();
+          if (x == null)
+            break;
+          if (x.getExpirationTime() > expireTime)
+            break;
+          // Remove the entry
+          segment.deleteEntry(x);
+        }
       }
     }
   }
 
-  /** Delete a record from the cache. NOTE WELL: This method cannot be used
-  * if the data associated with the record is currently being processed with
-  * an enumeration (for example), since it modifies the structures that the
-  * enumeration is based on!
-  *@param record is the object record.
+  /** Find the segment an object belongs to.
   */
-  protected void deleteEntry(ObjectRecord record)
+  protected Segment segmentFor(Object objectDescription)
   {
-    // Delete from the main cache
-    hashtable.remove(record);
-    // Delete from key hash
-    invalidationTable.removeObjectRecord(record);
-    // Remove from object class table
-    if (record.getObjectClass() != null)
+    int hash = objectDescription.hashCode();
+    // Spread the bits, since descriptions often have poorly distributed hash codes
+    hash ^= (hash >>> 16);
+    return segments[(hash & 0x7fffffff) % segments.length];
+  }
+
+  /** Get the current count of objects in a class, across all segments.
+  */
+  protected int getClassCount(String objectClass)
+  {
+    AtomicInteger count = classCounts.get(objectClass);
+    if (count == null)
+      return 0;
+    return count.get();
+  }
+
+  /** Adjust the count of objects in a class.
+  */
+  protected void adjustClassCount(String objectClass, int delta)
+  {
+    AtomicInteger count = classCounts.get(objectClass);
+    if (count == null)
     {
-      objectClassTable.removeEntry(record);
+      count = new AtomicInteger();
+      AtomicInteger existing = classCounts.putIfAbsent(objectClass,count);
+      if (existing != null)
+        count = existing;
     }
-    // Remove from expiration table
-    if (record.getExpirationTime() >= 0)
+    count.addAndGet(delta);
+  }
+
+  /** One segment of the cache.  All access to a segment's structures must be synchronized on the segment.
+  */
+  protected class Segment
+  {
+    // This table is for looking stuff up by object description
+    protected final ObjectRecordTable hashtable = new ObjectRecordTable();
+    // This table is for looking stuff up by cache key - hash table of hash tables
+    protected final InvalidationTable invalidationTable = new InvalidationTable();
+    // This table keeps the running count of each object class
+    protected final ObjectClassTable objectClassTable = new ObjectClassTable();
+    // This structure is the general expiration tree
+    protected final ExpirationTree expirationTree = new ExpirationTree();
+
+    public Segment()
     {
-      expirationTree.removeEntry(record);
     }
 
+    /** Remove all objects in this segment that have any of the given keys.
+    */
+    public void invalidateKeys(StringSet keys)
+    {
+      Iterator enum2 = keys.getKeys();
+      while (enum2.hasNext())
+      {
+        String invalidateKey = (String)enum2.next();
+        Iterator enum1 = invalidationTable.getObjectRecordsForKey(invalidateKey);
+        while (enum1.hasNext())
+        {
+          ObjectRecord record = (ObjectRecord)enum1.next();
+          hashtable.remove(record);
+          // Remove from object class table
+          if (record.getObjectClass() != null)
+          {
+            objectClassTable.removeEntry(record);
+          }
+          // Remove from expiration table
+          if (record.getExpirationTime() >= 0)
+          {
+            expirationTree.removeEntry(record);
+          }
+
+        }
+        // We do this last, because we are enumerating over something in here!
+        invalidationTable.removeKey(invalidateKey);
+      }
+    }
+
+    /** Delete a record from the cache. NOTE WELL: This method cannot be used
+    * if the data associated with the record is currently being processed with
+    * an enumeration (for example), since it modifies the structures that the
+    * enumeration is based on!
+    *@param record is the object record.
+    */
+    public void deleteEntry(ObjectRecord record)
+    {
+      // Delete from the main cache
+      hashtable.remove(record);
+      // Delete from key hash
+      invalidationTable.removeObjectRecord(record);
+      // Remove from object class table
+      if (record.getObjectClass() != null)
+      {
+        objectClassTable.removeEntry(record);
+      }
+      // Remove from expiration table
+      if (record.getExpirationTime() >= 0)
+      {
+        expirationTree.removeEntry(record);
+      }
+
+    }
   }
 
   /** This class represents a cached object.  It has enough hooks to allow it
@@ -504,6 +679,7 @@ public class GeneralCache
         hashtable.put(record.getObjectClass(),x);
       }
       x.addEntry(record);
+      adjustClassCount(record.getObjectClass(),1);
     }
 
     /** Call ONLY if there is known to be an existing record in the object class table
@@ -514,6 +690,19 @@ public class GeneralCache
       if (x == null)
         return;
       x.removeEntry(record);
+      adjustClassCount(record.getObjectClass(),-1);
+    }
+
+    /** Move a record to the most-recently-used end of its class.
+    * Call ONLY if there is known to be an existing record in the object class table
+    */
+    public void touchEntry(ObjectRecord record)
+    {
+      ObjectClassRecord x = (ObjectClassRecord)hashtable.get(record.getObjectClass());
+      if (x == null)
+        return;
+      x.removeEntry(record);
+      x.addEntry(record);
     }
 
     public int getCurrentMemberCount(String objectClassName)
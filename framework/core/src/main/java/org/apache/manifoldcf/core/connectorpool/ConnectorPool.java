@@ -20,8 +20,11 @@ package org.apache.manifoldcf.core.connectorpool;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.core.system.Logging;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
 import java.lang.reflect.*;
 
@@ -46,6 +49,14 @@ public abstract class ConnectorPool<T extends IConnector>
   // The lock manager has primitives now that allow data to be set this way.  We will use the connection name as the
   // "data type" name - only in the local pool will we pay any attention to config info and class name, and flush those handles
   // that get returned that have the wrong info attached.
+  //
+  // Handing out and taking back connectors does not take any pool-wide monitor.  Idle connectors sit in a concurrent
+  // deque, and the number of connectors a local pool may still hand out is an atomic count; a thread only blocks
+  // when that count is exhausted.  Polling, target recalculation, and trimming happen in pollAll(), which holds
+  // its own lock and takes idle connectors out of the deque while it polls them, so a slow poll() never holds up grabs.
+
+  /** Interval between wait-time summaries written to the performance log */
+  protected final static long reportInterval = 60000L;
 
   /** Target calc lock prefix */
   protected final static String targetCalcLockPrefix = "_POOLTARGET_";
@@ -53,8 +64,14 @@ public abstract class ConnectorPool<T extends IConnector>
   /** Service type prefix */
   protected final String serviceTypePrefix;
 
-  /** Pool hash table. Keyed by connection name; value is Pool */
-  protected final Map<String,Pool> poolHash = new HashMap<String,Pool>();
+  /** Pool hash table. Keyed by connection name; value is Pool.  Pools are only created or removed
+  * while synchronized on the map. */
+  protected final ConcurrentMap<String,Pool> poolHash = new ConcurrentHashMap<String,Pool>();
+
+  /** Wait statistics, keyed by connection name.  These outlive the pools. */
+  protected final ConcurrentMap<String,WaitStatistics> waitStatistics = new ConcurrentHashMap<String,WaitStatistics>();
+  /** Time of the last wait-time summary */
+  protected volatile long lastReportTime = System.currentTimeMillis();
 
   /** Random number */
   protected final static Random randomNumberGenerator = new Random();
@@ -193,7 +210,7 @@ public abstract class ConnectorPool<T extends IConnector>
           index = orderMap.get(orderingKey).intValue();
           try
           {
-            release(threadContext,connectionName,rval[index]);
+            release(threadContext,connectionNames[index],rval[index]);
           }
           catch (ManifoldCFException e2)
           {
@@ -234,22 +251,30 @@ public abstract class ConnectorPool<T extends IConnector>
     // pool may vanish because it has been closed.
     while (true)
     {
-      Pool p;
-      synchronized (poolHash)
+      Pool p = poolHash.get(connectionName);
+      if (p == null)
       {
-        p = poolHash.get(connectionName);
-        if (p == null)
+        boolean isNew = false;
+        synchronized (poolHash)
+        {
+          p = poolHash.get(connectionName);
+          if (p == null)
+          {
+            p = new Pool(threadContext, maxPoolSize, connectionName);
+            poolHash.put(connectionName,p);
+            isNew = true;
+          }
+        }
+        if (isNew)
         {
-          p = new Pool(threadContext, maxPoolSize, connectionName);
-          poolHash.put(connectionName,p);
           // Do an initial poll right away, so we don't have to wait 5 seconds to 
           // get a connector instance unless they're already all in use.
           p.pollAll(threadContext);
         }
-        else
-        {
-          p.updateMaximumPoolSize(threadContext, maxPoolSize);
-        }
+      }
+      else
+      {
+        p.updateMaximumPoolSize(threadContext, maxPoolSize);
       }
 
       T rval = p.getConnector(threadContext,className,configInfo);
@@ -295,15 +320,9 @@ public abstract class ConnectorPool<T extends IConnector>
       return;
 
     // Figure out which pool this goes on, and put it there
-    Pool p;
-    synchronized (poolHash)
-    {
-      p = poolHash.get(connectionName);
-    }
+    Pool p = poolHash.get(connectionName);
 
-    if (p != null)
-      p.releaseConnector(threadContext, connector);
-    else
+    if (p == null || !p.releaseConnector(threadContext, connector))
     {
       // Destroy the connector instance, since the pool is gone and that means we're shutting down
       connector.setThreadContext(threadContext);
@@ -326,24 +345,26 @@ public abstract class ConnectorPool<T extends IConnector>
   {
     // System.out.println("Pool stats:");
 
-    // Go through the whole pool and notify everyone
-    synchronized (poolHash)
+    // Go through the whole pool and notify everyone.  Grabs go on meanwhile; only pool creation and
+    // removal wait for the map.
+    for (Map.Entry<String,Pool> entry : poolHash.entrySet())
     {
-      Iterator<String> iter = poolHash.keySet().iterator();
-      while (iter.hasNext())
+      String connectionName = entry.getKey();
+      Pool p = entry.getValue();
+      if (isConnectionNameValid(threadContext,connectionName))
+        p.pollAll(threadContext);
+      else
       {
-        String connectionName = iter.next();
-        Pool p = poolHash.get(connectionName);
-        if (isConnectionNameValid(threadContext,connectionName))
-          p.pollAll(threadContext);
-        else
+        synchronized (poolHash)
         {
-          p.releaseAll(threadContext);
-          iter.remove();
+          poolHash.remove(connectionName,p);
         }
+        p.releaseAll(threadContext);
       }
     }
 
+    if (System.currentTimeMillis() - lastReportTime >= reportInterval)
+      reportWaitStatistics();
   }
 
   /** Flush only those connector handles that are currently unused.
@@ -352,14 +373,9 @@ public abstract class ConnectorPool<T extends IConnector>
     throws ManifoldCFException
   {
     // Go through the whole pool and clean it out
-    synchronized (poolHash)
+    for (Pool p : poolHash.values())
     {
-      Iterator<Pool> iter = poolHash.values().iterator();
-      while (iter.hasNext())
-      {
-        Pool p = iter.next();
-        p.flushUnused(threadContext);
-      }
+      p.flushUnused(threadContext);
     }
   }
 
@@ -384,8 +400,80 @@ public abstract class ConnectorPool<T extends IConnector>
     }
   }
 
+  /** Get the connection names for which there are wait statistics.
+  */
+  public Set<String> getWaitStatisticsConnectionNames()
+  {
+    return new HashSet<String>(waitStatistics.keySet());
+  }
+
+  /** Get the number of connectors handed out for a connection name, since startup.
+  */
+  public long getGrabCount(String connectionName)
+  {
+    WaitStatistics s = waitStatistics.get(connectionName);
+    return (s==null)?0L:s.getGrabCount();
+  }
+
+  /** Get the number of times a thread had to wait for a connector for a connection name, since startup.
+  */
+  public long getWaitCount(String connectionName)
+  {
+    WaitStatistics s = waitStatistics.get(connectionName);
+    return (s==null)?0L:s.getWaitCount();
+  }
+
+  /** Get the total time threads spent waiting for connectors for a connection name, since startup, in nanoseconds.
+  */
+  public long getTotalWaitTime(String connectionName)
+  {
+    WaitStatistics s = waitStatistics.get(connectionName);
+    return (s==null)?0L:s.getTotalWaitTime();
+  }
+
+  /** Get the longest time a thread has waited for a connector for a connection name, since startup, in nanoseconds.
+  */
+  public long getMaxWaitTime(String connectionName)
+  {
+    WaitStatistics s = waitStatistics.get(connectionName);
+    return (s==null)?0L:s.getMaxWaitTime();
+  }
+
   // Protected methods and classes
   
+  protected WaitStatistics findWaitStatistics(String connectionName)
+  {
+    WaitStatistics s = waitStatistics.get(connectionName);
+    if (s == null)
+    {
+      s = new WaitStatistics();
+      WaitStatistics existing = waitStatistics.putIfAbsent(connectionName,s);
+      if (existing != null)
+        s = existing;
+    }
+    return s;
+  }
+
+  /** Write the wait statistics to the performance log. */
+  protected void reportWaitStatistics()
+  {
+    lastReportTime = System.currentTimeMillis();
+    if (Logging.perf == null || !Logging.perf.isDebugEnabled())
+      return;
+    StringBuilder sb = new StringBuilder("Connector pool '");
+    sb.append(serviceTypePrefix).append("' wait statistics since startup:");
+    for (Map.Entry<String,WaitStatistics> entry : waitStatistics.entrySet())
+    {
+      WaitStatistics s = entry.getValue();
+      long waitCount = s.getWaitCount();
+      sb.append(" [").append(entry.getKey()).append("] grabs=").append(s.getGrabCount())
+        .append(" waits=").append(waitCount)
+        .append(" avg wait=").append((waitCount==0L)?0L:(s.getTotalWaitTime()/waitCount/1000000L)).append("ms")
+        .append(" max wait=").append(s.getMaxWaitTime()/1000000L).append("ms;");
+    }
+    Logging.perf.debug(sb.toString());
+  }
+
   protected String buildServiceTypeName(String connectionName)
   {
     return serviceTypePrefix + connectionName;
@@ -401,23 +489,33 @@ public abstract class ConnectorPool<T extends IConnector>
   protected class Pool
   {
     /** Whether this pool is alive */
-    protected boolean isAlive = true;
+    protected volatile boolean isAlive = true;
     /** The global maximum for this pool */
-    protected int globalMax;
+    protected volatile int globalMax;
     /** Service type name */
     protected final String serviceTypeName;
     /** The (anonymous) service name */
     protected final String serviceName;
     /** The target calculation lock name */
     protected final String targetCalcLockName;
-    /** Place where we keep unused connector instances */
-    protected final List<T> stack = new ArrayList<T>();
-    /** The number of local instances we can currently pass out to requesting threads.  Initially zero until pool is apportioned */
-    protected int numFree = 0;
-    /** The number of instances we are allowed to hand out locally, at this time */
+    /** Wait statistics for this connection name */
+    protected final WaitStatistics statistics;
+    /** Place where we keep unused connector instances.  Released connectors go on the front, and grabs
+    * take from the front, so the back holds the ones that have been idle longest. */
+    protected final Deque<T> stack = new ConcurrentLinkedDeque<T>();
+    /** The number of connectors in the stack (the deque's size() is not constant-time) */
+    protected final AtomicInteger stackSize = new AtomicInteger(0);
+    /** The number of local instances we can currently pass out to requesting threads.  Initially zero until pool is apportioned.
+    * This may go negative when the target is lowered; released connectors are then destroyed until it is positive again. */
+    protected final AtomicInteger numFree = new AtomicInteger(0);
+    /** The number of threads waiting for numFree to go positive */
+    protected final AtomicInteger waiterCount = new AtomicInteger(0);
+    /** Monitor that waiting threads block on */
+    protected final Object waitLock = new Object();
+    /** Lock held while polling and recalculating the target; never taken on the grab path */
+    protected final Object pollLock = new Object();
+    /** The number of instances we are allowed to hand out locally, at this time.  Only changed under pollLock. */
     protected int localMax = 0;
-    /** The number of instances that are actually connected and in use, as of the last poll */
-    protected int localInUse = 0;
     
     /** Constructor
     */
@@ -427,6 +525,7 @@ public abstract class ConnectorPool<T extends IConnector>
       this.globalMax = maxCount;
       this.targetCalcLockName = buildTargetCalcLockName(connectionName);
       this.serviceTypeName = buildServiceTypeName(connectionName);
+      this.statistics = findWaitStatistics(connectionName);
       // Now, register and activate service anonymously, and record the service name we get.
       ILockManager lockManager = LockManagerFactory.make(threadContext);
       this.serviceName = lockManager.registerServiceBeginServiceActivity(serviceTypeName, null, null);
@@ -435,7 +534,7 @@ public abstract class ConnectorPool<T extends IConnector>
     /** Update the maximum pool size.
     *@param maxPoolSize is the new global maximum pool size.
     */
-    public synchronized void updateMaximumPoolSize(IThreadContext threadContext, int maxPoolSize)
+    public void updateMaximumPoolSize(IThreadContext threadContext, int maxPoolSize)
       throws ManifoldCFException
     {
       // This updates the maximum global size that the pool uses.
@@ -448,120 +547,91 @@ public abstract class ConnectorPool<T extends IConnector>
     * If none exists, construct it using the information in the pool key.
     *@return the connector, or null if no connector could be connected.
     */
-    public synchronized T getConnector(IThreadContext threadContext, String className, ConfigParams configParams)
+    public T getConnector(IThreadContext threadContext, String className, ConfigParams configParams)
       throws ManifoldCFException
     {
       // numFree represents the number of available connector instances that have not been given out at this moment.
       // So it's the max minus the pool count minus the number in use.
-      while (isAlive && numFree <= 0)
-      {
-        try
-        {
-          wait();
-        }
-        catch (InterruptedException e)
-        {
-          throw new ManifoldCFException("Interrupted: "+e.getMessage(),e,ManifoldCFException.INTERRUPTED);
-        }
-      }
-      if (!isAlive)
+      if (!acquire())
         return null;
       
-      // We decrement numFree when we hand out a connector instance; we increment numFree when we
-      // throw away a connector instance from the pool.
-      while (true)
+      // We hold one of the numFree slots now.  If we don't hand out a connector, we must give it back.
+      boolean succeeded = false;
+      try
       {
-        if (stack.size() == 0)
+        while (true)
         {
-          T newrc = createConnectorInstance(threadContext,className);
-          if (newrc == null)
-            return null;
-          newrc.connect(configParams);
-          stack.add(newrc);
-        }
-        
-        // Since thread context set can fail, do that before we remove it from the pool.
-        T rc = stack.remove(stack.size()-1);
-        // Set the thread context.  This can throw an exception!!  We need to be sure our bookkeeping
-        // is resilient against that possibility.  Losing a connector instance that was just sitting
-        // in the pool does NOT affect numFree, so no change needed here; we just can't disconnect the
-        // connector instance if this fails.
-        rc.setThreadContext(threadContext);
-        // Verify that the connector is in fact compatible
-        if (!(rc.getClass().getName().equals(className) && rc.getConfiguration().equals(configParams)))
-        {
-          // Looks like parameters have changed, so discard old instance.
-          try
+          T rc = popConnector();
+          if (rc == null)
           {
-            rc.disconnect();
+            // Nothing idle; make a new one.  Connecting can be slow, so this is done without any lock.
+            T newrc = createConnectorInstance(threadContext,className);
+            if (newrc == null)
+              return null;
+            newrc.connect(configParams);
+            rc = newrc;
           }
-          finally
+          
+          // Set the thread context.  This can throw an exception!!  If it does, the connector instance is
+          // simply lost; we can't disconnect it.
+          rc.setThreadContext(threadContext);
+          // Verify that the connector is in fact compatible
+          if (!(rc.getClass().getName().equals(className) && rc.getConfiguration().equals(configParams)))
           {
-            rc.clearThreadContext();
+            // Looks like parameters have changed, so discard old instance.
+            try
+            {
+              rc.disconnect();
+            }
+            finally
+            {
+              rc.clearThreadContext();
+            }
+            continue;
           }
-          continue;
+          succeeded = true;
+          return rc;
         }
-        // About to return a connector instance; decrement numFree accordingly.
-        numFree--;
-        return rc;
+      }
+      finally
+      {
+        if (!succeeded)
+          returnPermit();
       }
     }
 
     /** Release a connector to the pool.
     *@param connector is the connector.
+    *@return false if the pool is no longer alive, in which case the caller must destroy the connector.
     */
-    public synchronized void releaseConnector(IThreadContext threadContext, T connector)
+    public boolean releaseConnector(IThreadContext threadContext, T connector)
       throws ManifoldCFException
     {
       if (connector == null)
-        return;
+        return true;
 
       // Make sure connector knows it's released
       connector.clearThreadContext();
+      if (!isAlive)
+        return false;
       // Return it to the pool, and note that it is no longer in use.
-      stack.add(connector);
-      numFree++;
-      // Determine if we need to free some connectors.  If the number
-      // of allocated connectors exceeds the target, we unload some
-      // off the stack.
-      // The question is whether the stack has too many connector instances
-      // on it.  Obviously, if it stack.size() > max, it does - but remember
-      // that the number of outstanding connectors is max - numFree.
-      // So, we have an excess if stack.size() > max - (max-numFree).
-      // Simplifying: excess is when stack.size() > numFree.
-      while (stack.size() > 0 && stack.size() > numFree)
+      pushConnector(connector);
+      returnPermit();
+      if (!isAlive)
       {
-        // Try to find a connector instance that is not actually connected.
-        // These are likely to be at the front of the queue, since those are the
-        // oldest.
-        int j;
-        for (j = 0; j < stack.size(); j++)
-        {
-          if (!stack.get(j).isConnected())
-            break;
-        }
-        T rc;
-        if (j == stack.size())
-          rc = stack.remove(stack.size()-1);
-        else
-          rc = stack.remove(j);
-        rc.setThreadContext(threadContext);
-        try
-        {
-          rc.disconnect();
-        }
-        finally
-        {
-          rc.clearThreadContext();
-        }
+        // The pool was shut down while we were putting it back; nobody else will clean up
+        flushUnused(threadContext);
+        return true;
       }
-
-      notifyAll();
+      // Determine if we need to free some connectors.  The number of outstanding connectors is
+      // max - numFree, so we have an excess if stack.size() > numFree.
+      trimExcess(threadContext);
+      return true;
     }
 
     /** Notify all free connectors.
     */
-    public synchronized void pollAll(IThreadContext threadContext)
+    public void pollAll(IThreadContext threadContext)
       throws ManifoldCFException
     {
       // The meat of the cross-cluster apportionment algorithm goes here!
@@ -581,163 +651,350 @@ public abstract class ConnectorPool<T extends IConnector>
       //    by one.
       // (6) Finally, we compute Target by taking the minimum of MaximumTarget, FairTarget, and OptimalTarget.
 
-      ILockManager lockManager = LockManagerFactory.make(threadContext);
-      lockManager.enterWriteLock(targetCalcLockName);
-      try
+      synchronized (pollLock)
       {
-        // Compute MaximumTarget
-        SumClass sumClass = new SumClass(serviceName);
-        lockManager.scanServiceData(serviceTypeName, sumClass);
-        //System.out.println("numServices = "+sumClass.getNumServices()+"; globalTarget = "+sumClass.getGlobalTarget()+"; globalInUse = "+sumClass.getGlobalInUse());
-        
-        int numServices = sumClass.getNumServices();
-        if (numServices == 0)
+        if (!isAlive)
           return;
-        int globalTarget = sumClass.getGlobalTarget();
-        int globalInUse = sumClass.getGlobalInUse();
-        int maximumTarget = globalMax - globalTarget;
-        if (maximumTarget > globalMax - globalInUse)
-          maximumTarget = globalMax - globalInUse;
-        if (maximumTarget < 0)
-          maximumTarget = 0;
-        
-        // Compute FairTarget
-        int fairTarget = globalMax / numServices;
-        int remainder = globalMax % numServices;
-        // Randomly choose whether we get an addition to the FairTarget
-        if (randomNumberGenerator.nextInt(numServices) < remainder)
-          fairTarget++;
-        
-        // Compute OptimalTarget (and poll connectors while we are at it)
-        int localInUse = localMax - numFree;      // These are the connectors that have been handed out
-        for (T rc : stack)
+
+        // Poll the idle connectors first, outside of the cluster-wide lock.  Each one is taken out of the
+        // stack while it is polled, so no other thread can be handed it meanwhile.
+        int pooledConnected = pollIdle(threadContext);
+
+        int globalMax = this.globalMax;
+        ILockManager lockManager = LockManagerFactory.make(threadContext);
+        lockManager.enterWriteLock(targetCalcLockName);
+        try
         {
-          // Notify
-          rc.setThreadContext(threadContext);
-          try
+          // Compute MaximumTarget
+          SumClass sumClass = new SumClass(serviceName);
+          lockManager.scanServiceData(serviceTypeName, sumClass);
+          
+          int numServices = sumClass.getNumServices();
+          if (numServices == 0)
+            return;
+          int globalTarget = sumClass.getGlobalTarget();
+          int globalInUse = sumClass.getGlobalInUse();
+          int maximumTarget = globalMax - globalTarget;
+          if (maximumTarget > globalMax - globalInUse)
+            maximumTarget = globalMax - globalInUse;
+          if (maximumTarget < 0)
+            maximumTarget = 0;
+          
+          // Compute FairTarget
+          int fairTarget = globalMax / numServices;
+          int remainder = globalMax % numServices;
+          // Randomly choose whether we get an addition to the FairTarget
+          if (randomNumberGenerator.nextInt(numServices) < remainder)
+            fairTarget++;
+          
+          // Compute OptimalTarget.  In use means handed out, plus every pooled connector that is still connected.
+          int localInUse = localMax - numFree.get() + pooledConnected;
+          int optimalTarget = localMax;
+          if (localMax > localInUse)
+            optimalTarget--;
+          else
           {
-            rc.poll();
-            if (rc.isConnected())
-              localInUse++;       // Count every pooled connector that is still connected
+            // We want a fast ramp up, so make this proportional to globalMax
+            int increment = globalMax >> 2;
+            if (increment == 0)
+              increment = 1;
+            optimalTarget += increment;
           }
-          finally
+          
+          // Now compute actual target
+          int target = maximumTarget;
+          if (target > fairTarget)
+            target = fairTarget;
+          if (target > optimalTarget)
+            target = optimalTarget;
+          
+          // Write these values to the service data variables.
+          // NOTE that there is a race condition here; the target value depends on all the calculations above being accurate, and not changing out from under us.
+          // So, that's why we have a write lock around the pool calculations.
+          
+          lockManager.updateServiceData(serviceTypeName, serviceName, pack(target, localInUse));
+          
+          // Now, update our localMax
+          if (target != localMax)
           {
-            rc.clearThreadContext();
+            // numFree may turn out to be negative here!!  That's okay; we'll just free released connectors
+            // until we enter positive territory again.
+            int delta = target - localMax;
+            localMax = target;
+            if (numFree.addAndGet(delta) > 0)
+              signalWaiters();
           }
         }
-        int optimalTarget = localMax;
-        if (localMax > localInUse)
-          optimalTarget--;
-        else
+        finally
         {
-          // We want a fast ramp up, so make this proportional to globalMax
-          int increment = globalMax >> 2;
-          if (increment == 0)
-            increment = 1;
-          optimalTarget += increment;
+          lockManager.leaveWriteLock(targetCalcLockName);
         }
-        
-        //System.out.println(serviceTypeName+":maxTarget = "+maximumTarget+"; fairTarget = "+fairTarget+"; optimalTarget = "+optimalTarget);
-
-        // Now compute actual target
-        int target = maximumTarget;
-        if (target > fairTarget)
-          target = fairTarget;
-        if (target > optimalTarget)
-          target = optimalTarget;
-        
-        //System.out.println(serviceTypeName+":Picking target="+target+"; localInUse="+localInUse);
-        // Write these values to the service data variables.
-        // NOTE that there is a race condition here; the target value depends on all the calculations above being accurate, and not changing out from under us.
-        // So, that's why we have a write lock around the pool calculations.
-        
-        lockManager.updateServiceData(serviceTypeName, serviceName, pack(target, localInUse));
-        
-        // Now, update our localMax
-        if (target == localMax)
-          return;
-        //System.out.println(serviceTypeName+":Updating target: "+target);
-        // Compute the number of instances in use locally
-        localInUse = localMax - numFree;
-        localMax = target;
-        // numFree may turn out to be negative here!!  That's okay; we'll just free released connectors
-        // until we enter positive territory again.
-        numFree = localMax - localInUse;
-        notifyAll();
-      }
-      finally
-      {
-        lockManager.leaveWriteLock(targetCalcLockName);
       }
       
       // Finally, free pooled instances in excess of target
-      while (stack.size() > 0 && stack.size() > numFree)
+      trimExcess(threadContext);
+    }
+
+    /** Flush unused connectors.
+    */
+    public void flushUnused(IThreadContext threadContext)
+      throws ManifoldCFException
+    {
+      while (true)
       {
-        // Try to find a connector instance that is not actually connected.
-        // These are likely to be at the front of the queue, since those are the
-        // oldest.
-        int j;
-        for (j = 0; j < stack.size(); j++)
+        // Disconnect
+        T rc = popConnector();
+        if (rc == null)
+          break;
+        destroyConnector(threadContext,rc);
+      }
+    }
+
+    /** Release all free connectors.
+    */
+    public void releaseAll(IThreadContext threadContext)
+      throws ManifoldCFException
+    {
+      // End service activity
+      boolean endActivity = false;
+      synchronized (pollLock)
+      {
+        if (isAlive)
         {
-          if (!stack.get(j).isConnected())
-            break;
+          isAlive = false;
+          endActivity = true;
         }
-        T rc;
-        if (j == stack.size())
-          rc = stack.remove(stack.size()-1);
-        else
-          rc = stack.remove(j);
-        rc.setThreadContext(threadContext);
-        try
+      }
+      // Anything released from here on is destroyed by the releasing thread, so this empties the pool for good.
+      flushUnused(threadContext);
+      if (endActivity)
+      {
+        signalWaiters();
+        ILockManager lockManager = LockManagerFactory.make(threadContext);
+        lockManager.endServiceActivity(serviceTypeName, serviceName);
+      }
+    }
+
+    /** Take one of the numFree slots, waiting if there is none.
+    *@return false if the pool died while waiting.
+    */
+    protected boolean acquire()
+      throws ManifoldCFException
+    {
+      statistics.noteGrab();
+      if (tryAcquire())
+        return true;
+      if (!isAlive)
+        return false;
+      // Slow path: wait for a release or a target increase
+      long startTime = System.nanoTime();
+      waiterCount.incrementAndGet();
+      try
+      {
+        synchronized (waitLock)
         {
-          rc.disconnect();
+          while (true)
+          {
+            if (!isAlive)
+              return false;
+            if (tryAcquire())
+              return true;
+            waitLock.wait();
+          }
         }
-        finally
+      }
+      catch (InterruptedException e)
+      {
+        throw new ManifoldCFException("Interrupted: "+e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+      }
+      finally
+      {
+        waiterCount.decrementAndGet();
+        statistics.noteWait(System.nanoTime() - startTime);
+      }
+    }
+
+    protected boolean tryAcquire()
+    {
+      while (true)
+      {
+        int current = numFree.get();
+        if (current <= 0)
+          return false;
+        if (numFree.compareAndSet(current,current-1))
+          return true;
+      }
+    }
+
+    protected void returnPermit()
+    {
+      if (numFree.incrementAndGet() > 0)
+        signalWaiters();
+    }
+
+    /** Wake up waiting threads.  A waiter registers itself before it last checks numFree, and checks again
+    * under waitLock before waiting, so a wakeup cannot be lost.
+    */
+    protected void signalWaiters()
+    {
+      if (waiterCount.get() > 0)
+      {
+        synchronized (waitLock)
         {
-          rc.clearThreadContext();
+          waitLock.notifyAll();
         }
       }
+    }
 
+    protected T popConnector()
+    {
+      T rc = stack.pollFirst();
+      if (rc != null)
+        stackSize.decrementAndGet();
+      return rc;
     }
 
-    /** Flush unused connectors.
+    protected void pushConnector(T rc)
+    {
+      stack.offerFirst(rc);
+      stackSize.incrementAndGet();
+    }
+
+    /** Poll every idle connector, taking each out of the stack while it is polled.
+    *@return the number of polled connectors that are still connected.
     */
-    public synchronized void flushUnused(IThreadContext threadContext)
+    protected int pollIdle(IThreadContext threadContext)
       throws ManifoldCFException
     {
-      while (stack.size() > 0)
+      List<T> polled = new ArrayList<T>();
+      int connectedCount = 0;
+      try
       {
-        // Disconnect
-        T rc = stack.remove(stack.size()-1);
-        rc.setThreadContext(threadContext);
-        try
+        int count = stackSize.get();
+        for (int i = 0; i < count; i++)
         {
-          rc.disconnect();
+          // Oldest first
+          T rc = stack.pollLast();
+          if (rc == null)
+            break;
+          stackSize.decrementAndGet();
+          polled.add(rc);
+          rc.setThreadContext(threadContext);
+          try
+          {
+            rc.poll();
+            if (rc.isConnected())
+              connectedCount++;
+          }
+          finally
+          {
+            rc.clearThreadContext();
+          }
         }
-        finally
+      }
+      finally
+      {
+        // Put them back at the old end, keeping their order
+        for (int i = polled.size() - 1; i >= 0; i--)
         {
-          rc.clearThreadContext();
+          stack.offerLast(polled.get(i));
+          stackSize.incrementAndGet();
         }
       }
+      return connectedCount;
     }
 
-    /** Release all free connectors.
+    /** Destroy pooled connectors while there are more of them than could be handed out.
     */
-    public synchronized void releaseAll(IThreadContext threadContext)
+    protected void trimExcess(IThreadContext threadContext)
       throws ManifoldCFException
     {
-      flushUnused(threadContext);
-      
-      // End service activity
-      if (isAlive)
+      while (true)
       {
-        isAlive = false;
-        notifyAll();
-        ILockManager lockManager = LockManagerFactory.make(threadContext);
-        lockManager.endServiceActivity(serviceTypeName, serviceName);
+        int size = stackSize.get();
+        if (size == 0 || size <= numFree.get())
+          return;
+        // Try to find a connector instance that is not actually connected.
+        // These are likely to be at the back of the queue, since those are the oldest.
+        T rc = null;
+        Iterator<T> iter = stack.descendingIterator();
+        while (iter.hasNext())
+        {
+          T candidate = iter.next();
+          if (!candidate.isConnected())
+          {
+            if (stack.removeFirstOccurrence(candidate))
+            {
+              rc = candidate;
+              stackSize.decrementAndGet();
+            }
+            break;
+          }
+        }
+        if (rc == null)
+          rc = popConnector();
+        if (rc == null)
+          return;
+        destroyConnector(threadContext,rc);
       }
     }
 
+    protected void destroyConnector(IThreadContext threadContext, T rc)
+      throws ManifoldCFException
+    {
+      rc.setThreadContext(threadContext);
+      try
+      {
+        rc.disconnect();
+      }
+      finally
+      {
+        rc.clearThreadContext();
+      }
+    }
+
+  }
+
+  /** Wait statistics for one connection name */
+  protected static class WaitStatistics
+  {
+    protected final AtomicLong grabCount = new AtomicLong(0L);
+    protected long waitCount = 0L;
+    protected long totalWaitTime = 0L;
+    protected long maxWaitTime = 0L;
+
+    public void noteGrab()
+    {
+      grabCount.incrementAndGet();
+    }
+
+    public synchronized void noteWait(long waitTime)
+    {
+      waitCount++;
+      totalWaitTime += waitTime;
+      if (waitTime > maxWaitTime)
+        maxWaitTime = waitTime;
+    }
+
+    public long getGrabCount()
+    {
+      return grabCount.get();
+    }
+
+    public synchronized long getWaitCount()
+    {
+      return waitCount;
+    }
+
+    public synchronized long getTotalWaitTime()
+    {
+      return totalWaitTime;
+    }
+
+    public synchronized long getMaxWaitTime()
+    {
+      return maxWaitTime;
+    }
   }
 
   protected static class SumClass implements IServiceDataAcceptor
@@ -80,6 +80,46 @@ public class BaseTable
     dbInterface.performUpdate(tableName,parameterMap,whereClause,whereParameters,invalidateKeys);
   }
 
+  /** Perform an update operation on matching rows that are not locked by another transaction,
+  * skipping any that are.
+  *@param parameterMap is the map of column name/values to write.
+  *@param keyColumn is the name of the table's primary key column.
+  *@param whereClause is the where clause describing the match (including the WHERE), or null if none.
+  *@param whereParameters are the parameters that come with the where clause, if any.
+  *@param maxRows is the maximum number of rows to update, or -1 for no limit.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  *@return the keys of the rows updated, or null if the database does not support this operation.
+  */
+  protected IResultSet performUpdateSkipLocked(Map parameterMap, String keyColumn, String whereClause, List whereParameters,
+    int maxRows, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    return dbInterface.performUpdateSkipLocked(tableName,parameterMap,keyColumn,whereClause,whereParameters,maxRows,invalidateKeys);
+  }
+
+  /** Perform an insert of many rows at once.
+  *@param parameterMaps are the rows to write, each a map of column name/value.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  */
+  protected void performInsertBatch(List<Map<String,Object>> parameterMaps, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    dbInterface.performInsertBatch(tableName,parameterMaps,invalidateKeys);
+  }
+
+  /** Perform an update of many rows at once, using the same statement for each.
+  *@param parameterMaps are the column name/values to write, one map per row.
+  *@param whereClause is the where clause describing the match (including the WHERE), or null if none.
+  *@param whereParameterLists are the parameters for the where clause, one list per row.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  */
+  protected void performUpdateBatch(List<Map<String,Object>> parameterMaps, String whereClause, List<List> whereParameterLists,
+    StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    dbInterface.performUpdateBatch(tableName,parameterMaps,whereClause,whereParameterLists,invalidateKeys);
+  }
+
   /** Perform a delete operation.
   *@param invalidateKeys are the cache keys that should be invalidated.
   *@param whereClause is the where clause describing the match (including the WHERE), or null if none.
@@ -236,6 +276,17 @@ public class BaseTable
     return dbInterface.performQuery(query,params,cacheKeys,queryClass,resultLimit,null);
   }
 
+  /** Perform a general "data fetch" query, handing each row to a handler rather than building a resultset.
+  *@param query is the query string.
+  *@param params are the parameterized values, if needed.
+  *@param handler is the handler that receives the rows.  It must not use the database.
+  */
+  protected void performStreamingQuery(String query, List params, IResultHandler handler)
+    throws ManifoldCFException
+  {
+    dbInterface.performStreamingQuery(query,params,handler);
+  }
+
   /** Begin a database transaction.  This method call MUST be paired with an endTransaction() call,
   * or database handles will be lost.  If the transaction should be rolled back, then signalRollback() should
   * be called before the transaction is ended.
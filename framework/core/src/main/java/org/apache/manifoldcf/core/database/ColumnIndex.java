@@ -0,0 +1,77 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import java.util.*;
+
+/** This class maps column names to positions, for rows that keep their values in an array.
+* One instance is shared by all the rows of a resultset.  It is immutable once built.
+*/
+public class ColumnIndex
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Column names, in position order */
+  protected final String[] columnNames;
+  /** Map from column name to position */
+  protected final Map<String,Integer> positions = new HashMap<String,Integer>();
+
+  /** Constructor.
+  *@param columnNames are the column names, in order.  If a name appears more than once, lookups
+  * find the last occurrence.
+  */
+  public ColumnIndex(String[] columnNames)
+  {
+    this.columnNames = columnNames;
+    for (int i = 0; i < columnNames.length; i++)
+    {
+      positions.put(columnNames[i],new Integer(i));
+    }
+  }
+
+  /** Get the number of positions. */
+  public int getColumnCount()
+  {
+    return columnNames.length;
+  }
+
+  /** Get the number of distinct column names. */
+  public int getDistinctColumnCount()
+  {
+    return positions.size();
+  }
+
+  /** Get the distinct column names. */
+  public Iterator<String> getColumnNames()
+  {
+    return Collections.unmodifiableSet(positions.keySet()).iterator();
+  }
+
+  /** Find the position of a column.
+  *@param columnName is the column name.
+  *@return the position, or -1 if there is no such column.
+  */
+  public int lookup(String columnName)
+  {
+    Integer position = positions.get(columnName);
+    if (position == null)
+      return -1;
+    return position.intValue();
+  }
+}
@@ -0,0 +1,288 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.util.*;
+
+/** This is a compact resultset, which stores its data by column rather than as one map per row.
+* All rows share a single column-name index.  A column whose values are all Long (or all Double)
+* is kept as a primitive array; any other column is kept as an array of objects.  Row objects
+* handed out by getRow() are light views onto the columns, and values are boxed as they are read.
+*/
+public class ColumnarRSet implements IResultSet
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final static int initialCapacity = 16;
+
+  /** The column index shared by all rows */
+  protected final ColumnIndex columnIndex;
+  /** The column data, one per column in the index */
+  protected final Column[] columns;
+  /** The number of rows */
+  protected int rowCount = 0;
+  /** The space allocated for rows */
+  protected int capacity = 0;
+
+  /** Constructor.
+  *@param columnNames are the names of the columns, in order.  If a name occurs more than once, the
+  * last occurrence wins, just as it would with RRow.
+  */
+  public ColumnarRSet(String[] columnNames)
+  {
+    this(new ColumnIndex(columnNames));
+  }
+
+  /** Constructor.
+  *@param columnIndex is the column index.
+  */
+  public ColumnarRSet(ColumnIndex columnIndex)
+  {
+    this.columnIndex = columnIndex;
+    this.columns = new Column[columnIndex.getColumnCount()];
+    for (int i = 0; i < columns.length; i++)
+    {
+      columns[i] = new Column();
+    }
+  }
+
+  /** Get the column index for this resultset.
+  */
+  public ColumnIndex getColumnIndex()
+  {
+    return columnIndex;
+  }
+
+  /** Add a row of data to the resultset.
+  *@param values are the values, in the same order as the column index.
+  */
+  public void addRow(Object[] values)
+  {
+    if (rowCount == capacity)
+    {
+      capacity = (capacity == 0)?initialCapacity:(capacity * 2);
+      for (Column c : columns)
+      {
+        c.ensureCapacity(capacity);
+      }
+    }
+    for (int i = 0; i < columns.length; i++)
+    {
+      columns[i].set(rowCount,values[i]);
+    }
+    rowCount++;
+  }
+
+  /** Get a specific row in the resultset.
+  *@param rowNumber is the number of the row.
+  *@return the immutable row description, or null if there is no such row.
+  */
+  @Override
+  public IResultRow getRow(int rowNumber)
+  {
+    if (rowNumber < 0 || rowNumber >= rowCount)
+      throw new IndexOutOfBoundsException("Row "+Integer.toString(rowNumber)+" requested; only "+Integer.toString(rowCount)+" rows");
+    return new ColumnarRow(rowNumber);
+  }
+
+  /** Get the number of rows in this resultset.
+  *@return the number of rows the resultset contains.
+  */
+  @Override
+  public int getRowCount()
+  {
+    return rowCount;
+  }
+
+  /** Get an array of all the rows.
+  * This method is NOT preferred because it requires a new
+  * array object to be constructed.
+  *@return the array.
+  */
+  @Override
+  public IResultRow[] getRows()
+  {
+    IResultRow[] rval = new IResultRow[rowCount];
+    int i = 0;
+    while (i < rowCount)
+    {
+      rval[i] = new ColumnarRow(i);
+      i++;
+    }
+    return rval;
+  }
+
+  /** Row view */
+  protected class ColumnarRow implements IResultRow
+  {
+    protected final int rowNumber;
+
+    public ColumnarRow(int rowNumber)
+    {
+      this.rowNumber = rowNumber;
+    }
+
+    @Override
+    public int getColumnCount()
+    {
+      return columnIndex.getDistinctColumnCount();
+    }
+
+    @Override
+    public Iterator<String> getColumns()
+    {
+      return columnIndex.getColumnNames();
+    }
+
+    @Override
+    public Object getValue(String columnName)
+    {
+      int index = columnIndex.lookup(columnName);
+      if (index == -1)
+        return null;
+      return columns[index].get(rowNumber);
+    }
+  }
+
+  /** The data for one column.  This starts out untyped; the first non-null value decides whether
+  * it is a long, double, or object column, and it falls back to an object column if a value of some
+  * other type turns up later.
+  */
+  protected static class Column
+  {
+    protected final static int TYPE_UNKNOWN = 0;
+    protected final static int TYPE_LONG = 1;
+    protected final static int TYPE_DOUBLE = 2;
+    protected final static int TYPE_OBJECT = 3;
+
+    protected int type = TYPE_UNKNOWN;
+    protected long[] longValues = null;
+    protected double[] doubleValues = null;
+    protected Object[] objectValues = null;
+    /** Rows that are null, for the primitive types */
+    protected BitSet nulls = new BitSet();
+    protected int capacity = 0;
+
+    public void ensureCapacity(int newCapacity)
+    {
+      capacity = newCapacity;
+      switch (type)
+      {
+      case TYPE_LONG:
+        longValues = Arrays.copyOf(longValues,newCapacity);
+        break;
+      case TYPE_DOUBLE:
+        doubleValues = Arrays.copyOf(doubleValues,newCapacity);
+        break;
+      case TYPE_OBJECT:
+        objectValues = Arrays.copyOf(objectValues,newCapacity);
+        break;
+      default:
+        break;
+      }
+    }
+
+    public void set(int row, Object value)
+    {
+      if (value == null)
+      {
+        if (type == TYPE_OBJECT)
+          objectValues[row] = null;
+        else
+          nulls.set(row);
+        return;
+      }
+      if (type == TYPE_UNKNOWN)
+      {
+        if (value instanceof Long)
+        {
+          type = TYPE_LONG;
+          longValues = new long[capacity];
+        }
+        else if (value instanceof Double)
+        {
+          type = TYPE_DOUBLE;
+          doubleValues = new double[capacity];
+        }
+        else
+          makeObjectColumn();
+      }
+      switch (type)
+      {
+      case TYPE_LONG:
+        if (value instanceof Long)
+        {
+          longValues[row] = ((Long)value).longValue();
+          return;
+        }
+        break;
+      case TYPE_DOUBLE:
+        if (value instanceof Double)
+        {
+          doubleValues[row] = ((Double)value).doubleValue();
+          return;
+        }
+        break;
+      default:
+        break;
+      }
+      if (type != TYPE_OBJECT)
+        makeObjectColumn();
+      objectValues[row] = value;
+    }
+
+    public Object get(int row)
+    {
+      switch (type)
+      {
+      case TYPE_LONG:
+        if (nulls.get(row))
+          return null;
+        return Long.valueOf(longValues[row]);
+      case TYPE_DOUBLE:
+        if (nulls.get(row))
+          return null;
+        return Double.valueOf(doubleValues[row]);
+      case TYPE_OBJECT:
+        return objectValues[row];
+      default:
+        return null;
+      }
+    }
+
+    /** Convert to an object column, boxing whatever values are already present.
+    */
+    protected void makeObjectColumn()
+    {
+      Object[] newValues = new Object[capacity];
+      for (int i = 0; i < capacity; i++)
+      {
+        if (type == TYPE_LONG || type == TYPE_DOUBLE)
+          newValues[i] = get(i);
+      }
+      objectValues = newValues;
+      longValues = null;
+      doubleValues = null;
+      nulls = null;
+      type = TYPE_OBJECT;
+    }
+  }
+
+}
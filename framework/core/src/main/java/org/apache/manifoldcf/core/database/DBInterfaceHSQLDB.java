@@ -32,6 +32,7 @@ public class DBInterfaceHSQLDB extends Database implements IDBInterface
   public static final String _rcsid = "@(#)$Id$";
 
   private static final String _localUrl = "jdbc:hsqldb:file:";
+  private static final String _memoryUrl = "jdbc:hsqldb:mem:";
   private static final String _remoteUrl = "jdbc:hsqldb:";
   private static final String _driver = "org.hsqldb.jdbcDriver";
 
@@ -49,10 +50,15 @@ public class DBInterfaceHSQLDB extends Database implements IDBInterface
   public final static String databaseServerProperty = "org.apache.manifoldcf.hsqldbdatabaseserver";
   public final static String databasePortProperty = "org.apache.manifoldcf.hsqldbdatabaseport";
   public final static String databaseInstanceProperty = "org.apache.manifoldcf.hsqldbdatabaseinstance";
+
+  /** Protocol value meaning an embedded, purely in-memory instance */
+  protected final static String memoryProtocol = "mem";
   
   protected String cacheKey;
   protected int serializableDepth = 0;
   protected boolean isRemote;
+  protected boolean isMemory;
+  protected String localUrl;
   protected String schemaNameForQueries;
   
   public DBInterfaceHSQLDB(IThreadContext tc, String databaseName, String userName, String password)
@@ -60,7 +66,10 @@ public class DBInterfaceHSQLDB extends Database implements IDBInterface
   {
     super(tc,getJDBCString(tc,databaseName),_driver,getDatabaseString(tc,databaseName),userName,password);
     cacheKey = CacheKeyFactory.makeDatabaseKey(this.databaseName);
-    this.isRemote = LockManagerFactory.getProperty(tc,databaseProtocolProperty) != null;
+    String protocol = LockManagerFactory.getProperty(tc,databaseProtocolProperty);
+    this.isMemory = memoryProtocol.equals(protocol);
+    this.isRemote = protocol != null && !this.isMemory;
+    this.localUrl = this.isMemory?_memoryUrl:_localUrl;
     this.userName = userName;
     this.password = password;
     if (this.isRemote)
@@ -77,6 +86,9 @@ public class DBInterfaceHSQLDB extends Database implements IDBInterface
     String protocol = LockManagerFactory.getProperty(tc,databaseProtocolProperty);
     if (protocol == null)
       return _localUrl+getFullDatabasePath(databaseName);
+    // In-memory instance; there are no files, so no path is needed.
+    if (protocol.equals(memoryProtocol))
+      return _memoryUrl+databaseName;
     
     // Remote instance.  Build the URL.
     if (legalProtocolValues.get(protocol) == null)
@@ -99,6 +111,7 @@ public class DBInterfaceHSQLDB extends Database implements IDBInterface
     String protocol = LockManagerFactory.getProperty(tc,databaseProtocolProperty);
     if (protocol == null)
       return getFullDatabasePath(databaseName);
+    // Remote or in-memory
     return databaseName;
   }
   
@@ -158,7 +171,7 @@ public class DBInterfaceHSQLDB extends Database implements IDBInterface
       // For the shutdown itself, eat the exception
       try
       {
-        Connection c = DriverManager.getConnection(_localUrl+databaseName,userName,password);
+        Connection c = DriverManager.getConnection(localUrl+databaseName,userName,password);
         Statement s = c.createStatement();
         s.execute("SHUTDOWN");
         c.close();
@@ -298,6 +311,62 @@ public class DBInterfaceHSQLDB extends Database implements IDBInterface
   }
 
 
+  /** Perform an insert of many rows at once.  This is equivalent to calling performInsert() for
+  * each row, but takes far fewer round trips.
+  *@param tableName is the name of the table.
+  *@param parameterMaps are the rows to write, each a map of column name/value.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  */
+  public void performInsertBatch(String tableName, List<Map<String,Object>> parameterMaps, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    try
+    {
+      insertBatch(tableName,parameterMaps,invalidateKeys);
+    }
+    catch (ManifoldCFException e)
+    {
+      throw reinterpretException(e);
+    }
+  }
+
+  /** Perform an update of many rows at once, using the same statement for each.  This is equivalent to calling
+  * performUpdate() once per row, but takes far fewer round trips.  Every row must write the same
+  * columns, and a column that is null for one row must be null for all.
+  *@param tableName is the name of the table.
+  *@param parameterMaps are the column name/values to write, one map per row.
+  *@param whereClause is the where clause describing the match (including the WHERE), or null if none.
+  *  It is the same for every row.
+  *@param whereParameterLists are the parameters for the where clause, one list per row.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  */
+  public void performUpdateBatch(String tableName, List<Map<String,Object>> parameterMaps, String whereClause,
+    List<List> whereParameterLists, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    try
+    {
+      updateBatch(tableName,parameterMaps,whereClause,whereParameterLists,invalidateKeys);
+    }
+    catch (ManifoldCFException e)
+    {
+      throw reinterpretException(e);
+    }
+  }
+
+  /** Perform an update operation on matching rows that are not locked by some other transaction,
+  * skipping over any that are, and return the keys of the rows actually updated.
+  * HSQLDB has no way to skip locked rows, so this is not supported.
+  *@return null, always.
+  */
+  @Override
+  public IResultSet performUpdateSkipLocked(String tableName, Map<String,Object> parameterMap, String keyColumn,
+    String whereClause, List whereParameters, int maxRows, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    return null;
+  }
+
   /** Perform a delete operation.
   *@param tableName is the name of the table to delete from.
   *@param invalidateKeys are the cache keys that should be invalidated.
@@ -602,14 +671,15 @@ public class DBInterfaceHSQLDB extends Database implements IDBInterface
       {
         // Force a load of the appropriate JDBC driver
         Class.forName(_driver).newInstance();
-        DriverManager.getConnection(_localUrl+databaseName,userName,password).close();
+        DriverManager.getConnection(localUrl+databaseName,userName,password).close();
       }
       catch (Exception e)
       {
         throw new ManifoldCFException(e.getMessage(),e,ManifoldCFException.SETUP_ERROR);
       }
       performModification("SET DATABASE TRANSACTION CONTROL MVCC",null,null);
-      performModification("SET FILES SCALE 512",null,null);
+      if (!isMemory)
+        performModification("SET FILES SCALE 512",null,null);
     }
   }
 
@@ -970,6 +1040,26 @@ public class DBInterfaceHSQLDB extends Database implements IDBInterface
     }
   }
 
+  /** Perform a general "data fetch" query, handing each row to a handler as it is read rather than
+  * building a resultset.  This is meant for large reads that are looked at once; nothing is cached.
+  *@param query is the query string.
+  *@param params are the parameterized values, if needed.
+  *@param handler is the handler that receives the rows.  It is called on the thread that talks to
+  * the database, so it must not use this database handle.
+  */
+  public void performStreamingQuery(String query, List params, IResultHandler handler)
+    throws ManifoldCFException
+  {
+    try
+    {
+      executeStreamingQuery(query,params,handler);
+    }
+    catch (ManifoldCFException e)
+    {
+      throw reinterpretException(e);
+    }
+  }
+
   /** Construct ORDER-BY clause meant for reading from an index.
   * Supply the field names belonging to the index, in order.
   * Also supply a corresponding boolean array, where TRUE means "ASC", and FALSE
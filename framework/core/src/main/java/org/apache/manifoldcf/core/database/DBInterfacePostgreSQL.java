@@ -256,6 +256,173 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
   }
 
 
+  /** Perform an insert of many rows at once.  This is equivalent to calling performInsert() for
+  * each row, but takes far fewer round trips.
+  *@param tableName is the name of the table.
+  *@param parameterMaps are the rows to write, each a map of column name/value.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  */
+  @Override
+  public void performInsertBatch(String tableName, List<Map<String,Object>> parameterMaps, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    try
+    {
+      insertBatch(tableName,parameterMaps,invalidateKeys);
+    }
+    catch (ManifoldCFException e)
+    {
+      throw reinterpretException(e);
+    }
+  }
+
+  /** Perform an update of many rows at once, using the same statement for each.  This is equivalent to calling
+  * performUpdate() once per row, but takes far fewer round trips.  Every row must write the same
+  * columns, and a column that is null for one row must be null for all.
+  *@param tableName is the name of the table.
+  *@param parameterMaps are the column name/values to write, one map per row.
+  *@param whereClause is the where clause describing the match (including the WHERE), or null if none.
+  *  It is the same for every row.
+  *@param whereParameterLists are the parameters for the where clause, one list per row.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  */
+  @Override
+  public void performUpdateBatch(String tableName, List<Map<String,Object>> parameterMaps, String whereClause,
+    List<List> whereParameterLists, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    try
+    {
+      updateBatch(tableName,parameterMaps,whereClause,whereParameterLists,invalidateKeys);
+    }
+    catch (ManifoldCFException e)
+    {
+      throw reinterpretException(e);
+    }
+  }
+
+  /** Perform an update operation on matching rows that are not locked by some other transaction,
+  * skipping over any that are, and return the keys of the rows actually updated.  This requires
+  * PostgreSQL 9.5 or later; on older servers it returns null without doing anything.
+  *@param tableName is the name of the table.
+  *@param parameterMap is the map of column name/values to write.
+  *@param keyColumn is the name of the table's primary key column.
+  *@param whereClause is the where clause describing the match (including the WHERE), or null if none.
+  *@param whereParameters are the parameters that come with the where clause, if any.
+  *@param maxRows is the maximum number of rows to update, or -1 for no limit.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  *@return a resultset with one row per updated row, containing the key column, or null if not supported.
+  */
+  @Override
+  public IResultSet performUpdateSkipLocked(String tableName, Map<String,Object> parameterMap, String keyColumn,
+    String whereClause, List whereParameters, int maxRows, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    if (!supportsSkipLocked())
+      return null;
+
+    List paramArray = new ArrayList();
+
+    StringBuilder bf = new StringBuilder();
+    bf.append("UPDATE ");
+    bf.append(tableName);
+    bf.append(" SET ") ;
+
+    // loop for parameters
+    Iterator<Map.Entry<String,Object>> it = parameterMap.entrySet().iterator();
+    boolean first = true;
+    while (it.hasNext())
+    {
+      Map.Entry<String,Object> e = it.next();
+      String key = e.getKey();
+
+      Object o = e.getValue();
+
+      if (!first)
+      {
+        bf.append(',');
+      }
+      bf.append(key);
+      bf.append('=');
+      if (o == null)
+      {
+        bf.append("NULL");
+      }
+      else
+      {
+        bf.append('?');
+        paramArray.add(o);
+      }
+
+      first = false;
+    }
+
+    // The subquery picks and locks the rows; the outer update modifies exactly those
+    bf.append(" FROM (SELECT ").append(keyColumn).append(" FROM ").append(tableName);
+    if (whereClause != null)
+    {
+      bf.append(' ');
+      bf.append(whereClause);
+      if (whereParameters != null)
+      {
+        for (int i = 0; i < whereParameters.size(); i++)
+        {
+          Object value = whereParameters.get(i);
+          paramArray.add(value);
+        }
+      }
+    }
+    if (maxRows != -1)
+      bf.append(" LIMIT ").append(Integer.toString(maxRows));
+    bf.append(" FOR UPDATE SKIP LOCKED) claimed WHERE ")
+      .append(tableName).append('.').append(keyColumn).append("=claimed.").append(keyColumn)
+      .append(" RETURNING ").append(tableName).append('.').append(keyColumn);
+
+    try
+    {
+      return executeQuery(bf.toString(),paramArray,null,invalidateKeys,null,true,-1,null,null);
+    }
+    catch (ManifoldCFException e)
+    {
+      throw reinterpretException(e);
+    }
+  }
+
+  /** Whether the server understands FOR UPDATE SKIP LOCKED; null until first checked.
+  * This is the same for every connection, so it's checked only once per JVM. */
+  protected static volatile Boolean skipLockedSupported = null;
+
+  /** Check whether the server supports FOR UPDATE SKIP LOCKED (PostgreSQL 9.5 and later).
+  */
+  protected boolean supportsSkipLocked()
+    throws ManifoldCFException
+  {
+    Boolean rval = skipLockedSupported;
+    if (rval == null)
+    {
+      IResultSet set = performQuery("SHOW server_version_num",null,null,null);
+      int versionNumber = 0;
+      if (set.getRowCount() > 0)
+      {
+        Object value = set.getRow(0).getValue("server_version_num");
+        if (value != null)
+        {
+          try
+          {
+            versionNumber = Integer.parseInt(value.toString().trim());
+          }
+          catch (NumberFormatException e)
+          {
+            // Leave at zero; treat as unsupported
+          }
+        }
+      }
+      rval = Boolean.valueOf(versionNumber >= 90500);
+      skipLockedSupported = rval;
+    }
+    return rval.booleanValue();
+  }
+
   /** Perform a delete operation.
   *@param tableName is the name of the table to delete from.
   *@param invalidateKeys are the cache keys that should be invalidated.
@@ -891,6 +1058,27 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
     }
   }
 
+  /** Perform a general "data fetch" query, handing each row to a handler as it is read rather than
+  * building a resultset.  This is meant for large reads that are looked at once; nothing is cached.
+  *@param query is the query string.
+  *@param params are the parameterized values, if needed.
+  *@param handler is the handler that receives the rows.  It is called on the thread that talks to
+  * the database, so it must not use this database handle.
+  */
+  @Override
+  public void performStreamingQuery(String query, List params, IResultHandler handler)
+    throws ManifoldCFException
+  {
+    try
+    {
+      executeStreamingQuery(query,params,handler);
+    }
+    catch (ManifoldCFException e)
+    {
+      throw reinterpretException(e);
+    }
+  }
+
   /** Construct a cast to a double value.
   * On most databases this cast needs to be explicit, but on some it is implicit (and cannot be in fact
   * specified).
@@ -24,6 +24,7 @@ import org.apache.manifoldcf.core.system.Logging;
 import org.apache.manifoldcf.core.system.ManifoldCF;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.sql.*;
 import javax.naming.*;
 import javax.sql.*;
@@ -60,6 +61,13 @@ public abstract class Database
 
   protected final static String _TRANSACTION_ = "_TRANSACTION_";
 
+  /** Rows fetched per round trip for streaming queries */
+  protected final static int streamingFetchSize = 1000;
+  /** Most rows sent to the database in a single batch statement */
+  protected final static int maxBatchRows = 1000;
+  /** Most bind parameters in a single multi-row statement; PostgreSQL's limit is 32767 */
+  protected final static int maxBatchParameters = 30000;
+
   public Database(IThreadContext context, String jdbcUrl, String jdbcDriverClass, String databaseName, String userName, String password)
     throws ManifoldCFException
   {
@@ -193,6 +201,197 @@ public abstract class Database
     return executor.getResult();
   }
 
+  /** Insert many rows, using multi-row VALUES statements.  The column list is every column that has a
+  * non-null value in at least one of the rows; other rows insert NULL into that column.
+  *@param tableName is the table.
+  *@param parameterMaps are the rows, each a map of column name to value.
+  *@param invalidateKeys are the cache keys to invalidate.
+  */
+  protected void insertBatch(String tableName, List<Map<String,Object>> parameterMaps, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    if (parameterMaps.size() == 0)
+      return;
+
+    // Figure out the columns
+    Set<String> columnSet = new LinkedHashSet<String>();
+    for (Map<String,Object> parameterMap : parameterMaps)
+    {
+      for (Map.Entry<String,Object> e : parameterMap.entrySet())
+      {
+        if (e.getValue() != null)
+          columnSet.add(e.getKey());
+      }
+    }
+    String[] columns = columnSet.toArray(new String[columnSet.size()]);
+    if (columns.length == 0)
+      throw new ManifoldCFException("Batch insert into "+tableName+" has no values");
+
+    StringBuilder prefix = new StringBuilder("INSERT INTO ");
+    prefix.append(tableName).append(" (");
+    for (int i = 0; i < columns.length; i++)
+    {
+      if (i > 0)
+        prefix.append(',');
+      prefix.append(columns[i]);
+    }
+    prefix.append(") VALUES ");
+
+    // Stay under the bind parameter limits of the various drivers
+    int rowsPerStatement = Math.max(1,Math.min(maxBatchRows,maxBatchParameters / columns.length));
+    int rowIndex = 0;
+    while (rowIndex < parameterMaps.size())
+    {
+      int end = Math.min(rowIndex + rowsPerStatement, parameterMaps.size());
+      List paramArray = new ArrayList();
+      StringBuilder bf = new StringBuilder(prefix);
+      for (int j = rowIndex; j < end; j++)
+      {
+        Map<String,Object> parameterMap = parameterMaps.get(j);
+        if (j > rowIndex)
+          bf.append(',');
+        bf.append('(');
+        for (int i = 0; i < columns.length; i++)
+        {
+          if (i > 0)
+            bf.append(',');
+          Object o = parameterMap.get(columns[i]);
+          if (o == null)
+            bf.append("NULL");
+          else
+          {
+            bf.append('?');
+            paramArray.add(o);
+          }
+        }
+        bf.append(')');
+      }
+      executeQuery(bf.toString(),paramArray,null,invalidateKeys,null,false,0,null,null);
+      rowIndex = end;
+    }
+  }
+
+  /** Update many rows, using a JDBC batch of a single update statement.  Every row must set the same
+  * columns, and a column that is null in one row must be null in all of them.
+  *@param tableName is the table.
+  *@param parameterMaps are the values to set, one map per row.
+  *@param whereClause is the where clause (including the WHERE), which is the same for every row.
+  *@param whereParameterLists are the where clause parameters, one list per row.
+  *@param invalidateKeys are the cache keys to invalidate.
+  */
+  protected void updateBatch(String tableName, List<Map<String,Object>> parameterMaps, String whereClause,
+    List<List> whereParameterLists, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    if (parameterMaps.size() == 0)
+      return;
+    if (parameterMaps.size() != whereParameterLists.size())
+      throw new ManifoldCFException("Batch update of "+tableName+" has "+Integer.toString(parameterMaps.size())+" rows but "+
+        Integer.toString(whereParameterLists.size())+" where parameter lists");
+
+    // The first row decides the shape of the statement
+    Map<String,Object> firstMap = parameterMaps.get(0);
+    String[] columns = firstMap.keySet().toArray(new String[firstMap.size()]);
+    StringBuilder bf = new StringBuilder("UPDATE ");
+    bf.append(tableName).append(" SET ");
+    for (int i = 0; i < columns.length; i++)
+    {
+      if (i > 0)
+        bf.append(',');
+      bf.append(columns[i]).append('=');
+      if (firstMap.get(columns[i]) == null)
+        bf.append("NULL");
+      else
+        bf.append('?');
+    }
+    if (whereClause != null)
+      bf.append(' ').append(whereClause);
+    String query = bf.toString();
+
+    List<List> paramSets = new ArrayList<List>();
+    for (int j = 0; j < parameterMaps.size(); j++)
+    {
+      Map<String,Object> parameterMap = parameterMaps.get(j);
+      if (parameterMap.size() != columns.length)
+        throw new ManifoldCFException("Batch update of "+tableName+" has rows with differing columns");
+      List paramArray = new ArrayList();
+      for (int i = 0; i < columns.length; i++)
+      {
+        if (!parameterMap.containsKey(columns[i]))
+          throw new ManifoldCFException("Batch update of "+tableName+" has rows with differing columns");
+        Object o = parameterMap.get(columns[i]);
+        if ((o == null) != (firstMap.get(columns[i]) == null))
+          throw new ManifoldCFException("Batch update of "+tableName+" has column '"+columns[i]+"' null in some rows but not others");
+        if (o != null)
+          paramArray.add(o);
+      }
+      List whereParameters = whereParameterLists.get(j);
+      if (whereParameters != null)
+        paramArray.addAll(whereParameters);
+      paramSets.add(paramArray);
+      if (paramSets.size() == maxBatchRows)
+      {
+        executeBatchModification(query,paramSets,invalidateKeys);
+        paramSets = new ArrayList<List>();
+      }
+    }
+    if (paramSets.size() > 0)
+      executeBatchModification(query,paramSets,invalidateKeys);
+  }
+
+  /** Execute a modification statement once for each of a list of parameter sets, as a single JDBC batch.
+  * The statement must not return results.
+  *@param query is the statement.
+  *@param paramSets is the list of parameter sets, one per execution.
+  *@param invalidateKeys are the cache keys to invalidate.
+  */
+  public void executeBatchModification(String query, List<List> paramSets, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    if (commitDone)
+      throw new ManifoldCFException("Commit already done");
+
+    if (Logging.db.isDebugEnabled())
+    {
+      Logging.db.debug("Requested batch of "+Integer.toString(paramSets.size())+": [" + query + "]");
+    }
+
+    ICacheHandle ch = cacheManager.enterCache(null,invalidateKeys,getTransactionID());
+    try
+    {
+      synchronizeTransactions();
+      executeUncachedBatch(query,paramSets);
+      cacheManager.invalidateKeys(ch);
+    }
+    finally
+    {
+      cacheManager.leaveCache(ch);
+    }
+  }
+
+  /** Execute a query, handing each row to a result handler as it is read, rather than building
+  * a resultset.  Nothing is cached.  The handler is called on the thread that talks to the database,
+  * so it must not itself use this database handle.
+  *@param query is the query.
+  *@param params are the query parameters, or null.
+  *@param handler is the result handler.
+  */
+  public void executeStreamingQuery(String query, List params, IResultHandler handler)
+    throws ManifoldCFException
+  {
+    if (commitDone)
+      throw new ManifoldCFException("Commit already done");
+
+    if (Logging.db.isDebugEnabled())
+    {
+      Logging.db.debug("Requested streaming query: [" + query + "]");
+    }
+
+    // Start any transaction that has been put off, just as the cache executor would
+    synchronizeTransactions();
+    executeUncachedQuery(query,params,true,-1,null,null,handler);
+  }
+
   /** Get the current transaction type.  Returns "READCOMMITTED"
   * outside of a transaction.
   */
@@ -645,27 +844,58 @@ public abstract class Database
     }
   }
   
-  /** Thread used to execute queries.  An instance of this thread is spun up every time a query is executed.  This is necessary because JDBC does not
-  * guarantee interruptability, and the Postgresql JDBC driver unfortunately eats all thread interrupts.  So, we fire up a thread to do each interaction with
-  * the database server, thus insuring that the owning thread remains interruptable and will therefore not block shutdown.
+  /** Pool of threads used to execute queries, shared by every database handle in the JVM.  JDBC does not
+  * guarantee interruptability, and the Postgresql JDBC driver unfortunately eats all thread interrupts.  So,
+  * each interaction with the database server is handed to one of these threads, thus insuring that the
+  * owning thread remains interruptable and will therefore not block shutdown.
+  * The pool grows as needed, because a query must never wait on a query that is itself waiting for the first
+  * one's transaction; idle threads are retired after a minute.
+  */
+  protected final static ExecutorService queryExecutor = new ThreadPoolExecutor(0,Integer.MAX_VALUE,
+    60L,TimeUnit.SECONDS,new SynchronousQueue<Runnable>(),new QueryThreadFactory());
+
+  /** Queue wait and execution times for the query executor */
+  protected final static QueryStatistics queryStatistics = new QueryStatistics();
+
+  /** Get the query executor statistics.
+  *@return the statistics, accumulated across all database handles in this JVM.
+  */
+  public static QueryStatistics getQueryStatistics()
+  {
+    return queryStatistics;
+  }
+
+  /** Thread factory for the query executor.
   */
-  protected class ExecuteQueryThread extends Thread
+  protected static class QueryThreadFactory implements ThreadFactory
   {
-    protected Connection connection;
-    protected String query;
-    protected List params;
-    protected boolean bResults;
-    protected int maxResults;
-    protected ResultSpecification spec;
-    protected ILimitChecker returnLimit;
-    protected Throwable exception = null;
-    protected IResultSet rval = null;
-
-    public ExecuteQueryThread(Connection connection, String query, List params, boolean bResults, int maxResults,
-      ResultSpecification spec, ILimitChecker returnLimit)
+    protected int threadCount = 0;
+
+    public synchronized Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r,"Query thread "+Integer.toString(threadCount++));
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+  /** Task used to execute queries.  An instance of this task is handed to the query executor every time a query is executed.
+  */
+  protected class ExecuteQueryTask implements Callable<IResultSet>
+  {
+    protected final Connection connection;
+    protected final String query;
+    protected final List params;
+    protected final boolean bResults;
+    protected final int maxResults;
+    protected final ResultSpecification spec;
+    protected final ILimitChecker returnLimit;
+    protected final IResultHandler handler;
+    protected final long submitTime = System.nanoTime();
+
+    public ExecuteQueryTask(Connection connection, String query, List params, boolean bResults, int maxResults,
+      ResultSpecification spec, ILimitChecker returnLimit, IResultHandler handler)
     {
-      super();
-      setDaemon(true);
       this.connection = connection;
       this.query = query;
       this.params = params;
@@ -673,68 +903,115 @@ public abstract class Database
       this.maxResults = maxResults;
       this.spec = spec;
       this.returnLimit = returnLimit;
+      this.handler = handler;
     }
 
-    public void run()
+    public IResultSet call()
+      throws Exception
     {
+      long startTime = System.nanoTime();
       try
       {
         // execute using the passed connection handle
-        rval = execute(connection,query,params,bResults,maxResults,spec,returnLimit);
+        return execute(connection,query,params,bResults,maxResults,spec,returnLimit,handler);
       }
-      catch (Throwable e)
+      finally
       {
-        this.exception = e;
+        queryStatistics.noteQuery(QueryStatistics.classifyQuery(query),startTime - submitTime,System.nanoTime() - startTime);
       }
     }
+  }
+
+  /** Task used to execute a JDBC batch: one statement, run once for each of a list of parameter sets.
+  */
+  protected class ExecuteBatchTask implements Callable<IResultSet>
+  {
+    protected final Connection connection;
+    protected final String query;
+    protected final List<List> paramSets;
+    protected final long submitTime = System.nanoTime();
+
+    public ExecuteBatchTask(Connection connection, String query, List<List> paramSets)
+    {
+      this.connection = connection;
+      this.query = query;
+      this.paramSets = paramSets;
+    }
 
-    public IResultSet finishUp()
-      throws ManifoldCFException, InterruptedException
+    public IResultSet call()
+      throws Exception
     {
-      join();
-      Throwable thr = exception;
-      if (thr != null)
+      long startTime = System.nanoTime();
+      try
       {
-        if (thr instanceof ManifoldCFException)
-        {
-          // Nest the exceptions so there is a hope we actually see the context, while preserving the kind of error it is
-          ManifoldCFException me = (ManifoldCFException)thr;
-          throw new ManifoldCFException("Database exception: "+me.getMessage(),me.getCause(),me.getErrorCode());
-        }
-        else if (thr instanceof Error)
-          throw (Error)thr;
-        else if (thr instanceof RuntimeException)
-          throw (RuntimeException)thr;
-        else
-          throw new RuntimeException("Unknown exception: "+thr.getClass().getName()+": "+thr.getMessage(),thr);
+        executeBatch(connection,query,paramSets);
+        return null;
+      }
+      finally
+      {
+        queryStatistics.noteQuery(QueryStatistics.classifyQuery(query),startTime - submitTime,System.nanoTime() - startTime);
       }
-      return rval;
     }
   }
 
-  /** Do query execution via a subthread, so the primary thread can be interrupted */
+  /** Do query execution via a pooled thread, so the primary thread can be interrupted */
   protected IResultSet executeViaThread(Connection connection, String query, List params, boolean bResults, int maxResults,
     ResultSpecification spec, ILimitChecker returnLimit)
     throws ManifoldCFException
+  {
+    return executeViaThread(connection,query,params,bResults,maxResults,spec,returnLimit,null);
+  }
+
+  /** Do query execution via a pooled thread, so the primary thread can be interrupted.
+  * If a result handler is supplied, the rows are handed to it as they are read (on the pooled thread), and
+  * an empty resultset is returned.
+  */
+  protected IResultSet executeViaThread(Connection connection, String query, List params, boolean bResults, int maxResults,
+    ResultSpecification spec, ILimitChecker returnLimit, IResultHandler handler)
+    throws ManifoldCFException
   {
     if (connection == null)
       // This probably means that the thread was interrupted and the connection was abandoned.  Just return null.
       return null;
 
-    ExecuteQueryThread t = new ExecuteQueryThread(connection,query,params,bResults,maxResults,spec,returnLimit);
+    return runViaThread(connection,new ExecuteQueryTask(connection,query,params,bResults,maxResults,spec,returnLimit,handler));
+  }
+
+  /** Run a database task on a pooled thread, waiting for it to finish.  If the waiting thread is interrupted,
+  * the connection is cleaned up and abandoned.
+  */
+  protected IResultSet runViaThread(Connection connection, Callable<IResultSet> task)
+    throws ManifoldCFException
+  {
+    Future<IResultSet> future = queryExecutor.submit(task);
     try
     {
-      t.start();
-      return t.finishUp();
+      return future.get();
     }
     catch (InterruptedException e)
     {
-      // Try to kill the background thread - but we can't wait for it...
-      t.interrupt();
+      // Try to kill the pooled thread's query - but we can't wait for it...
+      future.cancel(true);
       interruptCleanup(connection);
       // We need the caller to abandon any connections left around, so rethrow in a way that forces them to process the event properly.
       throw new ManifoldCFException(e.getMessage(),e,ManifoldCFException.INTERRUPTED);
     }
+    catch (ExecutionException e)
+    {
+      Throwable thr = e.getCause();
+      if (thr instanceof ManifoldCFException)
+      {
+        // Nest the exceptions so there is a hope we actually see the context, while preserving the kind of error it is
+        ManifoldCFException me = (ManifoldCFException)thr;
+        throw new ManifoldCFException("Database exception: "+me.getMessage(),me.getCause(),me.getErrorCode());
+      }
+      else if (thr instanceof Error)
+        throw (Error)thr;
+      else if (thr instanceof RuntimeException)
+        throw (RuntimeException)thr;
+      else
+        throw new RuntimeException("Unknown exception: "+thr.getClass().getName()+": "+thr.getMessage(),thr);
+    }
 
   }
 
@@ -763,12 +1040,22 @@ public abstract class Database
     ResultSpecification spec, ILimitChecker returnLimit)
     throws ManifoldCFException
   {
+    return executeUncachedQuery(query,params,bResults,maxResults,spec,returnLimit,null);
+  }
+
+  /** Execute a query without the cache, optionally handing each row to a result handler
+  * rather than accumulating a resultset.
+  */
+  protected IResultSet executeUncachedQuery(String query, List params, boolean bResults, int maxResults,
+    ResultSpecification spec, ILimitChecker returnLimit, IResultHandler handler)
+    throws ManifoldCFException
+  {
 
     if (connection != null)
     {
       try
       {
-        return executeViaThread(connection.getConnection(),query,params,bResults,maxResults,spec,returnLimit);
+        return executeViaThread(connection.getConnection(),query,params,bResults,maxResults,spec,returnLimit,handler);
       }
       catch (ManifoldCFException e)
       {
@@ -787,7 +1074,7 @@ public abstract class Database
       {
         // Initialize the connection (for HSQLDB)
         initializeConnection(tempConnection.getConnection());
-        return executeViaThread(tempConnection.getConnection(),query,params,bResults,maxResults,spec,returnLimit);
+        return executeViaThread(tempConnection.getConnection(),query,params,bResults,maxResults,spec,returnLimit,handler);
       }
       catch (ManifoldCFException e)
       {
@@ -805,6 +1092,51 @@ public abstract class Database
   }
 
 
+  /** Execute a JDBC batch without involving the cache.
+  */
+  protected void executeUncachedBatch(String query, List<List> paramSets)
+    throws ManifoldCFException
+  {
+    if (connection != null)
+    {
+      try
+      {
+        runViaThread(connection.getConnection(),new ExecuteBatchTask(connection.getConnection(),query,paramSets));
+      }
+      catch (ManifoldCFException e)
+      {
+        if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+          // drop the connection object on the floor, so it cannot possibly be reused
+          connection = null;
+        throw e;
+      }
+    }
+    else
+    {
+      // Grab a connection
+      WrappedConnection tempConnection = ConnectionFactory.getConnection(jdbcUrl,jdbcDriverClass,databaseName,userName,password,
+        maxDBConnections,debug);
+      try
+      {
+        // Initialize the connection (for HSQLDB)
+        initializeConnection(tempConnection.getConnection());
+        runViaThread(tempConnection.getConnection(),new ExecuteBatchTask(tempConnection.getConnection(),query,paramSets));
+      }
+      catch (ManifoldCFException e)
+      {
+        if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+          // drop the connection object on the floor, so it cannot possibly be reused
+          tempConnection = null;
+        throw e;
+      }
+      finally
+      {
+        if (tempConnection != null)
+          ConnectionFactory.releaseConnection(tempConnection);
+      }
+    }
+  }
+
   // These are protected helper methods
 
   /** Initialize the connection (for HSQLDB).
@@ -828,6 +1160,16 @@ public abstract class Database
   protected IResultSet execute(Connection connection, String query, List params, boolean bResults, int maxResults,
     ResultSpecification spec, ILimitChecker returnLimit)
     throws ManifoldCFException
+  {
+    return execute(connection,query,params,bResults,maxResults,spec,returnLimit,null);
+  }
+
+  /** Run a query or update against the connection.  If a result handler is supplied, rows are
+  * handed to it as they are read, rather than being accumulated.
+  */
+  protected IResultSet execute(Connection connection, String query, List params, boolean bResults, int maxResults,
+    ResultSpecification spec, ILimitChecker returnLimit, IResultHandler handler)
+    throws ManifoldCFException
   {
     IResultSet rval = null;
     try
@@ -860,12 +1202,14 @@ public abstract class Database
           Statement stmt = connection.createStatement();
           try
           {
+            if (handler != null)
+              stmt.setFetchSize(streamingFetchSize);
             stmt.execute(query);
             rs = stmt.getResultSet();
             try
             {
               // Suck data from resultset
-              rval = getData(rs,bResults,maxResults,spec,returnLimit);
+              rval = getData(rs,bResults,maxResults,spec,returnLimit,handler);
             }
             finally
             {
@@ -886,11 +1230,13 @@ public abstract class Database
             loadPS(ps, params);
             if (bResults)
             {
+              if (handler != null)
+                ps.setFetchSize(streamingFetchSize);
               rs = ps.executeQuery();
               try
               {
                 // Suck data from resultset
-                rval = getData(rs,true,maxResults,spec,returnLimit);
+                rval = getData(rs,true,maxResults,spec,returnLimit,handler);
               }
               finally
               {
@@ -901,7 +1247,7 @@ public abstract class Database
             else
             {
               ps.executeUpdate();
-              rval = getData(null,false,0,spec,null);
+              rval = getData(null,false,0,spec,null,null);
             }
           }
           finally
@@ -928,11 +1274,77 @@ public abstract class Database
     return rval;
   }
 
+  /** Run a statement as a JDBC batch, once per parameter set.
+  */
+  protected void executeBatch(Connection connection, String query, List<List> paramSets)
+    throws ManifoldCFException
+  {
+    try
+    {
+      try
+      {
+        long queryStartTime = 0L;
+        if (Logging.db.isDebugEnabled())
+        {
+          queryStartTime = System.currentTimeMillis();
+          Logging.db.debug("Actual batch of "+Integer.toString(paramSets.size())+": [" + query + "]");
+        }
+
+        PreparedStatement ps = connection.prepareStatement(query);
+        try
+        {
+          for (List params : paramSets)
+          {
+            loadPS(ps, params);
+            ps.addBatch();
+          }
+          ps.executeBatch();
+        }
+        finally
+        {
+          ps.close();
+        }
+
+        if (Logging.db.isDebugEnabled())
+          Logging.db.debug("Done actual batch ("+new Long(System.currentTimeMillis()-queryStartTime).toString()+"ms): ["+query+"]");
+      }
+      catch (java.sql.BatchUpdateException e)
+      {
+        // The driver reports the real reason as the next exception; that is what carries the SQL state we care about
+        java.sql.SQLException cause = e.getNextException();
+        if (cause == null)
+          cause = e;
+        throw new ManifoldCFException("SQLException doing batch"+((cause.getSQLState() != null)?" ("+cause.getSQLState()+")":"")+": "+cause.getMessage(),cause,ManifoldCFException.DATABASE_CONNECTION_ERROR);
+      }
+      catch (java.sql.SQLException e)
+      {
+        throw new ManifoldCFException("SQLException doing batch"+((e.getSQLState() != null)?" ("+e.getSQLState()+")":"")+": "+e.getMessage(),e,ManifoldCFException.DATABASE_CONNECTION_ERROR);
+      }
+    }
+    finally
+    {
+      // Cleanup of input parameters ALWAYS occurs, because whether we succeed or fail, we are done with any input streams.
+      for (List params : paramSets)
+      {
+        if (params != null)
+          cleanupParameters(params);
+      }
+    }
+  }
+
   // Read data from a resultset
   protected IResultSet getData(ResultSet rs, boolean bResults, int maxResults, ResultSpecification spec, ILimitChecker returnLimit)
     throws ManifoldCFException
   {
-    RSet results = new RSet();  // might be empty but not an error
+    return getData(rs,bResults,maxResults,spec,returnLimit,null);
+  }
+
+  // Read data from a resultset, either into a compact resultset or row by row into a handler
+  protected IResultSet getData(ResultSet rs, boolean bResults, int maxResults, ResultSpecification spec, ILimitChecker returnLimit,
+    IResultHandler handler)
+    throws ManifoldCFException
+  {
+    ColumnarRSet results = new ColumnarRSet(new String[0]);  // might be empty but not an error
     try
     {
       try
@@ -962,6 +1374,9 @@ public abstract class Database
               resultLabels[i] = mapLabelName(labelName);
             }
           }
+          ColumnIndex columnIndex = new ColumnIndex(resultLabels);
+          if (handler == null)
+            results = new ColumnarRSet(columnIndex);
 
           if (bResults)
           {
@@ -972,47 +1387,56 @@ public abstract class Database
               throw new ManifoldCFException("Empty query, no columns returned",ManifoldCFException.GENERAL_ERROR);
             }
 
+            // Column positions and forms don't change from row to row, so look them up once
+            int[] colnums = new int[colcount];
+            int[] forms = new int[colcount];
+            for (int i = 0; i < colcount; i++)
+            {
+              String key = resultCols[i];
+              colnums[i] = findColumn(rs,key);
+              forms[i] = (spec == null)?ResultSpecification.FORM_DEFAULT:spec.getForm(key.toLowerCase(Locale.ROOT));
+            }
+
             while (rs.next() && (maxResults == -1 || maxResults > 0) && (returnLimit == null || returnLimit.checkContinue()))
             {
-              Object value;
-              RRow m = new RRow();
+              Object[] values = new Object[colcount];
 
               // We have 'colcount' cols to look thru
               for (int i = 0; i < colcount; i++)
               {
-                String key = resultCols[i];
-                // System.out.println("Key = "+key);
-                int colnum = findColumn(rs,key);
-                value = null;
-                if (colnum > -1)
+                if (colnums[i] > -1)
                 {
-                  value = getObject(rs,rsmd,colnum,(spec == null)?ResultSpecification.FORM_DEFAULT:spec.getForm(key.toLowerCase(Locale.ROOT)));
+                  values[i] = getObject(rs,rsmd,colnums[i],forms[i]);
                 }
-                //System.out.println(" Key = '"+resultLabels[i]+"', value = "+((value==null)?"NULL":value.toString()));
-                m.put(resultLabels[i], value);
               }
 
               // See if we should include this row
               boolean include = true;
-              if (returnLimit != null)
+              IResultRow m = null;
+              if (returnLimit != null || handler != null)
               {
-                include = returnLimit.checkInclude(m);
+                m = new IndexedRow(columnIndex,values);
+                if (returnLimit != null)
+                  include = returnLimit.checkInclude(m);
               }
 
               if (include)
               {
                 if (maxResults != -1)
                   maxResults--;
-                results.addRow(m);
+                if (handler != null)
+                {
+                  if (!handler.processRow(m))
+                    break;
+                }
+                else
+                  results.addRow(values);
               }
               else
               {
                 // As a courtesy, clean up any BinaryInput objects in the row we are skipping
-                Iterator iter = m.getColumns();
-                while (iter.hasNext())
+                for (Object colValue : values)
                 {
-                  String columnName = (String)iter.next();
-                  Object colValue = m.getValue(columnName);
                   if (colValue instanceof PersistentDatabaseObject)
                     ((PersistentDatabaseObject)colValue).discard();
                 }
@@ -0,0 +1,76 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.util.*;
+
+/** This class represents a result row whose values are held in an array, with column names
+* resolved through a ColumnIndex shared among rows.  It is used where a standalone row is needed
+* but a map per row would be wasteful, such as for streamed results.
+*/
+public class IndexedRow implements IResultRow
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final ColumnIndex columnIndex;
+  protected final Object[] values;
+
+  /** Constructor.
+  *@param columnIndex is the shared column index.
+  *@param values are the values, in column index order.
+  */
+  public IndexedRow(ColumnIndex columnIndex, Object[] values)
+  {
+    this.columnIndex = columnIndex;
+    this.values = values;
+  }
+
+  /** Obtain the number of columns in the row.
+  *@return the number of columns that row contains.
+  */
+  @Override
+  public int getColumnCount()
+  {
+    return columnIndex.getDistinctColumnCount();
+  }
+
+  /** Obtain the set of columns for a row.
+  @return an iterator that will list all the (String) column names stored in that row.
+  */
+  @Override
+  public Iterator<String> getColumns()
+  {
+    return columnIndex.getColumnNames();
+  }
+
+  /** Get the row value for a column.
+  *@param columnName is the name of the column.
+  *@return the value, or null if not present.
+  */
+  @Override
+  public Object getValue(String columnName)
+  {
+    int index = columnIndex.lookup(columnName);
+    if (index == -1)
+      return null;
+    return values[index];
+  }
+
+}
@@ -0,0 +1,218 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import org.apache.manifoldcf.core.system.Logging;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** This class accumulates timings for queries run through the query executor, per query class.
+* Two times are kept for each query: the time it waited between being submitted and a pool thread
+* picking it up ("queue wait"), and the time it then took to execute.
+*
+* The query class is the statement type together with the first table it names, e.g. "SELECT jobqueue",
+* since most queries are not given an explicit cache class.
+*
+* Totals are cumulative since startup.  A summary of the most recent reporting window is written to the
+* performance log at DEBUG level.
+*/
+public class QueryStatistics
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Interval between summaries written to the performance log */
+  protected final static long reportInterval = 60000L;
+
+  /** Cumulative statistics, keyed by query class */
+  protected final ConcurrentMap<String,ClassStatistics> totals = new ConcurrentHashMap<String,ClassStatistics>();
+  /** Statistics for the current reporting window, keyed by query class */
+  protected volatile ConcurrentMap<String,ClassStatistics> window = new ConcurrentHashMap<String,ClassStatistics>();
+  /** Time the current window started */
+  protected volatile long windowStart = System.currentTimeMillis();
+
+  /** Constructor */
+  public QueryStatistics()
+  {
+  }
+
+  /** Note the completion of a query.
+  *@param queryClass is the query class, as returned by classifyQuery().
+  *@param queueWaitTime is the time the query waited for a thread, in nanoseconds.
+  *@param executionTime is the time the query took to run, in nanoseconds.
+  */
+  public void noteQuery(String queryClass, long queueWaitTime, long executionTime)
+  {
+    findStatistics(totals,queryClass).note(queueWaitTime,executionTime);
+    findStatistics(window,queryClass).note(queueWaitTime,executionTime);
+    if (System.currentTimeMillis() - windowStart >= reportInterval)
+      report();
+  }
+
+  /** Get the query classes seen since startup. */
+  public Set<String> getQueryClasses()
+  {
+    return new HashSet<String>(totals.keySet());
+  }
+
+  /** Get the number of queries of a class run since startup. */
+  public long getCount(String queryClass)
+  {
+    ClassStatistics s = totals.get(queryClass);
+    return (s==null)?0L:s.getCount();
+  }
+
+  /** Get the total queue wait time for a class since startup, in nanoseconds. */
+  public long getTotalQueueWaitTime(String queryClass)
+  {
+    ClassStatistics s = totals.get(queryClass);
+    return (s==null)?0L:s.getTotalQueueWaitTime();
+  }
+
+  /** Get the total execution time for a class since startup, in nanoseconds. */
+  public long getTotalExecutionTime(String queryClass)
+  {
+    ClassStatistics s = totals.get(queryClass);
+    return (s==null)?0L:s.getTotalExecutionTime();
+  }
+
+  /** Figure out the query class of a query: the statement type plus the first table it names.
+  *@param query is the query text.
+  *@return the query class.
+  */
+  public static String classifyQuery(String query)
+  {
+    StringTokenizer st = new StringTokenizer(query," \t\r\n(),");
+    if (!st.hasMoreTokens())
+      return "";
+    String verb = st.nextToken().toUpperCase(Locale.ROOT);
+    // The keyword that comes right before the first table name
+    String tableKeyword;
+    if (verb.equals("SELECT") || verb.equals("DELETE"))
+      tableKeyword = "FROM";
+    else if (verb.equals("INSERT"))
+      tableKeyword = "INTO";
+    else if (verb.equals("UPDATE"))
+      return st.hasMoreTokens()?(verb + " " + st.nextToken()):verb;
+    else
+      return verb;
+    boolean sawKeyword = false;
+    while (st.hasMoreTokens())
+    {
+      String token = st.nextToken();
+      if (sawKeyword && !token.equalsIgnoreCase("SELECT"))
+        return verb + " " + token;
+      // Look through subqueries to the first real table
+      sawKeyword = token.equalsIgnoreCase(tableKeyword);
+    }
+    return verb;
+  }
+
+  protected static ClassStatistics findStatistics(ConcurrentMap<String,ClassStatistics> map, String queryClass)
+  {
+    ClassStatistics s = map.get(queryClass);
+    if (s == null)
+    {
+      s = new ClassStatistics();
+      ClassStatistics existing = map.putIfAbsent(queryClass,s);
+      if (existing != null)
+        s = existing;
+    }
+    return s;
+  }
+
+  /** Write out a summary of the current window, and start a new one. */
+  protected void report()
+  {
+    Map<String,ClassStatistics> reportWindow;
+    long windowLength;
+    synchronized (this)
+    {
+      long currentTime = System.currentTimeMillis();
+      windowLength = currentTime - windowStart;
+      // Somebody else got here first
+      if (windowLength < reportInterval)
+        return;
+      reportWindow = window;
+      window = new ConcurrentHashMap<String,ClassStatistics>();
+      windowStart = currentTime;
+    }
+    if (!Logging.perf.isDebugEnabled())
+      return;
+    StringBuilder sb = new StringBuilder("Query statistics for last ");
+    sb.append(windowLength).append(" ms:");
+    for (Map.Entry<String,ClassStatistics> entry : reportWindow.entrySet())
+    {
+      ClassStatistics s = entry.getValue();
+      long count = s.getCount();
+      sb.append(" [").append(entry.getKey()).append("] count=").append(count)
+        .append(" avg wait=").append((count==0L)?0L:(s.getTotalQueueWaitTime()/count/1000L)).append("us")
+        .append(" max wait=").append(s.getMaxQueueWaitTime()/1000L).append("us")
+        .append(" avg exec=").append((count==0L)?0L:(s.getTotalExecutionTime()/count/1000L)).append("us")
+        .append(" max exec=").append(s.getMaxExecutionTime()/1000L).append("us;");
+    }
+    Logging.perf.debug(sb.toString());
+  }
+
+  /** Accumulated statistics for one query class */
+  protected static class ClassStatistics
+  {
+    protected long count = 0L;
+    protected long totalQueueWaitTime = 0L;
+    protected long maxQueueWaitTime = 0L;
+    protected long totalExecutionTime = 0L;
+    protected long maxExecutionTime = 0L;
+
+    public synchronized void note(long queueWaitTime, long executionTime)
+    {
+      count++;
+      totalQueueWaitTime += queueWaitTime;
+      if (queueWaitTime > maxQueueWaitTime)
+        maxQueueWaitTime = queueWaitTime;
+      totalExecutionTime += executionTime;
+      if (executionTime > maxExecutionTime)
+        maxExecutionTime = executionTime;
+    }
+
+    public synchronized long getCount()
+    {
+      return count;
+    }
+
+    public synchronized long getTotalQueueWaitTime()
+    {
+      return totalQueueWaitTime;
+    }
+
+    public synchronized long getMaxQueueWaitTime()
+    {
+      return maxQueueWaitTime;
+    }
+
+    public synchronized long getTotalExecutionTime()
+    {
+      return totalExecutionTime;
+    }
+
+    public synchronized long getMaxExecutionTime()
+    {
+      return maxExecutionTime;
+    }
+  }
+
+}
@@ -87,6 +87,46 @@ public interface IDBInterface
     List whereParameters, StringSet invalidateKeys)
     throws ManifoldCFException;
 
+  /** Perform an insert of many rows at once.  This is equivalent to calling performInsert() for
+  * each row, but takes far fewer round trips.
+  *@param tableName is the name of the table.
+  *@param parameterMaps are the rows to write, each a map of column name/value.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  */
+  public void performInsertBatch(String tableName, List<Map<String,Object>> parameterMaps, StringSet invalidateKeys)
+    throws ManifoldCFException;
+
+  /** Perform an update of many rows at once, using the same statement for each.  This is equivalent to calling
+  * performUpdate() once per row, but takes far fewer round trips.  Every row must write the same
+  * columns, and a column that is null for one row must be null for all.
+  *@param tableName is the name of the table.
+  *@param parameterMaps are the column name/values to write, one map per row.
+  *@param whereClause is the where clause describing the match (including the WHERE), or null if none.
+  *  It is the same for every row.
+  *@param whereParameterLists are the parameters for the where clause, one list per row.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  */
+  public void performUpdateBatch(String tableName, List<Map<String,Object>> parameterMaps, String whereClause,
+    List<List> whereParameterLists, StringSet invalidateKeys)
+    throws ManifoldCFException;
+
+  /** Perform an update operation on matching rows that are not locked by some other transaction,
+  * skipping over any that are, and return the keys of the rows actually updated.  The selection and the
+  * update happen in a single statement.  Not all databases can do this.
+  *@param tableName is the name of the table.
+  *@param parameterMap is the map of column name/values to write.
+  *@param keyColumn is the name of the table's primary key column.
+  *@param whereClause is the where clause describing the match (including the WHERE), or null if none.
+  *@param whereParameters are the parameters that come with the where clause, if any.
+  *@param maxRows is the maximum number of rows to update, or -1 for no limit.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  *@return a resultset with one row per updated row, containing the key column, or null if the
+  * database does not support this operation (in which case nothing was updated).
+  */
+  public IResultSet performUpdateSkipLocked(String tableName, Map<String,Object> parameterMap, String keyColumn,
+    String whereClause, List whereParameters, int maxRows, StringSet invalidateKeys)
+    throws ManifoldCFException;
+
   /** Perform a delete operation.
   *@param tableName is the name of the table to delete from.
   *@param invalidateKeys are the cache keys that should be invalidated.
@@ -254,6 +294,16 @@ public interface IDBInterface
     int maxResults, ResultSpecification resultSpec, ILimitChecker returnLimit)
     throws ManifoldCFException;
 
+  /** Perform a general "data fetch" query, handing each row to a handler as it is read rather than
+  * building a resultset.  This is meant for large reads that are looked at once; nothing is cached.
+  *@param query is the query string.
+  *@param params are the parameterized values, if needed.
+  *@param handler is the handler that receives the rows.  It is called on the thread that talks to
+  * the database, so it must not use this database handle.
+  */
+  public void performStreamingQuery(String query, List params, IResultHandler handler)
+    throws ManifoldCFException;
+
   /** Construct index hint clause.
   * On most databases this returns an empty string, but on MySQL this returns
   * a USE INDEX hint.  It requires the name of an index.
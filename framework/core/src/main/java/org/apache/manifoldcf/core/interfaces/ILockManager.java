@@ -181,6 +181,18 @@ public interface ILockManager
   public byte[] readData(String resourceName)
     throws ManifoldCFException;
   
+  /** Read data from a shared data resource, allowing the answer to come from a local copy that is kept current by
+  * change notification.  The answer may miss a write made elsewhere in the cluster by at most maxStaleness milliseconds,
+  * and is usually much fresher than that; writes made through this process are always seen at once.  Use this only for
+  * data whose readers can tolerate such lag, such as cache invalidation times.
+  *@param resourceName is the global name of the resource.
+  *@param maxStaleness is the greatest age, in milliseconds, the answer may have.  Zero means read the
+  * shared resource directly.
+  *@return a byte array containing the data, or null.  The caller must not modify the array.
+  */
+  public byte[] readMirroredData(String resourceName, long maxStaleness)
+    throws ManifoldCFException;
+  
   /** Write data to a shared data resource.  Use this method to write a body of data into a shared resource.
   * Note well that this is not necessarily an atomic operation, and it must thus be protected by a lock.
   *@param resourceName is the global name of the resource.
@@ -0,0 +1,41 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.interfaces;
+
+/** This interface is implemented by callers of IDBInterface.performStreamingQuery(), to
+* receive the rows of a query one at a time as they are read from the database.  Rows are
+* not retained by the database layer, so a caller that only needs to look at each row once
+* never holds the whole result in memory.
+*
+* The handler is called on the thread that is talking to the database, not the thread that
+* issued the query.  It therefore must not use the database handle itself.  Any binary or
+* character input objects in a row become the handler's responsibility.
+*/
+public interface IResultHandler
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Process a row.
+  *@param row is the row.
+  *@return true to continue reading rows, or false to stop.
+  */
+  public boolean processRow(IResultRow row)
+    throws ManifoldCFException;
+
+}
@@ -19,6 +19,7 @@
 package org.apache.manifoldcf.core.interfaces;
 
 import java.io.*;
+import java.util.Arrays;
 import java.nio.charset.StandardCharsets;
 
 import org.apache.manifoldcf.core.system.ManifoldCF;
@@ -77,20 +78,23 @@ public class TempFileCharacterInput extends CharacterInput
     super();
     
 
-    // Before we do anything else, we read the first chunk.  This will allow
-    // us to determine if we're going to buffer the data in memory or not.  However,
-    // it may need to be read in chunks, since there's no guarantee it will come in
-    // in the size requested.
+    // Before we do anything else, we read the first chunk, or as much as we might keep in
+    // memory if that is larger.  (Every character takes at least one byte, so reading
+    // maxInMemoryLength characters is enough to decide.)  This will allow us to determine
+    // if we're going to buffer the data in memory or not.  However, it may need to be read
+    // in chunks, since there's no guarantee it will come in in the size requested.
     int chunkSize = CHUNK_SIZE;
+    int readLimit = Math.max(chunkSize,maxInMemoryLength);
 
+    // The buffer starts at one chunk, and grows only if the data turns out to be bigger
     char[] buffer = new char[chunkSize];
     int chunkTotal = 0;
     boolean eofSeen = false;
     while (true)
     {
       int chunkAmount;
-      if (length == -1L || length > chunkSize)
-        chunkAmount = chunkSize-chunkTotal;
+      if (length == -1L || length > readLimit)
+        chunkAmount = readLimit-chunkTotal;
       else
       {
         chunkAmount = (int)(length-chunkTotal);
@@ -98,7 +102,9 @@ public class TempFileCharacterInput extends CharacterInput
       }
       if (chunkAmount == 0)
         break;
-      int readsize = is.read(buffer,chunkTotal,chunkAmount);
+      if (chunkTotal == buffer.length)
+        buffer = Arrays.copyOf(buffer,Math.min(readLimit,buffer.length * 2));
+      int readsize = is.read(buffer,chunkTotal,Math.min(chunkAmount,buffer.length-chunkTotal));
       if (readsize == -1)
       {
         eofSeen = true;
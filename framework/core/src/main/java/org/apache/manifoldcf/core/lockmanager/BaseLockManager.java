@@ -670,6 +670,19 @@ public class BaseLockManager implements ILockManager
     }
   }
   
+  /** Read data from a shared data resource, allowing the answer to come from a local copy.
+  * Shared data is already local here, so this is the same as readData().
+  *@param resourceName is the global name of the resource.
+  *@param maxStaleness is the greatest age, in milliseconds, the answer may have.
+  *@return a byte array containing the data, or null.
+  */
+  @Override
+  public byte[] readMirroredData(String resourceName, long maxStaleness)
+    throws ManifoldCFException
+  {
+    return readData(resourceName);
+  }
+
   /** Write data to a shared data resource.  Use this method to write a body of data into a shared resource.
   * Note well that this is not necessarily an atomic operation, and it must thus be protected by a lock.
   *@param resourceName is the global name of the resource.
@@ -0,0 +1,200 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import org.apache.manifoldcf.core.system.Logging;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** This class keeps local copies of shared data files for the file lock manager.  The directories holding
+* the files that have been read are watched for changes, and a copy is dropped as soon as its file changes.
+* Change notification only covers changes the local operating system sees, so it is not reliable on network
+* file systems; there, the maximum age callers ask for is what bounds staleness.
+*/
+public class FileDataMirror
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Maximum number of files mirrored */
+  protected final static int maxEntries = 100000;
+  /** Maximum number of directories watched, so as not to use up the operating system's watch allowance */
+  protected final static int maxWatchedDirectories = 4096;
+
+  protected final SharedDataMirror mirror = new SharedDataMirror(maxEntries);
+  /** The watch service, or null if none could be had */
+  protected final WatchService watchService;
+  /** Directories being watched */
+  protected final Set<Path> watchedDirectories = Collections.newSetFromMap(new ConcurrentHashMap<Path,Boolean>());
+  /** Thread that receives change notifications, or null */
+  protected final Thread watchThread;
+
+  /** Constructor.
+  */
+  public FileDataMirror()
+  {
+    WatchService ws = null;
+    try
+    {
+      ws = FileSystems.getDefault().newWatchService();
+    }
+    catch (IOException e)
+    {
+      Logging.lock.warn("File data mirror cannot watch for changes; relying on maximum age alone: "+e.getMessage());
+    }
+    watchService = ws;
+    if (watchService != null)
+    {
+      watchThread = new WatchThread();
+      watchThread.start();
+    }
+    else
+      watchThread = null;
+  }
+
+  /** Find the local copy of a file.
+  *@param file is the file.
+  *@param maxStaleness is the greatest age, in milliseconds, the copy may have.
+  *@return the copy, or null if there is no usable one.
+  */
+  public SharedDataMirror.Entry lookup(File file, long maxStaleness)
+  {
+    return mirror.lookup(makeKey(file),maxStaleness,0L);
+  }
+
+  /** Prepare to read a file.  This starts watching the file's directory, if it is not already watched.
+  *@param file is the file about to be read.
+  *@return the sequence number to pass to store().
+  */
+  public long prepareRead(File file)
+  {
+    if (watchService != null)
+    {
+      Path directory = file.getAbsoluteFile().getParentFile().toPath();
+      if (!watchedDirectories.contains(directory) && watchedDirectories.size() < maxWatchedDirectories)
+      {
+        try
+        {
+          directory.toFile().mkdirs();
+          directory.register(watchService,StandardWatchEventKinds.ENTRY_CREATE,StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+          watchedDirectories.add(directory);
+        }
+        catch (IOException e)
+        {
+          // Most likely out of watches; this directory will have to rely on maximum age.
+          if (Logging.lock.isDebugEnabled())
+            Logging.lock.debug("File data mirror could not watch '"+directory+"': "+e.getMessage());
+        }
+      }
+    }
+    return mirror.getSequence();
+  }
+
+  /** Store a copy of a file read after prepareRead().
+  *@param file is the file.
+  *@param data is the data read, or null if the file does not exist.
+  *@param sequence is the value prepareRead() returned.
+  *@param readTime is the time the read began, in milliseconds since epoch.
+  */
+  public void store(File file, byte[] data, long sequence, long readTime)
+  {
+    mirror.store(makeKey(file),data,sequence,readTime,0L);
+  }
+
+  /** Note a write this process made to a file, so that it is visible here at once.
+  *@param file is the file.
+  */
+  public void noteWrite(File file)
+  {
+    mirror.invalidate(makeKey(file));
+  }
+
+  /** Stop watching for changes.
+  */
+  public void close()
+    throws InterruptedException
+  {
+    mirror.invalidateAll();
+    if (watchService != null)
+    {
+      try
+      {
+        watchService.close();
+      }
+      catch (IOException e)
+      {
+        Logging.lock.warn("Error closing file data mirror watch service: "+e.getMessage(),e);
+      }
+      watchThread.join();
+    }
+  }
+
+  protected static String makeKey(File file)
+  {
+    return file.getAbsoluteFile().toPath().toString();
+  }
+
+  /** Thread that drops copies of files as notifications of their changes come in */
+  protected class WatchThread extends Thread
+  {
+    public WatchThread()
+    {
+      super();
+      setName("File data mirror watcher");
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      try
+      {
+        while (true)
+        {
+          WatchKey key = watchService.take();
+          Path directory = (Path)key.watchable();
+          for (WatchEvent<?> event : key.pollEvents())
+          {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+              mirror.invalidateAll();
+            else
+              mirror.invalidate(directory.resolve((Path)event.context()).toString());
+          }
+          if (!key.reset())
+          {
+            // The directory is gone
+            watchedDirectories.remove(directory);
+            mirror.invalidateAll();
+          }
+        }
+      }
+      catch (ClosedWatchServiceException e)
+      {
+        // Shutting down
+      }
+      catch (InterruptedException e)
+      {
+        // Shutting down
+      }
+    }
+  }
+
+}
@@ -36,6 +36,9 @@ public class FileLockManager extends BaseLockManager
   // These are for file-based locks (which cross JVM boundaries)
   protected final static Integer lockPoolInitialization = new Integer(0);
   protected static LockPool myFileLocks = null;
+  // Local copies of shared data files, created when first needed
+  protected final static Integer mirrorInitialization = new Integer(0);
+  protected static volatile FileDataMirror dataMirror = null;
 
   // This is the directory used for cross-JVM synchronization, or null if off
   protected File synchDirectory = null;
@@ -174,6 +177,31 @@ public class FileLockManager extends BaseLockManager
     }
   }
   
+  /** Read data from a shared data resource, allowing the answer to come from a local copy.
+  * Here the local copies are dropped when the operating system reports a change to their files.
+  *@param resourceName is the global name of the resource.
+  *@param maxStaleness is the greatest age, in milliseconds, the answer may have.  Zero means read the
+  * shared resource directly.
+  *@return a byte array containing the data, or null.  The caller must not modify the array.
+  */
+  @Override
+  public byte[] readMirroredData(String resourceName, long maxStaleness)
+    throws ManifoldCFException
+  {
+    if (maxStaleness <= 0L)
+      return readData(resourceName);
+    FileDataMirror mirror = getDataMirror();
+    File f = new File(makeFilePath(resourceName),ManifoldCF.safeFileName(resourceName));
+    SharedDataMirror.Entry e = mirror.lookup(f,maxStaleness);
+    if (e != null)
+      return e.getData();
+    long sequence = mirror.prepareRead(f);
+    long readTime = System.currentTimeMillis();
+    byte[] data = readData(resourceName);
+    mirror.store(f,data,sequence,readTime);
+    return data;
+  }
+
   /** Write data to a shared data resource.  Use this method to write a body of data into a shared resource.
   * Note well that this is not necessarily an atomic operation, and it must thus be protected by a lock.
   *@param resourceName is the global name of the resource.
@@ -189,19 +217,29 @@ public class FileLockManager extends BaseLockManager
       // Make sure the directory exists
       (new File(path)).mkdirs();
       File f = new File(path,ManifoldCF.safeFileName(resourceName));
-      if (data == null)
-      {
-        f.delete();
-        return;
-      }
-      FileOutputStream os = new FileOutputStream(f);
       try
       {
-        os.write(data,0,data.length);
+        if (data == null)
+        {
+          f.delete();
+          return;
+        }
+        FileOutputStream os = new FileOutputStream(f);
+        try
+        {
+          os.write(data,0,data.length);
+        }
+        finally
+        {
+          os.close();
+        }
       }
       finally
       {
-        os.close();
+        // Our own writes must be visible to our own mirrored reads right away
+        FileDataMirror mirror = dataMirror;
+        if (mirror != null)
+          mirror.noteWrite(f);
       }
     }
     catch (InterruptedIOException e)
@@ -222,6 +260,24 @@ public class FileLockManager extends BaseLockManager
     return myFileLocks;
   }
 
+  /** Get the data mirror, creating it if need be.
+  */
+  protected static FileDataMirror getDataMirror()
+  {
+    FileDataMirror mirror = dataMirror;
+    if (mirror != null)
+      return mirror;
+    synchronized (mirrorInitialization)
+    {
+      if (dataMirror == null)
+      {
+        dataMirror = new FileDataMirror();
+        ManifoldCF.addShutdownHook(new FileDataMirrorShutdown());
+      }
+      return dataMirror;
+    }
+  }
+
   /** Create a file path given a key name.
   *@param key is the key name.
   *@return the file path.
@@ -238,6 +294,36 @@ public class FileLockManager extends BaseLockManager
     return fullDir;
   }
 
+  protected static class FileDataMirrorShutdown implements IShutdownHook
+  {
+    public FileDataMirrorShutdown()
+    {
+    }
+
+    /** Do the requisite cleanup.
+    */
+    @Override
+    public void doCleanup(IThreadContext threadContext)
+      throws ManifoldCFException
+    {
+      synchronized (mirrorInitialization)
+      {
+        if (dataMirror != null)
+        {
+          try
+          {
+            dataMirror.close();
+            dataMirror = null;
+          }
+          catch (InterruptedException e)
+          {
+            throw new ManifoldCFException(e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+          }
+        }
+      }
+    }
+  }
+
   protected static final int BASE_SIZE = 128;
   
   protected static class ByteArrayBuffer
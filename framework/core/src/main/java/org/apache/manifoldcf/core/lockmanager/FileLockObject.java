@@ -68,6 +68,12 @@ public class FileLockObject extends LockObject
     return "lock-"+ManifoldCF.safeFileName(lockKey.toString());
   }
 
+  @Override
+  protected boolean hasGlobalLocks()
+  {
+    return isSync;
+  }
+
   @Override
   protected void obtainGlobalWriteLockNoWait()
     throws ManifoldCFException, LockException, InterruptedException
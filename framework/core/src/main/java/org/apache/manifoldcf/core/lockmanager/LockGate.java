@@ -93,14 +93,18 @@ import org.apache.manifoldcf.core.interfaces.*;
 public class LockGate
 {
   protected final List<Long> threadRequests = new ArrayList<Long>();
-  protected final LockObject lockObject;
+  protected final LockObjectFactory factory;
   protected final Object lockKey;
   protected LockPool lockPool;
+  /** The lock object, built on first use so that a gate that loses the race into the pool costs little */
+  protected LockObject lockObject = null;
+  /** Set while this gate is on the pool's idle list */
+  protected boolean idleQueued = false;
 
-  public LockGate(Object lockKey, LockObject lockObject, LockPool lockPool)
+  public LockGate(Object lockKey, LockObjectFactory factory, LockPool lockPool)
   {
     this.lockKey = lockKey;
-    this.lockObject = lockObject;
+    this.factory = factory;
     this.lockPool = lockPool;
   }
   
@@ -109,7 +113,50 @@ public class LockGate
     synchronized (this)
     {
       this.lockPool = null;
-      lockObject.makeInvalid();
+      if (lockObject != null)
+        lockObject.makeInvalid();
+    }
+  }
+
+  /** Get the lock object, building it if need be.  A lock object built after the gate was
+  * made invalid is invalid too.
+  */
+  protected LockObject getLockObject()
+  {
+    synchronized (this)
+    {
+      if (lockObject == null)
+        lockObject = factory.newLockObject(lockPool,lockKey);
+      return lockObject;
+    }
+  }
+
+  /** Note that a lock was just left.  If nothing is now held or waiting on this gate, it is marked
+  * idle.  Call with this gate's monitor held.
+  *@return true if the gate should be put on the pool's idle list.
+  */
+  protected boolean noteLeft(boolean lockFree)
+  {
+    if (!lockFree || threadRequests.size() > 0 || lockPool == null || idleQueued)
+      return false;
+    idleQueued = true;
+    return true;
+  }
+
+  /** Called by the pool when this gate comes off the idle list.  The gate is removed from the pool only
+  * if it is still idle; otherwise it will go back on the list when it next becomes idle.
+  * Call without holding any other gate's monitor.
+  */
+  protected void releaseIfIdle()
+  {
+    synchronized (this)
+    {
+      idleQueued = false;
+      if (lockPool == null || threadRequests.size() > 0)
+        return;
+      if (lockObject != null && !lockObject.isFree())
+        return;
+      lockPool.releaseObject(lockKey, this);
     }
   }
 
@@ -174,7 +221,7 @@ public class LockGate
     waitForPermission(threadID);
     try
     {
-      lockObject.enterWriteLock();
+      getLockObject().enterWriteLock();
     }
     finally
     {
@@ -188,7 +235,7 @@ public class LockGate
     waitForPermission(threadID);
     try
     {
-      lockObject.enterWriteLockNoWait();
+      getLockObject().enterWriteLockNoWait();
     }
     finally
     {
@@ -199,15 +246,15 @@ public class LockGate
   public void leaveWriteLock()
     throws ManifoldCFException, InterruptedException, ExpiredObjectException
   {
+    LockPool idlePool = null;
     synchronized (this)
     {
-      // Leave, and if we succeed, flush from pool.
-      if (lockObject.leaveWriteLock())
-      {
-        if (threadRequests.size() == 0 && lockPool != null)
-          lockPool.releaseObject(lockKey, this);
-      }
+      // Leave, and if nothing else is going on, offer the gate to the pool's idle list.
+      if (noteLeft(getLockObject().leaveWriteLock()))
+        idlePool = lockPool;
     }
+    if (idlePool != null)
+      idlePool.addIdleGate(this);
   }
   
   public void enterNonExWriteLock(Long threadID)
@@ -216,7 +263,7 @@ public class LockGate
     waitForPermission(threadID);
     try
     {
-      lockObject.enterNonExWriteLock();
+      getLockObject().enterNonExWriteLock();
     }
     finally
     {
@@ -230,7 +277,7 @@ public class LockGate
     waitForPermission(threadID);
     try
     {
-      lockObject.enterNonExWriteLockNoWait();
+      getLockObject().enterNonExWriteLockNoWait();
     }
     finally
     {
@@ -241,24 +288,44 @@ public class LockGate
   public void leaveNonExWriteLock()
     throws ManifoldCFException, InterruptedException, ExpiredObjectException
   {
+    LockPool idlePool = null;
     synchronized (this)
     {
-      // Leave, and if we succeed, flush from pool.
-      if (lockObject.leaveNonExWriteLock())
-      {
-        if (threadRequests.size() == 0 && lockPool != null)
-          lockPool.releaseObject(lockKey, this);
-      }
+      // Leave, and if nothing else is going on, offer the gate to the pool's idle list.
+      if (noteLeft(getLockObject().leaveNonExWriteLock()))
+        idlePool = lockPool;
+    }
+    if (idlePool != null)
+      idlePool.addIdleGate(this);
+  }
+
+  /** Take a read lock without queuing, if nobody is queued for this gate and the lock object can grant
+  * it without waiting or doing anything outside this JVM.  This is the common case for read locks, and it
+  * avoids the permission queue entirely.
+  *@return true if the read lock was obtained.
+  */
+  protected boolean enterReadLockFast()
+    throws ExpiredObjectException
+  {
+    synchronized (this)
+    {
+      if (lockPool == null)
+        throw new ExpiredObjectException("Invalid");
+      if (threadRequests.size() > 0)
+        return false;
+      return getLockObject().enterReadLockFast();
     }
   }
 
   public void enterReadLock(Long threadID)
     throws ManifoldCFException, InterruptedException, ExpiredObjectException
   {
+    if (enterReadLockFast())
+      return;
     waitForPermission(threadID);
     try
     {
-      lockObject.enterReadLock();
+      getLockObject().enterReadLock();
     }
     finally
     {
@@ -269,10 +336,12 @@ public class LockGate
   public void enterReadLockNoWait(Long threadID)
     throws ManifoldCFException, LockException, LocalLockException, InterruptedException, ExpiredObjectException
   {
+    if (enterReadLockFast())
+      return;
     waitForPermission(threadID);
     try
     {
-      lockObject.enterReadLockNoWait();
+      getLockObject().enterReadLockNoWait();
     }
     finally
     {
@@ -283,15 +352,15 @@ public class LockGate
   public void leaveReadLock()
     throws ManifoldCFException, InterruptedException, ExpiredObjectException
   {
-    // Leave, and if we succeed (and the thread queue is empty), flush from pool.
+    // Leave, and if we succeed (and the thread queue is empty), offer the gate to the pool's idle list.
+    LockPool idlePool = null;
     synchronized (this)
     {
-      if (lockObject.leaveReadLock())
-      {
-        if (threadRequests.size() == 0 && lockPool != null)
-          lockPool.releaseObject(lockKey, this);
-      }
+      if (noteLeft(getLockObject().leaveReadLock()))
+        idlePool = lockPool;
     }
+    if (idlePool != null)
+      idlePool.addIdleGate(this);
   }
 
 }
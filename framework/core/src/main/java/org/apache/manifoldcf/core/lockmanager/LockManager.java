@@ -241,6 +241,20 @@ public class LockManager implements ILockManager
   {
     return lockManager.readData(resourceName);
   }
+
+  /** Read data from a shared data resource, allowing the answer to come from a local copy that is kept current by
+  * change notification.
+  *@param resourceName is the global name of the resource.
+  *@param maxStaleness is the greatest age, in milliseconds, the answer may have.  Zero means read the
+  * shared resource directly.
+  *@return a byte array containing the data, or null.  The caller must not modify the array.
+  */
+  @Override
+  public byte[] readMirroredData(String resourceName, long maxStaleness)
+    throws ManifoldCFException
+  {
+    return lockManager.readMirroredData(resourceName,maxStaleness);
+  }
   
   /** Write data to a shared data resource.  Use this method to write a body of data into a shared resource.
   * Note well that this is not necessarily an atomic operation, and it must thus be protected by a lock.
@@ -318,6 +318,41 @@ public class LockObject
     }
   }
 
+  /** Take a read lock only if that can be done at once, and without any cross-JVM activity.  That is the case
+  * when this JVM already holds the read lock, or when this lock object has no cross-JVM component at all.
+  *@return true if the lock was obtained.
+  */
+  public synchronized boolean enterReadLockFast()
+  {
+    if (lockPool == null)
+      return false;
+    if (obtainedWrite || obtainedNonExWrite > 0)
+      return false;
+    if (obtainedRead > 0)
+    {
+      obtainedRead++;
+      return true;
+    }
+    if (hasGlobalLocks())
+      return false;
+    obtainedRead = 1;
+    return true;
+  }
+
+  /** Check whether no lock of any kind is held on this object.
+  */
+  public synchronized boolean isFree()
+  {
+    return !obtainedWrite && obtainedNonExWrite == 0 && obtainedRead == 0;
+  }
+
+  /** Override this method to return true if the global lock methods do anything.
+  */
+  protected boolean hasGlobalLocks()
+  {
+    return false;
+  }
+
   public synchronized void enterReadLockNoWait()
     throws ManifoldCFException, LockException, LocalLockException, InterruptedException, ExpiredObjectException
   {
@@ -19,38 +19,79 @@
 package org.apache.manifoldcf.core.lockmanager;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
 
 /** Lock pool class. This is a pool of LockGate objects.
+* The pool is a concurrent map, so that threads looking up gates for different keys do not contend
+* with each other.  A gate whose locks are all left stays in the map, on an idle list, so that the next
+* lock on the same key reuses it; only when the idle list grows past its limit are the oldest idle gates
+* removed.  A gate is removed from the map only after it has been made invalid, and anyone still
+* holding an invalid gate gets an ExpiredObjectException and looks the key up again.
 */
 public class LockPool
 {
   public static final String _rcsid = "@(#)$Id: LockPool.java 988245 2010-08-23 18:39:35Z kwright $";
 
-  protected final Map<Object,LockGate> myLocks = new HashMap<Object,LockGate>();
+  /** The default largest number of idle gates kept in the pool */
+  protected static final int defaultMaxIdleGates = 1024;
+
+  protected final ConcurrentMap<Object,LockGate> myLocks = new ConcurrentHashMap<Object,LockGate>();
+
+  /** Gates that were idle when they were put here, oldest first */
+  protected final ConcurrentLinkedQueue<LockGate> idleGates = new ConcurrentLinkedQueue<LockGate>();
+  /** Number of gates on the idle list */
+  protected final AtomicInteger idleGateCount = new AtomicInteger(0);
 
   protected final LockObjectFactory factory;
+  protected final int maxIdleGates;
   
   public LockPool(LockObjectFactory factory)
+  {
+    this(factory,defaultMaxIdleGates);
+  }
+
+  public LockPool(LockObjectFactory factory, int maxIdleGates)
   {
     this.factory = factory;
+    this.maxIdleGates = maxIdleGates;
   }
   
-  public synchronized LockGate getObject(Object lockKey)
+  public LockGate getObject(Object lockKey)
   {
     LockGate lg = myLocks.get(lockKey);
     if (lg == null)
     {
-      LockObject lo = factory.newLockObject(this,lockKey);
-      lg = new LockGate(lockKey,lo,this);
-      myLocks.put(lockKey,lg);
+      // The gate builds its lock object on first use, so losing this race is cheap
+      lg = new LockGate(lockKey,factory,this);
+      LockGate existing = myLocks.putIfAbsent(lockKey,lg);
+      if (existing != null)
+        lg = existing;
     }
     return lg;
   }
 
-  public synchronized void releaseObject(Object lockKey, LockGate lockGate)
+  /** Put a gate that has just become idle on the idle list, and remove the oldest idle
+  * gates if the list is now too long.  Call without holding any gate's monitor.
+  */
+  public void addIdleGate(LockGate lockGate)
+  {
+    idleGates.offer(lockGate);
+    int count = idleGateCount.incrementAndGet();
+    while (count > maxIdleGates)
+    {
+      LockGate oldest = idleGates.poll();
+      if (oldest == null)
+        break;
+      count = idleGateCount.decrementAndGet();
+      oldest.releaseIfIdle();
+    }
+  }
+
+  public void releaseObject(Object lockKey, LockGate lockGate)
   {
     lockGate.makeInvalid();
-    myLocks.remove(lockKey);
+    myLocks.remove(lockKey,lockGate);
   }
 }
@@ -0,0 +1,151 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** This class holds local copies of shared data resources, for lock managers whose shared data lives
+* somewhere expensive to reach.  The lock manager keeps the copies current by removing them whenever it is
+* notified of a change; each copy also carries the time it was read, so a caller can insist on a maximum age
+* even if a notification goes missing.
+*
+* Notifications can arrive while a read is under way.  To keep a read from putting back data that a
+* notification has just declared out of date, every removal bumps a sequence number, and a read stores its
+* result only if the sequence number did not move while it was reading.
+*/
+public class SharedDataMirror
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The maximum number of copies kept */
+  protected final int maxEntries;
+  /** The copies, keyed by resource path */
+  protected final ConcurrentMap<String,Entry> entries = new ConcurrentHashMap<String,Entry>();
+  /** Bumped on every removal */
+  protected final AtomicLong changeSequence = new AtomicLong(0L);
+
+  /** Constructor.
+  *@param maxEntries is the maximum number of copies to keep.
+  */
+  public SharedDataMirror(int maxEntries)
+  {
+    this.maxEntries = maxEntries;
+  }
+
+  /** Find the local copy of a resource.
+  *@param path is the resource path.
+  *@param maxStaleness is the greatest age, in milliseconds, the copy may have.
+  *@param session identifies the notification session currently in effect; copies read under any other
+  * session are not returned.
+  *@return the copy, or null if there is no usable one.
+  */
+  public Entry lookup(String path, long maxStaleness, long session)
+  {
+    Entry e = entries.get(path);
+    if (e == null)
+      return null;
+    if (e.getSession() != session || System.currentTimeMillis() - e.getReadTime() > maxStaleness)
+      return null;
+    return e;
+  }
+
+  /** Get the change sequence number.  Call this before reading a resource, and pass the result to store().
+  */
+  public long getSequence()
+  {
+    return changeSequence.get();
+  }
+
+  /** Store a newly read copy of a resource, unless a change has been noted since the read began.
+  *@param path is the resource path.
+  *@param data is the data read, or null if the resource does not exist.
+  *@param sequence is the value getSequence() returned before the read began.
+  *@param readTime is the time the read began, in milliseconds since epoch.
+  *@param session identifies the notification session the read was made under.
+  */
+  public void store(String path, byte[] data, long sequence, long readTime, long session)
+  {
+    if (changeSequence.get() != sequence)
+      return;
+    if (entries.size() >= maxEntries && !entries.containsKey(path))
+      entries.clear();
+    entries.put(path,new Entry(data,readTime,session));
+    // Undo the store if a change slipped in while we were storing it
+    if (changeSequence.get() != sequence)
+      entries.remove(path);
+  }
+
+  /** Note that a resource has changed, so its copy must not be used.
+  *@param path is the resource path.
+  */
+  public void invalidate(String path)
+  {
+    changeSequence.incrementAndGet();
+    entries.remove(path);
+  }
+
+  /** Note that any resource may have changed.
+  */
+  public void invalidateAll()
+  {
+    changeSequence.incrementAndGet();
+    entries.clear();
+  }
+
+  /** Get the number of copies currently held.
+  */
+  public int size()
+  {
+    return entries.size();
+  }
+
+  /** A local copy of a resource */
+  public static class Entry
+  {
+    protected final byte[] data;
+    protected final long readTime;
+    protected final long session;
+
+    public Entry(byte[] data, long readTime, long session)
+    {
+      this.data = data;
+      this.readTime = readTime;
+      this.session = session;
+    }
+
+    /** Get the data; null means the resource did not exist. */
+    public byte[] getData()
+    {
+      return data;
+    }
+
+    public long getReadTime()
+    {
+      return readTime;
+    }
+
+    public long getSession()
+    {
+      return session;
+    }
+  }
+
+}
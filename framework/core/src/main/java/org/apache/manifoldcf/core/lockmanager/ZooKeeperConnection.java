@@ -50,6 +50,8 @@ public class ZooKeeperConnection
   // Our zookeeper client
   protected ZooKeeper zookeeper = null;
   protected ZooKeeperWatcher zookeeperWatcher = null;
+  // Number of sessions this connection has opened; watches set under one session are gone in the next
+  protected volatile long sessionCount = 0L;
 
   // Transient state
   protected String lockNode = null;
@@ -72,6 +74,7 @@ public class ZooKeeperConnection
     try
     {
       zookeeper = new ZooKeeper(connectString, sessionTimeout, zookeeperWatcher);
+      sessionCount++;
     }
     catch (InterruptedIOException e)
     {
@@ -857,6 +860,46 @@ public class ZooKeeperConnection
     }
   }
   
+  /** Read data, leaving a watch on the node.  The watch fires once, when the node is next created, changed, or
+  * deleted, or when the connection's state changes.
+  *@param resourcePath is the path of the node.
+  *@param watcher is the watcher to notify.
+  *@return the data, or null if the node does not exist.
+  */
+  public byte[] readDataWatched(String resourcePath, Watcher watcher)
+    throws ManifoldCFException, InterruptedException
+  {
+    while (true)
+    {
+      try
+      {
+        try
+        {
+          return zookeeper.getData(resourcePath,watcher,null);
+        }
+        catch (KeeperException.NoNodeException e)
+        {
+          // No data watch is left on a missing node, so watch for its creation instead
+          if (zookeeper.exists(resourcePath,watcher) == null)
+            return null;
+          // It was created in the meantime; read it
+        }
+      }
+      catch (KeeperException e)
+      {
+        handleKeeperException(e,true);
+      }
+    }
+  }
+
+  /** Get the number of sessions this connection has opened.  This changes whenever the session is
+  * replaced, which discards every watch set under the old one.
+  */
+  public long getSessionCount()
+  {
+    return sessionCount;
+  }
+
   public void writeData(String resourcePath, byte[] data)
     throws ManifoldCFException, InterruptedException
   {
@@ -0,0 +1,116 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.Logging;
+
+import org.apache.zookeeper.*;
+
+/** This class answers shared data reads for the ZooKeeper lock manager from local copies, which are kept
+* current with ZooKeeper watches.  Each node read through here gets a watch, and the local copy is dropped
+* as soon as the watch fires.  All copies are dropped whenever the connection's state changes, since watch
+* delivery is not guaranteed across a disconnection or a new session.
+*
+* The mirror uses its own connection, so that its watches live in a session that is not shared with lock
+* traffic.  Only misses go to ZooKeeper, and they are serialized on that connection.
+*/
+public class ZooKeeperDataMirror implements Watcher
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Maximum number of nodes mirrored */
+  protected final static int maxEntries = 100000;
+
+  protected final ZooKeeperConnection connection;
+  protected final SharedDataMirror mirror = new SharedDataMirror(maxEntries);
+
+  /** Constructor.
+  *@param connectString is the ZooKeeper connect string.
+  *@param sessionTimeout is the session timeout, in milliseconds.
+  */
+  public ZooKeeperDataMirror(String connectString, int sessionTimeout)
+    throws ManifoldCFException, InterruptedException
+  {
+    connection = new ZooKeeperConnection(connectString, sessionTimeout);
+  }
+
+  /** Read a node's data.
+  *@param resourcePath is the path of the node.
+  *@param maxStaleness is the greatest age, in milliseconds, of an answer taken from the local copy.
+  *@return the data, or null if the node does not exist.  The caller must not modify the array.
+  */
+  public byte[] readData(String resourcePath, long maxStaleness)
+    throws ManifoldCFException, InterruptedException
+  {
+    SharedDataMirror.Entry e = mirror.lookup(resourcePath,maxStaleness,connection.getSessionCount());
+    if (e != null)
+      return e.getData();
+    synchronized (connection)
+    {
+      long sequence = mirror.getSequence();
+      long readTime = System.currentTimeMillis();
+      byte[] data = connection.readDataWatched(resourcePath,this);
+      mirror.store(resourcePath,data,sequence,readTime,connection.getSessionCount());
+      return data;
+    }
+  }
+
+  /** Note a write this process made to a node, so that it is visible here at once.
+  *@param resourcePath is the path of the node.
+  */
+  public void noteWrite(String resourcePath)
+  {
+    mirror.invalidate(resourcePath);
+  }
+
+  /** Close the mirror's connection.
+  */
+  public void close()
+    throws InterruptedException
+  {
+    synchronized (connection)
+    {
+      mirror.invalidateAll();
+      connection.close();
+    }
+  }
+
+  /** Receive a watch notification.
+  */
+  @Override
+  public void process(WatchedEvent event)
+  {
+    if (event.getType() == Event.EventType.None)
+    {
+      // A connection state change.  Watches may have been lost, so nothing can be trusted any more.
+      if (event.getState() != Event.KeeperState.SyncConnected)
+      {
+        if (Logging.lock.isDebugEnabled())
+          Logging.lock.debug("ZooKeeper data mirror discarding all copies; connection state is "+event.getState());
+        mirror.invalidateAll();
+      }
+      return;
+    }
+    String path = event.getPath();
+    if (path != null)
+      mirror.invalidate(path);
+  }
+
+}
@@ -56,6 +56,10 @@ public class ZooKeeperLockManager extends BaseLockManager implements ILockManage
   protected static LockPool myZooKeeperLocks = null;
   protected static Integer ephemeralPoolLocker = new Integer(0);
   protected static ZooKeeperEphemeralNodePool myEphemeralNodes = null;
+  protected static Integer mirrorLocker = new Integer(0);
+  protected static volatile ZooKeeperDataMirror dataMirror = null;
+  protected static String connectString = null;
+  protected static int sessionTimeout = 0;
 
   // Cached local values
   protected ManifoldCFConfiguration cachedConfiguration = null;
@@ -69,10 +73,10 @@ public class ZooKeeperLockManager extends BaseLockManager implements ILockManage
       if (pool == null)
       {
         // Initialize the ZooKeeper connection pool
-        String connectString = ManifoldCF.getStringProperty(zookeeperConnectStringParameter,null);
+        connectString = ManifoldCF.getStringProperty(zookeeperConnectStringParameter,null);
         if (connectString == null)
           throw new ManifoldCFException("Zookeeper lock manager requires a valid "+zookeeperConnectStringParameter+" property");
-        int sessionTimeout = ManifoldCF.getIntProperty(zookeeperSessionTimeoutParameter,300000);
+        sessionTimeout = ManifoldCF.getIntProperty(zookeeperSessionTimeoutParameter,300000);
         ManifoldCF.addShutdownHook(new ZooKeeperShutdown());
         pool = new ZooKeeperConnectionPool(connectString, sessionTimeout);
       }
@@ -840,6 +844,29 @@ public class ZooKeeperLockManager extends BaseLockManager implements ILockManage
     }
   }
   
+  /** Read data from a shared data resource, allowing the answer to come from a local copy.
+  * Here the local copies are kept current by ZooKeeper watches, so a read that hits one costs no round trip.
+  *@param resourceName is the global name of the resource.
+  *@param maxStaleness is the greatest age, in milliseconds, the answer may have.  Zero means read the
+  * shared resource directly.
+  *@return a byte array containing the data, or null.  The caller must not modify the array.
+  */
+  @Override
+  public byte[] readMirroredData(String resourceName, long maxStaleness)
+    throws ManifoldCFException
+  {
+    if (maxStaleness <= 0L)
+      return readData(resourceName);
+    try
+    {
+      return getDataMirror().readData(RESOURCE_PATH_PREFIX + ZooKeeperConnection.zooKeeperSafeName(resourceName),maxStaleness);
+    }
+    catch (InterruptedException e)
+    {
+      throw new ManifoldCFException(e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+    }
+  }
+
   /** Write data to a shared data resource.  Use this method to write a body of data into a shared resource.
   * Note well that this is not necessarily an atomic operation, and it must thus be protected by a lock.
   *@param resourceName is the global name of the resource.
@@ -851,15 +878,20 @@ public class ZooKeeperLockManager extends BaseLockManager implements ILockManage
   {
     try
     {
+      String resourcePath = RESOURCE_PATH_PREFIX + ZooKeeperConnection.zooKeeperSafeName(resourceName);
       ZooKeeperConnection connection = pool.grab();
       try
       {
-        connection.writeData(RESOURCE_PATH_PREFIX + ZooKeeperConnection.zooKeeperSafeName(resourceName), data);
+        connection.writeData(resourcePath, data);
       }
       finally
       {
         pool.release(connection);
       }
+      // Our own writes must be visible to our own mirrored reads right away
+      ZooKeeperDataMirror mirror = dataMirror;
+      if (mirror != null)
+        mirror.noteWrite(resourcePath);
     }
     catch (InterruptedException e)
     {
@@ -867,6 +899,22 @@ public class ZooKeeperLockManager extends BaseLockManager implements ILockManage
     }
   }
 
+  /** Get the data mirror, creating it if need be.
+  */
+  protected static ZooKeeperDataMirror getDataMirror()
+    throws ManifoldCFException, InterruptedException
+  {
+    ZooKeeperDataMirror mirror = dataMirror;
+    if (mirror != null)
+      return mirror;
+    synchronized (mirrorLocker)
+    {
+      if (dataMirror == null)
+        dataMirror = new ZooKeeperDataMirror(connectString,sessionTimeout);
+      return dataMirror;
+    }
+  }
+
   // Main method - for loading Zookeeper data
   
   public static void main(String[] argv)
@@ -923,6 +971,22 @@ public class ZooKeeperLockManager extends BaseLockManager implements ILockManage
   protected static void shutdownPool()
     throws ManifoldCFException
   {
+    synchronized (mirrorLocker)
+    {
+      if (dataMirror != null)
+      {
+        try
+        {
+          dataMirror.close();
+          dataMirror = null;
+        }
+        catch (InterruptedException e)
+        {
+          throw new ManifoldCFException(e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+        }
+      }
+    }
+
     synchronized (ephemeralPoolLocker)
     {
       if (myEphemeralNodes != null)
@@ -44,6 +44,12 @@ public class ZooKeeperLockObject extends LockObject
     this.lockPath = LOCK_PATH_PREFIX + ZooKeeperConnection.zooKeeperSafeName(lockKey.toString());
   }
 
+  @Override
+  protected boolean hasGlobalLocks()
+  {
+    return true;
+  }
+
   @Override
   protected void obtainGlobalWriteLockNoWait()
     throws ManifoldCFException, LockException, InterruptedException
@@ -647,9 +647,41 @@ public class ManifoldCF
   public static String hash(String input)
     throws ManifoldCFException
   {
-    MessageDigest hash = startHash();
-    addToHash(hash,input);
-    return getHashValue(hash);
+    return hashState.get().hash(input);
+  }
+
+  /** Perform standard hashing of many strings at once.  The result is the same as calling
+  * hash() on each, but the per-thread state is looked up only once.
+  *@param inputs are the strings to hash.
+  *@return the hashes, in the same order.
+  */
+  public static String[] hashMultiple(String[] inputs)
+    throws ManifoldCFException
+  {
+    HashState state = hashState.get();
+    String[] rval = new String[inputs.length];
+    for (int i = 0; i < inputs.length; i++)
+    {
+      rval[i] = state.hash(inputs[i]);
+    }
+    return rval;
+  }
+
+  /** Perform standard hashing of the first few strings in an array.
+  *@param inputs are the strings to hash.
+  *@param count is the number of strings, starting at the beginning of the array, to hash.
+  *@return the hashes, in the same order.
+  */
+  public static String[] hashMultiple(String[] inputs, int count)
+    throws ManifoldCFException
+  {
+    HashState state = hashState.get();
+    String[] rval = new String[count];
+    for (int i = 0; i < count; i++)
+    {
+      rval[i] = state.hash(inputs[i]);
+    }
+    return rval;
   }
 
   /** Start creating a hash
@@ -691,15 +723,9 @@ public class ManifoldCF
     try
     {
       byte[] encryptedBytes = digest.digest();
-      StringBuilder rval = new StringBuilder();
-      int i = 0;
-      while (i < encryptedBytes.length)
-      {
-        byte x = encryptedBytes[i++];
-        rval.append(writeNibble((((int)x) >> 4) & 15));
-        rval.append(writeNibble(((int)x) & 15));
-      }
-      return rval.toString();
+      char[] rval = new char[encryptedBytes.length * 2];
+      writeHex(encryptedBytes,rval);
+      return new String(rval);
     }
     catch (Exception e)
     {
@@ -707,6 +733,123 @@ public class ManifoldCF
     }
   }
 
+  /** Upper-case hex digits, the same as writeNibble() produces */
+  protected final static char[] hexDigits = "0123456789ABCDEF".toCharArray();
+
+  /** Write bytes as hex into a char array, two characters per byte.
+  */
+  protected static void writeHex(byte[] bytes, char[] output)
+  {
+    int j = 0;
+    for (int i = 0; i < bytes.length; i++)
+    {
+      int x = (int)bytes[i];
+      output[j++] = hexDigits[(x >> 4) & 15];
+      output[j++] = hexDigits[x & 15];
+    }
+  }
+
+  /** Per-thread hashing state, so that hash() allocates nothing but its result */
+  protected final static ThreadLocal<HashState> hashState = new ThreadLocal<HashState>()
+    {
+      @Override
+      protected HashState initialValue()
+      {
+        return new HashState();
+      }
+    };
+
+  /** A reusable digest, along with buffers for the UTF-8 input bytes and the hex output.
+  * The input is encoded exactly as String.getBytes(StandardCharsets.UTF_8) would encode it,
+  * so hashes do not change.
+  */
+  protected static class HashState
+  {
+    /** Longest input, in chars, that is encoded through the reusable buffer */
+    protected final static int maxBufferedLength = 16384;
+
+    protected MessageDigest digest = null;
+    protected byte[] inputBuffer = new byte[256];
+    protected byte[] digestBuffer = null;
+    protected char[] hexBuffer = null;
+
+    public String hash(String input)
+      throws ManifoldCFException
+    {
+      try
+      {
+        if (digest == null)
+        {
+          digest = MessageDigest.getInstance("SHA");
+          digestBuffer = new byte[digest.getDigestLength()];
+          hexBuffer = new char[digestBuffer.length * 2];
+        }
+        if (input.length() > maxBufferedLength)
+          // Not worth keeping a buffer this size around
+          digest.update(input.getBytes(StandardCharsets.UTF_8));
+        else
+          digest.update(inputBuffer,0,encode(input));
+        digest.digest(digestBuffer,0,digestBuffer.length);
+        writeHex(digestBuffer,hexBuffer);
+        return new String(hexBuffer);
+      }
+      catch (Exception e)
+      {
+        // Don't leave a half-updated digest around for the next caller
+        digest = null;
+        throw new ManifoldCFException("Couldn't encrypt: "+e.getMessage(),e,ManifoldCFException.GENERAL_ERROR);
+      }
+    }
+
+    /** Encode a string as UTF-8 into the input buffer.
+    *@return the number of bytes.
+    */
+    protected int encode(String input)
+    {
+      int charCount = input.length();
+      // At most three bytes per char; a surrogate pair is two chars and four bytes
+      if (inputBuffer.length < charCount * 3)
+        inputBuffer = new byte[charCount * 3];
+      byte[] buffer = inputBuffer;
+      int j = 0;
+      int i = 0;
+      while (i < charCount)
+      {
+        char c = input.charAt(i++);
+        if (c < 0x80)
+          buffer[j++] = (byte)c;
+        else if (c < 0x800)
+        {
+          buffer[j++] = (byte)(0xc0 | (c >> 6));
+          buffer[j++] = (byte)(0x80 | (c & 0x3f));
+        }
+        else if (Character.isSurrogate(c))
+        {
+          if (Character.isHighSurrogate(c) && i < charCount && Character.isLowSurrogate(input.charAt(i)))
+          {
+            int codePoint = Character.toCodePoint(c,input.charAt(i++));
+            buffer[j++] = (byte)(0xf0 | (codePoint >> 18));
+            buffer[j++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+            buffer[j++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+            buffer[j++] = (byte)(0x80 | (codePoint & 0x3f));
+          }
+          else
+          {
+            // Unpaired surrogate; getBytes() writes the replacement byte
+            buffer[j++] = (byte)'?';
+          }
+        }
+        else
+        {
+          buffer[j++] = (byte)(0xe0 | (c >> 12));
+          buffer[j++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+          buffer[j++] = (byte)(0x80 | (c & 0x3f));
+        }
+      }
+      return j;
+    }
+  }
+
   /** Verify API login.
   */
   public static boolean verifyAPILogin(IThreadContext threadContext, String userID, String userPassword)
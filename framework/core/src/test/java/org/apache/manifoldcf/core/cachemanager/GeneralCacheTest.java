@@ -0,0 +1,85 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.cachemanager;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class GeneralCacheTest
+{
+
+  @Test
+  public void classCountAcrossSegments()
+    throws Exception
+  {
+    GeneralCache cache = new GeneralCache(4);
+    for (int i = 0; i < 100; i++)
+    {
+      String description = "object"+i;
+      cache.setObject(description,"value"+i,new StringSet(new String[]{"key"+(i%3)}),1L);
+      cache.setObjectClass(description,"testclass",10);
+    }
+    assertEquals(10,countPresent(cache,100));
+    assertEquals(90L,cache.getStatistics().getEvictionCount("testclass"));
+    // The most recent object always survives
+    assertNotNull(cache.lookup("object99"));
+  }
+
+  @Test
+  public void zeroMaxCount()
+    throws Exception
+  {
+    GeneralCache cache = new GeneralCache(4);
+    cache.setObject("object","value",new StringSet(new String[]{"key"}),1L);
+    cache.setObjectClass("object","emptyclass",0);
+    assertNull(cache.lookup("object"));
+  }
+
+  @Test
+  public void invalidationAndExpiration()
+    throws Exception
+  {
+    GeneralCache cache = new GeneralCache(4);
+    for (int i = 0; i < 30; i++)
+    {
+      String description = "object"+i;
+      cache.setObject(description,"value"+i,new StringSet(new String[]{"key"+(i%3)}),1L);
+      cache.setObjectExpiration(description,1000L+i);
+    }
+    cache.invalidateKeys(new StringSet(new String[]{"key0"}));
+    assertEquals(20,countPresent(cache,30));
+    cache.expireRecords(1014L);
+    assertEquals(10,countPresent(cache,30));
+    cache.expireRecords(2000L);
+    assertEquals(0,countPresent(cache,30));
+  }
+
+  protected static int countPresent(GeneralCache cache, int count)
+  {
+    int rval = 0;
+    for (int i = 0; i < count; i++)
+    {
+      if (cache.lookup("object"+i) != null)
+        rval++;
+    }
+    return rval;
+  }
+
+}
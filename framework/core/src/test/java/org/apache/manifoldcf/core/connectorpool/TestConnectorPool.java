@@ -0,0 +1,373 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.connectorpool;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.connector.BaseConnector;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestConnectorPool extends org.apache.manifoldcf.core.tests.Base
+{
+  protected static final String connectionName = "test";
+  protected static final String className = CountingConnector.class.getName();
+  protected static final int maxPoolSize = 3;
+
+  // The pools only need the local lock manager, so there is no database to set up
+
+  @Override
+  protected void localSetUp()
+    throws Exception
+  {
+  }
+
+  @Override
+  protected void localReset()
+    throws Exception
+  {
+  }
+
+  @Override
+  protected void localCleanUp()
+    throws Exception
+  {
+  }
+
+  @Test(timeout=120000)
+  public void contentionRespectsLimit()
+    throws Exception
+  {
+    TestPool pool = new TestPool("_TESTPOOL_LIMIT_");
+    IThreadContext threadContext = ThreadContextFactory.make();
+    ConfigParams configParams = new ConfigParams();
+    Tracker tracker = new Tracker();
+
+    Worker[] workers = new Worker[8];
+    for (int i = 0; i < workers.length; i++)
+    {
+      workers[i] = new Worker(pool,configParams,tracker,500);
+      workers[i].start();
+    }
+    Poller poller = new Poller(pool,false);
+    poller.start();
+    for (Worker w : workers)
+    {
+      w.join();
+    }
+    poller.finish();
+
+    for (Worker w : workers)
+    {
+      w.rethrow();
+    }
+    poller.rethrow();
+    assertNull(tracker.getError(),tracker.getError());
+    assertTrue("Outstanding connectors exceeded the limit: "+tracker.getMaxOutstanding(),tracker.getMaxOutstanding() <= maxPoolSize);
+    assertTrue(tracker.getMaxOutstanding() > 0);
+
+    pool.closeAllConnectors(threadContext);
+    assertEquals(0L,tracker.getOutstanding());
+    assertEquals(pool.getCreatedCount(),pool.getDisconnectedCount());
+  }
+
+  @Test(timeout=120000)
+  public void closeDownUnderContention()
+    throws Exception
+  {
+    TestPool pool = new TestPool("_TESTPOOL_CLOSE_");
+    IThreadContext threadContext = ThreadContextFactory.make();
+    ConfigParams configParams = new ConfigParams();
+    Tracker tracker = new Tracker();
+
+    Worker[] workers = new Worker[8];
+    for (int i = 0; i < workers.length; i++)
+    {
+      workers[i] = new Worker(pool,configParams,tracker,500);
+      workers[i].start();
+    }
+    // This poller also closes the whole pool down every so often, while grabs and releases are going on
+    Poller poller = new Poller(pool,true);
+    poller.start();
+    for (Worker w : workers)
+    {
+      w.join();
+    }
+    poller.finish();
+
+    for (Worker w : workers)
+    {
+      w.rethrow();
+    }
+    poller.rethrow();
+    assertNull(tracker.getError(),tracker.getError());
+    assertTrue(poller.getCloseCount() > 0);
+
+    // Every connector that was ever made must have been disconnected exactly once
+    pool.closeAllConnectors(threadContext);
+    assertEquals(0L,tracker.getOutstanding());
+    assertTrue(pool.getCreatedCount() > 0);
+    assertEquals(pool.getCreatedCount(),pool.getDisconnectedCount());
+  }
+
+  /** Keeps track of which connectors are handed out. */
+  protected static class Tracker
+  {
+    protected final AtomicInteger outstanding = new AtomicInteger(0);
+    protected final AtomicInteger maxOutstanding = new AtomicInteger(0);
+    protected volatile String error = null;
+
+    public void noteGrabbed(CountingConnector c)
+    {
+      if (!c.markInUse())
+        error = "Connector handed out twice";
+      if (!c.isLive())
+        error = "Disconnected connector handed out";
+      int count = outstanding.incrementAndGet();
+      while (true)
+      {
+        int max = maxOutstanding.get();
+        if (count <= max || maxOutstanding.compareAndSet(max,count))
+          break;
+      }
+    }
+
+    public void noteReleasing(CountingConnector c)
+    {
+      outstanding.decrementAndGet();
+      if (!c.markNotInUse())
+        error = "Connector released twice";
+    }
+
+    public int getOutstanding()
+    {
+      return outstanding.get();
+    }
+
+    public int getMaxOutstanding()
+    {
+      return maxOutstanding.get();
+    }
+
+    public String getError()
+    {
+      return error;
+    }
+  }
+
+  protected static class Worker extends Thread
+  {
+    protected final TestPool pool;
+    protected final ConfigParams configParams;
+    protected final Tracker tracker;
+    protected final int iterations;
+    protected Throwable exception = null;
+
+    public Worker(TestPool pool, ConfigParams configParams, Tracker tracker, int iterations)
+    {
+      super();
+      setDaemon(true);
+      this.pool = pool;
+      this.configParams = configParams;
+      this.tracker = tracker;
+      this.iterations = iterations;
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        IThreadContext threadContext = ThreadContextFactory.make();
+        for (int i = 0; i < iterations; i++)
+        {
+          CountingConnector c = (CountingConnector)pool.grab(threadContext,connectionName,className,configParams,maxPoolSize);
+          tracker.noteGrabbed(c);
+          Thread.yield();
+          tracker.noteReleasing(c);
+          pool.release(threadContext,connectionName,c);
+        }
+      }
+      catch (Throwable e)
+      {
+        exception = e;
+      }
+    }
+
+    public void rethrow()
+      throws Exception
+    {
+      if (exception instanceof Exception)
+        throw (Exception)exception;
+      if (exception instanceof Error)
+        throw (Error)exception;
+    }
+  }
+
+  protected static class Poller extends Thread
+  {
+    protected final TestPool pool;
+    protected final boolean closeDown;
+    protected volatile boolean done = false;
+    protected int closeCount = 0;
+    protected Throwable exception = null;
+
+    public Poller(TestPool pool, boolean closeDown)
+    {
+      super();
+      setDaemon(true);
+      this.pool = pool;
+      this.closeDown = closeDown;
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        IThreadContext threadContext = ThreadContextFactory.make();
+        int count = 0;
+        while (!done)
+        {
+          pool.pollAllConnectors(threadContext);
+          if ((count % 5) == 4)
+            pool.flushUnusedConnectors(threadContext);
+          if (closeDown && (count % 7) == 6)
+          {
+            pool.closeAllConnectors(threadContext);
+            closeCount++;
+          }
+          count++;
+          Thread.sleep(1L);
+        }
+      }
+      catch (Throwable e)
+      {
+        exception = e;
+      }
+    }
+
+    public void finish()
+      throws InterruptedException
+    {
+      done = true;
+      join();
+    }
+
+    public int getCloseCount()
+    {
+      return closeCount;
+    }
+
+    public void rethrow()
+      throws Exception
+    {
+      if (exception instanceof Exception)
+        throw (Exception)exception;
+      if (exception instanceof Error)
+        throw (Error)exception;
+    }
+  }
+
+  /** Connector pool that makes counting connectors without going through the connector registry. */
+  protected static class TestPool extends ConnectorPool<IConnector>
+  {
+    protected final AtomicLong createdCount = new AtomicLong(0L);
+    protected final AtomicLong disconnectedCount = new AtomicLong(0L);
+
+    public TestPool(String serviceTypePrefix)
+    {
+      super(serviceTypePrefix);
+    }
+
+    @Override
+    protected boolean isInstalled(IThreadContext tc, String className)
+      throws ManifoldCFException
+    {
+      return true;
+    }
+
+    @Override
+    protected boolean isConnectionNameValid(IThreadContext tc, String connectionName)
+      throws ManifoldCFException
+    {
+      return true;
+    }
+
+    @Override
+    protected IConnector createConnectorInstance(IThreadContext threadContext, String className)
+      throws ManifoldCFException
+    {
+      createdCount.incrementAndGet();
+      return new CountingConnector(disconnectedCount);
+    }
+
+    public long getCreatedCount()
+    {
+      return createdCount.get();
+    }
+
+    public long getDisconnectedCount()
+    {
+      return disconnectedCount.get();
+    }
+  }
+
+  public static class CountingConnector extends BaseConnector
+  {
+    protected final AtomicLong disconnectedCount;
+    protected final AtomicBoolean inUse = new AtomicBoolean(false);
+    protected final AtomicBoolean live = new AtomicBoolean(true);
+
+    public CountingConnector(AtomicLong disconnectedCount)
+    {
+      super();
+      this.disconnectedCount = disconnectedCount;
+    }
+
+    @Override
+    public void disconnect()
+      throws ManifoldCFException
+    {
+      if (!live.compareAndSet(true,false))
+        throw new IllegalStateException("Connector disconnected twice");
+      if (inUse.get())
+        throw new IllegalStateException("Connector disconnected while handed out");
+      disconnectedCount.incrementAndGet();
+      super.disconnect();
+    }
+
+    public boolean markInUse()
+    {
+      return inUse.compareAndSet(false,true);
+    }
+
+    public boolean markNotInUse()
+    {
+      return inUse.compareAndSet(true,false);
+    }
+
+    public boolean isLive()
+    {
+      return live.get();
+    }
+  }
+
+}
@@ -0,0 +1,340 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.interfaces;
+
+import java.io.*;
+import java.util.*;
+import java.nio.charset.StandardCharsets;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestTempFileInput extends org.apache.manifoldcf.core.tests.Base
+{
+  // Larger than one read chunk, so that deciding needs more than one read
+  protected static final int maxMemSize = 200000;
+
+  // Spilled data is registered with the file tracker, so ManifoldCF is initialized, but there is no database
+
+  @Override
+  protected void localSetUp()
+    throws Exception
+  {
+  }
+
+  @Override
+  protected void localReset()
+    throws Exception
+  {
+  }
+
+  @Override
+  protected void localCleanUp()
+    throws Exception
+  {
+  }
+
+  @Test
+  public void binaryBelowLimitStaysInMemory()
+    throws Exception
+  {
+    byte[] data = makeData(maxMemSize - 1);
+    TempFileInput input = new TempFileInput(new TrickleInputStream(data),-1L,maxMemSize);
+    try
+    {
+      assertNull(input.file);
+      assertNotNull(input.inMemoryBuffer);
+      assertEquals((long)data.length,input.getLength());
+      assertArrayEquals(data,readAll(input.getStream()));
+    }
+    finally
+    {
+      input.discard();
+    }
+  }
+
+  @Test
+  public void binaryAtLimitSpills()
+    throws Exception
+  {
+    // Only data smaller than the limit stays in memory
+    byte[] data = makeData(maxMemSize);
+    TempFileInput input = new TempFileInput(new TrickleInputStream(data),-1L,maxMemSize);
+    File file = input.file;
+    try
+    {
+      assertNotNull(file);
+      assertNull(input.inMemoryBuffer);
+      assertEquals((long)data.length,input.getLength());
+      assertArrayEquals(data,readAll(input.getStream()));
+    }
+    finally
+    {
+      input.discard();
+    }
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void binaryAboveLimitSpills()
+    throws Exception
+  {
+    byte[] data = makeData(maxMemSize * 2 + 12345);
+    TempFileInput input = new TempFileInput(new TrickleInputStream(data),-1L,maxMemSize);
+    File file = input.file;
+    try
+    {
+      assertNotNull(file);
+      assertEquals((long)data.length,file.length());
+      assertEquals((long)data.length,input.getLength());
+      assertArrayEquals(data,readAll(input.getStream()));
+    }
+    finally
+    {
+      input.discard();
+    }
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void binaryLengthLimitIsRespected()
+    throws Exception
+  {
+    byte[] data = makeData(1000);
+    TempFileInput input = new TempFileInput(new ByteArrayInputStream(data),600L,maxMemSize);
+    try
+    {
+      assertNull(input.file);
+      assertArrayEquals(Arrays.copyOf(data,600),readAll(input.getStream()));
+    }
+    finally
+    {
+      input.discard();
+    }
+  }
+
+  @Test
+  public void binaryStreamReplaysFromOneBuffer()
+    throws Exception
+  {
+    byte[] data = makeData(100000);
+    TempFileInput input = new TempFileInput(new TrickleInputStream(data),-1L,maxMemSize);
+    try
+    {
+      byte[] buffer = input.inMemoryBuffer;
+      for (int i = 0; i < 3; i++)
+      {
+        input.doneWithStream();
+        assertArrayEquals(data,readAll(input.getStream()));
+        assertSame(buffer,input.inMemoryBuffer);
+      }
+    }
+    finally
+    {
+      input.discard();
+    }
+  }
+
+  @Test
+  public void characterBelowLimitStaysInMemory()
+    throws Exception
+  {
+    String data = makeText(maxMemSize - 1);
+    TempFileCharacterInput input = new TempFileCharacterInput(new TrickleReader(data),-1L,maxMemSize);
+    try
+    {
+      assertNull(input.file);
+      assertNotNull(input.inMemoryBuffer);
+      assertEquals((long)data.length(),input.getCharacterLength());
+      assertEquals(data,readAll(input.getStream()));
+    }
+    finally
+    {
+      input.discard();
+    }
+  }
+
+  @Test
+  public void characterAtLimitSpills()
+    throws Exception
+  {
+    // Reading for the decision stops at the limit, so data of exactly that size cannot be told
+    // from larger data, and is spilled like it
+    String data = makeText(maxMemSize);
+    TempFileCharacterInput input = new TempFileCharacterInput(new TrickleReader(data),-1L,maxMemSize);
+    File file = input.file;
+    try
+    {
+      assertNotNull(file);
+      assertNull(input.inMemoryBuffer);
+      assertEquals((long)maxMemSize,input.getUtf8StreamLength());
+      assertEquals(data,readAll(input.getStream()));
+    }
+    finally
+    {
+      input.discard();
+    }
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void characterAboveLimitSpills()
+    throws Exception
+  {
+    String data = makeText(maxMemSize * 2 + 12345);
+    TempFileCharacterInput input = new TempFileCharacterInput(new TrickleReader(data),-1L,maxMemSize);
+    File file = input.file;
+    try
+    {
+      assertNotNull(file);
+      assertNull(input.inMemoryBuffer);
+      assertEquals((long)data.length(),input.getCharacterLength());
+      assertEquals(data,readAll(input.getStream()));
+    }
+    finally
+    {
+      input.discard();
+    }
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void characterMultibyteAboveLimitSpills()
+    throws Exception
+  {
+    // Fewer characters than the limit, but more utf-8 bytes
+    char[] chars = new char[maxMemSize / 2 + 1];
+    Arrays.fill(chars,'\u00e9');
+    String data = new String(chars);
+    TempFileCharacterInput input = new TempFileCharacterInput(new StringReader(data),-1L,maxMemSize);
+    try
+    {
+      assertNotNull(input.file);
+      assertEquals((long)data.getBytes(StandardCharsets.UTF_8).length,input.getUtf8StreamLength());
+      assertEquals(data,readAll(input.getStream()));
+    }
+    finally
+    {
+      input.discard();
+    }
+  }
+
+  @Test
+  public void characterStreamReplaysFromOneBuffer()
+    throws Exception
+  {
+    String data = makeText(100000);
+    TempFileCharacterInput input = new TempFileCharacterInput(new TrickleReader(data),-1L,maxMemSize);
+    try
+    {
+      byte[] buffer = input.inMemoryBuffer;
+      String hash = input.getHashValue();
+      for (int i = 0; i < 3; i++)
+      {
+        input.doneWithStream();
+        assertEquals(data,readAll(input.getStream()));
+        assertSame(buffer,input.inMemoryBuffer);
+      }
+      assertEquals(hash,input.getHashValue());
+    }
+    finally
+    {
+      input.discard();
+    }
+  }
+
+  protected static byte[] makeData(int size)
+  {
+    byte[] rval = new byte[size];
+    new Random(size).nextBytes(rval);
+    return rval;
+  }
+
+  protected static String makeText(int size)
+  {
+    Random r = new Random(size);
+    char[] rval = new char[size];
+    for (int i = 0; i < size; i++)
+    {
+      rval[i] = (char)('a' + r.nextInt(26));
+    }
+    return new String(rval);
+  }
+
+  protected static byte[] readAll(InputStream is)
+    throws IOException
+  {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    while (true)
+    {
+      int amt = is.read(buffer);
+      if (amt == -1)
+        break;
+      os.write(buffer,0,amt);
+    }
+    return os.toByteArray();
+  }
+
+  protected static String readAll(Reader r)
+    throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    char[] buffer = new char[4096];
+    while (true)
+    {
+      int amt = r.read(buffer);
+      if (amt == -1)
+        break;
+      sb.append(buffer,0,amt);
+    }
+    return sb.toString();
+  }
+
+  /** Input stream that returns at most a few thousand bytes per read, as a socket would */
+  protected static class TrickleInputStream extends ByteArrayInputStream
+  {
+    public TrickleInputStream(byte[] data)
+    {
+      super(data);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len)
+    {
+      return super.read(b,off,Math.min(len,3000));
+    }
+  }
+
+  /** Reader that returns at most a few thousand characters per read */
+  protected static class TrickleReader extends StringReader
+  {
+    public TrickleReader(String data)
+    {
+      super(data);
+    }
+
+    @Override
+    public int read(char[] b, int off, int len)
+      throws IOException
+    {
+      return super.read(b,off,Math.min(len,3000));
+    }
+  }
+
+}
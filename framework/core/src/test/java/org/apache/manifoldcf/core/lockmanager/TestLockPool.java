@@ -0,0 +1,249 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestLockPool extends org.apache.manifoldcf.core.tests.Base
+{
+  // Only the in-memory lock pool is exercised, so there is no database to set up
+
+  @Override
+  protected void localSetUp()
+    throws Exception
+  {
+  }
+
+  @Override
+  protected void localReset()
+    throws Exception
+  {
+  }
+
+  @Override
+  protected void localCleanUp()
+    throws Exception
+  {
+  }
+
+  @Test
+  public void idleGatesAreReused()
+    throws Exception
+  {
+    LockPool pool = new LockPool(new LockObjectFactory(),2);
+    Long threadID = new Long(Thread.currentThread().getId());
+
+    LockGate first = pool.getObject("a");
+    first.enterReadLock(threadID);
+    first.leaveReadLock();
+    // Idle, but still pooled
+    assertSame(first,pool.getObject("a"));
+    first.enterReadLock(threadID);
+    first.leaveReadLock();
+    assertSame(first,pool.getObject("a"));
+
+    // Two more idle keys push the oldest one out
+    useReadLock(pool,"b",threadID);
+    useReadLock(pool,"c",threadID);
+    assertNotSame(first,pool.getObject("a"));
+    try
+    {
+      first.enterReadLock(threadID);
+      fail("Gate removed from the pool should have expired");
+    }
+    catch (ExpiredObjectException e)
+    {
+    }
+  }
+
+  @Test
+  public void busyGatesAreNotRemoved()
+    throws Exception
+  {
+    LockPool pool = new LockPool(new LockObjectFactory(),0);
+    Long threadID = new Long(Thread.currentThread().getId());
+
+    LockGate gate = pool.getObject("a");
+    gate.enterReadLock(threadID);
+    gate.enterReadLock(threadID);
+    gate.leaveReadLock();
+    // Still held once, so it cannot go
+    useReadLock(pool,"b",threadID);
+    assertSame(gate,pool.getObject("a"));
+    gate.leaveReadLock();
+    assertNotSame(gate,pool.getObject("a"));
+  }
+
+  @Test
+  public void expiredGateIsRetried()
+    throws Exception
+  {
+    ExpiringLockPool pool = new ExpiringLockPool();
+    LocalLockPool localLocks = new LocalLockPool();
+    Long threadID = new Long(Thread.currentThread().getId());
+
+    BaseLockManager.enterRead(threadID,"a","lock",localLocks,pool);
+    assertEquals(2,pool.lookups);
+    LockGate gate = pool.getObject("a");
+    assertNotSame(pool.expiredGate,gate);
+    assertFalse(gate.getLockObject().isFree());
+    BaseLockManager.leaveRead("a","lock",localLocks,pool);
+    assertTrue(gate.getLockObject().isFree());
+
+    // Same again for a write lock
+    pool.lookups = 0;
+    BaseLockManager.enterWrite(threadID,"b","lock",localLocks,pool);
+    assertEquals(2,pool.lookups);
+    BaseLockManager.leaveWrite("b","lock",localLocks,pool);
+  }
+
+  @Test(timeout=60000)
+  public void writersArePreferredOverFastReaders()
+    throws Exception
+  {
+    LockPool pool = new LockPool(new LockObjectFactory());
+    final LockGate gate = pool.getObject("a");
+    final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    // A reader holds the lock, taken on the fast path
+    gate.enterReadLock(new Long(1L));
+
+    LockThread writer = new LockThread(gate,2L,true,events);
+    writer.start();
+    waitForQueued(gate,1);
+
+    // While the writer waits, a new reader must queue behind it rather than take the fast path
+    assertFalse(gate.enterReadLockFast());
+    LockThread reader = new LockThread(gate,3L,false,events);
+    reader.start();
+    waitForQueued(gate,2);
+    assertEquals(0,events.size());
+
+    gate.leaveReadLock();
+    writer.join();
+    reader.join();
+    writer.rethrow();
+    reader.rethrow();
+    assertEquals(Arrays.asList(new String[]{"write","read"}),events);
+  }
+
+  protected static void useReadLock(LockPool pool, String key, Long threadID)
+    throws Exception
+  {
+    LockGate gate = pool.getObject(key);
+    gate.enterReadLock(threadID);
+    gate.leaveReadLock();
+  }
+
+  protected static void waitForQueued(LockGate gate, int count)
+    throws InterruptedException
+  {
+    while (true)
+    {
+      synchronized (gate)
+      {
+        if (gate.threadRequests.size() >= count)
+          return;
+      }
+      Thread.sleep(10L);
+    }
+  }
+
+  /** Lock pool that hands out an already-expired gate the first time a key is looked up */
+  protected static class ExpiringLockPool extends LockPool
+  {
+    public LockGate expiredGate = null;
+    public int lookups = 0;
+
+    public ExpiringLockPool()
+    {
+      super(new LockObjectFactory());
+    }
+
+    @Override
+    public LockGate getObject(Object lockKey)
+    {
+      lookups++;
+      if (lookups == 1)
+      {
+        expiredGate = new LockGate(lockKey,factory,this);
+        expiredGate.makeInvalid();
+        return expiredGate;
+      }
+      return super.getObject(lockKey);
+    }
+  }
+
+  /** Thread that takes a lock on a gate, notes it, and leaves it */
+  protected static class LockThread extends Thread
+  {
+    protected final LockGate gate;
+    protected final Long threadID;
+    protected final boolean write;
+    protected final List<String> events;
+    protected Throwable exception = null;
+
+    public LockThread(LockGate gate, long threadID, boolean write, List<String> events)
+    {
+      this.gate = gate;
+      this.threadID = new Long(threadID);
+      this.write = write;
+      this.events = events;
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      try
+      {
+        if (write)
+        {
+          gate.enterWriteLock(threadID);
+          events.add("write");
+          // Give the queued reader a chance to sneak in, if it could
+          Thread.sleep(100L);
+          gate.leaveWriteLock();
+        }
+        else
+        {
+          gate.enterReadLock(threadID);
+          events.add("read");
+          gate.leaveReadLock();
+        }
+      }
+      catch (Throwable e)
+      {
+        exception = e;
+      }
+    }
+
+    public void rethrow()
+      throws Exception
+    {
+      if (exception instanceof Exception)
+        throw (Exception)exception;
+      if (exception instanceof Error)
+        throw (Error)exception;
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.system;
+
+import java.security.MessageDigest;
+import java.nio.charset.StandardCharsets;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class HashTest
+{
+
+  @Test
+  public void knownValue()
+    throws Exception
+  {
+    assertEquals("A9993E364706816ABA3E25717850C26C9CD0D89D",ManifoldCF.hash("abc"));
+    assertEquals("DA39A3EE5E6B4B0D3255BFEF95601890AFD80709",ManifoldCF.hash(""));
+  }
+
+  @Test
+  public void sameAsDigestOfUTF8Bytes()
+    throws Exception
+  {
+    String[] inputs = new String[]{
+      "http://www.example.com/a/b?c=d",
+      "caf\u00e9 \u0416 \u4e2d\u6587",
+      "\ud83d\ude00 emoji",
+      "unpaired \ud83d high and \ude00 low",
+      "trailing high \ud83d",
+      buildLong(20000)};
+    String[] hashes = ManifoldCF.hashMultiple(inputs);
+    for (int i = 0; i < inputs.length; i++)
+    {
+      String expected = referenceHash(inputs[i]);
+      assertEquals(expected,ManifoldCF.hash(inputs[i]));
+      assertEquals(expected,hashes[i]);
+    }
+  }
+
+  protected static String buildLong(int length)
+  {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < length)
+    {
+      sb.append("segment\u00e9/");
+    }
+    return sb.toString();
+  }
+
+  /** The original implementation */
+  protected static String referenceHash(String input)
+    throws Exception
+  {
+    MessageDigest digest = MessageDigest.getInstance("SHA");
+    byte[] bytes = digest.digest(input.getBytes(StandardCharsets.UTF_8));
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes)
+    {
+      sb.append(String.format("%02X",b & 0xff));
+    }
+    return sb.toString();
+  }
+
+}
@@ -34,14 +34,16 @@ public class AuthCheckThread extends Thread
 
   // Local data
   protected RequestQueue<AuthRequest> requestQueue;
+  protected AuthorizationResponseCache responseCache;
 
   /** Constructor.
   */
-  public AuthCheckThread(String id, RequestQueue<AuthRequest> requestQueue)
+  public AuthCheckThread(String id, RequestQueue<AuthRequest> requestQueue, AuthorizationResponseCache responseCache)
     throws ManifoldCFException
   {
     super();
     this.requestQueue = requestQueue;
+    this.responseCache = responseCache;
     setName("Auth check thread "+id);
     setDaemon(true);
   }
@@ -66,70 +68,53 @@ public class AuthCheckThread extends Thread
 
           // Wait for a request.
           AuthRequest theRequest = requestQueue.getRequest();
-
-          // Try to fill the request before going back to sleep.
-          if (Logging.authorityService.isDebugEnabled())
+          try
           {
-            Logging.authorityService.debug(" Calling connector class '"+theRequest.getAuthorityConnection().getClassName()+"'");
-          }
+            // Try to fill the request before going back to sleep.
+            if (Logging.authorityService.isDebugEnabled())
+            {
+              Logging.authorityService.debug(" Calling connector class '"+theRequest.getAuthorityConnection().getClassName()+"'");
+            }
 
-          AuthorizationResponse response = null;
-          Throwable exception = null;
+            AuthorizationResponse response = null;
+            Throwable exception = null;
 
-          // Grab an authorization response only if there's a user
-          if (theRequest.getUserID() != null)
-          {
-            try
+            // Grab an authorization response only if there's a user, and somebody still wants the answer
+            if (theRequest.getUserID() != null && !theRequest.isAbandoned())
             {
-              IAuthorityConnector connector = authorityConnectorPool.grab(theRequest.getAuthorityConnection());
-              // If this is null, we MUST treat this as an "unauthorized" condition!!
-              // We signal that by setting the exception value.
-              try
+              String connectionName = theRequest.getAuthorityConnection().getName();
+              while (true)
               {
-                if (connector == null)
-                  exception = new ManifoldCFException("Authority connector "+theRequest.getAuthorityConnection().getClassName()+" is not registered.");
-                else
+                AuthorizationResponseCache.Entry entry = responseCache.lookup(threadContext,connectionName,theRequest.getUserID());
+                if (entry.claim())
                 {
-                  // Get the acl for the user
                   try
                   {
-                    response = connector.getAuthorizationResponse(theRequest.getUserID());
+                    fetchResponse(threadContext,authorityConnectorPool,theRequest,entry);
                   }
-                  catch (ManifoldCFException e)
+                  finally
                   {
-                    if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
-                      throw e;
-                    Logging.authorityService.warn("Authority error: "+e.getMessage(),e);
-                    response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
+                    responseCache.release(threadContext,connectionName,entry);
                   }
-
                 }
-              }
-              finally
-              {
-                authorityConnectorPool.release(theRequest.getAuthorityConnection(),connector);
+                else if (!entry.waitForComplete())
+                {
+                  // Whoever was asking gave up without an answer; try again
+                  continue;
+                }
+                response = entry.getResponse();
+                exception = entry.getException();
+                break;
               }
             }
-            catch (ManifoldCFException e)
-            {
-              if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
-                throw e;
-              Logging.authorityService.warn("Authority connection exception: "+e.getMessage(),e);
-              response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
-              if (response == null)
-                exception = e;
-            }
-            catch (Throwable e)
-            {
-              Logging.authorityService.warn("Authority connection error: "+e.getMessage(),e);
-              response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
-              if (response == null)
-                exception = e;
-            }
-          }
 
-          // The request is complete
-          theRequest.completeRequest(response,exception);
+            // The request is complete
+            theRequest.completeRequest(response,exception);
+          }
+          finally
+          {
+            requestQueue.requestDone(theRequest);
+          }
 
           // Repeat, and only go to sleep if there are no more requests.
         }
@@ -169,4 +154,67 @@ public class AuthCheckThread extends Thread
     }
   }
 
+  /** Call the connector for a request, and record the answer in the cache entry the caller has claimed.
+  */
+  protected void fetchResponse(IThreadContext threadContext, IAuthorityConnectorPool authorityConnectorPool,
+    AuthRequest theRequest, AuthorizationResponseCache.Entry entry)
+    throws ManifoldCFException
+  {
+    AuthorizationResponse response = null;
+    Throwable exception = null;
+    // Set when the response is only the connector's default, standing in for an error
+    boolean isDefaultResponse = false;
+    try
+    {
+      IAuthorityConnector connector = authorityConnectorPool.grab(theRequest.getAuthorityConnection());
+      // If this is null, we MUST treat this as an "unauthorized" condition!!
+      // We signal that by setting the exception value.
+      try
+      {
+        if (connector == null)
+          exception = new ManifoldCFException("Authority connector "+theRequest.getAuthorityConnection().getClassName()+" is not registered.");
+        else
+        {
+          // Get the acl for the user
+          try
+          {
+            response = connector.getAuthorizationResponse(theRequest.getUserID());
+          }
+          catch (ManifoldCFException e)
+          {
+            if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+              throw e;
+            Logging.authorityService.warn("Authority error: "+e.getMessage(),e);
+            response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
+            isDefaultResponse = true;
+          }
+
+        }
+      }
+      finally
+      {
+        authorityConnectorPool.release(theRequest.getAuthorityConnection(),connector);
+      }
+    }
+    catch (ManifoldCFException e)
+    {
+      if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+        throw e;
+      Logging.authorityService.warn("Authority connection exception: "+e.getMessage(),e);
+      response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
+      isDefaultResponse = true;
+      if (response == null)
+        exception = e;
+    }
+    catch (Throwable e)
+    {
+      Logging.authorityService.warn("Authority connection error: "+e.getMessage(),e);
+      response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
+      isDefaultResponse = true;
+      if (response == null)
+        exception = e;
+    }
+    responseCache.complete(threadContext,theRequest.getAuthorityConnection().getName(),entry,response,exception,isDefaultResponse);
+  }
+
 }
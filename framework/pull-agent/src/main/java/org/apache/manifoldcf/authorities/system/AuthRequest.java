@@ -26,7 +26,7 @@ import java.util.*;
 * The thread that cares whether the request is complete needs to be able to wait for that situation to occur, so the request has
 * a method that does just that.
 */
-public class AuthRequest
+public class AuthRequest implements IQueuedRequest
 {
   public static final String _rcsid = "@(#)$Id: AuthRequest.java 988245 2010-08-23 18:39:35Z kwright $";
 
@@ -39,6 +39,7 @@ public class AuthRequest
   protected boolean answerComplete = false;
   protected AuthorizationResponse answerResponse = null;
   protected Throwable answerException = null;
+  protected volatile boolean abandoned = false;
 
   /** Construct the request, and record the question.
   */
@@ -79,12 +80,60 @@ public class AuthRequest
   {
     synchronized (this)
     {
-      if (answerComplete)
-        return;
-      this.wait();
+      while (!answerComplete)
+        this.wait();
+    }
+  }
+
+  /** Wait for the request to be complete, but not past a deadline.
+  *@param deadline is the time, in milliseconds since epoch, at which to give up.
+  *@return true if the request is complete, false if the deadline passed first.
+  */
+  public boolean waitForComplete(long deadline)
+    throws InterruptedException
+  {
+    synchronized (this)
+    {
+      while (!answerComplete)
+      {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0L)
+          return false;
+        this.wait(remaining);
+      }
+      return true;
     }
   }
 
+  /** Note that nobody is waiting for the answer any more.  If the request has not been worked on yet,
+  * it will be completed without calling the connector.
+  */
+  public void abandon()
+  {
+    abandoned = true;
+  }
+
+  /** Check whether nobody is waiting for the answer any more. */
+  @Override
+  public boolean isAbandoned()
+  {
+    return abandoned;
+  }
+
+  /** Get the concurrency key, which is the connection name */
+  @Override
+  public String getConcurrencyKey()
+  {
+    return authorityConnection.getName();
+  }
+
+  /** Get the concurrency limit, which is the connection's maximum number of connectors */
+  @Override
+  public int getConcurrencyLimit()
+  {
+    return authorityConnection.getMaxConnections();
+  }
+
   /** Note that the request is complete, and record the answers.
   */
   public void completeRequest(AuthorizationResponse answerResponse, Throwable answerException)
@@ -0,0 +1,300 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.authorities.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.authorities.interfaces.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** This class is a process-wide cache of authorization responses, keyed by authority connection name and user.
+* It sits in front of IAuthorityConnector.getAuthorizationResponse() in the authority service, so every authority
+* connector benefits from it without any code of its own.
+*
+* Concurrent requests for the same connection and user are coalesced: the first thread to ask claims the entry and
+* calls the connector, and the others wait for its answer rather than calling the connector themselves.  This
+* happens even when caching is turned off.
+*
+* Completed responses are kept for a configurable lifetime, and each connection's cache is bounded in size, with the
+* least recently used entries thrown away first.  Requests that are still under way are kept apart from the completed
+* responses, so that they are never evicted.  Responses that say the authority is unreachable, and default responses
+* that stand in for an authority error, are kept for a separate (usually shorter) lifetime, so that an authority that
+* is down is not asked again by every request, but is asked again soon.
+* The defaults come from properties.xml, and can be overridden for an individual connection by appending "." and the
+* connection name to the property name.
+*/
+public class AuthorizationResponseCache
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected static final String lifetimeProperty = "org.apache.manifoldcf.authorityservice.cache.lifetime";
+  protected static final String unreachableLifetimeProperty = "org.apache.manifoldcf.authorityservice.cache.unreachablelifetime";
+  protected static final String maxSizeProperty = "org.apache.manifoldcf.authorityservice.cache.maxsize";
+
+  /** Default lifetime of a response, in milliseconds */
+  protected final long defaultLifetime;
+  /** Default lifetime of an unreachable response, in milliseconds */
+  protected final long defaultUnreachableLifetime;
+  /** Default maximum number of responses per connection */
+  protected final int defaultMaxSize;
+
+  /** The per-connection caches, keyed by connection name */
+  protected final ConcurrentMap<String,ConnectionCache> connectionCaches = new ConcurrentHashMap<String,ConnectionCache>();
+
+  /** Constructor.
+  *@param threadContext is the thread context, used to read the default configuration.
+  */
+  public AuthorizationResponseCache(IThreadContext threadContext)
+    throws ManifoldCFException
+  {
+    defaultLifetime = LockManagerFactory.getLongProperty(threadContext, lifetimeProperty, 0L);
+    if (defaultLifetime < 0L)
+      throw new ManifoldCFException("Illegal value for the authority service cache lifetime");
+    defaultUnreachableLifetime = LockManagerFactory.getLongProperty(threadContext, unreachableLifetimeProperty, 0L);
+    if (defaultUnreachableLifetime < 0L)
+      throw new ManifoldCFException("Illegal value for the authority service cache unreachable lifetime");
+    defaultMaxSize = LockManagerFactory.getIntProperty(threadContext, maxSizeProperty, 1000);
+    if (defaultMaxSize < 0)
+      throw new ManifoldCFException("Illegal value for the authority service cache maximum size");
+  }
+
+  /** Find the entry for a connection and user.  The entry returned is either a live cached response, a
+  * request that another thread is already working on, or a new entry.  The caller should call claim() on it;
+  * if that succeeds, the caller must obtain the response, call complete(), and finally call release().
+  * Otherwise, the caller should call waitForComplete(), and if that returns false, look the entry up again.
+  *@param threadContext is the thread context.
+  *@param connectionName is the authority connection name.
+  *@param userID is the user.
+  *@return the entry.
+  */
+  public Entry lookup(IThreadContext threadContext, String connectionName, String userID)
+    throws ManifoldCFException
+  {
+    ConnectionCache cc = findConnectionCache(threadContext,connectionName);
+    long currentTime = System.currentTimeMillis();
+    synchronized (cc)
+    {
+      // Concurrent requests are coalesced even when nothing can be kept
+      Entry entry = cc.inFlight.get(userID);
+      if (entry != null)
+        return entry;
+      entry = cc.entries.get(userID);
+      if (entry != null)
+      {
+        if (entry.isLive(currentTime))
+          return entry;
+        cc.entries.remove(userID);
+      }
+      entry = new Entry(userID);
+      cc.inFlight.put(userID,entry);
+      return entry;
+    }
+  }
+
+  /** Record the answer for an entry the caller has claimed, and hand it to any threads waiting on it.
+  *@param threadContext is the thread context.
+  *@param connectionName is the authority connection name.
+  *@param entry is the entry.
+  *@param response is the response, or null if there was none.
+  *@param exception is the exception to report, if there was no response.
+  *@param isDefaultResponse is true if the response is the connector's default response, given because the
+  *  authority could not be asked.
+  */
+  public void complete(IThreadContext threadContext, String connectionName, Entry entry, AuthorizationResponse response, Throwable exception,
+    boolean isDefaultResponse)
+    throws ManifoldCFException
+  {
+    ConnectionCache cc = findConnectionCache(threadContext,connectionName);
+    long lifetime;
+    if (response == null)
+      lifetime = 0L;
+    else if (isDefaultResponse || response.getResponseStatus() == AuthorizationResponse.RESPONSE_UNREACHABLE)
+      lifetime = cc.unreachableLifetime;
+    else
+      lifetime = cc.lifetime;
+    synchronized (cc)
+    {
+      entry.setAnswer(response,exception,System.currentTimeMillis() + lifetime);
+      remove(cc,entry);
+      if (lifetime > 0L && cc.maxSize > 0)
+        cc.entries.put(entry.userID,entry);
+    }
+  }
+
+  /** Release an entry the caller has claimed.  If complete() was not called, the entry is dropped, and any
+  * threads waiting on it will look it up again.
+  *@param threadContext is the thread context.
+  *@param connectionName is the authority connection name.
+  *@param entry is the entry.
+  */
+  public void release(IThreadContext threadContext, String connectionName, Entry entry)
+    throws ManifoldCFException
+  {
+    ConnectionCache cc = findConnectionCache(threadContext,connectionName);
+    synchronized (cc)
+    {
+      if (entry.drop())
+        remove(cc,entry);
+    }
+  }
+
+  /** Throw away all cached responses.
+  */
+  public void clear()
+  {
+    connectionCaches.clear();
+  }
+
+  /** Remove an entry from a connection cache, if it is still the one there.  Call with the connection cache locked. */
+  protected static void remove(ConnectionCache cc, Entry entry)
+  {
+    if (cc.entries.get(entry.userID) == entry)
+      cc.entries.remove(entry.userID);
+    if (cc.inFlight.get(entry.userID) == entry)
+      cc.inFlight.remove(entry.userID);
+  }
+
+  /** Find, or create, the cache for a connection. */
+  protected ConnectionCache findConnectionCache(IThreadContext threadContext, String connectionName)
+    throws ManifoldCFException
+  {
+    ConnectionCache cc = connectionCaches.get(connectionName);
+    if (cc == null)
+    {
+      long lifetime = LockManagerFactory.getLongProperty(threadContext, lifetimeProperty + "." + connectionName, defaultLifetime);
+      long unreachableLifetime = LockManagerFactory.getLongProperty(threadContext, unreachableLifetimeProperty + "." + connectionName, defaultUnreachableLifetime);
+      int maxSize = LockManagerFactory.getIntProperty(threadContext, maxSizeProperty + "." + connectionName, defaultMaxSize);
+      if (lifetime < 0L || unreachableLifetime < 0L || maxSize < 0)
+        throw new ManifoldCFException("Illegal authority service cache configuration for connection '"+connectionName+"'");
+      cc = new ConnectionCache(lifetime,unreachableLifetime,maxSize);
+      ConnectionCache existing = connectionCaches.putIfAbsent(connectionName,cc);
+      if (existing != null)
+        cc = existing;
+    }
+    return cc;
+  }
+
+  /** The cache for one connection */
+  protected static class ConnectionCache
+  {
+    public final long lifetime;
+    public final long unreachableLifetime;
+    public final int maxSize;
+    /** Completed entries, in least-recently-used order */
+    public final Map<String,Entry> entries;
+    /** Entries whose response is still being obtained */
+    public final Map<String,Entry> inFlight = new HashMap<String,Entry>();
+
+    public ConnectionCache(long lifetime, long unreachableLifetime, final int maxSize)
+    {
+      this.lifetime = lifetime;
+      this.unreachableLifetime = unreachableLifetime;
+      this.maxSize = maxSize;
+      this.entries = new LinkedHashMap<String,Entry>(16,0.75f,true)
+      {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,AuthorizationResponseCache.Entry> eldest)
+        {
+          return size() > maxSize;
+        }
+      };
+    }
+  }
+
+  /** One cached response, or a request for one that is under way.
+  */
+  public static class Entry
+  {
+    protected final String userID;
+    protected boolean claimed = false;
+    protected boolean complete = false;
+    protected boolean dropped = false;
+    protected long expirationTime = 0L;
+    protected AuthorizationResponse response = null;
+    protected Throwable exception = null;
+
+    public Entry(String userID)
+    {
+      this.userID = userID;
+    }
+
+    /** Claim the entry, so that the caller is the one to fill it in.
+    *@return true if the caller now owns the entry.
+    */
+    public synchronized boolean claim()
+    {
+      if (claimed)
+        return false;
+      claimed = true;
+      return true;
+    }
+
+    /** Wait for the owner of the entry to fill it in.
+    *@return true if there is an answer, or false if the entry was dropped and must be looked up again.
+    */
+    public synchronized boolean waitForComplete()
+      throws InterruptedException
+    {
+      while (!complete && !dropped)
+        wait();
+      return complete;
+    }
+
+    /** Get the response, or null if there was none. */
+    public synchronized AuthorizationResponse getResponse()
+    {
+      return response;
+    }
+
+    /** Get the exception, if there was no response. */
+    public synchronized Throwable getException()
+    {
+      return exception;
+    }
+
+    protected synchronized boolean isLive(long currentTime)
+    {
+      if (dropped)
+        return false;
+      return !complete || expirationTime > currentTime;
+    }
+
+    protected synchronized void setAnswer(AuthorizationResponse response, Throwable exception, long expirationTime)
+    {
+      this.response = response;
+      this.exception = exception;
+      this.expirationTime = expirationTime;
+      complete = true;
+      notifyAll();
+    }
+
+    /** Drop the entry if it never got an answer.
+    *@return true if it was dropped.
+    */
+    protected synchronized boolean drop()
+    {
+      if (complete)
+        return false;
+      dropped = true;
+      notifyAll();
+      return true;
+    }
+  }
+
+}
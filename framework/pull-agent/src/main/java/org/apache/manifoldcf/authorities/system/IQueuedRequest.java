@@ -0,0 +1,37 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.authorities.system;
+
+/** This interface describes a request that can be placed on a RequestQueue.
+*/
+public interface IQueuedRequest
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Get the key that the concurrency limit applies to; this is usually a connection name. */
+  public String getConcurrencyKey();
+
+  /** Get the most requests with this key that may be worked on at once, or zero if there is no limit. */
+  public int getConcurrencyLimit();
+
+  /** Check whether the requester has stopped waiting for this request.  An abandoned request is
+  * completed without any work being done. */
+  public boolean isAbandoned();
+
+}
@@ -40,11 +40,17 @@ public class ManifoldCF extends org.apache.manifoldcf.core.system.ManifoldCF
   
   protected static final String authCheckThreadCountProperty = "org.apache.manifoldcf.authorityservice.threads";
   protected static final String mappingThreadCountProperty = "org.apache.manifoldcf.authorityservice.mappingthreads";
+  protected static final String requestTimeoutProperty = "org.apache.manifoldcf.authorityservice.requesttimeout";
+
+  // Longest time a user ACL request waits for its answers, in milliseconds; zero means no limit
+  protected static long requestTimeout = 0L;
 
   // Request queue
   protected static RequestQueue<AuthRequest> requestQueue = null;
   // Mapping request queue
   protected static RequestQueue<MappingRequest> mappingRequestQueue = null;
+  // Authorization response cache
+  protected static AuthorizationResponseCache responseCache = null;
   
   /** Initialize environment.
   */
@@ -161,17 +167,22 @@ public class ManifoldCF extends org.apache.manifoldcf.core.system.ManifoldCF
     if (numMappingThreads < 1 || numMappingThreads > 100)
       throw new ManifoldCFException("Illegal value for the number of mapping threads");
 
+    requestTimeout = LockManagerFactory.getLongProperty(threadContext, requestTimeoutProperty, 0L);
+    if (requestTimeout < 0L)
+      throw new ManifoldCFException("Illegal value for the authority service request timeout");
+
     // Start up threads
     idleCleanupThread = new IdleCleanupThread();
     idleCleanupThread.start();
 
     requestQueue = new RequestQueue<AuthRequest>();
+    responseCache = new AuthorizationResponseCache(threadContext);
     mappingRequestQueue = new RequestQueue<MappingRequest>();
 
     authCheckThreads = new AuthCheckThread[numAuthCheckThreads];
     for (int i = 0; i < numAuthCheckThreads; i++)
     {
-      authCheckThreads[i] = new AuthCheckThread(Integer.toString(i),requestQueue);
+      authCheckThreads[i] = new AuthCheckThread(Integer.toString(i),requestQueue,responseCache);
       authCheckThreads[i].start();
     }
     
@@ -271,6 +282,7 @@ public class ManifoldCF extends org.apache.manifoldcf.core.system.ManifoldCF
     AuthorityConnectorPoolFactory.make(threadContext).flushUnusedConnectors();
     numAuthCheckThreads = 0;
     requestQueue = null;
+    responseCache = null;
     MappingConnectorPoolFactory.make(threadContext).flushUnusedConnectors();
     numMappingThreads = 0;
     mappingRequestQueue = null;
@@ -287,6 +299,14 @@ public class ManifoldCF extends org.apache.manifoldcf.core.system.ManifoldCF
   {
     return mappingRequestQueue;
   }
+
+  /** Get the longest time a user ACL request should wait for its answers.
+  *@return the time in milliseconds, or zero if there is no limit.
+  */
+  public static long getRequestTimeout()
+  {
+    return requestTimeout;
+  }
   
 }
 
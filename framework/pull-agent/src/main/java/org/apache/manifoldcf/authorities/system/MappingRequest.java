@@ -26,7 +26,7 @@ import java.util.*;
 * The thread that cares whether the request is complete needs to be able to wait for that situation to occur, so the request has
 * a method that does just that.
 */
-public class MappingRequest
+public class MappingRequest implements IQueuedRequest
 {
   public static final String _rcsid = "@(#)$Id$";
 
@@ -39,6 +39,9 @@ public class MappingRequest
   protected boolean answerComplete = false;
   protected String outputUserID = null;
   protected Throwable answerException = null;
+  protected volatile boolean abandoned = false;
+  /** Things to do once the answer is in */
+  protected List<Runnable> completionListeners = null;
 
   /** Construct the request, and record the question.
   */
@@ -80,16 +83,65 @@ public class MappingRequest
   {
     synchronized (this)
     {
-      if (answerComplete)
-        return;
-      this.wait();
+      while (!answerComplete)
+        this.wait();
     }
   }
 
+  /** Wait for the request to be complete, but not past a deadline.
+  *@param deadline is the time, in milliseconds since epoch, at which to give up.
+  *@return true if the request is complete, false if the deadline passed first.
+  */
+  public boolean waitForComplete(long deadline)
+    throws InterruptedException
+  {
+    synchronized (this)
+    {
+      while (!answerComplete)
+      {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0L)
+          return false;
+        this.wait(remaining);
+      }
+      return true;
+    }
+  }
+
+  /** Note that nobody is waiting for the answer any more.  If the request has not been worked on yet,
+  * it will be completed without calling the connector.
+  */
+  public void abandon()
+  {
+    abandoned = true;
+  }
+
+  /** Check whether nobody is waiting for the answer any more. */
+  @Override
+  public boolean isAbandoned()
+  {
+    return abandoned;
+  }
+
+  /** Get the concurrency key, which is the connection name */
+  @Override
+  public String getConcurrencyKey()
+  {
+    return mappingConnection.getName();
+  }
+
+  /** Get the concurrency limit, which is the connection's maximum number of connectors */
+  @Override
+  public int getConcurrencyLimit()
+  {
+    return mappingConnection.getMaxConnections();
+  }
+
   /** Note that the request is complete, and record the answers.
   */
   public void completeRequest(String outputUserID, Throwable answerException)
   {
+    List<Runnable> listeners;
     synchronized (this)
     {
       if (answerComplete)
@@ -102,7 +154,38 @@ public class MappingRequest
 
       // Notify threads waiting on the answer.
       this.notifyAll();
+      listeners = completionListeners;
+      completionListeners = null;
+    }
+    // Run the listeners outside of the lock
+    if (listeners != null)
+    {
+      for (Runnable listener : listeners)
+      {
+        listener.run();
+      }
+    }
+  }
+
+  /** Arrange for something to be done once the request is complete.  This is how requests that depend
+  * on this mapping are started, without a thread waiting for each of them.  If the request is already
+  * complete, the listener runs right away, in this thread; otherwise it runs in the thread that completes
+  * the request.  Listeners must be quick and must not throw.
+  *@param listener is what to run.
+  */
+  public void addCompletionListener(Runnable listener)
+  {
+    synchronized (this)
+    {
+      if (!answerComplete)
+      {
+        if (completionListeners == null)
+          completionListeners = new ArrayList<Runnable>();
+        completionListeners.add(listener);
+        return;
+      }
     }
+    listener.run();
   }
 
   /** Get the answer user */
@@ -63,63 +63,69 @@ public class MappingThread extends Thread
 
           // Wait for a request.
           MappingRequest theRequest = requestQueue.getRequest();
-
-          // Try to fill the request before going back to sleep.
-          if (Logging.authorityService.isDebugEnabled())
+          try
           {
-            Logging.authorityService.debug(" Calling mapping connector class '"+theRequest.getMappingConnection().getClassName()+"'");
-          }
+            // Try to fill the request before going back to sleep.
+            if (Logging.authorityService.isDebugEnabled())
+            {
+              Logging.authorityService.debug(" Calling mapping connector class '"+theRequest.getMappingConnection().getClassName()+"'");
+            }
 
-          String outputUserID = null;
-          Throwable exception = null;
+            String outputUserID = null;
+            Throwable exception = null;
 
-          // Only try a mapping if we have a user to map...
-          if (theRequest.getUserID() != null)
-          {
-            try
+            // Only try a mapping if we have a user to map, and somebody still wants the answer...
+            if (theRequest.getUserID() != null && !theRequest.isAbandoned())
             {
-              IMappingConnector connector = mappingConnectorPool.grab(theRequest.getMappingConnection());
               try
               {
-                if (connector == null)
-                  exception = new ManifoldCFException("Mapping connector "+theRequest.getMappingConnection().getClassName()+" is not registered.");
-                else
+                IMappingConnector connector = mappingConnectorPool.grab(theRequest.getMappingConnection());
+                try
                 {
-                  // Do the mapping
-                  try
+                  if (connector == null)
+                    exception = new ManifoldCFException("Mapping connector "+theRequest.getMappingConnection().getClassName()+" is not registered.");
+                  else
                   {
-                    outputUserID = connector.mapUser(theRequest.getUserID());
-                  }
-                  catch (ManifoldCFException e)
-                  {
-                    if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
-                      throw e;
-                    Logging.authorityService.warn("Mapping error: "+e.getMessage(),e);
-                  }
+                    // Do the mapping
+                    try
+                    {
+                      outputUserID = connector.mapUser(theRequest.getUserID());
+                    }
+                    catch (ManifoldCFException e)
+                    {
+                      if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+                        throw e;
+                      Logging.authorityService.warn("Mapping error: "+e.getMessage(),e);
+                    }
 
+                  }
+                }
+                finally
+                {
+                  mappingConnectorPool.release(theRequest.getMappingConnection(),connector);
                 }
               }
-              finally
+              catch (ManifoldCFException e)
               {
-                mappingConnectorPool.release(theRequest.getMappingConnection(),connector);
+                if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+                  throw e;
+                Logging.authorityService.warn("Mapping connection exception: "+e.getMessage(),e);
+                exception = e;
+              }
+              catch (Throwable e)
+              {
+                Logging.authorityService.warn("Mapping connection error: "+e.getMessage(),e);
+                exception = e;
               }
             }
-            catch (ManifoldCFException e)
-            {
-              if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
-                throw e;
-              Logging.authorityService.warn("Mapping connection exception: "+e.getMessage(),e);
-              exception = e;
-            }
-            catch (Throwable e)
-            {
-              Logging.authorityService.warn("Mapping connection error: "+e.getMessage(),e);
-              exception = e;
-            }
-          }
 
-          // The request is complete
-          theRequest.completeRequest(outputUserID, exception);
+            // The request is complete
+            theRequest.completeRequest(outputUserID, exception);
+          }
+          finally
+          {
+            requestQueue.requestDone(theRequest);
+          }
 
           // Repeat, and only go to sleep if there are no more requests.
         }
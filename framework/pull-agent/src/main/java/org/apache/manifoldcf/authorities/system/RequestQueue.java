@@ -26,14 +26,20 @@ import java.util.*;
 * The queue manages thread synchronization so that (a) the "stuffer" servlet blindly appends authority requests, and
 * then waits for these requests to be completed, and
 * (b) the "reader" threads block if queue is empty.
-* The objects being queued are all AuthRequest objects.
+* The objects being queued are all AuthRequest or MappingRequest objects.
+*
+* Each request names a key (its connection) and a concurrency limit for that key.  A reader is never handed a
+* request whose key already has that many requests being worked on; it takes the next eligible request instead,
+* so one slow connection cannot tie up every reader.  Readers must call requestDone() when finished with a request.
 */
-public class RequestQueue<T>
+public class RequestQueue<T extends IQueuedRequest>
 {
   public static final String _rcsid = "@(#)$Id: RequestQueue.java 988245 2010-08-23 18:39:35Z kwright $";
 
   // Since the queue has a maximum size, an ArrayList is a fine way to keep it
-  protected List<T> queue = new ArrayList<T>();
+  protected final List<T> queue = new ArrayList<T>();
+  /** Number of requests being worked on, by concurrency key */
+  protected final Map<String,Integer> activeCounts = new HashMap<String,Integer>();
 
   /** Constructor.
   */
@@ -49,12 +55,13 @@ public class RequestQueue<T>
     synchronized (queue)
     {
       queue.add(dd);
-      queue.notify();
+      // Not every reader may be able to take this one, so wake them all
+      queue.notifyAll();
     }
   }
 
   /** Pull the next request off the queue, but wait if there is
-  * nothing there.
+  * nothing there that may be worked on.
   *@return the request to be processed.
   */
   public T getRequest()
@@ -62,13 +69,49 @@ public class RequestQueue<T>
   {
     synchronized (queue)
     {
-      // If queue is empty, go to sleep
-      while (queue.size() == 0)
+      while (true)
+      {
+        // Most recent first
+        for (int i = queue.size() - 1; i >= 0; i--)
+        {
+          T request = queue.get(i);
+          String key = request.getConcurrencyKey();
+          int limit = request.getConcurrencyLimit();
+          Integer active = activeCounts.get(key);
+          int activeCount = (active == null)?0:active.intValue();
+          // Abandoned requests take no real work, so they are always handed out
+          if (limit <= 0 || activeCount < limit || request.isAbandoned())
+          {
+            queue.remove(i);
+            activeCounts.put(key,new Integer(activeCount + 1));
+            return request;
+          }
+        }
+        // If queue is empty, or nothing is eligible, go to sleep
         queue.wait();
-
-      return queue.remove(queue.size()-1);
+      }
     }
   }
 
+  /** Note that a reader is done with a request it got from getRequest().
+  *@param dd is the request.
+  */
+  public void requestDone(T dd)
+  {
+    synchronized (queue)
+    {
+      String key = dd.getConcurrencyKey();
+      Integer active = activeCounts.get(key);
+      if (active != null)
+      {
+        if (active.intValue() <= 1)
+          activeCounts.remove(key);
+        else
+          activeCounts.put(key,new Integer(active.intValue() - 1));
+      }
+      if (queue.size() > 0)
+        queue.notifyAll();
+    }
+  }
 
 }
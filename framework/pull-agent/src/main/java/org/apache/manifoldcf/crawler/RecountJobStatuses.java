@@ -0,0 +1,59 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.system.*;
+
+/** This class recounts the documents for every job, replacing the saved counts that status reports use
+* when org.apache.manifoldcf.crawler.jobstatus.countmaxage is set.
+*/
+public class RecountJobStatuses
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  private RecountJobStatuses()
+  {
+  }
+
+  public static void main(String[] args)
+  {
+    if (args.length != 0)
+    {
+      System.err.println("Usage: RecountJobStatuses");
+      System.exit(1);
+    }
+
+    try
+    {
+      IThreadContext tc = ThreadContextFactory.make();
+      ManifoldCF.initializeEnvironment(tc);
+      IJobManager jobManager = JobManagerFactory.make(tc);
+      jobManager.recountJobStatuses();
+      System.err.println("Job statuses recounted");
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+      System.exit(2);
+    }
+  }
+
+}
@@ -24,6 +24,7 @@ import org.apache.manifoldcf.crawler.interfaces.CacheKeyFactory;
 import org.apache.manifoldcf.crawler.system.ManifoldCF;
 import org.apache.manifoldcf.crawler.system.Logging;
 import java.util.*;
+import java.util.concurrent.*;
 
 /** This class manages the docbins table.
 * A row in this table represents a document bin.  The count that is kept is the
@@ -38,7 +39,12 @@ import java.util.*;
 * <tr><td>bincounter</td><td>BIGINT</td><td></td></tr>
 * </table>
 * <br><br>
-* 
+*
+* When org.apache.manifoldcf.crawler.bins.leasesize is set, each process reserves that many counter values
+* for a bin at a time, and hands them out from memory until they are used up.  This means the bin's row is
+* locked once per lease rather than once per document priority.  The values a process hands out for a bin
+* still increase, and are still at least the requested minimum, but processes in a cluster interleave
+* in blocks of the lease size rather than one value at a time.
 */
 public class BinManager extends org.apache.manifoldcf.core.database.BaseTable implements IBinManager
 {
@@ -47,14 +53,46 @@ public class BinManager extends org.apache.manifoldcf.core.database.BaseTable im
   // Field names
   public final static String binNameField = "binname";
   public final static String binCounterField = "bincounter";
-  
+
+  /** Property giving the number of counter values to reserve at a time; 0 reserves exactly what is asked for */
+  public final static String leaseSizeProperty = "org.apache.manifoldcf.crawler.bins.leasesize";
+  /** Time after which unused values in a lease are abandoned.  Resets in other processes are only seen this late. */
+  protected final static long leaseLifetime = 10000L;
+
+  /** Leases held by this process, keyed by bin name */
+  protected final static ConcurrentMap<String,BinLease> leases = new ConcurrentHashMap<String,BinLease>();
+
+  /** The number of values to reserve at a time, or 0 */
+  protected final int leaseSize;
+
   /** Constructor.
   *@param database is the database handle.
   */
   public BinManager(IDBInterface database)
     throws ManifoldCFException
+  {
+    this(database,0);
+  }
+
+  /** Constructor.
+  *@param threadContext is the thread context, from which the lease size is read.
+  *@param database is the database handle.
+  */
+  public BinManager(IThreadContext threadContext, IDBInterface database)
+    throws ManifoldCFException
+  {
+    this(database,LockManagerFactory.getIntProperty(threadContext,leaseSizeProperty,0));
+  }
+
+  /** Constructor.
+  *@param database is the database handle.
+  *@param leaseSize is the number of counter values to reserve at a time, or 0 to reserve only what is asked for.
+  */
+  public BinManager(IDBInterface database, int leaseSize)
+    throws ManifoldCFException
   {
     super(database,"docbins");
+    this.leaseSize = leaseSize;
   }
 
   /** Install or upgrade this table.
@@ -121,6 +159,7 @@ public class BinManager extends org.apache.manifoldcf.core.database.BaseTable im
     throws ManifoldCFException
   {
     performDelete("", null, null);
+    leases.clear();
   }
 
   /** Get N bin values (and set next one).  If the record does not yet exist, create it with a starting value.
@@ -131,10 +170,32 @@ public class BinManager extends org.apache.manifoldcf.core.database.BaseTable im
   *@param count is the number of values desired.
   *@return the counter values.
   */
+  @Override
   public double[] getIncrementBinValues(String binName, double newBinValue, int count)
     throws ManifoldCFException
   {
-    double[] returnValues = new double[count];
+    if (leaseSize <= 0)
+      return makeValues(reserveBinValues(binName,newBinValue,count),count);
+    BinLease lease = findLease(binName);
+    long currentTime = System.currentTimeMillis();
+    double[] rval = lease.allocate(newBinValue,count,currentTime);
+    if (rval != null)
+      return rval;
+    int amount = Math.max(leaseSize,count);
+    double startValue = reserveBinValues(binName,lease.getFloor(newBinValue,currentTime),amount);
+    return lease.renew(startValue,amount,newBinValue,count,currentTime);
+  }
+
+  /** Reserve a range of counter values for a bin in the database.  If the record does not yet exist, create it.
+  * We expect this to happen within a transaction.
+  *@param binName is the name of the bin.
+  *@param newBinValue is the lowest value the range may start at.
+  *@param count is the number of values to reserve.
+  *@return the first value of the range.
+  */
+  protected double reserveBinValues(String binName, double newBinValue, int count)
+    throws ManifoldCFException
+  {
     // SELECT FOR UPDATE/MODIFY is the most common path
     ArrayList params = new ArrayList();
     String query = buildConjunctionClause(params,new ClauseDescription[]{
@@ -147,29 +208,19 @@ public class BinManager extends org.apache.manifoldcf.core.database.BaseTable im
       double rval = value.doubleValue();
       if (rval < newBinValue)
         rval = newBinValue;
-      // rval is the starting value; compute the entire array based on it.
-      for (int i = 0; i < count; i++)
-      {
-        returnValues[i] = rval;
-        rval += 1.0;
-      }
       HashMap map = new HashMap();
-      map.put(binCounterField,new Double(rval));
+      map.put(binCounterField,new Double(rval + (double)count));
       performUpdate(map," WHERE "+query,params,null);
+      return rval;
     }
     else
     {
-      for (int i = 0; i < count; i++)
-      {
-        returnValues[i] = newBinValue;
-        newBinValue += 1.0;
-      }
       HashMap map = new HashMap();
       map.put(binNameField,binName);
-      map.put(binCounterField,new Double(newBinValue));
+      map.put(binCounterField,new Double(newBinValue + (double)count));
       performInsert(map,null);
+      return newBinValue;
     }
-    return returnValues;
   }
 
   /** Get N bin values (and set next one).  If the record does not yet exist, create it with a starting value.
@@ -184,6 +235,13 @@ public class BinManager extends org.apache.manifoldcf.core.database.BaseTable im
   public double[] getIncrementBinValuesInTransaction(String binName, double newBinValue, int count)
     throws ManifoldCFException
   {
+    // Don't start a transaction at all if the values are already leased
+    if (leaseSize > 0)
+    {
+      double[] rval = findLease(binName).allocate(newBinValue,count,System.currentTimeMillis());
+      if (rval != null)
+        return rval;
+    }
     while (true)
     {
       long sleepAmt = 0L;
@@ -222,4 +280,91 @@ public class BinManager extends org.apache.manifoldcf.core.database.BaseTable im
     }
   }
 
+  /** Find (or create) this process's lease for a bin.
+  */
+  protected static BinLease findLease(String binName)
+  {
+    BinLease lease = leases.get(binName);
+    if (lease == null)
+    {
+      lease = new BinLease();
+      BinLease existing = leases.putIfAbsent(binName,lease);
+      if (existing != null)
+        lease = existing;
+    }
+    return lease;
+  }
+
+  /** Build an array of consecutive values.
+  */
+  protected static double[] makeValues(double startValue, int count)
+  {
+    double[] rval = new double[count];
+    for (int i = 0; i < count; i++)
+    {
+      rval[i] = startValue;
+      startValue += 1.0;
+    }
+    return rval;
+  }
+
+  /** A range of counter values reserved by this process for one bin.  No lock is held on this object while
+  * the database is being accessed, since the caller's transaction may already hold the bin's row lock.
+  */
+  protected static class BinLease
+  {
+    /** The next value to hand out */
+    protected double nextValue = 0.0;
+    /** The end of the range (exclusive) */
+    protected double endValue = 0.0;
+    /** The time the range expires */
+    protected long expirationTime = 0L;
+
+    public BinLease()
+    {
+    }
+
+    /** Hand out values from the range, skipping any below the minimum.
+    *@return the values, or null if the range cannot supply them.
+    */
+    public synchronized double[] allocate(double minimumValue, int count, long currentTime)
+    {
+      if (currentTime >= expirationTime)
+        return null;
+      double startValue = Math.max(nextValue,minimumValue);
+      if (startValue + (double)count > endValue)
+        return null;
+      nextValue = startValue + (double)count;
+      return makeValues(startValue,count);
+    }
+
+    /** Get the lowest value the next range should start at.  This is past the current range, so values keep
+    * increasing even if the reservation for the current range was rolled back.
+    */
+    public synchronized double getFloor(double minimumValue, long currentTime)
+    {
+      if (currentTime >= expirationTime)
+        return minimumValue;
+      return Math.max(endValue,minimumValue);
+    }
+
+    /** Install a newly reserved range, and hand out values from it.  If another thread has installed a later
+    * range in the meantime, that one is kept, and the values are taken from the new range directly.
+    *@return the values.
+    */
+    public synchronized double[] renew(double startValue, int amount, double minimumValue, int count, long currentTime)
+    {
+      if (currentTime >= expirationTime || startValue >= endValue)
+      {
+        nextValue = startValue;
+        endValue = startValue + (double)amount;
+        expirationTime = currentTime + leaseLifetime;
+        double[] rval = allocate(minimumValue,count,currentTime);
+        if (rval != null)
+          return rval;
+      }
+      return makeValues(startValue,count);
+    }
+  }
+
 }
@@ -49,7 +49,7 @@ public class BinManagerFactory
         ManifoldCF.getMasterDatabaseUsername(),
         ManifoldCF.getMasterDatabasePassword());
 
-      o = new org.apache.manifoldcf.crawler.bins.BinManager(database);
+      o = new org.apache.manifoldcf.crawler.bins.BinManager(threadContext,database);
       threadContext.save(binManagerName,o);
     }
     return (IBinManager)o;
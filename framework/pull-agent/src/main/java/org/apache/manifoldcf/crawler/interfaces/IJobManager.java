@@ -287,6 +287,28 @@ public interface IJobManager
     DepthStatistics scanRecord)
     throws ManifoldCFException;
 
+  /** Get up to the next n document(s) to be fetched and processed, restricted to a shard of the job queue.
+  * This is the same as the method above, except that only documents whose identifier hashes fall in the
+  * given shard are considered, and the claim excludes only other stuffers working on the same buckets.
+  *@param processID is the current process ID.
+  *@param n is the number of documents desired.
+  *@param currentTime is the current time; some fetches do not occur until a specific time.
+  *@param interval is the number of milliseconds that this set of documents should represent (for throttling).
+  *@param blockingDocuments is the place to record documents that were encountered, are eligible for reprioritization,
+  *  but could not be queued due to throttling considerations.
+  *@param statistics are the current performance statistics per connection, which are used to balance the queue stuffing
+  *  so that individual connections are not overwhelmed.
+  *@param scanRecord retains the bins from all documents encountered from the query, even those that were skipped due
+  * to being overcommitted.
+  *@param shard is the shard to claim from, or null to claim from the whole job queue.
+  *@return the array of document descriptions to fetch and process.
+  */
+  public DocumentDescription[] getNextDocuments(String processID,
+    int n, long currentTime, long interval,
+    BlockingDocuments blockingDocuments, PerformanceStatistics statistics,
+    DepthStatistics scanRecord, StufferShard shard)
+    throws ManifoldCFException;
+
   // These methods support the individual fetch/process threads.
 
   /** Verify that a specific job is indeed still active.  This is used to permit abort or pause to be relatively speedy.
@@ -1222,6 +1244,20 @@ public interface IJobManager
   public JobStatus[] getFinishedJobs(boolean includeCounts, int maxCount)
     throws ManifoldCFException;
 
+  /** Recount the documents for every job, and save the counts for status reports to use.  Only meaningful
+  * when status reports are configured to use saved counts.
+  */
+  public void recountJobStatuses()
+    throws ManifoldCFException;
+
+  /** Recount the documents for every job if the saved counts have reached their maximum age.  The crawler
+  * agent calls this periodically, so that status reports never have to recount.
+  *@return the time in milliseconds until the saved counts will next need recounting, or -1 if status reports
+  * are not configured to use saved counts.
+  */
+  public long refreshJobStatusCounts()
+    throws ManifoldCFException;
+
   // The following commands generate reports based on the queue.
 
   /** Run a 'document status' report.
@@ -67,11 +67,40 @@ public class QueueTracker
   /** These are the bin counts for active threads */
   protected final Map<String,BinCount> activeBinCounts = new HashMap<String,BinCount>();
 
+  /** These are the listeners that want to hear about active bin count changes.  The array is
+  * replaced, never modified, so it can be read without locking. */
+  protected volatile IActiveBinListener[] activeBinListeners = new IActiveBinListener[0];
+
   /** Constructor */
   public QueueTracker()
   {
   }
 
+  /** Register a listener that will be told whenever an active bin count changes.
+  *@param listener is the listener.
+  */
+  public synchronized void addActiveBinListener(IActiveBinListener listener)
+  {
+    IActiveBinListener[] newListeners = new IActiveBinListener[activeBinListeners.length + 1];
+    System.arraycopy(activeBinListeners,0,newListeners,0,activeBinListeners.length);
+    newListeners[activeBinListeners.length] = listener;
+    activeBinListeners = newListeners;
+  }
+
+  /** Unregister a listener previously registered with addActiveBinListener().
+  *@param listener is the listener.
+  */
+  public synchronized void removeActiveBinListener(IActiveBinListener listener)
+  {
+    List<IActiveBinListener> newListeners = new ArrayList<IActiveBinListener>();
+    for (IActiveBinListener l : activeBinListeners)
+    {
+      if (l != listener)
+        newListeners.add(l);
+    }
+    activeBinListeners = newListeners.toArray(new IActiveBinListener[0]);
+  }
+
   /** Add an access record to the queue tracker.  This happens when a document
   * is added to the in-memory queue, and allows us to keep track of that particular event so
   * we can schedule in a way that meets our distribution goals.
@@ -172,6 +201,8 @@ public class QueueTracker
         }
         value.increment();
       }
+
+      noteActiveBinChange(binName);
     }
   }
 
@@ -207,6 +238,20 @@ public class QueueTracker
             activeBinCounts.remove(binName);
         }
       }
+
+      noteActiveBinChange(binName);
+    }
+  }
+
+  /** Tell all registered listeners that an active bin count has changed.
+  *@param binName is the bin.
+  */
+  protected void noteActiveBinChange(String binName)
+  {
+    IActiveBinListener[] listeners = activeBinListeners;
+    for (IActiveBinListener listener : listeners)
+    {
+      listener.noteActiveBinChange(binName);
     }
   }
 
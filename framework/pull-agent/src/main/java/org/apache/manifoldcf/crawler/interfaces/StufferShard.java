@@ -0,0 +1,156 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.interfaces;
+
+/** This class describes the slice of the job queue a stuffer thread is allowed to claim from, when
+* stuffing is sharded across the agents processes in a cluster.
+* The document hash space is divided into BUCKET_COUNT buckets, by the first hex character of the
+* document hash.  A shard is a contiguous range of those buckets.  A given document hash always falls
+* into exactly one bucket, no matter how the buckets are currently divided up among processes.
+*/
+public class StufferShard
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The number of buckets the document hash space is divided into */
+  public static final int BUCKET_COUNT = 16;
+
+  protected static final String bucketCharacters = "0123456789ABCDEF";
+
+  /** The first bucket in the shard */
+  protected final int firstBucket;
+  /** The bucket after the last bucket in the shard */
+  protected final int endBucket;
+
+  /** Constructor.
+  *@param firstBucket is the first bucket belonging to this shard.
+  *@param endBucket is one more than the last bucket belonging to this shard.  If this is
+  * the same as firstBucket, the shard is empty.
+  */
+  public StufferShard(int firstBucket, int endBucket)
+  {
+    if (firstBucket < 0 || endBucket > BUCKET_COUNT || endBucket < firstBucket)
+      throw new IllegalArgumentException("Illegal shard bucket range: "+firstBucket+"-"+endBucket);
+    this.firstBucket = firstBucket;
+    this.endBucket = endBucket;
+  }
+
+  /** Compute the shard belonging to one of a number of equal participants.
+  *@param index is the index of the participant, from 0 to count-1.
+  *@param count is the number of participants.
+  *@return the shard.
+  */
+  public static StufferShard makeShard(int index, int count)
+  {
+    return new StufferShard(index * BUCKET_COUNT / count, (index + 1) * BUCKET_COUNT / count);
+  }
+
+  /** Check whether the shard is empty.  This happens when there are more participants than buckets.
+  */
+  public boolean isEmpty()
+  {
+    return firstBucket == endBucket;
+  }
+
+  /** Get the first bucket. */
+  public int getFirstBucket()
+  {
+    return firstBucket;
+  }
+
+  /** Get one more than the last bucket. */
+  public int getEndBucket()
+  {
+    return endBucket;
+  }
+
+  /** Get the lowest document hash value in the shard (inclusive).
+  *@return the value, or null if there is no lower bound.
+  */
+  public String getLowerHashBound()
+  {
+    if (firstBucket == 0)
+      return null;
+    return bucketCharacters.substring(firstBucket,firstBucket+1);
+  }
+
+  /** Get the upper limit for document hash values in the shard (exclusive).
+  *@return the value, or null if there is no upper bound.
+  */
+  public String getUpperHashBound()
+  {
+    if (endBucket == BUCKET_COUNT)
+      return null;
+    return bucketCharacters.substring(endBucket,endBucket+1);
+  }
+
+  /** Check whether a document hash belongs to this shard.  This agrees with the hash bounds as they
+  * are used in a query.
+  *@param docIDHash is the document identifier hash.
+  *@return true if it does.
+  */
+  public boolean contains(String docIDHash)
+  {
+    if (isEmpty())
+      return false;
+    String lower = getLowerHashBound();
+    if (lower != null && docIDHash.compareTo(lower) < 0)
+      return false;
+    String upper = getUpperHashBound();
+    if (upper != null && docIDHash.compareTo(upper) >= 0)
+      return false;
+    return true;
+  }
+
+  /** Build the names of the per-bucket locks for this shard, in ascending order.
+  *@param lockPrefix is the prefix to build the lock names from.
+  *@return the lock names.
+  */
+  public String[] getBucketLockNames(String lockPrefix)
+  {
+    String[] rval = new String[endBucket - firstBucket];
+    for (int i = 0; i < rval.length; i++)
+    {
+      int bucket = firstBucket + i;
+      rval[i] = lockPrefix + bucketCharacters.substring(bucket,bucket+1);
+    }
+    return rval;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return firstBucket * BUCKET_COUNT + endBucket;
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (!(o instanceof StufferShard))
+      return false;
+    StufferShard other = (StufferShard)o;
+    return firstBucket == other.firstBucket && endBucket == other.endBucket;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "buckets "+firstBucket+"-"+(endBucket-1);
+  }
+}
@@ -264,22 +264,21 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
   }
 
   /** Add carrydown data to the table.
+  * The existing rows for the parent and the listed children are read in a few batched queries, the old and new
+  * value sets are compared in memory, and only the differences are written: brand-new values are inserted, and
+  * values that were already present are flipped to "EXISTING" unless this process has already done so during the
+  * current pass.  Both kinds of write go out as JDBC batches.
+  *@return an array with one entry per child, true if new carrydown data was recorded for that child.
   */
   public boolean[] recordCarrydownDataMultiple(Long jobID, String parentDocumentIDHash, String[] childDocumentIDHashes,
     String[][] dataNames, String[][][] dataValueHashes, Object[][][] dataValues, String processID)
     throws ManifoldCFException
   {
-
-    // Need to go into a transaction because we need to distinguish between update and insert.
-    HashMap duplicateRemoval = new HashMap();
-    HashMap presentMap = new HashMap();
-
-    int maxClause = getMaxOrClause();
-    StringBuilder sb = new StringBuilder();
-    ArrayList list = new ArrayList();
-    int i = 0;
+    // Build the new value set, removing duplicates.  Insertion order is kept so that the writes happen in a
+    // predictable order.
+    Map<ValueRecord,ValueRecord> newValues = new LinkedHashMap<ValueRecord,ValueRecord>();
+    Set<String> childSet = new LinkedHashSet<String>();
     int k = 0;
-    // Keep track of the data items that have been seen vs. those that were unseen.
     while (k < childDocumentIDHashes.length)
     {
       String childDocumentIDHash = childDocumentIDHashes[k];
@@ -305,64 +304,60 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
           {
             String documentDataValueHash = documentDataValueHashSet[p];
             Object documentDataValue = documentDataValueSet[p];
+            p++;
             // blank values equivalent to null
             if (documentDataValueHash != null && documentDataValueHash.length() == 0)
               documentDataValueHash = null;
             // Build a hash record
             ValueRecord vr = new ValueRecord(childDocumentIDHash,
               documentDataName,documentDataValueHash,documentDataValue);
-            if (duplicateRemoval.get(vr) != null)
-              continue;
-            duplicateRemoval.put(vr,vr);
-            if (i == maxClause)
+            if (newValues.get(vr) == null)
             {
-              // Do the query and record the results
-              performExistsCheck(presentMap,sb.toString(),list);
-              i = 0;
-              sb.setLength(0);
-              list.clear();
+              newValues.put(vr,vr);
+              childSet.add(childDocumentIDHash);
             }
-            if (i > 0)
-              sb.append(" OR ");
-            
-            sb.append(buildConjunctionClause(list,new ClauseDescription[]{
-              new UnitaryClause(jobIDField,jobID),
-              new UnitaryClause(parentIDHashField,parentDocumentIDHash),
-              new UnitaryClause(childIDHashField,childDocumentIDHash),
-              new UnitaryClause(dataNameField,documentDataName),
-              (documentDataValueHash==null)?
-                new NullCheckClause(dataValueHashField,true):
-                new UnitaryClause(dataValueHashField,documentDataValueHash)}));
-
-            i++;
-            p++;
           }
         }
       }
     }
-    if (i > 0)
-      performExistsCheck(presentMap,sb.toString(),list);
 
-    // Go through the list again, and based on the results above, decide to do either an insert or
-    // an update.  Keep track of this information also, so we can build the return array when done.
+    // Read the old value set for every child that has data, a batch of children at a time.
+    Map<ValueRecord,ExistingRecord> presentMap = new HashMap<ValueRecord,ExistingRecord>();
+    int maxClause = maxClausePerformExistsCheck(jobID,parentDocumentIDHash);
+    List<String> list = new ArrayList<String>();
+    for (String childDocumentIDHash : childSet)
+    {
+      if (list.size() == maxClause)
+      {
+        performExistsCheck(presentMap,jobID,parentDocumentIDHash,list);
+        list.clear();
+      }
+      list.add(childDocumentIDHash);
+    }
+    if (list.size() > 0)
+      performExistsCheck(presentMap,jobID,parentDocumentIDHash,list);
 
-    HashMap insertHappened = new HashMap();
+    // Diff the new value set against the old one, and collect the inserts and updates.  The update's where clause
+    // has a different shape depending on whether there is a value hash, so there are two update batches.
+    Set<String> insertHappened = new HashSet<String>();
+    List<Map<String,Object>> insertMaps = new ArrayList<Map<String,Object>>();
+    List<Map<String,Object>> valueUpdateMaps = new ArrayList<Map<String,Object>>();
+    List<List> valueUpdateLists = new ArrayList<List>();
+    String valueUpdateQuery = null;
+    List<Map<String,Object>> nullValueUpdateMaps = new ArrayList<Map<String,Object>>();
+    List<List> nullValueUpdateLists = new ArrayList<List>();
+    String nullValueUpdateQuery = null;
 
-    int j = 0;
-    Iterator iter = duplicateRemoval.keySet().iterator();
-    while (iter.hasNext())
+    for (ValueRecord childDocumentRecord : newValues.keySet())
     {
-      ValueRecord childDocumentRecord = (ValueRecord)iter.next();
-
       String childDocumentIDHash = childDocumentRecord.getDocumentIDHash();
-
-      HashMap map = new HashMap();
       String dataName = childDocumentRecord.getDataName();
       String dataValueHash = childDocumentRecord.getDataValueHash();
-      Object dataValue = childDocumentRecord.getDataValue();
 
-      if (presentMap.get(childDocumentRecord) == null)
+      ExistingRecord existing = presentMap.get(childDocumentRecord);
+      if (existing == null)
       {
+        Map<String,Object> map = new HashMap<String,Object>();
         map.put(jobIDField,jobID);
         map.put(parentIDHashField,parentDocumentIDHash);
         map.put(childIDHashField,childDocumentIDHash);
@@ -370,74 +365,98 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
         if (dataValueHash != null)
         {
           map.put(dataValueHashField,dataValueHash);
-          map.put(dataValueField,dataValue);
+          map.put(dataValueField,childDocumentRecord.getDataValue());
         }
 
         map.put(newField,statusToString(ISNEW_NEW));
         map.put(processIDField,processID);
-        performInsert(map,null);
-        noteModifications(1,0,0);
-        insertHappened.put(childDocumentIDHash,new Boolean(true));
+        insertMaps.add(map);
+        insertHappened.add(childDocumentIDHash);
+        continue;
+      }
+
+      // A row this process already wrote or flipped during this pass needs no further change.  A row that
+      // was inserted during this pass stays "NEW", so that it is still removed if the pass is reverted.
+      if (existing.getStatus() != ISNEW_BASE && existing.getProcessID() != null && existing.getProcessID().equals(processID))
+        continue;
+
+      ArrayList updateList = new ArrayList();
+      String updateQuery = "WHERE " + buildConjunctionClause(updateList,new ClauseDescription[]{
+        new UnitaryClause(jobIDField,jobID),
+        new UnitaryClause(parentIDHashField,parentDocumentIDHash),
+        new UnitaryClause(childIDHashField,childDocumentIDHash),
+        new UnitaryClause(dataNameField,dataName),
+        (dataValueHash==null)?
+          new NullCheckClause(dataValueHashField,true):
+          new UnitaryClause(dataValueHashField,dataValueHash)});
+
+      Map<String,Object> map = new HashMap<String,Object>();
+      map.put(newField,statusToString((existing.getStatus() == ISNEW_NEW)?ISNEW_NEW:ISNEW_EXISTING));
+      map.put(processIDField,processID);
+      if (dataValueHash == null)
+      {
+        nullValueUpdateQuery = updateQuery;
+        nullValueUpdateMaps.add(map);
+        nullValueUpdateLists.add(updateList);
       }
       else
       {
-        sb = new StringBuilder("WHERE ");
-        ArrayList updateList = new ArrayList();
-        sb.append(buildConjunctionClause(updateList,new ClauseDescription[]{
-          new UnitaryClause(jobIDField,jobID),
-          new UnitaryClause(parentIDHashField,parentDocumentIDHash),
-          new UnitaryClause(childIDHashField,childDocumentIDHash),
-          new UnitaryClause(dataNameField,dataName),
-          (dataValueHash==null)?
-            new NullCheckClause(dataValueHashField,true):
-            new UnitaryClause(dataValueHashField,dataValueHash)}));
-
-        /*
-        sb.append(jobIDField).append("=? AND ")
-          .append(parentIDHashField).append("=? AND ")
-          .append(childIDHashField).append("=? AND ")
-          .append(dataNameField).append("=? AND ");
-
-        updateList.add(jobID);
-        updateList.add(parentDocumentIDHash);
-        updateList.add(childDocumentIDHash);
-        updateList.add(dataName);
-        if (dataValueHash != null)
-        {
-          sb.append(dataValueHashField).append("=?");
-          updateList.add(dataValueHash);
-        }
-        else
-        {
-          sb.append(dataValueHashField).append(" IS NULL");
-        }
-        */
-            
-        map.put(newField,statusToString(ISNEW_EXISTING));
-        map.put(processIDField,processID);
-        performUpdate(map,sb.toString(),updateList,null);
-        noteModifications(0,1,0);
+        valueUpdateQuery = updateQuery;
+        valueUpdateMaps.add(map);
+        valueUpdateLists.add(updateList);
       }
     }
 
+    if (insertMaps.size() > 0)
+    {
+      performInsertBatch(insertMaps,null);
+      noteModifications(insertMaps.size(),0,0);
+    }
+    if (valueUpdateMaps.size() > 0)
+    {
+      performUpdateBatch(valueUpdateMaps,valueUpdateQuery,valueUpdateLists,null);
+      noteModifications(0,valueUpdateMaps.size(),0);
+    }
+    if (nullValueUpdateMaps.size() > 0)
+    {
+      performUpdateBatch(nullValueUpdateMaps,nullValueUpdateQuery,nullValueUpdateLists,null);
+      noteModifications(0,nullValueUpdateMaps.size(),0);
+    }
+
     boolean[] rval = new boolean[childDocumentIDHashes.length];
-    i = 0;
+    int i = 0;
     while (i < rval.length)
     {
-      String childDocumentIDHash = childDocumentIDHashes[i];
-      rval[i++] = (insertHappened.get(childDocumentIDHash) != null);
+      rval[i] = insertHappened.contains(childDocumentIDHashes[i]);
+      i++;
     }
 
     return rval;
   }
 
-  /** Do the exists check, in batch. */
-  protected void performExistsCheck(Map presentMap, String query, ArrayList list)
+  /** Calculate the max clauses for the exists check
+  */
+  protected int maxClausePerformExistsCheck(Long jobID, String parentDocumentIDHash)
+  {
+    return findConjunctionClauseMax(new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID),
+      new UnitaryClause(parentIDHashField,parentDocumentIDHash)});
+  }
+
+  /** Do the exists check, in batch.  This reads every row the parent has for the given children. */
+  protected void performExistsCheck(Map<ValueRecord,ExistingRecord> presentMap, Long jobID, String parentDocumentIDHash,
+    List<String> list)
     throws ManifoldCFException
   {
     // Note well: presentMap is only checked for the *existence* of a record, so we do not need to populate the datavalue field!
     // This is crucial, because otherwise we'd either be using an undetermined amount of memory, or we'd need to read into a temporary file.
-    IResultSet result = performQuery("SELECT "+childIDHashField+","+dataNameField+","+dataValueHashField+" FROM "+getTableName()+" WHERE "+query+" FOR UPDATE",list,null,null);
+    ArrayList newList = new ArrayList();
+    String query = buildConjunctionClause(newList,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID),
+      new UnitaryClause(parentIDHashField,parentDocumentIDHash),
+      new MultiClause(childIDHashField,list)});
+    IResultSet result = performQuery("SELECT "+childIDHashField+","+dataNameField+","+dataValueHashField+","+newField+","+processIDField+
+      " FROM "+getTableName()+" WHERE "+query+" FOR UPDATE",newList,null,null);
     int i = 0;
     while (i < result.getRowCount())
     {
@@ -445,10 +464,11 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
       String documentIDHash = (String)row.getValue(childIDHashField);
       String dataName = (String)row.getValue(dataNameField);
       String dataValueHash = (String)row.getValue(dataValueHashField);
-      //String dataValue = (String)row.getValue(dataValueField);
+      String status = (String)row.getValue(newField);
       ValueRecord vr = new ValueRecord(documentIDHash,dataName,dataValueHash,null);
 
-      presentMap.put(vr,vr);
+      presentMap.put(vr,new ExistingRecord((status==null)?ISNEW_BASE:stringToStatus(status),
+        (String)row.getValue(processIDField)));
     }
   }
   
@@ -827,6 +847,29 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     }
   }
 
+  /** The state of a row that is already in the table, as read by the exists check */
+  protected static class ExistingRecord
+  {
+    protected final int status;
+    protected final String processID;
+
+    public ExistingRecord(int status, String processID)
+    {
+      this.status = status;
+      this.processID = processID;
+    }
+
+    public int getStatus()
+    {
+      return status;
+    }
+
+    public String getProcessID()
+    {
+      return processID;
+    }
+  }
+
   // This class filters an ordered resultset to return only the duplicates
   protected static class DuplicateFinder implements ILimitChecker
   {
@@ -19,6 +19,7 @@
 package org.apache.manifoldcf.crawler.jobs;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
@@ -115,6 +116,26 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   // (decreases), this assessment could well change.  Therefore, this hopcount module MUST cause documents to be switched
   // to a "pending" state whenever a hopcount change occurs that makes the document pass its hopcount filtering criteria.
   //
+  // In-memory mode
+  // ==============
+  //
+  // When org.apache.manifoldcf.crawler.hopcount.inmemory is set, none of the above machinery is used.  Instead, each job's
+  // intrinsic links are loaded once into a HopCountGraph, which keeps every distance up to date in memory as links are
+  // added and removed.  The intrinsiclink table is still maintained exactly as before, since it is what the graph is
+  // rebuilt from.  Distances are answered from the graph, and written back to this table in batches; the delete
+  // dependency table and the queue marks are not used.  Because the graph lives in one process, this mode is only
+  // correct when a single agents process does all the crawling.
+  //
+  // The graph is changed inside the caller's transaction, so the caller must call noteTransactionCommitted() after
+  // committing, and releaseGraphs() as the transaction ends, either way.  A graph changed by a transaction that
+  // did not commit is thrown away and reloaded, as soon as no other transaction is using it.
+  //
+  // Rows written in this mode have no delete dependencies, so they are marked "M" rather than "N", and loading a
+  // graph marks any rows the database engine wrote the same way (dropping their dependencies, which nothing keeps
+  // up to date any more).  If the mode is later switched off, the next cluster start queues every "M" row with
+  // distance infinity, just as an invalidation would, so that the database engine works them all out again.
+  // Switching modes therefore requires stopping every agents process; running processes in different modes, or
+  // several processes in in-memory mode, is not supported.
   //
 
   // Field names
@@ -129,6 +150,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   public static final int MARK_NORMAL = 0;
   public static final int MARK_QUEUED = 1;
   public static final int MARK_DELETING = 2;
+  public static final int MARK_MEMORY = 3;
 
   protected static Map markMap;
 
@@ -138,6 +160,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     markMap.put("N",new Integer(MARK_NORMAL));
     markMap.put("Q",new Integer(MARK_QUEUED));
     markMap.put("D",new Integer(MARK_DELETING));
+    markMap.put("M",new Integer(MARK_MEMORY));
   }
 
   /** Intrinsic link table manager. */
@@ -147,6 +170,21 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
 
   /** Thread context */
   protected IThreadContext threadContext;
+
+  /** Property that turns on in-memory hopcount */
+  protected static final String inMemoryProperty = "org.apache.manifoldcf.crawler.hopcount.inmemory";
+  /** Number of changed distances to accumulate before writing them to the table */
+  protected static final int inMemoryWriteBatchSize = 1000;
+
+  /** In-memory graphs, by job, for this process */
+  protected static final ConcurrentMap<Long,HopCountGraph> graphs = new ConcurrentHashMap<Long,HopCountGraph>();
+  /** Lock for loading graphs */
+  protected static final Object graphLoadLock = new Object();
+
+  /** True if hopcount is maintained in memory */
+  protected final boolean inMemory;
+  /** Graphs changed by the current transaction */
+  protected final List<HopCountGraph> transactionGraphs = new ArrayList<HopCountGraph>();
   
   /** Constructor.
   *@param database is the database handle.
@@ -158,6 +196,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     this.threadContext = tc;
     intrinsicLinkManager = new IntrinsicLink(database);
     deleteDepsManager = new HopDeleteDeps(database);
+    inMemory = LockManagerFactory.getBooleanProperty(tc,inMemoryProperty,false);
   }
 
   /** Install or upgrade.
@@ -277,6 +316,8 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
       return "Q";
     case MARK_DELETING:
       return "D";
+    case MARK_MEMORY:
+      return "M";
     default:
       throw new ManifoldCFException("Bad mark value");
     }
@@ -287,6 +328,10 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   public void deleteOwner(Long jobID)
     throws ManifoldCFException
   {
+    // Nothing loads the graph of a job that is being deleted, so only a graph that is already loaded needs dropping
+    if (inMemory && graphs.containsKey(jobID))
+      enterGraph(jobID).markStale();
+
     // Delete the intrinsic rows belonging to this job.
     intrinsicLinkManager.deleteOwner(jobID);
 
@@ -307,6 +352,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   public void restart(String processID)
     throws ManifoldCFException
   {
+    graphs.clear();
     intrinsicLinkManager.restart(processID);
   }
 
@@ -315,6 +361,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   public void restart()
     throws ManifoldCFException
   {
+    graphs.clear();
     intrinsicLinkManager.restart();
   }
   
@@ -323,6 +370,19 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   public void restartCluster()
     throws ManifoldCFException
   {
+    if (!inMemory)
+    {
+      // Rows left by in-memory mode have no delete dependencies, so the database engine must work them out again
+      ArrayList list = new ArrayList();
+      String query = buildConjunctionClause(list,new ClauseDescription[]{
+        new UnitaryClause(markForDeathField,markToString(MARK_MEMORY))});
+      deleteDepsManager.removeMarkedRows(getTableName(),idField,query,list);
+      HashMap map = new HashMap();
+      map.put(distanceField,new Long(-1L));
+      map.put(markForDeathField,markToString(MARK_QUEUED));
+      performUpdate(map,"WHERE "+query,list,null);
+      noteModifications(0,1,0);
+    }
     intrinsicLinkManager.restartCluster();
   }
   
@@ -377,6 +437,15 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   public void revertParents(Long jobID, String[] sourceDocumentHashes)
     throws ManifoldCFException
   {
+    if (inMemory)
+    {
+      // The graph must be found before the links change, for the same reason as in doRecord()
+      HopCountGraph graph = enterGraph(jobID);
+      intrinsicLinkManager.revertLinks(jobID,sourceDocumentHashes);
+      graph.revertSources(sourceDocumentHashes);
+      writeGraphChanges(graph,false);
+      return;
+    }
     intrinsicLinkManager.revertLinks(jobID,sourceDocumentHashes);
   }
   
@@ -389,6 +458,17 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     // this method would need to be revised to not process any additions until the finishParents() call
     // is made.  At the moment, revertParents() is not used by any thread.
     // TBD, MHL
+    if (inMemory)
+    {
+      // Find the graph before touching the links, so that a graph loaded now does not already have them
+      HopCountGraph graph = enterGraph(jobID);
+      String[] newLinks = intrinsicLinkManager.recordReferences(jobID,sourceDocumentIDHash,targetDocumentIDHashes,linkType,processID);
+      boolean[] changed = graph.recordLinks(legalLinkTypes,sourceDocumentIDHash,targetDocumentIDHashes,linkType,
+        new HashSet<String>(Arrays.asList(newLinks)));
+      writeGraphChanges(graph,false);
+      return changed;
+    }
+
     boolean[] rval = new boolean[targetDocumentIDHashes.length];
     for (int i = 0; i < rval.length; i++)
     {
@@ -518,6 +598,17 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     // This also removes the links themselves...
     if (hopcountMethod == IJobDescription.HOPCOUNT_ACCURATE)
     {
+      if (inMemory)
+      {
+        // The graph cannot evaluate the criteria, so it is reloaded from the links that remain, once the
+        // transactions using it have ended
+        enterGraph(jobID).markStale();
+        intrinsicLinkManager.removeDocumentLinks(jobID,
+          joinTableName,
+          joinTableIDColumn,joinTableJobColumn,
+          joinTableCriteria,joinTableParams);
+        return;
+      }
       doDeleteDocuments(jobID,joinTableName,
         joinTableIDColumn,joinTableJobColumn,
         joinTableCriteria,joinTableParams);
@@ -543,7 +634,17 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
 
     // This also removes the links themselves...
     if (hopcountMethod == IJobDescription.HOPCOUNT_ACCURATE)
+    {
+      if (inMemory)
+      {
+        HopCountGraph graph = enterGraph(jobID);
+        intrinsicLinkManager.removeDocumentLinks(jobID,documentHashes);
+        graph.removeSources(legalLinkTypes,documentHashes);
+        writeGraphChanges(graph,false);
+        return;
+      }
       doDeleteDocuments(jobID,documentHashes);
+    }
 
   }
 
@@ -553,6 +654,9 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   public int[] findHopCounts(Long jobID, String[] parentIdentifierHashes, String linkType)
     throws ManifoldCFException
   {
+    if (inMemory)
+      return findGraph(jobID).getDistances(parentIdentifierHashes,linkType);
+
     // No transaction, since we can happily interpret whatever comes back.
     ArrayList list = new ArrayList();
 
@@ -625,6 +729,13 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   public boolean processQueue(Long jobID, String[] legalLinkTypes, int hopcountMethod)
     throws ManifoldCFException
   {
+    if (inMemory)
+    {
+      // There is never a queue; this is just a convenient time to write out what has changed
+      writeGraphChanges(enterGraph(jobID),true);
+      return true;
+    }
+
     // We can't instantiate the DocumentHash object here, because it will wind up having
     // cached in it the answers from the previous round of calculation.  That round had
     // a different set of marked nodes than the current round.
@@ -810,7 +921,10 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     // distance against the distance estimate we would have given it.  If the new distance is LOWER, it gets left around
     // for queuing.
 
-    HashMap map = new HashMap();
+    // New rows and their delete dependencies are written in batches once the pass is done
+    List<Map<String,Object>> insertMaps = new ArrayList<Map<String,Object>>();
+    List<Long> dependencyOwners = new ArrayList<Long>();
+    List<DeleteDependency> dependencies = new ArrayList<DeleteDependency>();
     for (int i = 0; i < documentIDHashes.length; i++)
     {
       String documentIDHash = documentIDHashes[i];
@@ -833,7 +947,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
           // The dependencies are the old dependencies, plus the one we are about to add.
           DeleteDependency dd = new DeleteDependency(linkType,documentIDHash,sourceDocumentIDHash);
           // Build a new answer, based on the starting answer and the kind of link this is.
-          map.clear();
+          Map<String,Object> map = new HashMap<String,Object>();
           Long hopCountID = new Long(IDFactory.make(threadContext));
           map.put(idField,hopCountID);
           map.put(parentIDHashField,q.getDocumentIdentifierHash());
@@ -846,16 +960,17 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
           map.put(markForDeathField,markToString(MARK_NORMAL));
           if (Logging.hopcount.isDebugEnabled())
             Logging.hopcount.debug("Inserting new record for '"+documentIDHash+"' linktype '"+affectedLinkType+"' distance "+Integer.toString(newAnswerValue)+" for job "+jobID);
-          performInsert(map,null);
-          noteModifications(1,0,0);
+          insertMaps.add(map);
           if (hopcountMethod != IJobDescription.HOPCOUNT_NEVERDELETE)
           {
-            deleteDepsManager.writeDependency(hopCountID,jobID,dd);
+            dependencyOwners.add(hopCountID);
+            dependencies.add(dd);
             Iterator iter2 = startingAnswer.getDeleteDependencies();
             while (iter2.hasNext())
             {
               dd = (DeleteDependency)iter2.next();
-              deleteDepsManager.writeDependency(hopCountID,jobID,dd);
+              dependencyOwners.add(hopCountID);
+              dependencies.add(dd);
             }
           }
         }
@@ -877,6 +992,13 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
       }
     }
 
+    if (insertMaps.size() > 0)
+    {
+      performInsertBatch(insertMaps,null);
+      noteModifications(insertMaps.size(),0,0);
+      deleteDepsManager.writeDependencies(dependencyOwners,jobID,dependencies);
+    }
+
     // For all the records still in the matchmap, queue them.
 
     // The query I want to run is:
@@ -953,6 +1075,24 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   protected void doFinish(Long jobID, String[] legalLinkTypes, String[] sourceDocumentHashes, int hopcountMethod)
     throws ManifoldCFException
   {
+    if (inMemory)
+    {
+      // The graph must be found before the links change, for the same reason as in doRecord()
+      HopCountGraph graph = enterGraph(jobID);
+      if (hopcountMethod == IJobDescription.HOPCOUNT_ACCURATE)
+      {
+        ArrayList commonNewList = new ArrayList();
+        commonNewList.add(intrinsicLinkManager.statusToString(intrinsicLinkManager.LINKSTATUS_BASE));
+        intrinsicLinkManager.removeLinks(jobID,
+          intrinsicLinkManager.newField+"=?",commonNewList,
+          sourceDocumentHashes);
+      }
+      intrinsicLinkManager.restoreLinks(jobID,sourceDocumentHashes);
+      graph.finishSources(legalLinkTypes,sourceDocumentHashes,hopcountMethod == IJobDescription.HOPCOUNT_ACCURATE);
+      writeGraphChanges(graph,false);
+      return;
+    }
+
     if (hopcountMethod == IJobDescription.HOPCOUNT_ACCURATE)
     {
       // First, blow the cache.
@@ -1323,6 +1463,200 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     performUpdate(map,sb.toString(),thisList,null);
   }
 
+  /** Find the in-memory graph for a job, loading it from the intrinsiclink and hopcount tables if this process
+  * does not have it yet.
+  */
+  protected HopCountGraph findGraph(Long jobID)
+    throws ManifoldCFException
+  {
+    HopCountGraph graph = graphs.get(jobID);
+    if (graph != null)
+      return graph;
+    synchronized (graphLoadLock)
+    {
+      graph = graphs.get(jobID);
+      if (graph != null)
+        return graph;
+      long startTime = System.currentTimeMillis();
+      graph = new HopCountGraph(jobID);
+      IResultSet set = intrinsicLinkManager.getJobLinks(jobID);
+      for (int i = 0; i < set.getRowCount(); i++)
+      {
+        IResultRow row = set.getRow(i);
+        int status = intrinsicLinkManager.stringToStatus((String)row.getValue(intrinsicLinkManager.newField));
+        graph.loadLink((String)row.getValue(intrinsicLinkManager.childIDHashField),
+          (String)row.getValue(intrinsicLinkManager.parentIDHashField),
+          (String)row.getValue(intrinsicLinkManager.linkTypeField),
+          status != intrinsicLinkManager.LINKSTATUS_BASE,
+          status == intrinsicLinkManager.LINKSTATUS_NEW);
+      }
+      ArrayList list = new ArrayList();
+      String query = buildConjunctionClause(list,new ClauseDescription[]{
+        new UnitaryClause(jobIDField,jobID)});
+      set = performQuery("SELECT "+parentIDHashField+","+linkTypeField+","+distanceField+","+markForDeathField+
+        " FROM "+getTableName()+" WHERE "+query,list,null,null);
+      boolean databaseRows = false;
+      for (int i = 0; i < set.getRowCount(); i++)
+      {
+        IResultRow row = set.getRow(i);
+        Long distance = (Long)row.getValue(distanceField);
+        graph.loadDistance((String)row.getValue(parentIDHashField),(String)row.getValue(linkTypeField),
+          (int)distance.longValue());
+        if (stringToMark((String)row.getValue(markForDeathField)) != MARK_MEMORY)
+          databaseRows = true;
+      }
+      if (databaseRows)
+      {
+        // The database engine wrote some of these rows.  Their delete dependencies will not be kept up to date
+        // from now on, so drop them, and mark the rows as needing to be worked out again if that engine is
+        // ever used for this job again.
+        deleteDepsManager.deleteJob(jobID);
+        HashMap map = new HashMap();
+        map.put(markForDeathField,markToString(MARK_MEMORY));
+        performUpdate(map,"WHERE "+query,list,null);
+        noteModifications(0,set.getRowCount(),0);
+      }
+      if (Logging.hopcount.isDebugEnabled())
+        Logging.hopcount.debug("Loaded hopcount graph for job "+jobID+": "+graph.getNodeCount()+" documents, "+
+          graph.getLinkCount()+" links ("+(System.currentTimeMillis()-startTime)+" ms)");
+      graphs.put(jobID,graph);
+      return graph;
+    }
+  }
+
+  /** Find the in-memory graph for a job, for a change that is part of the current transaction.
+  */
+  protected HopCountGraph enterGraph(Long jobID)
+    throws ManifoldCFException
+  {
+    for (HopCountGraph graph : transactionGraphs)
+    {
+      if (graph.getJobID().equals(jobID))
+        return graph;
+    }
+    while (true)
+    {
+      HopCountGraph graph = findGraph(jobID);
+      if (graph.enterTransaction())
+      {
+        transactionGraphs.add(graph);
+        return graph;
+      }
+      // Stale, and nobody is using it any more
+      graphs.remove(jobID,graph);
+    }
+  }
+
+  /** Note that the current transaction has been committed, so that the changes it made to in-memory graphs
+  * are now in the tables too.
+  */
+  public void noteTransactionCommitted()
+  {
+    leaveGraphs(true);
+  }
+
+  /** Note that the current transaction has ended.  Any in-memory graph it changed, and which was not noted
+  * as committed, no longer matches the tables, and will be reloaded.
+  */
+  public void releaseGraphs()
+  {
+    leaveGraphs(false);
+  }
+
+  protected void leaveGraphs(boolean committed)
+  {
+    for (HopCountGraph graph : transactionGraphs)
+    {
+      if (graph.leaveTransaction(committed))
+      {
+        graphs.remove(graph.getJobID(),graph);
+        if (Logging.hopcount.isDebugEnabled())
+          Logging.hopcount.debug("Discarded stale hopcount graph for job "+graph.getJobID());
+      }
+    }
+    transactionGraphs.clear();
+  }
+
+  /** Write distances that have changed in a graph to the table.
+  *@param graph is the graph.
+  *@param all is true if everything should be written now, rather than waiting for a full batch.
+  */
+  protected void writeGraphChanges(HopCountGraph graph, boolean all)
+    throws ManifoldCFException
+  {
+    int changeCount = graph.getChangeCount();
+    if (changeCount == 0 || (!all && changeCount < inMemoryWriteBatchSize))
+      return;
+    Long jobID = graph.getJobID();
+    List<Map<String,Object>> insertMaps = new ArrayList<Map<String,Object>>();
+    // Updates are grouped by link type and distance, so that each group is a single statement
+    Map<String,Map<Long,List<String>>> updates = new HashMap<String,Map<Long,List<String>>>();
+    int updateCount = 0;
+    for (HopCountGraph.DistanceChange change : graph.takeChanges())
+    {
+      Long distance = new Long((long)change.getDistance());
+      if (change.isNew())
+      {
+        Map<String,Object> map = new HashMap<String,Object>();
+        map.put(idField,new Long(IDFactory.make(threadContext)));
+        map.put(parentIDHashField,change.getDocumentIDHash());
+        map.put(linkTypeField,change.getLinkType());
+        map.put(distanceField,distance);
+        map.put(jobIDField,jobID);
+        map.put(markForDeathField,markToString(MARK_MEMORY));
+        insertMaps.add(map);
+      }
+      else
+      {
+        Map<Long,List<String>> byDistance = updates.get(change.getLinkType());
+        if (byDistance == null)
+        {
+          byDistance = new HashMap<Long,List<String>>();
+          updates.put(change.getLinkType(),byDistance);
+        }
+        List<String> documentIDHashes = byDistance.get(distance);
+        if (documentIDHashes == null)
+        {
+          documentIDHashes = new ArrayList<String>();
+          byDistance.put(distance,documentIDHashes);
+        }
+        documentIDHashes.add(change.getDocumentIDHash());
+        updateCount++;
+      }
+    }
+    if (insertMaps.size() > 0)
+    {
+      performInsertBatch(insertMaps,null);
+      noteModifications(insertMaps.size(),0,0);
+    }
+    for (Map.Entry<String,Map<Long,List<String>>> linkTypeEntry : updates.entrySet())
+    {
+      String linkType = linkTypeEntry.getKey();
+      int maxClause = findConjunctionClauseMax(new ClauseDescription[]{
+        new UnitaryClause(jobIDField,jobID),
+        new UnitaryClause(linkTypeField,linkType)});
+      for (Map.Entry<Long,List<String>> distanceEntry : linkTypeEntry.getValue().entrySet())
+      {
+        HashMap map = new HashMap();
+        map.put(distanceField,distanceEntry.getKey());
+        List<String> documentIDHashes = distanceEntry.getValue();
+        for (int i = 0; i < documentIDHashes.size(); i += maxClause)
+        {
+          ArrayList list = new ArrayList();
+          String query = buildConjunctionClause(list,new ClauseDescription[]{
+            new UnitaryClause(jobIDField,jobID),
+            new UnitaryClause(linkTypeField,linkType),
+            new MultiClause(parentIDHashField,documentIDHashes.subList(i,Math.min(i+maxClause,documentIDHashes.size())))});
+          performUpdate(map,"WHERE "+query,list,null);
+        }
+      }
+    }
+    if (updateCount > 0)
+      noteModifications(0,updateCount,0);
+    if (Logging.hopcount.isDebugEnabled())
+      Logging.hopcount.debug("Wrote "+insertMaps.size()+" new and "+updateCount+" changed distances for job "+jobID);
+  }
+
   /** Get document's children.
   *@return rows that contain the children.  Column names are 'linktype','childidentifier'.
   */
@@ -1565,6 +1899,11 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
           dn.setSource(id,answerDistance);
           continue;
         }
+        else if (foundMark == MARK_MEMORY)
+        {
+          Logging.hopcount.error("Document '"+parentIDHash+"' linktype '"+linkType+"' was written by in-memory hopcount, which another agents process must still be using");
+          throw new ManifoldCFException("Hopcount rows for job "+jobID+" are being maintained in memory by another process");
+        }
         else
         {
           Logging.hopcount.error("Document '"+parentIDHash+"' linktype '"+linkType+"' is labeled with 'DELETING'!");
@@ -3071,7 +3410,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     
     /** Get the children of a bunch of nodes.
     */
-    protected void findChildren(Map referenceMap, Long jobID, ArrayList list)
+    protected void findChildren(final Map referenceMap, Long jobID, ArrayList list)
       throws ManifoldCFException
     {
       ArrayList newList = new ArrayList();
@@ -3080,28 +3419,27 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
         new UnitaryClause(intrinsicLinkManager.jobIDField,jobID),
         new MultiClause(intrinsicLinkManager.parentIDHashField,list)});
         
-      // Grab the appropriate rows from the intrinsic link table.
-      IResultSet set = performQuery("SELECT "+intrinsicLinkManager.childIDHashField+","+intrinsicLinkManager.linkTypeField+","+
-        intrinsicLinkManager.parentIDHashField+" FROM "+intrinsicLinkManager.getTableName()+" WHERE "+query,newList,null,null);
-
       // What I want to produce from this is a filled-in reference map, where the parentid is the
-      // key, and the value is an ArrayList of DocumentReference objects.
-
-      int i = 0;
-      while (i < set.getRowCount())
-      {
-        IResultRow row = set.getRow(i);
-        String parentIDHash = (String)row.getValue(intrinsicLinkManager.parentIDHashField);
-        String childIDHash = (String)row.getValue(intrinsicLinkManager.childIDHashField);
-        String linkType = (String)row.getValue(intrinsicLinkManager.linkTypeField);
-        if (linkType == null)
-          linkType = "";
-        if (childIDHash == null)
-          childIDHash = "";
-        ArrayList children = (ArrayList)referenceMap.get(parentIDHash);
-        children.add(new DocumentReference(childIDHash,linkType));
-        i++;
-      }
+      // key, and the value is an ArrayList of DocumentReference objects.  A parent can have a great
+      // many children, so stream the rows from the intrinsic link table straight into the map.
+      performStreamingQuery("SELECT "+intrinsicLinkManager.childIDHashField+","+intrinsicLinkManager.linkTypeField+","+
+        intrinsicLinkManager.parentIDHashField+" FROM "+intrinsicLinkManager.getTableName()+" WHERE "+query,newList,
+        new IResultHandler()
+        {
+          public boolean processRow(IResultRow row)
+          {
+            String parentIDHash = (String)row.getValue(intrinsicLinkManager.parentIDHashField);
+            String childIDHash = (String)row.getValue(intrinsicLinkManager.childIDHashField);
+            String linkType = (String)row.getValue(intrinsicLinkManager.linkTypeField);
+            if (linkType == null)
+              linkType = "";
+            if (childIDHash == null)
+              childIDHash = "";
+            ArrayList children = (ArrayList)referenceMap.get(parentIDHash);
+            children.add(new DocumentReference(childIDHash,linkType));
+            return true;
+          }
+        });
     }
 
     /** Queue the parents on the evaluation queue. */
@@ -0,0 +1,933 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.util.*;
+
+/** This class holds the intrinsic link graph of one job in memory, together with the distance of every
+* document from the root for each link type of interest, so that hopcount can be maintained without the
+* dependency bookkeeping that HopCount otherwise keeps in the database.
+*
+* Document identifier hashes are interned to int node ids, with the root (the empty hash) always being
+* node 0.  Each node's outgoing links are kept in a primitive array of (target, link type) pairs, and the
+* links themselves are also indexed in an open-addressing table keyed by (source, target), which holds a
+* bit mask of the link types present, a second mask of those seen in the current processing pass (the
+* in-memory equivalent of the intrinsiclink "isnew" column), a third of those the current pass added (as
+* opposed to seeing again), and a fourth of those whose addition during the current pass lowered the
+* target's distance.
+*
+* For each link type L, a link of type L counts as one hop and a link of any other type counts as none, so
+* distances are found by a 0-1 breadth-first search from the root.  Adding a link only ever lowers
+* distances, so it is handled by relaxing the new link and propagating from its target.  Removing a link
+* can only raise distances if the link lay on a shortest path; when it did, the distances for that link type
+* are recomputed from scratch.
+*
+* Distances that differ from what has been written to the hopcount table are tracked, and handed out by
+* takeChanges() so that they can be written back in batches.
+*
+* The graph is changed inside database transactions, and cannot undo those changes if a transaction is rolled
+* back.  Callers therefore register each transaction that changes the graph with enterTransaction(), and end it
+* with leaveTransaction().  Once any such transaction has been rolled back, the graph is stale, and must be thrown
+* away and reloaded from the tables.  The same happens when a transaction changes the tables in a way the graph
+* cannot follow, and marks it stale with markStale().  That cannot happen while other transactions are still changing it, since a
+* reload would miss whatever they go on to commit; so a stale graph stays in use until there is a moment when no
+* transaction is using it, and is replaced then.
+*
+* All public methods are synchronized.
+*/
+public class HopCountGraph
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Distance meaning "unreachable", as recorded in the hopcount table */
+  public static final int DISTANCE_INFINITY = -1;
+
+  /** Persisted distance meaning that there is no hopcount row yet */
+  protected static final int NOT_WRITTEN = -2;
+  /** The root node */
+  protected static final int ROOT = 0;
+  /** The most link types a graph can hold; one bit each in the link masks */
+  protected static final int MAX_LINK_TYPES = 64;
+  /** Empty key in the link table */
+  protected static final long EMPTY_KEY = -1L;
+
+  /** The job */
+  protected final Long jobID;
+
+  // Node interning.  internTable holds node id + 1, or 0 for an empty slot.
+  protected int nodeCount = 0;
+  protected String[] nodeNames;
+  protected int[] internTable;
+
+  // Outgoing links per node, as (target, link type index) pairs
+  protected int[][] outLinks;
+  protected int[] outLinkSize;
+
+  // The link table, keyed by (source << 32 | target)
+  protected int linkCount = 0;
+  protected long[] linkKeys;
+  protected long[] linkTypeMasks;
+  protected long[] linkPassMasks;
+  protected long[] linkAddedMasks;
+  protected long[] linkImprovedMasks;
+
+  // Link types
+  protected int linkTypeCount = 0;
+  protected final String[] linkTypeNames = new String[MAX_LINK_TYPES];
+  protected final Map<String,Integer> linkTypeMap = new HashMap<String,Integer>();
+
+  /** Nodes that have been the target of a link, and so have (or should have) hopcount rows */
+  protected final BitSet targets = new BitSet();
+  /** Current distances, by link type index; null for link types not being maintained */
+  protected final int[][] distances = new int[MAX_LINK_TYPES][];
+  /** Distances as last written to the hopcount table, by link type index */
+  protected final int[][] persisted = new int[MAX_LINK_TYPES][];
+  /** Nodes whose distance differs from the persisted one, by link type index */
+  protected final BitSet[] dirty = new BitSet[MAX_LINK_TYPES];
+  protected int dirtyCount = 0;
+
+  /** Number of transactions that have changed the graph and not yet ended */
+  protected int transactionCount = 0;
+  /** Set once a transaction that changed the graph has been rolled back */
+  protected boolean stale = false;
+
+  /** Constructor.
+  *@param jobID is the job the graph belongs to.
+  */
+  public HopCountGraph(Long jobID)
+  {
+    this.jobID = jobID;
+    int initialCapacity = 1024;
+    nodeNames = new String[initialCapacity];
+    internTable = new int[initialCapacity * 2];
+    outLinks = new int[initialCapacity][];
+    outLinkSize = new int[initialCapacity];
+    linkKeys = new long[initialCapacity * 2];
+    Arrays.fill(linkKeys,EMPTY_KEY);
+    linkTypeMasks = new long[initialCapacity * 2];
+    linkPassMasks = new long[initialCapacity * 2];
+    linkAddedMasks = new long[initialCapacity * 2];
+    linkImprovedMasks = new long[initialCapacity * 2];
+    // The root is always node 0
+    internNode("");
+  }
+
+  /** Get the job. */
+  public Long getJobID()
+  {
+    return jobID;
+  }
+
+  /** Add a link read from the intrinsiclink table.  Distances are not maintained by this method, so
+  * it should only be called while the graph is being loaded.
+  *@param sourceDocumentIDHash is the source document, or null or empty for the root.
+  *@param targetDocumentIDHash is the target document.
+  *@param linkType is the link type.
+  *@param seenThisPass is true if the link has been recorded in the current processing pass of its source.
+  *@param addedThisPass is true if the current processing pass of its source added the link.
+  */
+  public synchronized void loadLink(String sourceDocumentIDHash, String targetDocumentIDHash, String linkType,
+    boolean seenThisPass, boolean addedThisPass)
+    throws ManifoldCFException
+  {
+    int source = internNode(sourceDocumentIDHash);
+    int target = internNode(targetDocumentIDHash);
+    int type = internLinkType(linkType);
+    targets.set(target);
+    addLink(source,target,type,seenThisPass);
+    if (addedThisPass)
+      linkAddedMasks[findLinkSlot(source,target)] |= (1L << type);
+  }
+
+  /** Note a distance read from the hopcount table.
+  *@param documentIDHash is the document.
+  *@param linkType is the link type.
+  *@param distance is the recorded distance.
+  */
+  public synchronized void loadDistance(String documentIDHash, String linkType, int distance)
+    throws ManifoldCFException
+  {
+    int node = internNode(documentIDHash);
+    int type = internLinkType(linkType);
+    // A row means the document was once a target, even if the link has since gone
+    targets.set(node);
+    if (persisted[type] == null)
+      persisted[type] = newDistanceArray(NOT_WRITTEN);
+    persisted[type][node] = distance;
+    // Distances already being maintained must now be compared against this value
+    if (distances[type] != null)
+      markDirtyIfChanged(type,node);
+  }
+
+  /** Record links from a source document, as in a processing pass.  Links already present are marked as
+  * seen; links that are not are added, and distances updated.
+  *@param legalLinkTypes are the link types the job cares about.
+  *@param sourceDocumentIDHash is the source document, or null or empty for the root.
+  *@param targetDocumentIDHashes are the target documents.
+  *@param linkType is the link type.
+  *@param newTargetDocumentIDHashes are the targets whose links the intrinsiclink table did not already have.
+  *@return, for each target, true if it was a new target whose new link lowered its distance.  A link
+  * recorded again in the same pass (because the transaction was retried, for instance) gives the same answer.
+  */
+  public synchronized boolean[] recordLinks(String[] legalLinkTypes, String sourceDocumentIDHash,
+    String[] targetDocumentIDHashes, String linkType, Set<String> newTargetDocumentIDHashes)
+    throws ManifoldCFException
+  {
+    maintainLinkTypes(legalLinkTypes);
+    int source = internNode(sourceDocumentIDHash);
+    int type = internLinkType(linkType);
+    boolean[] rval = new boolean[targetDocumentIDHashes.length];
+    for (int i = 0; i < targetDocumentIDHashes.length; i++)
+    {
+      int target = internNode(targetDocumentIDHashes[i]);
+      if (!targets.get(target))
+      {
+        // A new target needs a hopcount row for every link type, whatever its distance
+        targets.set(target);
+        for (int l = 0; l < linkTypeCount; l++)
+        {
+          if (distances[l] != null)
+            markDirtyIfChanged(l,target);
+        }
+      }
+      if (addLink(source,target,type,true))
+      {
+        linkAddedMasks[findLinkSlot(source,target)] |= (1L << type);
+        boolean improved = false;
+        for (int l = 0; l < linkTypeCount; l++)
+        {
+          if (distances[l] != null && relax(l,source,target,type))
+            improved = true;
+        }
+        if (improved)
+          linkImprovedMasks[findLinkSlot(source,target)] |= (1L << type);
+      }
+      if (newTargetDocumentIDHashes.contains(targetDocumentIDHashes[i]))
+        rval[i] = (linkImprovedMasks[findLinkSlot(source,target)] & (1L << type)) != 0L;
+    }
+    return rval;
+  }
+
+  /** Finish a processing pass for a set of source documents.  Links not seen during the pass are removed
+  * if requested, and the pass marks are cleared.
+  *@param legalLinkTypes are the link types the job cares about.
+  *@param sourceDocumentIDHashes are the source documents.
+  *@param removeUnseen is true if links not seen during the pass should be removed.
+  */
+  public synchronized void finishSources(String[] legalLinkTypes, String[] sourceDocumentIDHashes, boolean removeUnseen)
+    throws ManifoldCFException
+  {
+    maintainLinkTypes(legalLinkTypes);
+    boolean[] recompute = new boolean[linkTypeCount];
+    for (String sourceDocumentIDHash : sourceDocumentIDHashes)
+    {
+      int source = lookupNode(sourceDocumentIDHash);
+      if (source == -1)
+        continue;
+      int[] links = outLinks[source];
+      int size = outLinkSize[source];
+      int kept = 0;
+      for (int j = 0; j < size; j += 2)
+      {
+        int target = links[j];
+        int type = links[j+1];
+        int slot = findLinkSlot(source,target);
+        long bit = 1L << type;
+        if ((linkPassMasks[slot] & bit) != 0L)
+        {
+          linkPassMasks[slot] &= ~bit;
+          linkAddedMasks[slot] &= ~bit;
+          linkImprovedMasks[slot] &= ~bit;
+          links[kept++] = target;
+          links[kept++] = type;
+        }
+        else if (removeUnseen)
+        {
+          noteRemoval(recompute,source,target,type);
+          removeLinkType(slot,bit);
+        }
+        else
+        {
+          linkImprovedMasks[slot] &= ~bit;
+          links[kept++] = target;
+          links[kept++] = type;
+        }
+      }
+      outLinkSize[source] = kept;
+    }
+    recomputeLinkTypes(recompute);
+  }
+
+  /** Revert a processing pass for a set of source documents, because it may not have been completed.  Links
+  * the pass added are removed, and the rest are no longer marked as seen.
+  *@param sourceDocumentIDHashes are the source documents.
+  */
+  public synchronized void revertSources(String[] sourceDocumentIDHashes)
+  {
+    boolean[] recompute = new boolean[linkTypeCount];
+    for (String sourceDocumentIDHash : sourceDocumentIDHashes)
+    {
+      int source = lookupNode(sourceDocumentIDHash);
+      if (source == -1)
+        continue;
+      int[] links = outLinks[source];
+      int size = outLinkSize[source];
+      int kept = 0;
+      for (int j = 0; j < size; j += 2)
+      {
+        int target = links[j];
+        int type = links[j+1];
+        int slot = findLinkSlot(source,target);
+        long bit = 1L << type;
+        if ((linkAddedMasks[slot] & bit) != 0L)
+        {
+          noteRemoval(recompute,source,target,type);
+          removeLinkType(slot,bit);
+        }
+        else
+        {
+          linkPassMasks[slot] &= ~bit;
+          linkImprovedMasks[slot] &= ~bit;
+          links[kept++] = target;
+          links[kept++] = type;
+        }
+      }
+      outLinkSize[source] = kept;
+    }
+    recomputeLinkTypes(recompute);
+  }
+
+  /** Remove every link from a set of source documents.
+  *@param legalLinkTypes are the link types the job cares about.
+  *@param sourceDocumentIDHashes are the source documents.
+  */
+  public synchronized void removeSources(String[] legalLinkTypes, String[] sourceDocumentIDHashes)
+    throws ManifoldCFException
+  {
+    maintainLinkTypes(legalLinkTypes);
+    boolean[] recompute = new boolean[linkTypeCount];
+    for (String sourceDocumentIDHash : sourceDocumentIDHashes)
+    {
+      int source = lookupNode(sourceDocumentIDHash);
+      if (source == -1)
+        continue;
+      int[] links = outLinks[source];
+      int size = outLinkSize[source];
+      for (int j = 0; j < size; j += 2)
+      {
+        int target = links[j];
+        int type = links[j+1];
+        noteRemoval(recompute,source,target,type);
+        removeLinkType(findLinkSlot(source,target),1L << type);
+      }
+      outLinks[source] = null;
+      outLinkSize[source] = 0;
+    }
+    recomputeLinkTypes(recompute);
+  }
+
+  /** Get the distances of a set of documents.
+  *@param documentIDHashes are the documents.
+  *@param linkType is the link type.
+  *@return the distances, with DISTANCE_INFINITY for documents that cannot be reached.
+  */
+  public synchronized int[] getDistances(String[] documentIDHashes, String linkType)
+    throws ManifoldCFException
+  {
+    maintainLinkTypes(new String[]{linkType});
+    int[] d = distances[linkTypeMap.get(linkType).intValue()];
+    int[] rval = new int[documentIDHashes.length];
+    for (int i = 0; i < rval.length; i++)
+    {
+      int node = lookupNode(documentIDHashes[i]);
+      rval[i] = (node == -1 || !targets.get(node))?DISTANCE_INFINITY:d[node];
+    }
+    return rval;
+  }
+
+  /** Get the number of distances that differ from what the hopcount table holds. */
+  public synchronized int getChangeCount()
+  {
+    return dirtyCount;
+  }
+
+  /** Take every distance that differs from what the hopcount table holds.  The caller is expected to write
+  * them; the graph assumes from now on that the table holds them.
+  *@return the changes.
+  */
+  public synchronized List<DistanceChange> takeChanges()
+  {
+    List<DistanceChange> rval = new ArrayList<DistanceChange>(dirtyCount);
+    for (int type = 0; type < linkTypeCount; type++)
+    {
+      BitSet bits = dirty[type];
+      if (bits == null)
+        continue;
+      int[] d = distances[type];
+      int[] p = persisted[type];
+      for (int node = bits.nextSetBit(0); node >= 0; node = bits.nextSetBit(node+1))
+      {
+        rval.add(new DistanceChange(nodeNames[node],linkTypeNames[type],d[node],p[node] == NOT_WRITTEN));
+        p[node] = d[node];
+      }
+      bits.clear();
+    }
+    dirtyCount = 0;
+    return rval;
+  }
+
+  /** Note that a transaction is about to change the graph.
+  *@return false if the graph is stale and no longer in use, in which case it must be reloaded instead.
+  */
+  public synchronized boolean enterTransaction()
+  {
+    if (stale && transactionCount == 0)
+      return false;
+    transactionCount++;
+    return true;
+  }
+
+  /** Note that a transaction which changed the graph has ended.
+  *@param committed is true if the transaction was committed, false if it was rolled back.
+  *@return true if the graph is stale and no longer in use, in which case it must be thrown away.
+  */
+  public synchronized boolean leaveTransaction(boolean committed)
+  {
+    if (!committed)
+      stale = true;
+    transactionCount--;
+    return stale && transactionCount == 0;
+  }
+
+  /** Note that the current transaction changes the tables in a way the graph cannot follow, so that the graph
+  * must be reloaded once no transaction is using it.  The transaction must already have been entered with
+  * enterTransaction().
+  */
+  public synchronized void markStale()
+  {
+    stale = true;
+  }
+
+  /** Check whether the graph has fallen out of step with the tables. */
+  public synchronized boolean isStale()
+  {
+    return stale;
+  }
+
+  /** Get the number of documents in the graph, including the root. */
+  public synchronized int getNodeCount()
+  {
+    return nodeCount;
+  }
+
+  /** Get the number of links in the graph. */
+  public synchronized int getLinkCount()
+  {
+    int rval = 0;
+    for (int i = 0; i < nodeCount; i++)
+    {
+      rval += outLinkSize[i] / 2;
+    }
+    return rval;
+  }
+
+  // Distance maintenance
+
+  /** Start maintaining distances for any of the given link types that are not maintained yet. */
+  protected void maintainLinkTypes(String[] linkTypes)
+    throws ManifoldCFException
+  {
+    for (String linkType : linkTypes)
+    {
+      int type = internLinkType(linkType);
+      if (distances[type] != null)
+        continue;
+      distances[type] = computeDistances(type);
+      if (persisted[type] == null)
+        persisted[type] = newDistanceArray(NOT_WRITTEN);
+      for (int node = targets.nextSetBit(0); node >= 0; node = targets.nextSetBit(node+1))
+      {
+        markDirtyIfChanged(type,node);
+      }
+    }
+  }
+
+  /** Compute the distances for a link type from scratch, by a 0-1 breadth-first search from the root. */
+  protected int[] computeDistances(int type)
+  {
+    int[] d = newDistanceArray(DISTANCE_INFINITY);
+    d[ROOT] = 0;
+    IntDeque queue = new IntDeque();
+    queue.addFirst(ROOT);
+    propagate(type,d,queue,false);
+    return d;
+  }
+
+  /** Relax a newly added link, and propagate any improvement.
+  *@return true if the target's distance went down.
+  */
+  protected boolean relax(int type, int source, int target, int linkType)
+  {
+    int[] d = distances[type];
+    if (d[source] == DISTANCE_INFINITY)
+      return false;
+    int newDistance = d[source] + ((linkType == type)?1:0);
+    if (d[target] != DISTANCE_INFINITY && d[target] <= newDistance)
+      return false;
+    d[target] = newDistance;
+    markDirtyIfChanged(type,target);
+    IntDeque queue = new IntDeque();
+    queue.addFirst(target);
+    propagate(type,d,queue,true);
+    return true;
+  }
+
+  /** Run the 0-1 breadth-first search from whatever is queued. */
+  protected void propagate(int type, int[] d, IntDeque queue, boolean markChanges)
+  {
+    while (!queue.isEmpty())
+    {
+      int node = queue.removeFirst();
+      int[] links = outLinks[node];
+      int size = outLinkSize[node];
+      for (int j = 0; j < size; j += 2)
+      {
+        int target = links[j];
+        boolean counts = (links[j+1] == type);
+        int newDistance = d[node] + (counts?1:0);
+        if (d[target] == DISTANCE_INFINITY || newDistance < d[target])
+        {
+          d[target] = newDistance;
+          if (markChanges)
+            markDirtyIfChanged(type,target);
+          if (counts)
+            queue.addLast(target);
+          else
+            queue.addFirst(target);
+        }
+      }
+    }
+  }
+
+  /** Check whether a link lies on a shortest path for a maintained link type. */
+  protected boolean isShortestPathLink(int type, int source, int target, int linkType)
+  {
+    int[] d = distances[type];
+    if (d == null || d[source] == DISTANCE_INFINITY)
+      return false;
+    return d[target] == d[source] + ((linkType == type)?1:0);
+  }
+
+  /** Note that a link is about to be removed, flagging the link types whose distances it may support. */
+  protected void noteRemoval(boolean[] recompute, int source, int target, int linkType)
+  {
+    for (int type = 0; type < linkTypeCount; type++)
+    {
+      if (!recompute[type] && isShortestPathLink(type,source,target,linkType))
+        recompute[type] = true;
+    }
+  }
+
+  /** Recompute the flagged link types, and note the distances that changed. */
+  protected void recomputeLinkTypes(boolean[] recompute)
+  {
+    for (int type = 0; type < recompute.length; type++)
+    {
+      if (!recompute[type])
+        continue;
+      distances[type] = computeDistances(type);
+      for (int node = targets.nextSetBit(0); node >= 0; node = targets.nextSetBit(node+1))
+      {
+        markDirtyIfChanged(type,node);
+      }
+    }
+  }
+
+  /** Bring a node's dirty flag for a link type up to date. */
+  protected void markDirtyIfChanged(int type, int node)
+  {
+    if (!targets.get(node))
+      return;
+    BitSet bits = dirty[type];
+    if (bits == null)
+    {
+      bits = new BitSet();
+      dirty[type] = bits;
+    }
+    boolean changed = (distances[type][node] != persisted[type][node]);
+    if (changed != bits.get(node))
+    {
+      bits.set(node,changed);
+      dirtyCount += changed?1:-1;
+    }
+  }
+
+  protected int[] newDistanceArray(int fillValue)
+  {
+    int[] rval = new int[nodeNames.length];
+    Arrays.fill(rval,fillValue);
+    return rval;
+  }
+
+  // Link types
+
+  protected int internLinkType(String linkType)
+    throws ManifoldCFException
+  {
+    if (linkType == null)
+      linkType = "";
+    Integer existing = linkTypeMap.get(linkType);
+    if (existing != null)
+      return existing.intValue();
+    if (linkTypeCount == MAX_LINK_TYPES)
+      throw new ManifoldCFException("Job "+jobID+" has more than "+MAX_LINK_TYPES+" link types; in-memory hopcount cannot be used");
+    int type = linkTypeCount++;
+    linkTypeNames[type] = linkType;
+    linkTypeMap.put(linkType,new Integer(type));
+    return type;
+  }
+
+  // Nodes
+
+  protected static int hashString(String value)
+  {
+    int h = value.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /** Find a node, returning -1 if it is not known. */
+  protected int lookupNode(String documentIDHash)
+  {
+    if (documentIDHash == null)
+      documentIDHash = "";
+    int mask = internTable.length - 1;
+    int slot = hashString(documentIDHash) & mask;
+    while (true)
+    {
+      int value = internTable[slot];
+      if (value == 0)
+        return -1;
+      if (nodeNames[value-1].equals(documentIDHash))
+        return value-1;
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /** Find a node, creating it if it is not known. */
+  protected int internNode(String documentIDHash)
+  {
+    if (documentIDHash == null)
+      documentIDHash = "";
+    int mask = internTable.length - 1;
+    int slot = hashString(documentIDHash) & mask;
+    while (true)
+    {
+      int value = internTable[slot];
+      if (value == 0)
+        break;
+      if (nodeNames[value-1].equals(documentIDHash))
+        return value-1;
+      slot = (slot + 1) & mask;
+    }
+    if (nodeCount == nodeNames.length)
+    {
+      growNodes();
+      return internNode(documentIDHash);
+    }
+    int node = nodeCount++;
+    nodeNames[node] = documentIDHash;
+    internTable[slot] = node + 1;
+    return node;
+  }
+
+  /** Double the space for nodes, and rebuild the intern table. */
+  protected void growNodes()
+  {
+    int newCapacity = nodeNames.length * 2;
+    nodeNames = Arrays.copyOf(nodeNames,newCapacity);
+    outLinks = Arrays.copyOf(outLinks,newCapacity);
+    outLinkSize = Arrays.copyOf(outLinkSize,newCapacity);
+    for (int type = 0; type < linkTypeCount; type++)
+    {
+      if (distances[type] != null)
+        distances[type] = growDistances(distances[type],newCapacity,DISTANCE_INFINITY);
+      if (persisted[type] != null)
+        persisted[type] = growDistances(persisted[type],newCapacity,NOT_WRITTEN);
+    }
+    internTable = new int[newCapacity * 2];
+    int mask = internTable.length - 1;
+    for (int node = 0; node < nodeCount; node++)
+    {
+      int slot = hashString(nodeNames[node]) & mask;
+      while (internTable[slot] != 0)
+      {
+        slot = (slot + 1) & mask;
+      }
+      internTable[slot] = node + 1;
+    }
+  }
+
+  protected static int[] growDistances(int[] values, int newCapacity, int fillValue)
+  {
+    int oldCapacity = values.length;
+    int[] rval = Arrays.copyOf(values,newCapacity);
+    Arrays.fill(rval,oldCapacity,newCapacity,fillValue);
+    return rval;
+  }
+
+  // Links
+
+  protected static long linkKey(int source, int target)
+  {
+    return (((long)source) << 32) | (((long)target) & 0xffffffffL);
+  }
+
+  protected static int hashLink(long key)
+  {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int)(h ^ (h >>> 32));
+  }
+
+  /** Find the slot of a link in the link table, or -1. */
+  protected int findLinkSlot(int source, int target)
+  {
+    long key = linkKey(source,target);
+    int mask = linkKeys.length - 1;
+    int slot = hashLink(key) & mask;
+    while (true)
+    {
+      long k = linkKeys[slot];
+      if (k == EMPTY_KEY)
+        return -1;
+      if (k == key)
+        return slot;
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /** Add a link, or mark it as seen if requested.
+  *@return true if the link was not there before.
+  */
+  protected boolean addLink(int source, int target, int type, boolean seenThisPass)
+  {
+    long bit = 1L << type;
+    int slot = findLinkSlot(source,target);
+    if (slot == -1)
+    {
+      if ((linkCount + 1) * 2 > linkKeys.length)
+        growLinks();
+      long key = linkKey(source,target);
+      int mask = linkKeys.length - 1;
+      slot = hashLink(key) & mask;
+      while (linkKeys[slot] != EMPTY_KEY)
+      {
+        slot = (slot + 1) & mask;
+      }
+      linkKeys[slot] = key;
+      linkTypeMasks[slot] = 0L;
+      linkPassMasks[slot] = 0L;
+      linkAddedMasks[slot] = 0L;
+      linkImprovedMasks[slot] = 0L;
+      linkCount++;
+    }
+    if (seenThisPass)
+      linkPassMasks[slot] |= bit;
+    if ((linkTypeMasks[slot] & bit) != 0L)
+      return false;
+    linkTypeMasks[slot] |= bit;
+    int[] links = outLinks[source];
+    int size = outLinkSize[source];
+    if (links == null)
+    {
+      links = new int[4];
+      outLinks[source] = links;
+    }
+    else if (size == links.length)
+    {
+      links = Arrays.copyOf(links,size * 2);
+      outLinks[source] = links;
+    }
+    links[size] = target;
+    links[size+1] = type;
+    outLinkSize[source] = size + 2;
+    return true;
+  }
+
+  /** Remove one link type from a link table entry, removing the entry if nothing is left.  The caller
+  * is responsible for the outgoing link list. */
+  protected void removeLinkType(int slot, long bit)
+  {
+    linkTypeMasks[slot] &= ~bit;
+    linkPassMasks[slot] &= ~bit;
+    linkAddedMasks[slot] &= ~bit;
+    linkImprovedMasks[slot] &= ~bit;
+    if (linkTypeMasks[slot] != 0L)
+      return;
+    // Backward-shift deletion, so that lookups never need tombstones
+    int mask = linkKeys.length - 1;
+    int hole = slot;
+    int j = slot;
+    while (true)
+    {
+      j = (j + 1) & mask;
+      long k = linkKeys[j];
+      if (k == EMPTY_KEY)
+        break;
+      int home = hashLink(k) & mask;
+      boolean stays = (hole <= j)?(hole < home && home <= j):(hole < home || home <= j);
+      if (stays)
+        continue;
+      linkKeys[hole] = k;
+      linkTypeMasks[hole] = linkTypeMasks[j];
+      linkPassMasks[hole] = linkPassMasks[j];
+      linkAddedMasks[hole] = linkAddedMasks[j];
+      linkImprovedMasks[hole] = linkImprovedMasks[j];
+      hole = j;
+    }
+    linkKeys[hole] = EMPTY_KEY;
+    linkTypeMasks[hole] = 0L;
+    linkPassMasks[hole] = 0L;
+    linkAddedMasks[hole] = 0L;
+    linkImprovedMasks[hole] = 0L;
+    linkCount--;
+  }
+
+  protected void growLinks()
+  {
+    long[] oldKeys = linkKeys;
+    long[] oldTypeMasks = linkTypeMasks;
+    long[] oldPassMasks = linkPassMasks;
+    long[] oldAddedMasks = linkAddedMasks;
+    long[] oldImprovedMasks = linkImprovedMasks;
+    int newCapacity = oldKeys.length * 2;
+    linkKeys = new long[newCapacity];
+    Arrays.fill(linkKeys,EMPTY_KEY);
+    linkTypeMasks = new long[newCapacity];
+    linkPassMasks = new long[newCapacity];
+    linkAddedMasks = new long[newCapacity];
+    linkImprovedMasks = new long[newCapacity];
+    int mask = newCapacity - 1;
+    for (int i = 0; i < oldKeys.length; i++)
+    {
+      long k = oldKeys[i];
+      if (k == EMPTY_KEY)
+        continue;
+      int slot = hashLink(k) & mask;
+      while (linkKeys[slot] != EMPTY_KEY)
+      {
+        slot = (slot + 1) & mask;
+      }
+      linkKeys[slot] = k;
+      linkTypeMasks[slot] = oldTypeMasks[i];
+      linkPassMasks[slot] = oldPassMasks[i];
+      linkAddedMasks[slot] = oldAddedMasks[i];
+      linkImprovedMasks[slot] = oldImprovedMasks[i];
+    }
+  }
+
+  /** A distance that needs writing to the hopcount table.
+  */
+  public static class DistanceChange
+  {
+    protected final String documentIDHash;
+    protected final String linkType;
+    protected final int distance;
+    protected final boolean isNew;
+
+    public DistanceChange(String documentIDHash, String linkType, int distance, boolean isNew)
+    {
+      this.documentIDHash = documentIDHash;
+      this.linkType = linkType;
+      this.distance = distance;
+      this.isNew = isNew;
+    }
+
+    public String getDocumentIDHash()
+    {
+      return documentIDHash;
+    }
+
+    public String getLinkType()
+    {
+      return linkType;
+    }
+
+    public int getDistance()
+    {
+      return distance;
+    }
+
+    /** True if there is no hopcount row yet. */
+    public boolean isNew()
+    {
+      return isNew;
+    }
+  }
+
+  /** A growable double-ended queue of ints. */
+  protected static class IntDeque
+  {
+    protected int[] values = new int[64];
+    protected int head = 0;
+    protected int size = 0;
+
+    public boolean isEmpty()
+    {
+      return size == 0;
+    }
+
+    public void addFirst(int value)
+    {
+      ensureSpace();
+      head = (head - 1) & (values.length - 1);
+      values[head] = value;
+      size++;
+    }
+
+    public void addLast(int value)
+    {
+      ensureSpace();
+      values[(head + size) & (values.length - 1)] = value;
+      size++;
+    }
+
+    public int removeFirst()
+    {
+      int value = values[head];
+      head = (head + 1) & (values.length - 1);
+      size--;
+      return value;
+    }
+
+    protected void ensureSpace()
+    {
+      if (size < values.length)
+        return;
+      int[] newValues = new int[values.length * 2];
+      for (int i = 0; i < size; i++)
+      {
+        newValues[i] = values[(head + i) & (values.length - 1)];
+      }
+      values = newValues;
+      head = 0;
+    }
+  }
+
+}
@@ -227,7 +227,33 @@ public class HopDeleteDeps extends org.apache.manifoldcf.core.database.BaseTable
   public void writeDependency(Long ownerID, Long jobID, DeleteDependency dd)
     throws ManifoldCFException
   {
-    HashMap map = new HashMap();
+    performInsert(buildDependencyMap(ownerID,jobID,dd),null);
+    noteModifications(1,0,0);
+  }
+
+  /** Write many delete dependencies in one batch.
+  *@param ownerIDs are the owning hopcount row ids.
+  *@param jobID is the job.
+  *@param dds are the dependencies, one per owner id.
+  */
+  public void writeDependencies(List<Long> ownerIDs, Long jobID, List<DeleteDependency> dds)
+    throws ManifoldCFException
+  {
+    if (dds.size() == 0)
+      return;
+    List<Map<String,Object>> maps = new ArrayList<Map<String,Object>>(dds.size());
+    for (int i = 0; i < dds.size(); i++)
+    {
+      maps.add(buildDependencyMap(ownerIDs.get(i),jobID,dds.get(i)));
+    }
+    performInsertBatch(maps,null);
+    noteModifications(dds.size(),0,0);
+  }
+
+  /** Build the row for a delete dependency. */
+  protected Map<String,Object> buildDependencyMap(Long ownerID, Long jobID, DeleteDependency dd)
+  {
+    Map<String,Object> map = new HashMap<String,Object>();
     map.put(jobIDField,jobID);
     map.put(ownerIDField,ownerID);
     if (dd.getLinkType().length() > 0)
@@ -237,8 +263,7 @@ public class HopDeleteDeps extends org.apache.manifoldcf.core.database.BaseTable
     {
       map.put(childIDHashField,dd.getChildIDHash());
     }
-    performInsert(map,null);
-    noteModifications(1,0,0);
+    return map;
   }
 
 }
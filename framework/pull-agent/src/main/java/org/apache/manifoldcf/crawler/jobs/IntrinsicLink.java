@@ -263,7 +263,11 @@ public class IntrinsicLink extends org.apache.manifoldcf.core.database.BaseTable
     }
     String[] newReferences = new String[count];
     int j = 0;
-    // Note: May be able to make this more efficient if we update things in batches...
+    // Collect the inserts and the updates, and then write each kind in a batch
+    List<Map<String,Object>> insertMaps = new ArrayList<Map<String,Object>>();
+    List<Map<String,Object>> updateMaps = new ArrayList<Map<String,Object>>();
+    List<List> updateLists = new ArrayList<List>();
+    String updateQuery = null;
     iter = duplicateRemoval.iterator();
     while (iter.hasNext())
     {
@@ -272,31 +276,41 @@ public class IntrinsicLink extends org.apache.manifoldcf.core.database.BaseTable
       if (!presentMap.contains(targetDocumentIDHash))
       {
         newReferences[j++] = targetDocumentIDHash;
-        HashMap map = new HashMap();
+        Map<String,Object> map = new HashMap<String,Object>();
         map.put(jobIDField,jobID);
         map.put(parentIDHashField,targetDocumentIDHash);
         map.put(childIDHashField,sourceDocumentIDHash);
         map.put(linkTypeField,linkType);
         map.put(newField,statusToString(LINKSTATUS_NEW));
         map.put(processIDField,processID);
-        performInsert(map,null);
-        noteModifications(1,0,0);
+        insertMaps.add(map);
       }
       else
       {
-        HashMap map = new HashMap();
+        Map<String,Object> map = new HashMap<String,Object>();
         map.put(newField,statusToString(LINKSTATUS_EXISTING));
         map.put(processIDField,processID);
         ArrayList updateList = new ArrayList();
-        String query = buildConjunctionClause(updateList,new ClauseDescription[]{
+        // The query is the same for every row; only the parameters differ
+        updateQuery = buildConjunctionClause(updateList,new ClauseDescription[]{
           new UnitaryClause(jobIDField,jobID),
           new UnitaryClause(parentIDHashField,targetDocumentIDHash),
           new UnitaryClause(linkTypeField,linkType),
           new UnitaryClause(childIDHashField,sourceDocumentIDHash)});
-        performUpdate(map,"WHERE "+query,updateList,null);
-        noteModifications(0,1,0);
+        updateMaps.add(map);
+        updateLists.add(updateList);
       }
     }
+    if (insertMaps.size() > 0)
+    {
+      performInsertBatch(insertMaps,null);
+      noteModifications(insertMaps.size(),0,0);
+    }
+    if (updateMaps.size() > 0)
+    {
+      performUpdateBatch(updateMaps,"WHERE "+updateQuery,updateLists,null);
+      noteModifications(0,updateMaps.size(),0);
+    }
     return newReferences;
   }
 
@@ -582,6 +596,19 @@ public class IntrinsicLink extends org.apache.manifoldcf.core.database.BaseTable
       getTableName()+" WHERE "+query,list,null,null);
   }
 
+  /** Get every link belonging to a job.
+  *@return rows with the columns 'childidhash', 'parentidhash', 'linktype' and 'isnew'.
+  */
+  public IResultSet getJobLinks(Long jobID)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID)});
+    return performQuery("SELECT "+childIDHashField+","+parentIDHashField+","+linkTypeField+","+newField+" FROM "+
+      getTableName()+" WHERE "+query,list,null,null);
+  }
+
   /** Get document's parents.
   *@return a set of document identifier hashes that constitute parents of the specified identifier.
   */
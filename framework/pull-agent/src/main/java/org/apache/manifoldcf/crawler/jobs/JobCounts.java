@@ -0,0 +1,165 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import java.util.*;
+
+/** This class manages the "jobcounts" table, which holds the most recent document counts for each job.
+* Status reports read these instead of counting the jobqueue table, which is expensive when the queue is
+* large.  The whole table is rewritten each time the counts are taken; the time they were taken is kept
+* by the caller, in shared data.  There is no reference to the jobs table, since rows for deleted jobs are
+* harmless and disappear at the next recount.
+*
+* <br><br>
+* <b>jobcounts</b>
+* <table border="1" cellpadding="3" cellspacing="0">
+* <tr class="TableHeadingColor">
+* <th>Field</th><th>Type</th><th>Description&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;</th>
+* <tr><td>jobid</td><td>BIGINT</td><td>Primary Key</td></tr>
+* <tr><td>doccount</td><td>BIGINT</td><td>Documents in the queue</td></tr>
+* <tr><td>outstandingcount</td><td>BIGINT</td><td>Documents still to be processed</td></tr>
+* <tr><td>processedcount</td><td>BIGINT</td><td>Documents processed</td></tr>
+* </table>
+* <br><br>
+*
+*/
+public class JobCounts extends org.apache.manifoldcf.core.database.BaseTable
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  // Schema
+  public final static String jobIDField = "jobid";
+  public final static String docCountField = "doccount";
+  public final static String outstandingCountField = "outstandingcount";
+  public final static String processedCountField = "processedcount";
+
+  /** Constructor.
+  *@param database is the database instance.
+  */
+  public JobCounts(IDBInterface database)
+    throws ManifoldCFException
+  {
+    super(database,"jobcounts");
+  }
+
+  /** Install or upgrade.
+  */
+  public void install()
+    throws ManifoldCFException
+  {
+    // Standard practice: outer loop
+    while (true)
+    {
+      Map existing = getTableSchema(null,null);
+      if (existing == null)
+      {
+        HashMap map = new HashMap();
+        map.put(jobIDField,new ColumnDescription("BIGINT",true,false,null,null,false));
+        map.put(docCountField,new ColumnDescription("BIGINT",false,false,null,null,false));
+        map.put(outstandingCountField,new ColumnDescription("BIGINT",false,false,null,null,false));
+        map.put(processedCountField,new ColumnDescription("BIGINT",false,false,null,null,false));
+        performCreate(map,null);
+      }
+      else
+      {
+        // Upgrade code goes here, as needed
+      }
+      break;
+    }
+  }
+
+  /** Uninstall.
+  */
+  public void deinstall()
+    throws ManifoldCFException
+  {
+    performDrop(null);
+  }
+
+  /** Read the counts for all jobs.
+  *@param docCounts is filled in with the number of documents in the queue, keyed by job.
+  *@param outstandingCounts is filled in with the number of outstanding documents, keyed by job.
+  *@param processedCounts is filled in with the number of processed documents, keyed by job.
+  */
+  public void readCounts(Map<Long,Long> docCounts, Map<Long,Long> outstandingCounts, Map<Long,Long> processedCounts)
+    throws ManifoldCFException
+  {
+    IResultSet set = performQuery("SELECT "+jobIDField+","+docCountField+","+outstandingCountField+","+processedCountField+
+      " FROM "+getTableName(),null,null,null);
+    for (int i = 0; i < set.getRowCount(); i++)
+    {
+      IResultRow row = set.getRow(i);
+      Long jobID = (Long)row.getValue(jobIDField);
+      docCounts.put(jobID,(Long)row.getValue(docCountField));
+      outstandingCounts.put(jobID,(Long)row.getValue(outstandingCountField));
+      processedCounts.put(jobID,(Long)row.getValue(processedCountField));
+    }
+  }
+
+  /** Replace all counts.
+  *@param docCounts is the number of documents in the queue, keyed by job.  Jobs not present have no documents.
+  *@param outstandingCounts is the number of outstanding documents, keyed by job.
+  *@param processedCounts is the number of processed documents, keyed by job.
+  */
+  public void writeCounts(Map<Long,Long> docCounts, Map<Long,Long> outstandingCounts, Map<Long,Long> processedCounts)
+    throws ManifoldCFException
+  {
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(docCounts.size());
+    for (Map.Entry<Long,Long> entry : docCounts.entrySet())
+    {
+      Long jobID = entry.getKey();
+      Map<String,Object> row = new HashMap<String,Object>();
+      row.put(jobIDField,jobID);
+      row.put(docCountField,entry.getValue());
+      row.put(outstandingCountField,countOrZero(outstandingCounts,jobID));
+      row.put(processedCountField,countOrZero(processedCounts,jobID));
+      rows.add(row);
+    }
+    beginTransaction();
+    try
+    {
+      performDelete("",null,null);
+      if (rows.size() > 0)
+        performInsertBatch(rows,null);
+    }
+    catch (ManifoldCFException e)
+    {
+      signalRollback();
+      throw e;
+    }
+    catch (Error e)
+    {
+      signalRollback();
+      throw e;
+    }
+    finally
+    {
+      endTransaction();
+    }
+  }
+
+  protected static Long countOrZero(Map<Long,Long> counts, Long jobID)
+  {
+    Long rval = counts.get(jobID);
+    return (rval == null)?new Long(0L):rval;
+  }
+
+}
@@ -23,6 +23,7 @@ import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
 import java.util.*;
 import java.util.regex.*;
+import java.nio.charset.StandardCharsets;
 import org.apache.manifoldcf.crawler.system.Logging;
 import org.apache.manifoldcf.crawler.system.ManifoldCF;
 
@@ -40,6 +41,12 @@ public class JobManager implements IJobManager
   protected static final String jobStopLock = "_JOBSTOP_";
   protected static final String jobResumeLock = "_JOBRESUME_";
   protected static final String hopLock = "_HOPLOCK_";
+  protected static final String jobCountsLock = "_JOBCOUNTS_";
+  protected static final String jobCountsTimeResource = "_JOBCOUNTS_TIME_";
+
+  /** Property giving the greatest age, in milliseconds, of document counts in status reports.  If 0, counts are
+  * always taken from the jobqueue table. */
+  public static final String jobCountMaxAgeProperty = "org.apache.manifoldcf.crawler.jobstatus.countmaxage";
 
   // Member variables
   protected final IDBInterface database;
@@ -60,7 +67,10 @@ public class JobManager implements IJobManager
   protected final HopCount hopCount;
   protected final Carrydown carryDown;
   protected final EventManager eventManager;
+  protected final JobCounts jobCounts;
 
+  /** Greatest age of the document counts used in status reports, or 0 to count every time */
+  protected final long jobCountMaxAge;
 
   protected static Random random = new Random();
 
@@ -78,6 +88,7 @@ public class JobManager implements IJobManager
     hopCount = new HopCount(threadContext,database);
     carryDown = new Carrydown(database);
     eventManager = new EventManager(database);
+    jobCounts = new JobCounts(database);
     outputMgr = OutputConnectionManagerFactory.make(threadContext);
     connectionMgr = RepositoryConnectionManagerFactory.make(threadContext);
     notificationMgr = NotificationConnectionManagerFactory.make(threadContext);
@@ -87,6 +98,7 @@ public class JobManager implements IJobManager
     transformationConnectorMgr = TransformationConnectorManagerFactory.make(threadContext);
     repositoryConnectorPool = RepositoryConnectorPoolFactory.make(threadContext);
     lockManager = LockManagerFactory.make(threadContext);
+    jobCountMaxAge = LockManagerFactory.getLongProperty(threadContext,jobCountMaxAgeProperty,0L);
   }
 
   /** Install.
@@ -103,6 +115,7 @@ public class JobManager implements IJobManager
     hopCount.install(jobs.getTableName(),jobs.idField);
     carryDown.install(jobs.getTableName(),jobs.idField);
     eventManager.install();
+    jobCounts.install();
   }
 
   /** Uninstall.
@@ -111,6 +124,7 @@ public class JobManager implements IJobManager
   public void deinstall()
     throws ManifoldCFException
   {
+    jobCounts.deinstall();
     eventManager.deinstall();
     carryDown.deinstall();
     hopCount.deinstall();
@@ -2655,6 +2669,30 @@ public class JobManager implements IJobManager
     BlockingDocuments blockingDocuments, PerformanceStatistics statistics,
     DepthStatistics scanRecord)
     throws ManifoldCFException
+  {
+    return getNextDocuments(processID,n,currentTime,interval,blockingDocuments,statistics,scanRecord,null);
+  }
+
+  /** Get up to the next n documents to be fetched and processed, restricted to a shard of the job queue.
+  *@param processID is the current process ID.
+  *@param n is the maximum number of records desired.
+  *@param currentTime is the current time; some fetches do not occur until a specific time.
+  *@param interval is the number of milliseconds that this set of documents should represent (for throttling).
+  *@param blockingDocuments is the place to record documents that were encountered, are eligible for reprioritization,
+  *  but could not be queued due to throttling considerations.
+  *@param statistics are the current performance statistics per connection, which are used to balance the queue stuffing
+  *  so that individual connections are not overwhelmed.
+  *@param scanRecord retains the bins from all documents encountered from the query, even those that were skipped due
+  * to being overcommitted.
+  *@param shard is the shard to claim from, or null to claim from the whole job queue.
+  *@return the array of document descriptions to fetch and process.
+  */
+  @Override
+  public DocumentDescription[] getNextDocuments(String processID,
+    int n, long currentTime, long interval,
+    BlockingDocuments blockingDocuments, PerformanceStatistics statistics,
+    DepthStatistics scanRecord, StufferShard shard)
+    throws ManifoldCFException
   {
     // NOTE WELL: Jobs that are throttled must control the number of documents that are fetched in
     // a given interval.  Therefore, the returned result has the following constraints on it:
@@ -2673,6 +2711,10 @@ public class JobManager implements IJobManager
     if (!jobs.activeJobsPresent())
       return new DocumentDescription[0];
 
+    // More stuffers than buckets; this one has nothing to do
+    if (shard != null && shard.isEmpty())
+      return new DocumentDescription[0];
+
     long startTime = 0L;
     if (Logging.perf.isDebugEnabled())
     {
@@ -2850,7 +2892,7 @@ public class JobManager implements IJobManager
       if (jobs.hasPriorityJobs(currentPriority))
       {
         Long currentPriorityValue = new Long((long)currentPriority);
-        fetchAndProcessDocuments(answers,currentTimeValue,currentPriorityValue,vList,connections,processID);
+        fetchAndProcessDocuments(answers,currentTimeValue,currentPriorityValue,vList,connections,processID,shard);
         isDone = !vList.checkContinue();
       }
       currentPriority++;
@@ -2959,7 +3001,7 @@ public class JobManager implements IJobManager
 
   /** Fetch and process documents matching the passed-in criteria */
   protected void fetchAndProcessDocuments(ArrayList answers, Long currentTimeValue, Long currentPriorityValue,
-    ThrottleLimit vList, IRepositoryConnection[] connections, String processID)
+    ThrottleLimit vList, IRepositoryConnection[] connections, String processID, StufferShard shard)
     throws ManifoldCFException
   {
 
@@ -2988,6 +3030,21 @@ public class JobManager implements IJobManager
         jobQueue.statusToString(JobQueue.STATUS_PENDINGPURGATORY)}),
       new UnitaryClause("t0."+jobQueue.checkActionField,"=",jobQueue.actionToString(JobQueue.ACTION_RESCAN)),
       new UnitaryClause("t0."+jobQueue.checkTimeField,"<=",currentTimeValue)})).append(" AND ");
+
+    // In sharded mode, only look at our own range of document hashes
+    String[] bucketLockNames = null;
+    if (shard != null)
+    {
+      String lowerHashBound = shard.getLowerHashBound();
+      if (lowerHashBound != null)
+        sb.append(database.buildConjunctionClause(list,new ClauseDescription[]{
+          new UnitaryClause("t0."+jobQueue.docHashField,">=",lowerHashBound)})).append(" AND ");
+      String upperHashBound = shard.getUpperHashBound();
+      if (upperHashBound != null)
+        sb.append(database.buildConjunctionClause(list,new ClauseDescription[]{
+          new UnitaryClause("t0."+jobQueue.docHashField,"<",upperHashBound)})).append(" AND ");
+      bucketLockNames = shard.getBucketLockNames(stufferLock);
+    }
         
     sb.append("EXISTS(SELECT 'x' FROM ").append(jobs.getTableName()).append(" t1 WHERE ")
       .append(database.buildConjunctionClause(list,new ClauseDescription[]{
@@ -3047,7 +3104,12 @@ public class JobManager implements IJobManager
       long sleepAmt = 0L;
 
       // Write lock insures that only one thread cluster-wide can be doing this at a given time, so FOR UPDATE is unneeded.
-      lockManager.enterWriteLock(stufferLock);
+      // In sharded mode, the same goes for each bucket.  The non-exclusive lock on the stuffer lock lets shards run alongside
+      // each other, but not alongside an unsharded stuffer.
+      if (bucketLockNames == null)
+        lockManager.enterWriteLock(stufferLock);
+      else
+        lockManager.enterLocks(null,new String[]{stufferLock},bucketLockNames);
       try
       {
     
@@ -3123,18 +3185,36 @@ public class JobManager implements IJobManager
             // No duplicates are possible here
             java.util.Arrays.sort(docIDHashes);
 
+            // Where the database can do it, mark everything active in one statement per status,
+            // skipping rows locked elsewhere.  Throttling has already been applied to the selection above.
+            Long[] ids = new Long[docIDHashes.length];
+            int[] statuses = new int[docIDHashes.length];
+            i = 0;
+            while (i < docIDHashes.length)
+            {
+              String docIDHash = docIDHashes[i];
+              ids[i] = storageMap.get(docIDHash).getID();
+              statuses[i] = statusMap.get(docIDHash).intValue();
+              i++;
+            }
+            Set<Long> claimedIDs = jobQueue.updateActiveRecords(ids,statuses,processID);
+
             i = 0;
             while (i < docIDHashes.length)
             {
               String docIDHash = docIDHashes[i];
               DocumentDescription dd = (DocumentDescription)storageMap.get(docIDHash);
               Long id = dd.getID();
-              int status = ((Integer)statusMap.get(docIDHash)).intValue();
 
-              // Set status to "ACTIVE".
-              jobQueue.updateActiveRecord(id,status,processID);
-
-              answers.add(dd);
+              if (claimedIDs == null)
+              {
+                // Set status to "ACTIVE".
+                int status = ((Integer)statusMap.get(docIDHash)).intValue();
+                jobQueue.updateActiveRecord(id,status,processID);
+                answers.add(dd);
+              }
+              else if (claimedIDs.contains(id))
+                answers.add(dd);
 
               i++;
             }
@@ -3172,7 +3252,10 @@ public class JobManager implements IJobManager
       }
       finally
       {
-        lockManager.leaveWriteLock(stufferLock);
+        if (bucketLockNames == null)
+          lockManager.leaveWriteLock(stufferLock);
+        else
+          lockManager.leaveLocks(null,new String[]{stufferLock},bucketLockNames);
         sleepFor(sleepAmt);
       }
     }
@@ -3633,6 +3716,7 @@ public class JobManager implements IJobManager
           hopCount.deleteDocumentIdentifiers(jobID,legalLinkTypes,docIDSimpleHashes,hopcountMethod);
 
         database.performCommit();
+        hopCount.noteTransactionCommitted();
         
         if (Logging.perf.isDebugEnabled())
           Logging.perf.debug("Took "+new Long(System.currentTimeMillis()-startTime).toString()+" ms to delete "+Integer.toString(docIDHashes.length)+
@@ -3659,6 +3743,7 @@ public class JobManager implements IJobManager
       }
       finally
       {
+        hopCount.releaseGraphs();
         database.endTransaction();
         sleepFor(sleepAmt);
       }
@@ -4631,6 +4716,7 @@ public class JobManager implements IJobManager
 
         TrackerClass.notePrecommit();
         database.performCommit();
+        hopCount.noteTransactionCommitted();
         TrackerClass.noteCommit();
         
         if (Logging.perf.isDebugEnabled())
@@ -4661,6 +4747,7 @@ public class JobManager implements IJobManager
       }
       finally
       {
+        hopCount.releaseGraphs();
         database.endTransaction();
         sleepFor(sleepAmt);
       }
@@ -4712,6 +4799,7 @@ public class JobManager implements IJobManager
           hopCount.recordSeedReferences(jobID,legalLinkTypes,reorderedDocIDHashes,hopcountMethod,processID);
 
         database.performCommit();
+        hopCount.noteTransactionCommitted();
         
         if (Logging.perf.isDebugEnabled())
           Logging.perf.debug("Took "+new Long(System.currentTimeMillis()-startTime).toString()+" ms to add "+Integer.toString(reorderedDocIDHashes.length)+
@@ -4738,6 +4826,7 @@ public class JobManager implements IJobManager
       }
       finally
       {
+        hopCount.releaseGraphs();
         database.endTransaction();
         sleepFor(sleepAmt);
       }
@@ -4787,6 +4876,7 @@ public class JobManager implements IJobManager
           hopCount.finishSeedReferences(jobID,legalLinkTypes,hopcountMethod);
 
         database.performCommit();
+        hopCount.noteTransactionCommitted();
         
         if (Logging.perf.isDebugEnabled())
           Logging.perf.debug("Took "+new Long(System.currentTimeMillis()-startTime).toString()+
@@ -4812,6 +4902,7 @@ public class JobManager implements IJobManager
       }
       finally
       {
+        hopCount.releaseGraphs();
         database.endTransaction();
         sleepFor(sleepAmt);
       }
@@ -4948,12 +5039,14 @@ public class JobManager implements IJobManager
             // Sleep a little bit so another thread can have a whack at things
             sleepAmt = 100L;
             database.performCommit();
+            hopCount.noteTransactionCommitted();
             continue;
           }
 
           // Definitive answers found; continue through.
           distances = hopCount.findHopCounts(jobID,askDocIDHashes,linkType);
           database.performCommit();
+          hopCount.noteTransactionCommitted();
         }
         catch (ManifoldCFException e)
         {
@@ -4974,6 +5067,7 @@ public class JobManager implements IJobManager
         }
         finally
         {
+          hopCount.releaseGraphs();
           database.endTransaction();
         }
       }
@@ -5256,6 +5350,7 @@ public class JobManager implements IJobManager
 
         TrackerClass.notePrecommit();
         database.performCommit();
+        hopCount.noteTransactionCommitted();
         TrackerClass.noteCommit();
         
         if (Logging.perf.isDebugEnabled())
@@ -5292,6 +5387,7 @@ public class JobManager implements IJobManager
       }
       finally
       {
+        hopCount.releaseGraphs();
         database.endTransaction();
         sleepFor(sleepAmt);
       }
@@ -5389,6 +5485,7 @@ public class JobManager implements IJobManager
           carryDown.revertRecords(jobID,parentIdentifierHashes);
           hopCount.revertParents(jobID,parentIdentifierHashes);
           database.performCommit();
+          hopCount.noteTransactionCommitted();
           break;
         }
         catch (Error e)
@@ -5403,6 +5500,7 @@ public class JobManager implements IJobManager
         }
         finally
         {
+          hopCount.releaseGraphs();
           database.endTransaction();
           sleepFor(sleepAmt);
         }
@@ -5502,6 +5600,7 @@ public class JobManager implements IJobManager
 
           hopCount.finishParents(jobID,legalLinkTypes,parentIdentifierHashes,hopcountMethod);
           database.performCommit();
+          hopCount.noteTransactionCommitted();
           
           if (Logging.perf.isDebugEnabled())
             Logging.perf.debug("Took "+new Long(System.currentTimeMillis()-startTime).toString()+" ms to finish "+
@@ -5533,6 +5632,7 @@ public class JobManager implements IJobManager
         }
         finally
         {
+          hopCount.releaseGraphs();
           database.endTransaction();
           sleepFor(sleepAmt);
         }
@@ -6696,6 +6796,7 @@ public class JobManager implements IJobManager
         jobQueue.prepareFullScan(jobID);
         TrackerClass.notePrecommit();
         database.performCommit();
+        hopCount.noteTransactionCommitted();
         TrackerClass.noteCommit();
         break;
       }
@@ -6720,6 +6821,7 @@ public class JobManager implements IJobManager
       }
       finally
       {
+        hopCount.releaseGraphs();
         database.endTransaction();
         sleepFor(sleepAmt);
       }
@@ -7353,6 +7455,7 @@ public class JobManager implements IJobManager
           throw new ManifoldCFException("Unexpected job status: "+Integer.toString(status));
         }
         database.performCommit();
+        hopCount.noteTransactionCommitted();
         return;
       }
       catch (ManifoldCFException e)
@@ -7374,6 +7477,7 @@ public class JobManager implements IJobManager
       }
       finally
       {
+        hopCount.releaseGraphs();
         database.endTransaction();
         sleepFor(sleepAmt);
       }
@@ -8624,35 +8728,8 @@ public class JobManager implements IJobManager
     
     if (includeCounts)
     {
-      // If we are counting all of them anyway, do this via GROUP BY since it will be the fastest.  But
-      // otherwise, fire off an individual query at a time.
-      if (maxCount == Integer.MAX_VALUE)
-      {
-        buildCountsUsingGroupBy(whereClause,whereParams,set2Hash,set3Hash,set4Hash,set2Exact,set3Exact,set4Exact);
-      }
-      else
-      {
-        // Check if the total matching jobqueue rows exceeds the limit.  If not, we can still use the cheaper query.
-        StringBuilder sb = new StringBuilder("SELECT ");
-        ArrayList list = new ArrayList();
-            
-        sb.append(database.constructCountClause("t2.x")).append(" AS doccount")
-          .append(" FROM (SELECT 'x' AS x FROM ").append(jobQueue.getTableName()).append(" t1");
-        addWhereClause(sb,list,whereClause,whereParams,false);
-        sb.append(" ").append(database.constructOffsetLimitClause(0,maxCount+1,false))
-          .append(") t2");
-        IResultSet countResult = database.performQuery(sb.toString(),list,null,null);
-        if (countResult.getRowCount() > 0 && ((Long)countResult.getRow(0).getValue("doccount")).longValue() > maxCount)
-        {
-          // Too many items in queue; do it the hard way
-          buildCountsUsingIndividualQueries(whereClause,whereParams,maxCount,set2Hash,set3Hash,set4Hash,set2Exact,set3Exact,set4Exact);
-        }
-        else
-        {
-          // Cheap way should still work.
-          buildCountsUsingGroupBy(whereClause,whereParams,set2Hash,set3Hash,set4Hash,set2Exact,set3Exact,set4Exact);
-        }
-      }
+      if (jobCountMaxAge == 0L || !buildCountsFromSnapshot(set,maxCount,set2Hash,set3Hash,set4Hash,set2Exact,set3Exact,set4Exact))
+        buildCounts(whereClause,whereParams,maxCount,set2Hash,set3Hash,set4Hash,set2Exact,set3Exact,set4Exact);
     }
     
     JobStatus[] rval = new JobStatus[set.getRowCount()];
@@ -8775,6 +8852,189 @@ public class JobManager implements IJobManager
     return rval;
   }
 
+  /** Count the documents for the jobs matching a where clause, straight from the job queue.
+  */
+  protected void buildCounts(String whereClause, ArrayList whereParams, int maxCount,
+    Map<Long,Long> set2Hash, Map<Long,Long> set3Hash, Map<Long,Long> set4Hash,
+    Map<Long,Boolean> set2Exact, Map<Long,Boolean> set3Exact, Map<Long,Boolean> set4Exact)
+    throws ManifoldCFException
+  {
+    // If we are counting all of them anyway, do this via GROUP BY since it will be the fastest.  But
+    // otherwise, fire off an individual query at a time.
+    if (maxCount == Integer.MAX_VALUE)
+    {
+      buildCountsUsingGroupBy(whereClause,whereParams,set2Hash,set3Hash,set4Hash,set2Exact,set3Exact,set4Exact);
+    }
+    else
+    {
+      // Check if the total matching jobqueue rows exceeds the limit.  If not, we can still use the cheaper query.
+      StringBuilder sb = new StringBuilder("SELECT ");
+      ArrayList list = new ArrayList();
+          
+      sb.append(database.constructCountClause("t2.x")).append(" AS doccount")
+        .append(" FROM (SELECT 'x' AS x FROM ").append(jobQueue.getTableName()).append(" t1");
+      addWhereClause(sb,list,whereClause,whereParams,false);
+      sb.append(" ").append(database.constructOffsetLimitClause(0,maxCount+1,false))
+        .append(") t2");
+      IResultSet countResult = database.performQuery(sb.toString(),list,null,null);
+      if (countResult.getRowCount() > 0 && ((Long)countResult.getRow(0).getValue("doccount")).longValue() > maxCount)
+      {
+        // Too many items in queue; do it the hard way
+        buildCountsUsingIndividualQueries(whereClause,whereParams,maxCount,set2Hash,set3Hash,set4Hash,set2Exact,set3Exact,set4Exact);
+      }
+      else
+      {
+        // Cheap way should still work.
+        buildCountsUsingGroupBy(whereClause,whereParams,set2Hash,set3Hash,set4Hash,set2Exact,set3Exact,set4Exact);
+      }
+    }
+  }
+
+  /** Recount the documents for every job, and save the counts for status reports to use.  This is done
+  * periodically by the crawler agent, but can be forced here if the counts are thought to be wrong.
+  */
+  @Override
+  public void recountJobStatuses()
+    throws ManifoldCFException
+  {
+    lockManager.enterWriteLock(jobCountsLock);
+    try
+    {
+      writeJobCountsSnapshot();
+    }
+    finally
+    {
+      lockManager.leaveWriteLock(jobCountsLock);
+    }
+  }
+
+  /** Recount the documents for every job if the saved counts are older than the configured maximum age,
+  * and no other process is already recounting.  Status reports never recount; the crawler agent calls
+  * this periodically instead.
+  *@return the time, in milliseconds, until the saved counts will next be due for recounting, or -1 if
+  * status reports do not use saved counts.
+  */
+  @Override
+  public long refreshJobStatusCounts()
+    throws ManifoldCFException
+  {
+    if (jobCountMaxAge == 0L)
+      return -1L;
+    long countTime = readJobCountsTime();
+    if (countTime != -1L && System.currentTimeMillis() - countTime < jobCountMaxAge)
+      return countTime + jobCountMaxAge - System.currentTimeMillis();
+    try
+    {
+      lockManager.enterWriteLockNoWait(jobCountsLock);
+    }
+    catch (LockException e)
+    {
+      // Somebody else is recounting
+      return jobCountMaxAge;
+    }
+    try
+    {
+      countTime = readJobCountsTime();
+      if (countTime == -1L || System.currentTimeMillis() - countTime >= jobCountMaxAge)
+        writeJobCountsSnapshot();
+    }
+    finally
+    {
+      lockManager.leaveWriteLock(jobCountsLock);
+    }
+    return jobCountMaxAge;
+  }
+
+  /** Fill in document counts from the saved snapshot.  Jobs the snapshot has no counts for, because they had
+  * no documents when it was taken, are counted from the job queue, so that a newly started job shows its
+  * progress straight away.
+  *@param jobSet is the set of jobs being reported on.
+  *@return false if there is no snapshot yet, so that every count must come from the job queue.
+  */
+  protected boolean buildCountsFromSnapshot(IResultSet jobSet, int maxCount,
+    Map<Long,Long> set2Hash, Map<Long,Long> set3Hash, Map<Long,Long> set4Hash,
+    Map<Long,Boolean> set2Exact, Map<Long,Boolean> set3Exact, Map<Long,Boolean> set4Exact)
+    throws ManifoldCFException
+  {
+    if (readJobCountsTime() == -1L)
+      return false;
+
+    jobCounts.readCounts(set2Hash,set3Hash,set4Hash);
+    capCounts(set2Hash,set2Exact,maxCount);
+    capCounts(set3Hash,set3Exact,maxCount);
+    capCounts(set4Hash,set4Exact,maxCount);
+
+    List<Long> uncountedJobs = new ArrayList<Long>();
+    for (int i = 0; i < jobSet.getRowCount(); i++)
+    {
+      Long jobID = (Long)jobSet.getRow(i).getValue(Jobs.idField);
+      if (!set2Hash.containsKey(jobID))
+        uncountedJobs.add(jobID);
+    }
+    int maxClause = database.getMaxInClause();
+    for (int i = 0; i < uncountedJobs.size(); i += maxClause)
+    {
+      ArrayList whereParams = new ArrayList();
+      String whereClause = database.buildConjunctionClause(whereParams,new ClauseDescription[]{
+        new MultiClause("t0."+Jobs.idField,uncountedJobs.subList(i,Math.min(i+maxClause,uncountedJobs.size())))});
+      buildCounts(whereClause,whereParams,maxCount,set2Hash,set3Hash,set4Hash,set2Exact,set3Exact,set4Exact);
+    }
+    return true;
+  }
+
+  /** Limit counts read from the snapshot to the requested maximum, as a limited count query would.
+  */
+  protected static void capCounts(Map<Long,Long> counts, Map<Long,Boolean> exact, int maxCount)
+  {
+    for (Map.Entry<Long,Long> entry : counts.entrySet())
+    {
+      if (entry.getValue().longValue() > maxCount)
+      {
+        entry.setValue(Long.valueOf(maxCount));
+        exact.put(entry.getKey(),Boolean.FALSE);
+      }
+      else
+        exact.put(entry.getKey(),Boolean.TRUE);
+    }
+  }
+
+  /** Count the documents for all jobs, and save the counts.  Call this while holding the job counts lock.
+  */
+  protected void writeJobCountsSnapshot()
+    throws ManifoldCFException
+  {
+    // The snapshot is as old as the moment counting started
+    long countTime = System.currentTimeMillis();
+    Map<Long,Long> set2Hash = new HashMap<Long,Long>();
+    Map<Long,Long> set3Hash = new HashMap<Long,Long>();
+    Map<Long,Long> set4Hash = new HashMap<Long,Long>();
+    buildCountsUsingGroupBy(null,null,set2Hash,set3Hash,set4Hash,
+      new HashMap<Long,Boolean>(),new HashMap<Long,Boolean>(),new HashMap<Long,Boolean>());
+    jobCounts.writeCounts(set2Hash,set3Hash,set4Hash);
+    lockManager.writeData(jobCountsTimeResource,Long.toString(countTime).getBytes(StandardCharsets.UTF_8));
+    if (Logging.perf.isDebugEnabled())
+      Logging.perf.debug("Recounted documents for "+set2Hash.size()+" jobs in "+(System.currentTimeMillis()-countTime)+" ms");
+  }
+
+  /** Read the time the saved job counts were taken.
+  *@return the time, or -1 if there are no saved counts.
+  */
+  protected long readJobCountsTime()
+    throws ManifoldCFException
+  {
+    byte[] data = lockManager.readData(jobCountsTimeResource);
+    if (data == null)
+      return -1L;
+    try
+    {
+      return Long.parseLong(new String(data,StandardCharsets.UTF_8));
+    }
+    catch (NumberFormatException e)
+    {
+      return -1L;
+    }
+  }
+
   protected static ClauseDescription buildOutstandingClause()
     throws ManifoldCFException
   {
@@ -1088,6 +1088,88 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     return rval;
   }
 
+  /** Set the status of a batch of pending records to the corresponding active status, all in one
+  * go per status, skipping any row that some other transaction currently has locked.  This is a bulk
+  * version of updateActiveRecord(), for databases that can do it.
+  *@param ids are the job queue ids.
+  *@param currentStatuses are the current statuses of the records, in the same order as ids.
+  *@param processID is the process that is claiming the records.
+  *@return the set of ids that were actually made active, or null if the database can't do this,
+  * in which case nothing was changed and updateActiveRecord() should be used instead.
+  */
+  public Set<Long> updateActiveRecords(Long[] ids, int[] currentStatuses, String processID)
+    throws ManifoldCFException
+  {
+    // Group by new status, since each status needs its own statement
+    List<Long> pendingIDs = new ArrayList<Long>();
+    List<Long> pendingPurgatoryIDs = new ArrayList<Long>();
+    for (int i = 0; i < ids.length; i++)
+    {
+      switch (currentStatuses[i])
+      {
+      case STATUS_PENDING:
+        pendingIDs.add(ids[i]);
+        break;
+      case STATUS_PENDINGPURGATORY:
+        pendingPurgatoryIDs.add(ids[i]);
+        break;
+      default:
+        TrackerClass.printForensics(ids[i], currentStatuses[i]);
+        throw new ManifoldCFException("Unexpected status value for jobqueue record "+ids[i].toString()+"; got "+Integer.toString(currentStatuses[i]));
+      }
+    }
+
+    Set<Long> rval = new HashSet<Long>();
+    if (!updateActiveRecords(pendingIDs,STATUS_PENDING,STATUS_ACTIVE,processID,rval))
+      return null;
+    if (!updateActiveRecords(pendingPurgatoryIDs,STATUS_PENDINGPURGATORY,STATUS_ACTIVEPURGATORY,processID,rval))
+      return null;
+    noteModifications(0,rval.size(),0);
+    return rval;
+  }
+
+  /** Claim records of one status, in chunks.
+  *@return false if the database can't do this.
+  */
+  protected boolean updateActiveRecords(List<Long> ids, int currentStatus, int newStatus, String processID, Set<Long> claimed)
+    throws ManifoldCFException
+  {
+    int maxClause = maxClauseUpdateActiveRecords();
+    int i = 0;
+    while (i < ids.size())
+    {
+      int end = Math.min(i + maxClause, ids.size());
+      HashMap map = new HashMap();
+      map.put(statusField,statusToString(newStatus));
+      map.put(processIDField,processID);
+      ArrayList list = new ArrayList();
+      // Recheck the status; a row that has moved on since it was selected must not be claimed
+      String query = buildConjunctionClause(list,new ClauseDescription[]{
+        new MultiClause(idField,ids.subList(i,end)),
+        new UnitaryClause(statusField,statusToString(currentStatus))});
+      IResultSet set = performUpdateSkipLocked(map,idField,"WHERE "+query,list,-1,null);
+      if (set == null)
+        return false;
+      for (int j = 0; j < set.getRowCount(); j++)
+      {
+        Long id = (Long)set.getRow(j).getValue(idField);
+        claimed.add(id);
+        TrackerClass.noteRecordChange(id, newStatus, "Make active");
+      }
+      i = end;
+    }
+    return true;
+  }
+
+  /** Calculate the number of records we can claim at once.
+  */
+  protected int maxClauseUpdateActiveRecords()
+    throws ManifoldCFException
+  {
+    return findConjunctionClauseMax(new ClauseDescription[]{
+      new UnitaryClause(statusField,statusToString(STATUS_PENDING))});
+  }
+
   /** Set the status to active on a record, leaving alone priority or check time.
   *@param id is the job queue id.
   *@param currentStatus is the current status
@@ -0,0 +1,141 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.repository;
+
+import java.util.*;
+
+/** This class is a bounded in-memory buffer of history rows waiting to be written.
+* Threads recording history add rows to it, and a single writer thread takes them off in batches.
+* A batch becomes available once the buffer is half full, or once the oldest row in it has waited
+* for the maximum latency, whichever comes first.  If the buffer is full (or closed), offer() returns
+* false and the caller is expected to write its row synchronously instead.
+*/
+public class HistoryBuffer
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Maximum number of rows held */
+  protected final int maxSize;
+  /** Maximum time a row may wait before being written, in milliseconds */
+  protected final long maxLatency;
+  /** Number of rows that triggers a write regardless of latency */
+  protected final int flushSize;
+
+  /** The rows waiting to be written */
+  protected List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+  /** Time the oldest row was added */
+  protected long oldestTime = 0L;
+  /** Set when no more rows will be accepted */
+  protected boolean closed = false;
+
+  /** Constructor.
+  *@param maxSize is the maximum number of rows the buffer will hold.
+  *@param maxLatency is the longest a row should wait before being written, in milliseconds.
+  */
+  public HistoryBuffer(int maxSize, long maxLatency)
+  {
+    this.maxSize = maxSize;
+    this.maxLatency = maxLatency;
+    this.flushSize = Math.max(1,maxSize/2);
+  }
+
+  /** Add a row to the buffer.
+  *@param row is the column map for the row.
+  *@return true if the row was accepted, false if the buffer is full or closed.
+  */
+  public synchronized boolean offer(Map<String,Object> row)
+  {
+    if (closed || rows.size() >= maxSize)
+      return false;
+    if (rows.size() == 0)
+    {
+      oldestTime = System.currentTimeMillis();
+      // Wake the writer so it can start timing the latency
+      notifyAll();
+    }
+    rows.add(row);
+    if (rows.size() == flushSize)
+      notifyAll();
+    return true;
+  }
+
+  /** Wait for the next batch of rows to write.
+  *@return the rows, or null if the buffer has been closed and everything in it has been handed out.
+  */
+  public synchronized List<Map<String,Object>> getBatch()
+    throws InterruptedException
+  {
+    while (true)
+    {
+      if (rows.size() > 0)
+      {
+        if (closed || rows.size() >= flushSize)
+          return takeRows();
+        long waitTime = oldestTime + maxLatency - System.currentTimeMillis();
+        if (waitTime <= 0L)
+          return takeRows();
+        wait(waitTime);
+      }
+      else
+      {
+        if (closed)
+          return null;
+        wait();
+      }
+    }
+  }
+
+  /** Stop accepting rows.  Rows already in the buffer are still handed out by getBatch().
+  */
+  public synchronized void close()
+  {
+    closed = true;
+    notifyAll();
+  }
+
+  /** Check whether the buffer has been closed.
+  */
+  public synchronized boolean isClosed()
+  {
+    return closed;
+  }
+
+  /** Throw away every row currently waiting.
+  *@return the number of rows thrown away.
+  */
+  public synchronized int discardRows()
+  {
+    return takeRows().size();
+  }
+
+  /** Get the number of rows currently waiting.
+  */
+  public synchronized int getSize()
+  {
+    return rows.size();
+  }
+
+  protected List<Map<String,Object>> takeRows()
+  {
+    List<Map<String,Object>> rval = rows;
+    rows = new ArrayList<Map<String,Object>>();
+    return rval;
+  }
+
+}
@@ -57,6 +57,9 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   protected final static String resultCodeField = "resultcode";
   protected final static String resultDescriptionField = "resultdesc";
 
+  /** The process-wide buffer for asynchronous history writes, or null if rows are written synchronously */
+  protected static volatile HistoryBuffer historyBuffer = null;
+
   /** Thread context */
   protected IThreadContext threadContext;
 
@@ -188,7 +191,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     Long id = new Long(IDFactory.make(threadContext));   
     if (lockManager.getSharedConfiguration().getBooleanProperty("org.apache.manifoldcf.crawler.repository.store_history",true))
     {
-      HashMap map = new HashMap();
+      Map<String,Object> map = new HashMap<String,Object>();
       map.put(idField,id);
       map.put(ownerNameField,connectionName);
       map.put(startTimeField,new Long(startTime));
@@ -200,6 +203,10 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
         map.put(resultCodeField,resultCode);
       if (resultDescription != null)
         map.put(resultDescriptionField,resultDescription);
+      // If there's a buffer with room, the writer thread will take care of this row
+      HistoryBuffer buffer = historyBuffer;
+      if (buffer != null && buffer.offer(map))
+        return id;
       performInsert(map,null);
       // Not accurate, but best we can do without overhead
       noteModifications(1,0,0);
@@ -207,6 +214,26 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     return id;
   }
 
+  /** Write rows taken from the history buffer.
+  *@param rows are the column maps, as built by addRow().
+  */
+  public void writeRows(List<Map<String,Object>> rows)
+    throws ManifoldCFException
+  {
+    if (rows.size() == 0)
+      return;
+    performInsertBatch(rows,null);
+    noteModifications(rows.size(),0,0);
+  }
+
+  /** Set the buffer that addRow() hands rows to.
+  *@param buffer is the buffer, or null to go back to writing rows synchronously.
+  */
+  public static void setHistoryBuffer(HistoryBuffer buffer)
+  {
+    historyBuffer = buffer;
+  }
+
   // For result analysis, we make heavy use of Postgresql's more advanced posix regular expression
   // handling.  The queries in general are fairly messy.  There's a "front aligned" way of doing things,
   // which uses the start time of a row and finds everything that overlaps the interval from "start time"
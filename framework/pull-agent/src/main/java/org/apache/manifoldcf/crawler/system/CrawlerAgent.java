@@ -21,6 +21,8 @@ package org.apache.manifoldcf.crawler.system;
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.repository.HistoryBuffer;
+import org.apache.manifoldcf.crawler.repository.RepositoryHistoryManager;
 import java.util.*;
 
 /** This is the main agent class for the crawler.
@@ -33,6 +35,7 @@ public class CrawlerAgent implements IAgent
   // These get filled in as threads are created.
   protected JobStartThread jobStartThread = null;
   protected StufferThread stufferThread = null;
+  protected StufferResolverThread stufferResolverThread = null;
   protected FinisherThread finisherThread = null;
   protected JobNotificationThread notificationThread = null;
   protected StartupThread startupThread = null;
@@ -50,7 +53,14 @@ public class CrawlerAgent implements IAgent
   protected IdleCleanupThread idleCleanupThread = null;
   protected SetPriorityThread setPriorityThread = null;
   protected HistoryCleanupThread historyCleanupThread = null;
+  protected JobCountThread jobCountThread = null;
   protected AssessmentThread assessmentThread = null;
+  protected HistoryWriterThread historyWriterThread = null;
+
+  /** Buffer for asynchronous history writes, or null if history is written synchronously */
+  protected HistoryBuffer historyBuffer = null;
+  /** How long shutdown waits for the history writer to drain the buffer before interrupting it */
+  protected static final long historyWriterShutdownTime = 60000L;
   
   // Reset managers
   /** Worker thread pool reset manager */
@@ -379,14 +389,37 @@ public class CrawlerAgent implements IAgent
     QueueTracker queueTracker = new QueueTracker();
 
 
-    DocumentQueue documentQueue = new DocumentQueue();
+    DocumentQueue documentQueue;
+    if (LockManagerFactory.getBooleanProperty(threadContext,ManifoldCF.indexedDocumentQueueProperty,false))
+      documentQueue = new IndexedDocumentQueue();
+    else
+      documentQueue = new DocumentQueue();
     DocumentDeleteQueue documentDeleteQueue = new DocumentDeleteQueue();
     DocumentCleanupQueue documentCleanupQueue = new DocumentCleanupQueue();
     DocumentCleanupQueue expireQueue = new DocumentCleanupQueue();
 
     BlockingDocuments blockingDocuments = new BlockingDocuments();
 
-    workerResetManager = new WorkerResetManager(documentQueue,expireQueue,processID);
+    StufferBatchQueue stufferBatchQueue = null;
+    if (LockManagerFactory.getBooleanProperty(threadContext,ManifoldCF.pipelinedStufferProperty,false))
+      stufferBatchQueue = new StufferBatchQueue();
+    StufferStatistics stufferStatistics = new StufferStatistics();
+    StufferController stufferController = null;
+    if (LockManagerFactory.getBooleanProperty(threadContext,ManifoldCF.adaptiveStufferProperty,false))
+      stufferController = new StufferController(documentQueue,numWorkerThreads,(int)(lowWaterFactor * (float)numWorkerThreads),
+        (int)(stuffAmtFactor * (float)numWorkerThreads));
+
+    // Zero (the default) means history rows are written synchronously
+    int historyBufferSize = LockManagerFactory.getIntProperty(threadContext,ManifoldCF.historyBufferSizeProperty,0);
+    if (historyBufferSize < 0)
+      throw new ManifoldCFException("Illegal value for the history buffer size", ManifoldCFException.SETUP_ERROR);
+    long historyBufferLatency = LockManagerFactory.getLongProperty(threadContext,ManifoldCF.historyBufferLatencyProperty,1000L);
+    if (historyBufferLatency < 1L)
+      throw new ManifoldCFException("Illegal value for the history buffer latency", ManifoldCFException.SETUP_ERROR);
+    if (historyBufferSize > 0)
+      historyBuffer = new HistoryBuffer(historyBufferSize,historyBufferLatency);
+
+    workerResetManager = new WorkerResetManager(documentQueue,expireQueue,stufferBatchQueue,processID);
     docDeleteResetManager = new DocDeleteResetManager(documentDeleteQueue,processID);
     docCleanupResetManager = new DocCleanupResetManager(documentCleanupQueue,processID);
 
@@ -396,10 +429,18 @@ public class CrawlerAgent implements IAgent
     finisherThread = new FinisherThread(processID);
     notificationThread = new JobNotificationThread(new NotificationResetManager(processID),processID);
     jobDeleteThread = new JobDeleteThread(processID);
-    stufferThread = new StufferThread(documentQueue,numWorkerThreads,workerResetManager,queueTracker,blockingDocuments,lowWaterFactor,stuffAmtFactor,processID);
+    stufferThread = new StufferThread(documentQueue,numWorkerThreads,workerResetManager,queueTracker,blockingDocuments,lowWaterFactor,stuffAmtFactor,processID,
+      stufferBatchQueue,stufferStatistics,LockManagerFactory.getBooleanProperty(threadContext,ManifoldCF.shardedStufferProperty,false),
+      stufferController);
+    if (stufferBatchQueue != null)
+      stufferResolverThread = new StufferResolverThread(documentQueue,stufferBatchQueue,numWorkerThreads,workerResetManager,queueTracker,
+        stufferStatistics,lowWaterFactor,stufferController);
     expireStufferThread = new ExpireStufferThread(expireQueue,numExpireThreads,workerResetManager,processID);
     setPriorityThread = new SetPriorityThread(numWorkerThreads,blockingDocuments,processID);
     historyCleanupThread = new HistoryCleanupThread(processID);
+    jobCountThread = new JobCountThread(processID);
+    if (historyBuffer != null)
+      historyWriterThread = new HistoryWriterThread(historyBuffer);
 
     workerThreads = new WorkerThread[numWorkerThreads];
     int i = 0;
@@ -448,9 +489,17 @@ public class CrawlerAgent implements IAgent
     notificationThread.start();
     jobDeleteThread.start();
     stufferThread.start();
+    if (stufferResolverThread != null)
+      stufferResolverThread.start();
     expireStufferThread.start();
     setPriorityThread.start();
     historyCleanupThread.start();
+    jobCountThread.start();
+    if (historyWriterThread != null)
+    {
+      historyWriterThread.start();
+      RepositoryHistoryManager.setHistoryBuffer(historyBuffer);
+    }
 
     i = 0;
     while (i < numWorkerThreads)
@@ -497,11 +546,12 @@ public class CrawlerAgent implements IAgent
   {
     Logging.root.info("Shutting down pull-agent...");
     while (jobDeleteThread != null || startupThread != null || startDeleteThread != null ||
-      jobStartThread != null || stufferThread != null ||
+      jobStartThread != null || stufferThread != null || stufferResolverThread != null ||
       finisherThread != null || notificationThread != null || workerThreads != null || expireStufferThread != null || expireThreads != null ||
       deleteStufferThread != null || deleteThreads != null ||
       cleanupStufferThread != null || cleanupThreads != null ||
-      jobResetThread != null || seedingThread != null || idleCleanupThread != null || assessmentThread != null || setPriorityThread != null || historyCleanupThread != null)
+      jobResetThread != null || seedingThread != null || idleCleanupThread != null || assessmentThread != null || setPriorityThread != null || historyCleanupThread != null ||
+      jobCountThread != null)
     {
       // Send an interrupt to all threads that are still there.
       // In theory, this only needs to be done once.  In practice, I have seen cases where the thread loses track of the fact that it has been
@@ -510,6 +560,10 @@ public class CrawlerAgent implements IAgent
       {
         historyCleanupThread.interrupt();
       }
+      if (jobCountThread != null)
+      {
+        jobCountThread.interrupt();
+      }
       if (setPriorityThread != null)
       {
         setPriorityThread.interrupt();
@@ -534,6 +588,10 @@ public class CrawlerAgent implements IAgent
       {
         stufferThread.interrupt();
       }
+      if (stufferResolverThread != null)
+      {
+        stufferResolverThread.interrupt();
+      }
       if (expireStufferThread != null)
       {
         expireStufferThread.interrupt();
@@ -626,6 +684,11 @@ public class CrawlerAgent implements IAgent
         if (!historyCleanupThread.isAlive())
           historyCleanupThread = null;
       }
+      if (jobCountThread != null)
+      {
+        if (!jobCountThread.isAlive())
+          jobCountThread = null;
+      }
       if (setPriorityThread != null)
       {
         if (!setPriorityThread.isAlive())
@@ -656,6 +719,11 @@ public class CrawlerAgent implements IAgent
         if (!stufferThread.isAlive())
           stufferThread = null;
       }
+      if (stufferResolverThread != null)
+      {
+        if (!stufferResolverThread.isAlive())
+          stufferResolverThread = null;
+      }
       if (expireStufferThread != null)
       {
         if (!expireStufferThread.isAlive())
@@ -782,6 +850,32 @@ public class CrawlerAgent implements IAgent
       }
     }
 
+    // Nothing is recording history any more, so drain the history buffer
+    if (historyWriterThread != null)
+    {
+      RepositoryHistoryManager.setHistoryBuffer(null);
+      historyBuffer.close();
+      try
+      {
+        historyWriterThread.join(historyWriterShutdownTime);
+        if (historyWriterThread.isAlive())
+        {
+          // Most likely stuck retrying against a database that is down.  Interrupting it makes it
+          // exit and log how many rows it could not write.
+          Logging.root.warn("History writer thread did not finish within "+historyWriterShutdownTime+" ms; interrupting it");
+          historyWriterThread.interrupt();
+          historyWriterThread.join(historyWriterShutdownTime);
+          if (historyWriterThread.isAlive())
+            Logging.root.error("History writer thread did not stop; "+historyBuffer.getSize()+" buffered history rows abandoned");
+        }
+      }
+      catch (InterruptedException e)
+      {
+      }
+      historyWriterThread = null;
+    }
+    historyBuffer = null;
+
     // Threads are down; release connectors
     RepositoryConnectorPoolFactory.make(threadContext).flushUnusedConnectors();
     NotificationConnectorPoolFactory.make(threadContext).flushUnusedConnectors();
@@ -35,6 +35,10 @@ public class DocumentQueue
   protected final List<QueuedDocumentSet> queue = new ArrayList<QueuedDocumentSet>();
   // This flag gets set to 'true' if the queue is being cleared due to a reset
   protected boolean resetFlag = false;
+  // Consumption counters, cumulative since startup; these are guarded by the queue monitor too
+  protected long dequeuedSetCount = 0L;
+  protected long dequeuedDocumentCount = 0L;
+  protected long workerWaitTime = 0L;
 
   /** Constructor.
   */
@@ -106,8 +110,10 @@ public class DocumentQueue
         return null;
 
       // If queue is empty, go to sleep
+      long waitStart = System.nanoTime();
       while (queue.size() == 0 && resetFlag == false)
         queue.wait();
+      workerWaitTime += System.nanoTime() - waitStart;
 
       // If we've been awakened, there's either an entry to grab, or we've been
       // awakened because it's time to reset.
@@ -132,9 +138,49 @@ public class DocumentQueue
       }
       // Pull off the best one.  DON'T REORDER!!
       QueuedDocumentSet rval = queue.remove(bestIndex);
+      noteDequeue(rval);
       return rval;
     }
   }
 
+  /** Count a document set that has been pulled off the queue.  Call this with the queue monitor held.
+  */
+  protected void noteDequeue(QueuedDocumentSet dd)
+  {
+    dequeuedSetCount++;
+    dequeuedDocumentCount += dd.getCount();
+  }
+
+  /** Get the number of document sets pulled off the queue since startup.
+  */
+  public long getDequeuedSetCount()
+  {
+    synchronized (queue)
+    {
+      return dequeuedSetCount;
+    }
+  }
+
+  /** Get the number of documents pulled off the queue since startup.
+  */
+  public long getDequeuedDocumentCount()
+  {
+    synchronized (queue)
+    {
+      return dequeuedDocumentCount;
+    }
+  }
+
+  /** Get the total time reader threads have spent waiting for the queue to be restocked, since startup.
+  *@return the time, in nanoseconds.
+  */
+  public long getWorkerWaitTime()
+  {
+    synchronized (queue)
+    {
+      return workerWaitTime;
+    }
+  }
+
 
 }
@@ -0,0 +1,157 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.repository.HistoryBuffer;
+import org.apache.manifoldcf.crawler.repository.RepositoryHistoryManager;
+import java.util.*;
+
+/** This class describes the thread that writes buffered history records.
+* It takes batches of rows from the history buffer and inserts them with multi-row statements.  When the
+* buffer is closed, it writes whatever is left and exits.  If the database is unreachable at that point, it
+* gives up after a few retries rather than holding up shutdown, and logs how many rows were lost.
+*/
+public class HistoryWriterThread extends Thread
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Number of times a batch is retried after a connection reset once the buffer has been closed */
+  protected static final int shutdownRetryLimit = 3;
+
+  // Local data
+  /** The buffer */
+  protected final HistoryBuffer historyBuffer;
+
+  /** Constructor.
+  *@param historyBuffer is the buffer to drain.
+  */
+  public HistoryWriterThread(HistoryBuffer historyBuffer)
+    throws ManifoldCFException
+  {
+    super();
+    this.historyBuffer = historyBuffer;
+    setName("History writer thread");
+    setDaemon(true);
+  }
+
+  public void run()
+  {
+    try
+    {
+      // Create a thread context object.
+      IThreadContext threadContext = ThreadContextFactory.make();
+      IDBInterface database = DBInterfaceFactory.make(threadContext,
+        ManifoldCF.getMasterDatabaseName(),
+        ManifoldCF.getMasterDatabaseUsername(),
+        ManifoldCF.getMasterDatabasePassword());
+      RepositoryHistoryManager historyManager = new RepositoryHistoryManager(threadContext,database);
+
+      // The batch currently being written; kept across a database reset so the rows aren't lost
+      List<Map<String,Object>> batch = null;
+      // Connection resets seen since the buffer was closed
+      int shutdownRetries = 0;
+      // Loop
+      while (true)
+      {
+        // Do another try/catch around everything in the loop
+        try
+        {
+          if (batch == null)
+          {
+            batch = historyBuffer.getBatch();
+            if (batch == null)
+              // Closed and fully drained
+              break;
+          }
+          historyManager.writeRows(batch);
+          if (Logging.threads.isDebugEnabled())
+            Logging.threads.debug("History writer thread wrote "+batch.size()+" rows");
+          batch = null;
+        }
+        catch (ManifoldCFException e)
+        {
+          if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+            break;
+
+          if (e.getErrorCode() == ManifoldCFException.DATABASE_CONNECTION_ERROR)
+          {
+            // Nobody is adding rows any more and the agent is waiting for us; don't wait forever
+            if (historyBuffer.isClosed() && ++shutdownRetries > shutdownRetryLimit)
+            {
+              Logging.threads.error("History writer thread giving up on database during shutdown: "+e.getMessage(),e);
+              break;
+            }
+            Logging.threads.error("History writer thread aborting and restarting due to database connection reset: "+e.getMessage(),e);
+            try
+            {
+              // Give the database a chance to catch up/wake up
+              ManifoldCF.sleep(10000L);
+            }
+            catch (InterruptedException se)
+            {
+              break;
+            }
+            continue;
+          }
+
+          // History is best-effort; don't keep retrying a batch the database rejects
+          Logging.threads.error("History writer thread discarding "+batch.size()+" rows: "+e.getMessage(),e);
+          batch = null;
+
+          if (e.getErrorCode() == ManifoldCFException.SETUP_ERROR)
+          {
+            // Shut the whole system down!
+            System.exit(1);
+          }
+        }
+        catch (InterruptedException e)
+        {
+          // We're supposed to quit
+          break;
+        }
+        catch (OutOfMemoryError e)
+        {
+          System.err.println("agents process ran out of memory - shutting down");
+          e.printStackTrace(System.err);
+          System.exit(-200);
+        }
+        catch (Throwable e)
+        {
+          // A more severe error - but stay alive
+          Logging.threads.fatal("Error tossed: "+e.getMessage(),e);
+          batch = null;
+        }
+      }
+
+      // Anything still held was never written
+      int droppedRows = ((batch == null)?0:batch.size()) + historyBuffer.discardRows();
+      if (droppedRows > 0)
+        Logging.threads.error("History writer thread exiting; "+droppedRows+" history rows were not written");
+    }
+    catch (Throwable e)
+    {
+      // Severe error on initialization
+      System.err.println("agents process could not start - shutting down");
+      Logging.threads.fatal("HistoryWriterThread initialization error tossed: "+e.getMessage(),e);
+      System.exit(-300);
+    }
+  }
+
+}
@@ -0,0 +1,338 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import java.util.*;
+
+/** This is a document queue which keeps its document sets ordered by assignment rating, rather
+* than rescanning and rerating every set on every dequeue the way DocumentQueue does.
+*
+* A set's rating depends only on the QueueTracker's active bin counts for the bins of the
+* documents in the set.  This queue therefore registers itself with the QueueTracker as an
+* active bin listener, and keeps an index from bin name to queued sets.  When a worker thread asks
+* for a document set, only the sets that share a bin whose count changed since the last request are
+* rerated and repositioned; the best set is then simply the first one in the ordered structure.
+*
+* The selection semantics are identical to DocumentQueue: the set with the highest rating wins, and
+* ties go to the set that was queued first.  A set containing a document with no bins has no rating
+* (DocumentQueue computes NaN for it); DocumentQueue's scan picks such a set only when it is the oldest
+* set on the queue, and so does this one.
+*/
+public class IndexedDocumentQueue extends DocumentQueue implements IActiveBinListener
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Document sets that have been added but not yet rated */
+  protected final List<RatedDocumentSet> unratedSets = new ArrayList<RatedDocumentSet>();
+  /** Rated document sets, best first */
+  protected final TreeSet<RatedDocumentSet> ratedSets = new TreeSet<RatedDocumentSet>();
+  /** Rated document sets, oldest first */
+  protected final TreeMap<Long,RatedDocumentSet> sequenceIndex = new TreeMap<Long,RatedDocumentSet>();
+  /** Rated document sets, keyed by bin name */
+  protected final Map<String,Set<RatedDocumentSet>> binIndex = new HashMap<String,Set<RatedDocumentSet>>();
+  /** Total number of sets on the queue (rated plus unrated) */
+  protected int queueSize = 0;
+  /** Sequence number given to the next set added, used to break rating ties */
+  protected long nextSequence = 0L;
+  /** The queue tracker the current ratings were computed against */
+  protected QueueTracker ratingTracker = null;
+
+  /** Bins whose active count changed since the last dequeue.  This is guarded by
+  * its own monitor rather than the queue monitor, so that worker threads reporting bin
+  * changes never wait behind a dequeue. */
+  protected final Set<String> changedBins = new HashSet<String>();
+
+  /** Constructor.
+  */
+  public IndexedDocumentQueue()
+  {
+    super();
+  }
+
+  /** Clear the queue.  This happens during a reset.
+  */
+  @Override
+  public void clear()
+  {
+    synchronized (queue)
+    {
+      unratedSets.clear();
+      ratedSets.clear();
+      sequenceIndex.clear();
+      binIndex.clear();
+      queueSize = 0;
+      resetFlag = false;
+    }
+  }
+
+  /** Check if "empty".
+  *@param n is the low-water mark; if the number falls below this, then this method will return true.
+  */
+  @Override
+  public boolean checkIfEmpty(int n)
+  {
+    synchronized (queue)
+    {
+      if (queueSize <= n)
+        return true;
+    }
+    return false;
+  }
+
+  /** Add a document to the queue.  Rating is deferred until the next dequeue.
+  *@param dd is the document description.
+  */
+  @Override
+  public void addDocument(QueuedDocumentSet dd)
+  {
+    synchronized (queue)
+    {
+      unratedSets.add(new RatedDocumentSet(dd,nextSequence++));
+      queueSize++;
+      queue.notify();
+    }
+  }
+
+  /** Pull the best-rated document set off the queue, but wait if there is
+  * nothing there.
+  *@param overlapCalculator performs analysis of the document sets on the queue so that we can
+  * pick the best one.
+  *@return the document set.
+  */
+  @Override
+  public QueuedDocumentSet getDocument(QueueTracker overlapCalculator)
+    throws InterruptedException
+  {
+    synchronized (queue)
+    {
+      // If we are being reset, return null
+      if (resetFlag)
+        return null;
+
+      // If queue is empty, go to sleep
+      long waitStart = System.nanoTime();
+      while (queueSize == 0 && resetFlag == false)
+        queue.wait();
+      workerWaitTime += System.nanoTime() - waitStart;
+
+      // If we've been awakened, there's either an entry to grab, or we've been
+      // awakened because it's time to reset.
+      if (resetFlag)
+        return null;
+
+      if (ratingTracker != overlapCalculator)
+      {
+        // First time through with this tracker; every existing rating is meaningless.
+        if (ratingTracker != null)
+          ratingTracker.removeActiveBinListener(this);
+        overlapCalculator.addActiveBinListener(this);
+        ratingTracker = overlapCalculator;
+        synchronized (changedBins)
+        {
+          changedBins.clear();
+        }
+        rerateAll();
+      }
+      else
+        rerateChanged();
+
+      // Rate and insert everything that came in since the last dequeue
+      for (RatedDocumentSet rds : unratedSets)
+      {
+        rds.rate(ratingTracker);
+        ratedSets.add(rds);
+        sequenceIndex.put(Long.valueOf(rds.getSequence()),rds);
+        indexSet(rds);
+      }
+      unratedSets.clear();
+
+      // Pull off the best one.  DocumentQueue's scan starts with the oldest set, and an unrateable
+      // set compares as neither better nor worse than anything, so it wins only from that position.
+      RatedDocumentSet best = sequenceIndex.firstEntry().getValue();
+      if (best.isRated())
+        best = ratedSets.first();
+      ratedSets.remove(best);
+      sequenceIndex.remove(Long.valueOf(best.getSequence()));
+      unindexSet(best);
+      queueSize--;
+      noteDequeue(best.getDocumentSet());
+      return best.getDocumentSet();
+    }
+  }
+
+  /** Note that the active count for a bin has changed.
+  *@param binName is the name of the bin whose active count changed.
+  */
+  @Override
+  public void noteActiveBinChange(String binName)
+  {
+    synchronized (changedBins)
+    {
+      changedBins.add(binName);
+    }
+  }
+
+  /** Rerate the sets that share a bin with a changed active count.  Call with the queue
+  * monitor held.
+  */
+  protected void rerateChanged()
+  {
+    String[] bins;
+    synchronized (changedBins)
+    {
+      if (changedBins.size() == 0)
+        return;
+      bins = changedBins.toArray(new String[changedBins.size()]);
+      changedBins.clear();
+    }
+
+    Set<RatedDocumentSet> affected = new HashSet<RatedDocumentSet>();
+    for (String binName : bins)
+    {
+      Set<RatedDocumentSet> sets = binIndex.get(binName);
+      if (sets != null)
+        affected.addAll(sets);
+    }
+    for (RatedDocumentSet rds : affected)
+    {
+      // The ordering key must not change while the set is in the tree
+      ratedSets.remove(rds);
+      rds.rate(ratingTracker);
+      ratedSets.add(rds);
+    }
+  }
+
+  /** Rerate every rated set.  Call with the queue monitor held.
+  */
+  protected void rerateAll()
+  {
+    List<RatedDocumentSet> all = new ArrayList<RatedDocumentSet>(ratedSets);
+    ratedSets.clear();
+    for (RatedDocumentSet rds : all)
+    {
+      rds.rate(ratingTracker);
+      ratedSets.add(rds);
+    }
+  }
+
+  /** Add a set to the bin index. */
+  protected void indexSet(RatedDocumentSet rds)
+  {
+    for (String binName : rds.getBinNames())
+    {
+      Set<RatedDocumentSet> sets = binIndex.get(binName);
+      if (sets == null)
+      {
+        sets = new HashSet<RatedDocumentSet>();
+        binIndex.put(binName,sets);
+      }
+      sets.add(rds);
+    }
+  }
+
+  /** Remove a set from the bin index. */
+  protected void unindexSet(RatedDocumentSet rds)
+  {
+    for (String binName : rds.getBinNames())
+    {
+      Set<RatedDocumentSet> sets = binIndex.get(binName);
+      if (sets != null)
+      {
+        sets.remove(rds);
+        if (sets.size() == 0)
+          binIndex.remove(binName);
+      }
+    }
+  }
+
+  /** This class wraps a queued document set together with its last computed rating.
+  * Instances order best-first: highest rating, then lowest sequence number.  Equality is
+  * identity, which is consistent with the ordering because sequence numbers are unique.
+  */
+  protected static class RatedDocumentSet implements Comparable<RatedDocumentSet>
+  {
+    protected final QueuedDocumentSet documentSet;
+    protected final long sequence;
+    protected final String[] binNames;
+    protected double rating = 0.0;
+    protected boolean rated = true;
+
+    public RatedDocumentSet(QueuedDocumentSet documentSet, long sequence)
+    {
+      this.documentSet = documentSet;
+      this.sequence = sequence;
+      Set<String> bins = new HashSet<String>();
+      for (int i = 0; i < documentSet.getCount(); i++)
+      {
+        String[] docBins = documentSet.getDocument(i).getBinNames();
+        for (String binName : docBins)
+        {
+          bins.add(binName);
+        }
+      }
+      this.binNames = bins.toArray(new String[bins.size()]);
+    }
+
+    public QueuedDocumentSet getDocumentSet()
+    {
+      return documentSet;
+    }
+
+    public String[] getBinNames()
+    {
+      return binNames;
+    }
+
+    public void rate(QueueTracker overlapCalculator)
+    {
+      rating = documentSet.calculateAssignmentRating(overlapCalculator);
+      // A set with no bins rates as NaN.  Order it last, so it is only ever taken by the oldest-set rule.
+      rated = !Double.isNaN(rating);
+      if (!rated)
+        rating = Double.NEGATIVE_INFINITY;
+    }
+
+    public boolean isRated()
+    {
+      return rated;
+    }
+
+    public long getSequence()
+    {
+      return sequence;
+    }
+
+    @Override
+    public int compareTo(RatedDocumentSet other)
+    {
+      if (rating > other.rating)
+        return -1;
+      if (rating < other.rating)
+        return 1;
+      if (sequence < other.sequence)
+        return -1;
+      if (sequence > other.sequence)
+        return 1;
+      return 0;
+    }
+  }
+
+}
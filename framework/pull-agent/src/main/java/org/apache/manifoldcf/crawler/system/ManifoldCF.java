@@ -59,6 +59,12 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
   protected static final String expireThreadCountProperty = "org.apache.manifoldcf.crawler.expirethreads";
   protected static final String lowWaterFactorProperty = "org.apache.manifoldcf.crawler.lowwaterfactor";
   protected static final String stuffAmtFactorProperty = "org.apache.manifoldcf.crawler.stuffamountfactor";
+  protected static final String indexedDocumentQueueProperty = "org.apache.manifoldcf.crawler.indexeddocumentqueue";
+  protected static final String pipelinedStufferProperty = "org.apache.manifoldcf.crawler.pipelinedstuffer";
+  protected static final String shardedStufferProperty = "org.apache.manifoldcf.crawler.shardedstuffer";
+  protected static final String adaptiveStufferProperty = "org.apache.manifoldcf.crawler.adaptivestuffer";
+  protected static final String historyBufferSizeProperty = "org.apache.manifoldcf.crawler.historybuffer.size";
+  protected static final String historyBufferLatencyProperty = "org.apache.manifoldcf.crawler.historybuffer.maxlatency";
   protected static final String connectorsConfigurationFileProperty = "org.apache.manifoldcf.connectorsconfigurationfile";
   protected static final String databaseSuperuserNameProperty = "org.apache.manifoldcf.dbsuperusername";
   protected static final String databaseSuperuserPasswordProperty = "org.apache.manifoldcf.dbsuperuserpassword";
@@ -48,11 +48,11 @@ public class SeedingActivity implements ISeedingActivity
   protected final boolean overrideSchedule;
   protected final int hopcountMethod;
   
-  protected final String[] documentHashList = new String[MAX_COUNT];
   protected final String[] documentList = new String[MAX_COUNT];
   protected final String[][] documentPrereqList = new String[MAX_COUNT][];
   protected int documentCount = 0;
-  protected final String[] remainingDocumentHashList = new String[MAX_COUNT];
+  // Identifiers are hashed a batch at a time, when the batch is written
+  protected final String[] remainingDocumentList = new String[MAX_COUNT];
   protected int remainingDocumentCount = 0;
 
   /** Constructor.
@@ -95,10 +95,9 @@ public class SeedingActivity implements ISeedingActivity
     if (documentCount == MAX_COUNT)
     {
       // Prioritize and write the seed documents.
-      writeSeedDocuments(documentHashList,documentList,documentPrereqList);
+      writeSeedDocuments(ManifoldCF.hashMultiple(documentList),documentList,documentPrereqList);
       documentCount = 0;
     }
-    documentHashList[documentCount] = ManifoldCF.hash(documentIdentifier);
     documentList[documentCount] = documentIdentifier;
     if (prereqEventNames != null)
       documentPrereqList[documentCount] = prereqEventNames;
@@ -143,10 +142,10 @@ public class SeedingActivity implements ISeedingActivity
     if (remainingDocumentCount == MAX_COUNT)
     {
       // Flush the remaining documents
-      jobManager.addRemainingDocumentsInitial(processID,jobID,legalLinkTypes,remainingDocumentHashList,hopcountMethod);
+      jobManager.addRemainingDocumentsInitial(processID,jobID,legalLinkTypes,ManifoldCF.hashMultiple(remainingDocumentList),hopcountMethod);
       remainingDocumentCount = 0;
     }
-    remainingDocumentHashList[remainingDocumentCount++] = ManifoldCF.hash(documentIdentifier);
+    remainingDocumentList[remainingDocumentCount++] = documentIdentifier;
   }
 
   /** Finish a seeding pass */
@@ -155,13 +154,12 @@ public class SeedingActivity implements ISeedingActivity
   {
     if (documentCount > 0)
     {
-      String[] documentHashes = new String[documentCount];
+      String[] documentHashes = ManifoldCF.hashMultiple(documentList,documentCount);
       String[] documents = new String[documentCount];
       String[][] documentPrereqs = new String[documentCount][];
       int i = 0;
       while (i < documentHashes.length)
       {
-        documentHashes[i] = documentHashList[i];
         documents[i] = documentList[i];
         documentPrereqs[i] = documentPrereqList[i];
         i++;
@@ -171,14 +169,8 @@ public class SeedingActivity implements ISeedingActivity
     }
     if (remainingDocumentCount > 0)
     {
-      String[] documents = new String[remainingDocumentCount];
-      int i = 0;
-      while (i < documents.length)
-      {
-        documents[i] = remainingDocumentHashList[i];
-        i++;
-      }
-      jobManager.addRemainingDocumentsInitial(processID,jobID,legalLinkTypes,documents,hopcountMethod);
+      jobManager.addRemainingDocumentsInitial(processID,jobID,legalLinkTypes,
+        ManifoldCF.hashMultiple(remainingDocumentList,remainingDocumentCount),hopcountMethod);
       remainingDocumentCount = 0;
     }
 
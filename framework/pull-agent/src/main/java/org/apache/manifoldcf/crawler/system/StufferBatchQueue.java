@@ -0,0 +1,107 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.crawler.interfaces.*;
+import java.util.*;
+
+/** This class is the hand-off point between the stuffer thread and the stuffer resolver thread, when
+* the stuffer is running in pipelined mode.  The stuffer thread claims batches of documents from the
+* database and places them here; the resolver thread removes them, resolves versions and bins, and
+* puts the resulting document sets onto the document queue.
+*
+* The queue holds at most one claimed batch, so that together with the batch the resolver is working
+* on, at most two batches are ever prefetched ahead of the worker threads.
+*
+* Like DocumentQueue, the batches here are for documents that are marked active in the jobqueue
+* table, so this queue participates in worker resets: reset() wakes up both threads, and clear() throws
+* away whatever batch is waiting.
+*/
+public class StufferBatchQueue
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The waiting batch, or null */
+  protected DocumentDescription[] batch = null;
+  /** This flag gets set to 'true' if the queue is being cleared due to a reset */
+  protected boolean resetFlag = false;
+
+  /** Constructor.
+  */
+  public StufferBatchQueue()
+  {
+  }
+
+  /** Wake up all threads waiting on this queue.  This happens at the beginning of a reset.
+  */
+  public synchronized void reset()
+  {
+    resetFlag = true;
+    notifyAll();
+  }
+
+  /** Clear the queue.  This happens during a reset.
+  */
+  public synchronized void clear()
+  {
+    batch = null;
+    resetFlag = false;
+  }
+
+  /** Check whether a batch is waiting.
+  *@return true if there is a batch waiting to be resolved.
+  */
+  public synchronized boolean hasBatch()
+  {
+    return batch != null;
+  }
+
+  /** Hand off a batch, waiting until there is room for it.
+  *@param descs are the documents claimed.
+  *@return false if a reset is in progress, in which case the batch was not accepted.
+  */
+  public synchronized boolean addBatch(DocumentDescription[] descs)
+    throws InterruptedException
+  {
+    while (batch != null && resetFlag == false)
+      wait();
+    if (resetFlag)
+      return false;
+    batch = descs;
+    notifyAll();
+    return true;
+  }
+
+  /** Take the waiting batch, waiting until there is one.
+  *@return the batch, or null if a reset is in progress.
+  */
+  public synchronized DocumentDescription[] getBatch()
+    throws InterruptedException
+  {
+    while (batch == null && resetFlag == false)
+      wait();
+    if (resetFlag)
+      return null;
+    DocumentDescription[] rval = batch;
+    batch = null;
+    notifyAll();
+    return rval;
+  }
+
+}
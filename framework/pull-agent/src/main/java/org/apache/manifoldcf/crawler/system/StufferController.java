@@ -0,0 +1,315 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+/** This class decides, on behalf of the stuffer, how low the document queue may fall before it is restocked
+* (the low-water mark) and how many documents are claimed each time (the stuff amount).  Rather than fixing both
+* as multiples of the worker thread count, it tunes them continuously from what it observes:
+* - the rate at which worker threads take documents off the queue;
+* - the fraction of time worker threads spend waiting on an empty queue;
+* - how long getNextDocuments() takes, and how long the claimed documents then take to resolve.
+*
+* The low-water mark is kept large enough that the queue does not run dry while the stuffer claims and resolves
+* the next batch, and is raised further whenever workers are seen waiting while there was still work to claim.
+* The stuff amount is sized so that a batch lasts several times longer than it takes to claim, which keeps the
+* claim query's share of the time small without holding more documents active than necessary.  Neither value
+* moves by more than a factor of two in one step, and both stay within fixed bounds around the starting values.
+*
+* The current decisions and the measurements behind them are available from the getter methods, and a summary
+* is written to the performance log at DEBUG level once a minute.
+*/
+public class StufferController
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Interval between summaries written to the performance log */
+  protected final static long reportInterval = 60000L;
+  /** Weight given to each new measurement in the smoothed averages */
+  protected final static double smoothing = 0.3;
+  /** Fraction of worker time spent waiting that counts as starvation */
+  protected final static double starvationIdleFraction = 0.05;
+  /** How many refill times' worth of document sets the low-water mark should cover */
+  protected final static double refillSafetyFactor = 2.0;
+  /** How many claim times a batch should take to drain */
+  protected final static double drainToClaimRatio = 4.0;
+
+  /** The document queue being watched */
+  protected final DocumentQueue documentQueue;
+  /** Number of worker threads */
+  protected final int workerCount;
+  /** Bounds for the low-water mark */
+  protected final int minLowWaterMark;
+  protected final int maxLowWaterMark;
+  /** Bounds for the stuff amount */
+  protected final int minStuffAmount;
+  protected final int maxStuffAmount;
+
+  /** The current low-water mark, in document sets */
+  protected volatile int lowWaterMark;
+  /** The current stuff amount, in documents */
+  protected volatile int stuffAmount;
+
+  // Sampling state; all of the following are guarded by this object's monitor
+  /** Time of the last sample, in nanoseconds, or -1 if there has been none yet */
+  protected long lastSampleTime = -1L;
+  protected long lastDequeuedSetCount = 0L;
+  protected long lastDequeuedDocumentCount = 0L;
+  protected long lastWorkerWaitTime = 0L;
+  /** Smoothed dequeue rate, in document sets per millisecond, or -1 if unknown */
+  protected double setRate = -1.0;
+  /** Smoothed dequeue rate, in documents per millisecond, or -1 if unknown */
+  protected double documentRate = -1.0;
+  /** Fraction of worker time spent waiting during the last sample interval */
+  protected double idleFraction = 0.0;
+  /** Smoothed getNextDocuments() latency, in milliseconds, or -1 if unknown */
+  protected double claimLatency = -1.0;
+  /** Smoothed resolve latency, in milliseconds, or -1 if unknown */
+  protected double resolveLatency = -1.0;
+  /** True if the most recent claim returned everything that was asked for */
+  protected boolean lastClaimFull = false;
+  /** Number of times either value has been changed */
+  protected long adjustmentCount = 0L;
+  /** Number of sample intervals in which the workers starved */
+  protected long starvationCount = 0L;
+  /** Time of the last performance log summary */
+  protected long lastReportTime = System.currentTimeMillis();
+
+  /** Constructor.
+  *@param documentQueue is the queue the stuffer fills and the worker threads drain.
+  *@param workerCount is the number of worker threads.
+  *@param initialLowWaterMark is the low-water mark to start with, in document sets.
+  *@param initialStuffAmount is the stuff amount to start with, in documents.
+  */
+  public StufferController(DocumentQueue documentQueue, int workerCount, int initialLowWaterMark, int initialStuffAmount)
+  {
+    this.documentQueue = documentQueue;
+    this.workerCount = Math.max(1,workerCount);
+    this.minLowWaterMark = 1;
+    this.maxLowWaterMark = Math.max(initialLowWaterMark,this.workerCount) * 4;
+    this.minStuffAmount = Math.max(1,initialStuffAmount / 4);
+    this.maxStuffAmount = Math.max(initialStuffAmount,this.workerCount) * 64;
+    this.lowWaterMark = clamp(initialLowWaterMark,minLowWaterMark,maxLowWaterMark);
+    this.stuffAmount = clamp(initialStuffAmount,minStuffAmount,maxStuffAmount);
+  }
+
+  /** Get the current low-water mark, in document sets.
+  */
+  public int getLowWaterMark()
+  {
+    return lowWaterMark;
+  }
+
+  /** Get the current stuff amount, in documents.
+  */
+  public int getStuffAmount()
+  {
+    return stuffAmount;
+  }
+
+  /** Get the smoothed rate at which workers take documents off the queue, in documents per second.
+  */
+  public synchronized double getDequeueRate()
+  {
+    return (documentRate < 0.0)?0.0:(documentRate * 1000.0);
+  }
+
+  /** Get the fraction of worker time spent waiting on an empty queue, over the last sample interval.
+  */
+  public synchronized double getIdleFraction()
+  {
+    return idleFraction;
+  }
+
+  /** Get the smoothed getNextDocuments() latency, in milliseconds, or -1 if none has been measured yet.
+  */
+  public synchronized double getClaimLatency()
+  {
+    return claimLatency;
+  }
+
+  /** Get the smoothed resolve latency, in milliseconds, or -1 if none has been measured yet.
+  */
+  public synchronized double getResolveLatency()
+  {
+    return resolveLatency;
+  }
+
+  /** Get the number of times the low-water mark or stuff amount has been changed since startup.
+  */
+  public synchronized long getAdjustmentCount()
+  {
+    return adjustmentCount;
+  }
+
+  /** Get the number of sample intervals, since startup, in which the workers were found starving.
+  */
+  public synchronized long getStarvationCount()
+  {
+    return starvationCount;
+  }
+
+  /** Note the completion of a getNextDocuments() call.
+  *@param elapsedTime is the time the claim took, in milliseconds.
+  *@param requested is the number of documents asked for.
+  *@param claimed is the number of documents actually claimed.
+  */
+  public synchronized void noteClaim(long elapsedTime, int requested, int claimed)
+  {
+    claimLatency = smooth(claimLatency,(double)elapsedTime);
+    lastClaimFull = (claimed >= requested);
+  }
+
+  /** Note the resolution of a claimed batch.
+  *@param elapsedTime is the time resolution took, in milliseconds.
+  */
+  public synchronized void noteResolve(long elapsedTime)
+  {
+    resolveLatency = smooth(resolveLatency,(double)elapsedTime);
+  }
+
+  /** Take a new sample from the document queue, and retune.  The stuffer calls this each time it is about to claim.
+  *@return the stuff amount to use for the coming claim.
+  */
+  public int adjust()
+  {
+    int rval = adjust(System.nanoTime(),documentQueue.getDequeuedSetCount(),documentQueue.getDequeuedDocumentCount(),
+      documentQueue.getWorkerWaitTime());
+    reportIfNeeded();
+    return rval;
+  }
+
+  /** Retune, given a sample of the document queue's counters.
+  *@param currentTime is the time of the sample, in nanoseconds.
+  *@param dequeuedSetCount is the number of document sets dequeued since startup.
+  *@param dequeuedDocumentCount is the number of documents dequeued since startup.
+  *@param workerWaitTime is the total worker wait time since startup, in nanoseconds.
+  *@return the stuff amount to use for the coming claim.
+  */
+  protected synchronized int adjust(long currentTime, long dequeuedSetCount, long dequeuedDocumentCount, long workerWaitTime)
+  {
+    if (lastSampleTime == -1L)
+    {
+      recordSample(currentTime,dequeuedSetCount,dequeuedDocumentCount,workerWaitTime);
+      return stuffAmount;
+    }
+
+    double interval = (double)(currentTime - lastSampleTime) / 1000000.0;
+    if (interval < 1.0)
+      return stuffAmount;
+
+    setRate = smooth(setRate,(double)(dequeuedSetCount - lastDequeuedSetCount) / interval);
+    documentRate = smooth(documentRate,(double)(dequeuedDocumentCount - lastDequeuedDocumentCount) / interval);
+    idleFraction = Math.min(1.0,(double)(workerWaitTime - lastWorkerWaitTime) / 1000000.0 / (interval * (double)workerCount));
+    recordSample(currentTime,dequeuedSetCount,dequeuedDocumentCount,workerWaitTime);
+
+    // Workers waiting only count against us if there was more work to be had.
+    boolean starved = lastClaimFull && idleFraction > starvationIdleFraction;
+    if (starved)
+      starvationCount++;
+
+    int newLowWaterMark = lowWaterMark;
+    int newStuffAmount = stuffAmount;
+
+    if (claimLatency >= 0.0)
+    {
+      // Low-water mark: cover the sets consumed while the next batch is being claimed and resolved.
+      double refillTime = claimLatency + ((resolveLatency < 0.0)?0.0:resolveLatency);
+      int target = (int)Math.round(refillSafetyFactor * setRate * refillTime);
+      if (starved)
+        target = Math.max(target,lowWaterMark + Math.max(1,lowWaterMark / 2));
+      newLowWaterMark = step(lowWaterMark,target,minLowWaterMark,maxLowWaterMark);
+
+      // Stuff amount: make a batch last several claim times.  Growing is pointless if the last claim came up short.
+      target = (int)Math.round(drainToClaimRatio * documentRate * claimLatency);
+      if (starved)
+        target = Math.max(target,stuffAmount * 2);
+      if (!lastClaimFull && target > stuffAmount)
+        target = stuffAmount;
+      newStuffAmount = step(stuffAmount,target,minStuffAmount,maxStuffAmount);
+    }
+
+    if (newLowWaterMark != lowWaterMark || newStuffAmount != stuffAmount)
+    {
+      adjustmentCount++;
+      if (Logging.threads.isDebugEnabled())
+        Logging.threads.debug("Stuffer controller: low water mark "+lowWaterMark+" -> "+newLowWaterMark+
+          ", stuff amount "+stuffAmount+" -> "+newStuffAmount+(starved?" (workers starved)":""));
+      lowWaterMark = newLowWaterMark;
+      stuffAmount = newStuffAmount;
+    }
+    return stuffAmount;
+  }
+
+  protected void recordSample(long currentTime, long dequeuedSetCount, long dequeuedDocumentCount, long workerWaitTime)
+  {
+    lastSampleTime = currentTime;
+    lastDequeuedSetCount = dequeuedSetCount;
+    lastDequeuedDocumentCount = dequeuedDocumentCount;
+    lastWorkerWaitTime = workerWaitTime;
+  }
+
+  /** Write out a summary of the current decisions, if it is time to do so. */
+  protected void reportIfNeeded()
+  {
+    String summary = null;
+    synchronized (this)
+    {
+      long currentTime = System.currentTimeMillis();
+      if (currentTime - lastReportTime < reportInterval)
+        return;
+      lastReportTime = currentTime;
+      if (Logging.perf.isDebugEnabled())
+      {
+        summary = "Stuffer controller: low water mark="+lowWaterMark+" stuff amount="+stuffAmount+
+          " dequeue rate="+Math.round(getDequeueRate())+"/s idle="+Math.round(idleFraction * 100.0)+"%"+
+          " claim="+Math.round(claimLatency)+"ms resolve="+Math.round(resolveLatency)+"ms"+
+          " adjustments="+adjustmentCount+" starvations="+starvationCount;
+      }
+    }
+    if (summary != null)
+      Logging.perf.debug(summary);
+  }
+
+  /** Move at most a factor of two from the current value towards the target, within bounds. */
+  protected static int step(int current, int target, int min, int max)
+  {
+    if (target > current * 2)
+      target = current * 2;
+    else if (target < current / 2)
+      target = current / 2;
+    return clamp(target,min,max);
+  }
+
+  protected static int clamp(int value, int min, int max)
+  {
+    if (value < min)
+      return min;
+    if (value > max)
+      return max;
+    return value;
+  }
+
+  protected static double smooth(double average, double value)
+  {
+    if (average < 0.0)
+      return value;
+    return average + smoothing * (value - average);
+  }
+
+}
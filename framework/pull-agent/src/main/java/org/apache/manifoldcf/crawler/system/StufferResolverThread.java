@@ -0,0 +1,198 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import java.util.*;
+
+/** This class represents the second stage of the stuffer, when the stuffer is running in pipelined mode.
+* The stuffer thread claims batches of documents from the database and hands them off through a
+* StufferBatchQueue.  This thread picks each batch up, resolves versions, bins, and document sets for it,
+* and then holds the result until the document queue drops to the low-water mark, at which point it is
+* queued.  Meanwhile, the stuffer thread is already claiming the next batch, so the database work for one
+* batch overlaps with the worker threads consuming the previous one.
+*/
+public class StufferResolverThread extends Thread
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The document queue */
+  protected final DocumentQueue documentQueue;
+  /** The hand-off queue from the stuffer thread */
+  protected final StufferBatchQueue batchQueue;
+  /** Worker thread pool reset manager */
+  protected final WorkerResetManager resetManager;
+  /** The queue tracker */
+  protected final QueueTracker queueTracker;
+  /** Stuffer statistics */
+  protected final StufferStatistics statistics;
+  /** This is the low water mark for queuing a resolved batch */
+  protected final int lowWaterMark;
+  /** Controller that tunes the low-water mark, or null if it is fixed */
+  protected final StufferController controller;
+
+  /** Constructor.
+  *@param documentQueue is the document queue we'll be stuffing.
+  *@param batchQueue is the hand-off queue the stuffer thread fills.
+  *@param n represents the number of threads that will be processing queued stuff.
+  *@param controller is the controller the stuffer thread uses, from which the low-water mark is taken.  If
+  * null, the low-water mark is fixed.
+  */
+  public StufferResolverThread(DocumentQueue documentQueue, StufferBatchQueue batchQueue, int n, WorkerResetManager resetManager,
+    QueueTracker qt, StufferStatistics statistics, float lowWaterFactor, StufferController controller)
+    throws ManifoldCFException
+  {
+    super();
+    this.documentQueue = documentQueue;
+    this.batchQueue = batchQueue;
+    this.resetManager = resetManager;
+    this.queueTracker = qt;
+    this.statistics = statistics;
+    this.lowWaterMark = (int)(lowWaterFactor * (float)n);
+    this.controller = controller;
+    setName("Stuffer resolver thread");
+    setDaemon(true);
+    // Same priority as the stuffer thread; workers starve if this falls behind.
+    setPriority(getPriority()+1);
+  }
+
+  public void run()
+  {
+    resetManager.registerMe();
+
+    try
+    {
+      // Create a thread context object.
+      IThreadContext threadContext = ThreadContextFactory.make();
+
+      // The batch that has been resolved but not yet queued, if any
+      List<QueuedDocumentSet> resolvedSets = null;
+      long resolvedTime = 0L;
+
+      // Loop
+      while (true)
+      {
+        // Do another try/catch around everything in the loop
+        try
+        {
+          if (Thread.currentThread().isInterrupted())
+            throw new ManifoldCFException("Interrupted",ManifoldCFException.INTERRUPTED);
+
+          // Check if we're okay.  If a reset took place, the documents in any batch we are holding have
+          // already been returned to the jobqueue, so the batch must be thrown away.
+          if (resetManager.waitForReset(threadContext))
+            resolvedSets = null;
+
+          if (resolvedSets == null)
+          {
+            DocumentDescription[] descs = batchQueue.getBatch();
+            if (descs == null)
+              // It's a reset, so recycle
+              continue;
+
+            long resolveStart = System.currentTimeMillis();
+            resolvedSets = StufferThread.resolveDocuments(threadContext,descs);
+            resolvedTime = System.currentTimeMillis();
+            statistics.noteStage(StufferStatistics.STAGE_RESOLVE,resolvedTime - resolveStart);
+            if (controller != null)
+              controller.noteResolve(resolvedTime - resolveStart);
+
+            // If the queue has already drained, the worker threads have been waiting on the database
+            if (documentQueue.checkIfEmpty(getLowWaterMark()))
+              statistics.noteStarvation();
+          }
+
+          // Wait until queue is below low water mark.
+          if (documentQueue.checkIfEmpty(getLowWaterMark()) == false)
+          {
+            ManifoldCF.sleep(100L);
+            continue;
+          }
+
+          statistics.noteStage(StufferStatistics.STAGE_QUEUEWAIT,System.currentTimeMillis() - resolvedTime);
+          StufferThread.queueDocumentSets(documentQueue,queueTracker,resolvedSets);
+          resolvedSets = null;
+        }
+        catch (ManifoldCFException e)
+        {
+          if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+            break;
+
+          if (e.getErrorCode() == ManifoldCFException.DATABASE_CONNECTION_ERROR)
+          {
+            resetManager.noteEvent();
+
+            Logging.threads.error("Stuffer resolver thread aborting and restarting due to database connection reset: "+e.getMessage(),e);
+            try
+            {
+              // Give the database a chance to catch up/wake up
+              ManifoldCF.sleep(10000L);
+            }
+            catch (InterruptedException se)
+            {
+              break;
+            }
+            continue;
+          }
+
+          // Log it, but keep the thread alive
+          Logging.threads.error("Exception tossed: "+e.getMessage(),e);
+
+          if (e.getErrorCode() == ManifoldCFException.SETUP_ERROR)
+          {
+            System.exit(1);
+          }
+
+        }
+        catch (InterruptedException e)
+        {
+          // We're supposed to quit
+          break;
+        }
+        catch (OutOfMemoryError e)
+        {
+          System.err.println("agents process ran out of memory - shutting down");
+          e.printStackTrace(System.err);
+          System.exit(-200);
+        }
+        catch (Throwable e)
+        {
+          // A more severe error - but stay alive
+          Logging.threads.fatal("Error tossed: "+e.getMessage(),e);
+        }
+      }
+    }
+    catch (Throwable e)
+    {
+      // Severe error on initialization
+      System.err.println("agents process could not start - shutting down");
+      Logging.threads.fatal("StufferResolverThread initialization error tossed: "+e.getMessage(),e);
+      System.exit(-300);
+    }
+  }
+
+  /** Get the low-water mark currently in effect.
+  */
+  protected int getLowWaterMark()
+  {
+    return (controller == null)?lowWaterMark:controller.getLowWaterMark();
+  }
+
+}
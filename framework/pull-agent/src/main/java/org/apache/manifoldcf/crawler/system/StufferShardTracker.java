@@ -0,0 +1,129 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import java.util.*;
+
+/** This class keeps track of which shard of the job queue the local stuffer thread owns, when
+* stuffing is sharded across the cluster.
+* Each participating stuffer registers an anonymous service of a common type.  The active service names,
+* sorted, determine each participant's position, and the position determines its range of document hash
+* buckets.  When agents processes join or leave, the set of active services changes, and the shards are
+* recomputed the next time each stuffer refreshes.
+* While the participants disagree about the division (which can last for up to one refresh interval),
+* two of them may believe they own the same bucket, or nobody may own it.  The former is made safe by a
+* per-bucket lock taken while claiming documents; the latter just means that bucket waits a little.
+* This object must be used only by the thread that created it.
+*/
+public class StufferShardTracker
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The service type that sharded stuffers register under */
+  protected final static String stufferShardServiceType = "_STUFFERSHARD_";
+
+  /** How often the list of participants is rescanned, in milliseconds */
+  protected final static long refreshInterval = 10000L;
+
+  /** The lock manager */
+  protected final ILockManager lockManager;
+  /** Our service name, or null if not registered */
+  protected String serviceName = null;
+  /** The shard we currently own */
+  protected StufferShard currentShard = null;
+  /** The time of the next refresh */
+  protected long nextRefreshTime = 0L;
+
+  /** Constructor.
+  *@param threadContext is the thread context of the stuffer thread.
+  */
+  public StufferShardTracker(IThreadContext threadContext)
+    throws ManifoldCFException
+  {
+    this.lockManager = LockManagerFactory.make(threadContext);
+  }
+
+  /** Join the set of sharded stuffers.
+  */
+  public void register()
+    throws ManifoldCFException
+  {
+    if (serviceName != null)
+      return;
+    serviceName = lockManager.registerServiceBeginServiceActivity(stufferShardServiceType, null, null);
+    currentShard = null;
+    nextRefreshTime = 0L;
+  }
+
+  /** Leave the set of sharded stuffers.  The other participants will pick up our buckets when they next refresh.
+  */
+  public void unregister()
+    throws ManifoldCFException
+  {
+    if (serviceName == null)
+      return;
+    String name = serviceName;
+    serviceName = null;
+    currentShard = null;
+    lockManager.endServiceActivity(stufferShardServiceType, name);
+  }
+
+  /** Get the shard we currently own, rescanning the participants if it's time.
+  *@return the shard.  This may be empty, if there are more participants than buckets.
+  */
+  public StufferShard getShard()
+    throws ManifoldCFException
+  {
+    if (serviceName == null)
+      throw new IllegalStateException("Stuffer shard tracker is not registered");
+    long currentTime = System.currentTimeMillis();
+    if (currentShard == null || currentTime >= nextRefreshTime)
+    {
+      final List<String> serviceNames = new ArrayList<String>();
+      lockManager.scanServiceData(stufferShardServiceType, new IServiceDataAcceptor()
+        {
+          public boolean acceptServiceData(String name, byte[] serviceData)
+            throws ManifoldCFException
+          {
+            serviceNames.add(name);
+            return false;
+          }
+        });
+      Collections.sort(serviceNames);
+      int index = serviceNames.indexOf(serviceName);
+      StufferShard newShard;
+      if (index == -1)
+      {
+        // We should always see ourselves; if not, claim nothing until we do
+        Logging.threads.warn("Stuffer shard service '"+serviceName+"' not found among active services; not claiming any documents");
+        newShard = new StufferShard(0,0);
+      }
+      else
+        newShard = StufferShard.makeShard(index,serviceNames.size());
+      if (!newShard.equals(currentShard))
+        Logging.threads.info("Stuffer thread now owns job queue shard "+newShard+" ("+(index+1)+" of "+serviceNames.size()+" stuffers)");
+      currentShard = newShard;
+      nextRefreshTime = currentTime + refreshInterval;
+    }
+    return currentShard;
+  }
+
+}
@@ -0,0 +1,190 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import java.util.*;
+
+/** This class accumulates per-stage timings for the document stuffer, so that it is possible to see
+* where stuffing latency goes.  The stages are:
+* - claim: obtaining the stuffer interval and running getNextDocuments() against the database;
+* - resolve: loading job descriptions and connections, fetching last ingested versions, and computing bins;
+* - queue wait: time a resolved batch spent waiting for the document queue to drain to the low-water mark
+*   (pipelined mode only).
+* It also counts "starvations", which are occasions when the document queue had drained to the low-water
+* mark but no batch was ready to go onto it.
+*
+* Totals are cumulative since startup.  A summary of the most recent reporting window is written to the
+* performance log at DEBUG level.
+*/
+public class StufferStatistics
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Interval between summaries written to the performance log */
+  protected final static long reportInterval = 60000L;
+
+  public final static int STAGE_CLAIM = 0;
+  public final static int STAGE_RESOLVE = 1;
+  public final static int STAGE_QUEUEWAIT = 2;
+
+  protected final static String[] stageNames = new String[]{"claim","resolve","queue wait"};
+
+  /** Cumulative statistics, one per stage */
+  protected final StageStatistics[] totals = new StageStatistics[stageNames.length];
+  /** Statistics for the current reporting window, one per stage */
+  protected final StageStatistics[] window = new StageStatistics[stageNames.length];
+  /** Number of documents claimed */
+  protected long documentsClaimed = 0L;
+  /** Number of starvations */
+  protected long starvationCount = 0L;
+  /** Number of starvations in the current window */
+  protected long windowStarvationCount = 0L;
+  /** Start of current window */
+  protected long windowStart = System.currentTimeMillis();
+
+  /** Constructor */
+  public StufferStatistics()
+  {
+    for (int i = 0; i < stageNames.length; i++)
+    {
+      totals[i] = new StageStatistics();
+      window[i] = new StageStatistics();
+    }
+  }
+
+  /** Note the completion of a claim stage.
+  *@param elapsedTime is the time the stage took, in milliseconds.
+  *@param documentCount is the number of documents that were claimed.
+  */
+  public void noteClaim(long elapsedTime, int documentCount)
+  {
+    synchronized (this)
+    {
+      documentsClaimed += documentCount;
+    }
+    noteStage(STAGE_CLAIM,elapsedTime);
+  }
+
+  /** Note the completion of a stage.
+  *@param stage is the stage, e.g. STAGE_RESOLVE.
+  *@param elapsedTime is the time the stage took, in milliseconds.
+  */
+  public void noteStage(int stage, long elapsedTime)
+  {
+    synchronized (this)
+    {
+      totals[stage].note(elapsedTime);
+      window[stage].note(elapsedTime);
+    }
+    reportIfNeeded();
+  }
+
+  /** Note that the document queue reached the low-water mark with no batch ready for it.
+  */
+  public void noteStarvation()
+  {
+    synchronized (this)
+    {
+      starvationCount++;
+      windowStarvationCount++;
+    }
+    reportIfNeeded();
+  }
+
+  /** Get the number of times a stage has completed since startup. */
+  public synchronized long getStageCount(int stage)
+  {
+    return totals[stage].count;
+  }
+
+  /** Get the total time spent in a stage since startup, in milliseconds. */
+  public synchronized long getStageTotalTime(int stage)
+  {
+    return totals[stage].totalTime;
+  }
+
+  /** Get the longest single time spent in a stage since startup, in milliseconds. */
+  public synchronized long getStageMaxTime(int stage)
+  {
+    return totals[stage].maxTime;
+  }
+
+  /** Get the number of documents claimed since startup. */
+  public synchronized long getDocumentsClaimed()
+  {
+    return documentsClaimed;
+  }
+
+  /** Get the number of starvations since startup. */
+  public synchronized long getStarvationCount()
+  {
+    return starvationCount;
+  }
+
+  /** Write out a summary of the current window, if it is time to do so. */
+  protected void reportIfNeeded()
+  {
+    String summary = null;
+    synchronized (this)
+    {
+      long currentTime = System.currentTimeMillis();
+      if (currentTime - windowStart < reportInterval)
+        return;
+      if (Logging.perf.isDebugEnabled())
+      {
+        StringBuilder sb = new StringBuilder("Stuffer statistics for last ");
+        sb.append(currentTime - windowStart).append(" ms:");
+        for (int i = 0; i < stageNames.length; i++)
+        {
+          StageStatistics s = window[i];
+          sb.append(" ").append(stageNames[i]).append(" count=").append(s.count)
+            .append(" avg=").append((s.count==0)?0L:(s.totalTime/s.count))
+            .append(" max=").append(s.maxTime).append(";");
+        }
+        sb.append(" starvations=").append(windowStarvationCount);
+        summary = sb.toString();
+      }
+      for (int i = 0; i < stageNames.length; i++)
+      {
+        window[i] = new StageStatistics();
+      }
+      windowStarvationCount = 0L;
+      windowStart = currentTime;
+    }
+    if (summary != null)
+      Logging.perf.debug(summary);
+  }
+
+  /** Accumulated statistics for one stage */
+  protected static class StageStatistics
+  {
+    public long count = 0L;
+    public long totalTime = 0L;
+    public long maxTime = 0L;
+
+    public void note(long elapsedTime)
+    {
+      count++;
+      totalTime += elapsedTime;
+      if (elapsedTime > maxTime)
+        maxTime = elapsedTime;
+    }
+  }
+
+}
@@ -56,14 +56,30 @@ public class StufferThread extends Thread
   protected final BlockingDocuments blockingDocuments;
   /** Process ID */
   protected final String processID;
+  /** Hand-off queue to the resolver thread, or null if not pipelined */
+  protected final StufferBatchQueue batchQueue;
+  /** Per-stage timing statistics */
+  protected final StufferStatistics statistics;
+  /** True if this stuffer claims only from its own shard of the job queue */
+  protected final boolean sharded;
+  /** Controller that tunes the low-water mark and stuff amount, or null if they are fixed */
+  protected final StufferController controller;
   
   /** Constructor.
   *@param documentQueue is the document queue we'll be stuffing.
   *@param n represents the number of threads that will be processing queued stuff, NOT the
   * number of documents to be done at once!
+  *@param batchQueue is the hand-off queue to a StufferResolverThread.  If non-null, this thread only claims
+  * documents and hands them off, rather than resolving and queuing them itself.
+  *@param statistics is where per-stage timings are accumulated.
+  *@param sharded is true if this stuffer should claim only from its own shard of the job queue, as
+  * determined by the set of sharded stuffers active across the cluster.
+  *@param controller tunes the low-water mark and stuff amount as the crawl proceeds.  If null, the low-water
+  * mark stays fixed and the stuff amount is only doubled or halved.
   */
   public StufferThread(DocumentQueue documentQueue, int n, WorkerResetManager resetManager, QueueTracker qt,
-    BlockingDocuments blockingDocuments, float lowWaterFactor, float stuffSizeFactor, String processID)
+    BlockingDocuments blockingDocuments, float lowWaterFactor, float stuffSizeFactor, String processID,
+    StufferBatchQueue batchQueue, StufferStatistics statistics, boolean sharded, StufferController controller)
     throws ManifoldCFException
   {
     super();
@@ -75,6 +91,12 @@ public class StufferThread extends Thread
     this.queueTracker = qt;
     this.blockingDocuments = blockingDocuments;
     this.processID = processID;
+    this.batchQueue = batchQueue;
+    this.statistics = statistics;
+    this.sharded = sharded;
+    this.controller = controller;
+    if (controller != null)
+      this.stuffAmt = controller.getStuffAmount();
     setName("Stuffer thread");
     setDaemon(true);
     // The priority of this thread is higher than most others.  We want stuffing to proceed even if the machine
@@ -82,6 +104,20 @@ public class StufferThread extends Thread
     setPriority(getPriority()+1);
   }
 
+  /** Get the per-stage timing statistics for this stuffer.
+  */
+  public StufferStatistics getStatistics()
+  {
+    return statistics;
+  }
+
+  /** Get the controller tuning this stuffer, or null if the low-water mark and stuff amount are fixed.
+  */
+  public StufferController getController()
+  {
+    return controller;
+  }
+
   public void run()
   {
     resetManager.registerMe();
@@ -90,35 +126,29 @@ public class StufferThread extends Thread
     {
       // Create a thread context object.
       IThreadContext threadContext = ThreadContextFactory.make();
-      IRepositoryConnectionManager mgr = RepositoryConnectionManagerFactory.make(threadContext);
-      IIncrementalIngester ingester = IncrementalIngesterFactory.make(threadContext);
       IJobManager jobManager = JobManagerFactory.make(threadContext);
       ILockManager lockManager = LockManagerFactory.make(threadContext);
       IReprioritizationTracker rt = ReprioritizationTrackerFactory.make(threadContext);
 
-      IRepositoryConnectorPool repositoryConnectorPool = RepositoryConnectorPoolFactory.make(threadContext);
-      
-      Logging.threads.debug("Stuffer thread: Low water mark is "+Integer.toString(lowWaterMark)+"; amount per stuffing is "+Integer.toString(stuffAmt));
-
-      // Hashmap keyed by jobid and containing ArrayLists.
-      // This way we can guarantee priority will do the right thing, because the
-      // priority is per-job.  We CANNOT guarantee anything about scheduling order, however,
-      // other than that it falls in the time window.
-      Map<Long,List<QueuedDocument>> documentSets = new HashMap<Long,List<QueuedDocument>>();
-
-      // Job description map (local) - designed to improve performance.
-      // Cleared and reloaded on every batch of documents.
-      Map<Long,IJobDescription> jobDescriptionMap = new HashMap<Long,IJobDescription>();
+      Logging.threads.debug("Stuffer thread: Low water mark is "+Integer.toString(lowWaterMark)+"; amount per stuffing is "+Integer.toString(stuffAmt)+
+        ((batchQueue == null)?"":"; pipelined")+(sharded?"; sharded":"")+((controller == null)?"":"; adaptive"));
 
-      // Repository connection map (local) - designed to improve performance.
-      // Cleared and reloaded on every batch of documents.
-      Map<String,IRepositoryConnection> connectionMap = new HashMap<String,IRepositoryConnection>();
+      // In sharded mode, join the set of stuffers dividing up the job queue
+      StufferShardTracker shardTracker = null;
+      if (sharded)
+      {
+        shardTracker = new StufferShardTracker(threadContext);
+        shardTracker.register();
+      }
 
       // Parameters we need in order to adjust the number of documents we fetch.  We base the number on how long it took to queue documents vs.
       // how long it took to need to queue again.
       long lastQueueStart = -1L;
       long lastQueueEnd = -1L;
       boolean lastQueueFullResults = false;
+      // In pipelined mode, we instead base the number on whether the resolver saw the queue starve, or had to wait a long time for it to drain.
+      long lastStarvationCount = 0L;
+      long lastQueueWaitTime = 0L;
 
       // Loop
       while (true)
@@ -132,29 +162,67 @@ public class StufferThread extends Thread
           // Check if we're okay
           resetManager.waitForReset(threadContext);
 
-          // System.out.println("Waiting...");
-          // Wait until queue is below low water mark.
-          boolean isEmpty = documentQueue.checkIfEmpty(lowWaterMark);
-          if (isEmpty == false)
+          if (batchQueue == null)
           {
-            ManifoldCF.sleep(1000L);
-            continue;
-          }
-          long queueNeededTime = System.currentTimeMillis();
+            // System.out.println("Waiting...");
+            // Wait until queue is below low water mark.
+            boolean isEmpty = documentQueue.checkIfEmpty((controller == null)?lowWaterMark:controller.getLowWaterMark());
+            if (isEmpty == false)
+            {
+              ManifoldCF.sleep(1000L);
+              continue;
+            }
+            long queueNeededTime = System.currentTimeMillis();
 
-          Logging.threads.debug("Document stuffer thread woke up");
+            Logging.threads.debug("Document stuffer thread woke up");
 
-          // Adjust stuffAmt based on how well we did in the last queuing attempt keeping up with the worker threads.
-          if (lastQueueFullResults)
+            // Adjust stuffAmt based on how well we did in the last queuing attempt keeping up with the worker threads.
+            if (controller != null)
+              stuffAmt = controller.adjust();
+            else if (lastQueueFullResults)
+            {
+              if (lastQueueEnd - lastQueueStart >= queueNeededTime - lastQueueEnd)
+                stuffAmt *= 2;
+              else if (lastQueueEnd - lastQueueStart < 4 * (queueNeededTime - lastQueueEnd))
+              {
+                stuffAmt /= 2;
+                if (stuffAmt < lowestStuffAmt)
+                  stuffAmt = lowestStuffAmt;
+              }
+            }
+          }
+          else
           {
-            if (lastQueueEnd - lastQueueStart >= queueNeededTime - lastQueueEnd)
-              stuffAmt *= 2;
-            else if (lastQueueEnd - lastQueueStart < 4 * (queueNeededTime - lastQueueEnd))
+            // Pipelined: claim the next batch as soon as the resolver has taken the previous one, without
+            // waiting for the document queue to drain.
+            if (batchQueue.hasBatch())
+            {
+              ManifoldCF.sleep(100L);
+              continue;
+            }
+
+            Logging.threads.debug("Document stuffer thread woke up");
+
+            // Adjust stuffAmt based on how the resolver fared with the last batch.  If the queue starved, we are
+            // not claiming enough at a time; if batches sat waiting much longer than it takes to claim them, we are
+            // claiming too much.
+            long starvationCount = statistics.getStarvationCount();
+            long queueWaitTime = statistics.getStageTotalTime(StufferStatistics.STAGE_QUEUEWAIT);
+            if (controller != null)
+              stuffAmt = controller.adjust();
+            else if (lastQueueFullResults)
             {
-              stuffAmt /= 2;
-              if (stuffAmt < lowestStuffAmt)
-                stuffAmt = lowestStuffAmt;
+              if (starvationCount > lastStarvationCount)
+                stuffAmt *= 2;
+              else if (queueWaitTime - lastQueueWaitTime > 4 * (lastQueueEnd - lastQueueStart))
+              {
+                stuffAmt /= 2;
+                if (stuffAmt < lowestStuffAmt)
+                  stuffAmt = lowestStuffAmt;
+              }
             }
+            lastStarvationCount = starvationCount;
+            lastQueueWaitTime = queueWaitTime;
           }
 
           // What we want to do is load enough documents to completely fill n queued document sets.
@@ -166,6 +234,7 @@ public class StufferThread extends Thread
           // before actually firing off the query.  The worst that can happen is if the query
           // fails, the interval will be "lost", and thus fewer documents will be stuffed than could
           // be.
+          long claimStart = System.currentTimeMillis();
           long stuffingStartTime;
           long stuffingEndTime;
           lockManager.enterWriteLock(stufferThreadLockName);
@@ -184,9 +253,13 @@ public class StufferThread extends Thread
           lastQueueStart = System.currentTimeMillis();
           DepthStatistics depthStatistics = new DepthStatistics();
           DocumentDescription[] descs = jobManager.getNextDocuments(processID,stuffAmt,stuffingEndTime,stuffingEndTime-stuffingStartTime,
-            blockingDocuments,queueTracker.getCurrentStatistics(),depthStatistics);
+            blockingDocuments,queueTracker.getCurrentStatistics(),depthStatistics,
+            (shardTracker == null)?null:shardTracker.getShard());
           lastQueueEnd = System.currentTimeMillis();
           lastQueueFullResults = (descs.length == stuffAmt);
+          statistics.noteClaim(lastQueueEnd - claimStart,descs.length);
+          if (controller != null)
+            controller.noteClaim(lastQueueEnd - lastQueueStart,stuffAmt,descs.length);
           
           // Assess what we've done.
           rt.assessMinimumDepth(depthStatistics.getBins());
@@ -207,200 +280,20 @@ public class StufferThread extends Thread
             continue;
           }
 
-          // if (Logging.threads.isDebugEnabled())
-          //      Logging.threads.debug("Found "+Integer.toString(descs.length)+" documents to stuff");
-
-          // Clear the job description map and connection map
-          jobDescriptionMap.clear();
-          connectionMap.clear();
-
-          // We need to get the last ingested version string for all of these documents, in bulk!
-
-          IJobDescription[] jobs = new IJobDescription[descs.length];
-          IRepositoryConnection[] connections = new IRepositoryConnection[descs.length];
-          Map[] versions = new HashMap[descs.length];
-          IPipelineSpecificationBasic[] pipelineSpecifications = new IPipelineSpecificationBasic[descs.length];
-          String[] documentClasses = new String[descs.length];
-          String[] documentIDHashes = new String[descs.length];
-
-          // Go through the documents and set up jobs, prefixed id's
-          Set<String> connectionNames = new HashSet<String>();
-          for (int i = 0; i < descs.length; i++)
-          {
-            DocumentDescription dd = descs[i];
-            IJobDescription job = jobDescriptionMap.get(dd.getJobID());
-            if (job == null)
-            {
-              job = jobManager.load(dd.getJobID(),true);
-              jobDescriptionMap.put(dd.getJobID(),job);
-            }
-            jobs[i] = job;
-            String connectionName = job.getConnectionName();
-            connectionNames.add(connectionName);
-            documentClasses[i] = connectionName;
-            pipelineSpecifications[i] = new PipelineSpecificationBasic(job);
-            IRepositoryConnection connection = connectionMap.get(connectionName);
-            if (connection == null)
-            {
-              connection = mgr.load(connectionName);
-              connectionMap.put(connectionName,connection);
-            }
-            connections[i] = connection;
-            documentIDHashes[i] = dd.getDocumentIdentifierHash();
-
-          }
-
-          IngestStatuses statuses = new IngestStatuses();
-          ingester.getPipelineDocumentIngestDataMultiple(statuses,pipelineSpecifications,documentClasses,documentIDHashes);
-          // Break apart the result.
-          for (int i = 0; i < descs.length; i++)
+          if (batchQueue != null)
           {
-            versions[i] = new HashMap<String,DocumentIngestStatus>();
-            for (int j = 0; j < pipelineSpecifications[i].getOutputCount(); j++)
-            {
-              String outputName = pipelineSpecifications[i].getStageConnectionName(pipelineSpecifications[i].getOutputStage(j));
-              DocumentIngestStatusSet statusSet = statuses.getStatus(documentClasses[i],documentIDHashes[i],outputName);
-              if (statusSet != null)
-                versions[i].put(outputName,statusSet);
-            }
-          }
-
-          // We need to go through the list, and segregate them by job, so the individual
-          // connectors can work in batch.
-          documentSets.clear();
-
-          // Prepare to grab all the connector instances we'll need
-          String[] orderingKeys = new String[connectionNames.size()];
-          IRepositoryConnection[] grabConnections = new IRepositoryConnection[connectionNames.size()];
-          int z = 0;
-          for (String connectionName : connectionNames)
-          {
-            orderingKeys[z] = connectionName;
-            IRepositoryConnection connection = connectionMap.get(connectionName);
-            grabConnections[z] = connection;
-            z++;
-          }
-
-          String[][] descBinNames = new String[descs.length][];
-          int[] descMaxDocuments = new int[descs.length];
-          try
-          {
-            IRepositoryConnector[] connectors = repositoryConnectorPool.grabMultiple(orderingKeys,grabConnections);
-            try
-            {
-              // Map from connection name to connector instance
-              Map<String,IRepositoryConnector> connectorMap = new HashMap<String,IRepositoryConnector>();
-              for (z = 0; z < orderingKeys.length; z++)
-              {
-                connectorMap.put(orderingKeys[z],connectors[z]);
-              }
-
-              for (int i = 0; i < descs.length; i++)
-              {
-                // We have to see how we are doing with respect to the limit for this connector.
-                // We also need to log the queuing activity to the queue tracker, so that
-                // the priority setter thread can do its thing properly.
-
-                // Get a repository connection appropriate for this document.
-                IRepositoryConnection connection = connections[i];
-                int maxDocuments;
-                String[] binNames;
-                // Grab a connector handle
-                IRepositoryConnector connector = connectorMap.get(connection.getName());
-                if (connector == null)
-                {
-                  maxDocuments = 1;
-                  binNames = new String[]{""};
-                }
-                else
-                {
-                  // Convert the document identifier to a URI
-                  maxDocuments = connector.getMaxDocumentRequest();
-                  // Get the bins for the document identifier
-                  binNames = connector.getBinNames(descs[i].getDocumentIdentifier());
-                }
-                descBinNames[i] = binNames;
-                descMaxDocuments[i] = maxDocuments;
-              }
-            }
-            finally
-            {
-              // Release all the connector instances we grabbed
-              repositoryConnectorPool.releaseMultiple(grabConnections,connectors);
-            }
-            
-          }
-          catch (ManifoldCFException e)
-          {
-            // If we were interrupted, then we are allowed to leave, because the process is terminating, but that's the only exception to the rule
-            if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
-              throw e;
-
-            // Note: We really should never leave this block by throwing an exception, since that could easily leave dangling
-            // active jobqueue entries around.  Instead, log the error and continue IN ALL CASES.
-            Logging.threads.error("Stuffer thread ManifoldCF Exception thrown: "+e.getMessage()+" - continuing",
-              e);
-          }
-          catch (OutOfMemoryError e)
-          {
-            System.err.println("agents process ran out of memory - shutting down");
-            e.printStackTrace(System.err);
-            System.exit(-200);
-          }
-          catch (Throwable e)
-          {
-            // Note: We really should never leave this block by throwing an exception, since that could easily leave dangling
-            // active jobqueue entries around.  Instead, log the error and continue IN ALL CASES.
-            Logging.threads.fatal("Stuffer thread Throwable thrown: "+e.getMessage()+" - continuing",
-              e);
-          }
-
-          for (int i = 0; i < descs.length; i++)
-          {
-            Long jobID = jobs[i].getID();
-            String[] binNames = descBinNames[i];
-            if (binNames == null)
-              binNames = new String[]{""};
-            int maxDocuments = descMaxDocuments[i];
-            if (maxDocuments == 0)
-              maxDocuments = 1;
-            QueuedDocument qd = new QueuedDocument(descs[i],(Map<String,DocumentIngestStatusSet>)versions[i],binNames);
-
-            // Grab the arraylist that's there, or create it.
-            List<QueuedDocument> set = documentSets.get(jobID);
-            if (set == null)
-            {
-              set = new ArrayList<QueuedDocument>();
-              documentSets.put(jobID,set);
-            }
-            set.add(qd);
-
-            // Note the queuing activity
-            queueTracker.addRecord(binNames);
-
-            if (set.size() >= maxDocuments)
-            {
-              // Create and queue this as a document set
-              // if (Logging.threads.isDebugEnabled())
-              //      Logging.threads.debug("Queuing "+Integer.toString(set.size())+" documents in one request");
-              QueuedDocumentSet qds = new QueuedDocumentSet(set,jobs[i],connections[i]);
-              documentQueue.addDocument(qds);
-              set.clear();
-            }
+            // Hand off to the resolver.  If this fails, a reset is pending, which will take care of the documents we claimed.
+            batchQueue.addBatch(descs);
+            continue;
           }
 
-          // Stuff everything left into the queue.
-          for (int i = 0; i < descs.length; i++)
-          {
-            Long jobID = jobs[i].getID();
-            List<QueuedDocument> x = documentSets.get(jobID);
-            if (x != null && x.size() > 0)
-            {
-              QueuedDocumentSet set = new QueuedDocumentSet(x,jobs[i],connections[i]);
-              documentQueue.addDocument(set);
-              documentSets.remove(jobID);
-            }
-          }
+          long resolveStart = System.currentTimeMillis();
+          List<QueuedDocumentSet> documentSets = resolveDocuments(threadContext,descs);
+          long resolveTime = System.currentTimeMillis() - resolveStart;
+          statistics.noteStage(StufferStatistics.STAGE_RESOLVE,resolveTime);
+          if (controller != null)
+            controller.noteResolve(resolveTime);
+          queueDocumentSets(documentQueue,queueTracker,documentSets);
 
           // If we don't wait here, the other threads don't seem to have a chance to queue anything else up.
           //Thread.yield();
@@ -453,6 +346,19 @@ public class StufferThread extends Thread
           Logging.threads.fatal("Error tossed: "+e.getMessage(),e);
         }
       }
+
+      // Give up our shard, so the others pick it up promptly
+      if (shardTracker != null)
+      {
+        try
+        {
+          shardTracker.unregister();
+        }
+        catch (ManifoldCFException e)
+        {
+          Logging.threads.warn("Stuffer thread could not leave shard set: "+e.getMessage(),e);
+        }
+      }
     }
     catch (Throwable e)
     {
@@ -463,6 +369,239 @@ public class StufferThread extends Thread
     }
   }
 
+  /** Resolve a batch of claimed documents into document sets ready for queuing.  This loads
+  * the job descriptions and connections, fetches the last ingested versions in bulk, and obtains
+  * bins and maximum document counts from the connectors.
+  * Note: this method must not throw anything other than an interruption for any reason having to do
+  * with connectors, since that could easily leave dangling active jobqueue entries around.
+  *@param threadContext is the thread context of the calling thread.
+  *@param descs are the documents claimed from the job queue.
+  *@return the document sets, one per job or fewer documents, in queuing order.
+  */
+  protected static List<QueuedDocumentSet> resolveDocuments(IThreadContext threadContext, DocumentDescription[] descs)
+    throws ManifoldCFException
+  {
+    IRepositoryConnectionManager mgr = RepositoryConnectionManagerFactory.make(threadContext);
+    IIncrementalIngester ingester = IncrementalIngesterFactory.make(threadContext);
+    IJobManager jobManager = JobManagerFactory.make(threadContext);
+    IRepositoryConnectorPool repositoryConnectorPool = RepositoryConnectorPoolFactory.make(threadContext);
+
+    // Job description map (local) - designed to improve performance.
+    Map<Long,IJobDescription> jobDescriptionMap = new HashMap<Long,IJobDescription>();
+
+    // Repository connection map (local) - designed to improve performance.
+    Map<String,IRepositoryConnection> connectionMap = new HashMap<String,IRepositoryConnection>();
+
+    // We need to get the last ingested version string for all of these documents, in bulk!
+
+    IJobDescription[] jobs = new IJobDescription[descs.length];
+    IRepositoryConnection[] connections = new IRepositoryConnection[descs.length];
+    Map[] versions = new HashMap[descs.length];
+    IPipelineSpecificationBasic[] pipelineSpecifications = new IPipelineSpecificationBasic[descs.length];
+    String[] documentClasses = new String[descs.length];
+    String[] documentIDHashes = new String[descs.length];
+
+    // Go through the documents and set up jobs, prefixed id's
+    Set<String> connectionNames = new HashSet<String>();
+    for (int i = 0; i < descs.length; i++)
+    {
+      DocumentDescription dd = descs[i];
+      IJobDescription job = jobDescriptionMap.get(dd.getJobID());
+      if (job == null)
+      {
+        job = jobManager.load(dd.getJobID(),true);
+        jobDescriptionMap.put(dd.getJobID(),job);
+      }
+      jobs[i] = job;
+      String connectionName = job.getConnectionName();
+      connectionNames.add(connectionName);
+      documentClasses[i] = connectionName;
+      pipelineSpecifications[i] = new PipelineSpecificationBasic(job);
+      IRepositoryConnection connection = connectionMap.get(connectionName);
+      if (connection == null)
+      {
+        connection = mgr.load(connectionName);
+        connectionMap.put(connectionName,connection);
+      }
+      connections[i] = connection;
+      documentIDHashes[i] = dd.getDocumentIdentifierHash();
+
+    }
+
+    IngestStatuses statuses = new IngestStatuses();
+    ingester.getPipelineDocumentIngestDataMultiple(statuses,pipelineSpecifications,documentClasses,documentIDHashes);
+    // Break apart the result.
+    for (int i = 0; i < descs.length; i++)
+    {
+      versions[i] = new HashMap<String,DocumentIngestStatus>();
+      for (int j = 0; j < pipelineSpecifications[i].getOutputCount(); j++)
+      {
+        String outputName = pipelineSpecifications[i].getStageConnectionName(pipelineSpecifications[i].getOutputStage(j));
+        DocumentIngestStatusSet statusSet = statuses.getStatus(documentClasses[i],documentIDHashes[i],outputName);
+        if (statusSet != null)
+          versions[i].put(outputName,statusSet);
+      }
+    }
+
+    // Prepare to grab all the connector instances we'll need
+    String[] orderingKeys = new String[connectionNames.size()];
+    IRepositoryConnection[] grabConnections = new IRepositoryConnection[connectionNames.size()];
+    int z = 0;
+    for (String connectionName : connectionNames)
+    {
+      orderingKeys[z] = connectionName;
+      IRepositoryConnection connection = connectionMap.get(connectionName);
+      grabConnections[z] = connection;
+      z++;
+    }
+
+    String[][] descBinNames = new String[descs.length][];
+    int[] descMaxDocuments = new int[descs.length];
+    try
+    {
+      IRepositoryConnector[] connectors = repositoryConnectorPool.grabMultiple(orderingKeys,grabConnections);
+      try
+      {
+        // Map from connection name to connector instance
+        Map<String,IRepositoryConnector> connectorMap = new HashMap<String,IRepositoryConnector>();
+        for (z = 0; z < orderingKeys.length; z++)
+        {
+          connectorMap.put(orderingKeys[z],connectors[z]);
+        }
+
+        for (int i = 0; i < descs.length; i++)
+        {
+          // We have to see how we are doing with respect to the limit for this connector.
+          // We also need to log the queuing activity to the queue tracker, so that
+          // the priority setter thread can do its thing properly.
+
+          // Get a repository connection appropriate for this document.
+          IRepositoryConnection connection = connections[i];
+          int maxDocuments;
+          String[] binNames;
+          // Grab a connector handle
+          IRepositoryConnector connector = connectorMap.get(connection.getName());
+          if (connector == null)
+          {
+            maxDocuments = 1;
+            binNames = new String[]{""};
+          }
+          else
+          {
+            // Convert the document identifier to a URI
+            maxDocuments = connector.getMaxDocumentRequest();
+            // Get the bins for the document identifier
+            binNames = connector.getBinNames(descs[i].getDocumentIdentifier());
+          }
+          descBinNames[i] = binNames;
+          descMaxDocuments[i] = maxDocuments;
+        }
+      }
+      finally
+      {
+        // Release all the connector instances we grabbed
+        repositoryConnectorPool.releaseMultiple(grabConnections,connectors);
+      }
+      
+    }
+    catch (ManifoldCFException e)
+    {
+      // If we were interrupted, then we are allowed to leave, because the process is terminating, but that's the only exception to the rule
+      if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+        throw e;
+
+      // Note: We really should never leave this block by throwing an exception, since that could easily leave dangling
+      // active jobqueue entries around.  Instead, log the error and continue IN ALL CASES.
+      Logging.threads.error("Stuffer thread ManifoldCF Exception thrown: "+e.getMessage()+" - continuing",
+        e);
+    }
+    catch (OutOfMemoryError e)
+    {
+      System.err.println("agents process ran out of memory - shutting down");
+      e.printStackTrace(System.err);
+      System.exit(-200);
+    }
+    catch (Throwable e)
+    {
+      // Note: We really should never leave this block by throwing an exception, since that could easily leave dangling
+      // active jobqueue entries around.  Instead, log the error and continue IN ALL CASES.
+      Logging.threads.fatal("Stuffer thread Throwable thrown: "+e.getMessage()+" - continuing",
+        e);
+    }
+
+    // We need to go through the list, and segregate them by job, so the individual
+    // connectors can work in batch.
+    // Hashmap keyed by jobid and containing ArrayLists.
+    // This way we can guarantee priority will do the right thing, because the
+    // priority is per-job.  We CANNOT guarantee anything about scheduling order, however,
+    // other than that it falls in the time window.
+    Map<Long,List<QueuedDocument>> documentSets = new HashMap<Long,List<QueuedDocument>>();
+    List<QueuedDocumentSet> rval = new ArrayList<QueuedDocumentSet>();
+
+    for (int i = 0; i < descs.length; i++)
+    {
+      Long jobID = jobs[i].getID();
+      String[] binNames = descBinNames[i];
+      if (binNames == null)
+        binNames = new String[]{""};
+      int maxDocuments = descMaxDocuments[i];
+      if (maxDocuments == 0)
+        maxDocuments = 1;
+      QueuedDocument qd = new QueuedDocument(descs[i],(Map<String,DocumentIngestStatusSet>)versions[i],binNames);
+
+      // Grab the arraylist that's there, or create it.
+      List<QueuedDocument> set = documentSets.get(jobID);
+      if (set == null)
+      {
+        set = new ArrayList<QueuedDocument>();
+        documentSets.put(jobID,set);
+      }
+      set.add(qd);
+
+      if (set.size() >= maxDocuments)
+      {
+        // Create this as a document set
+        // if (Logging.threads.isDebugEnabled())
+        //      Logging.threads.debug("Queuing "+Integer.toString(set.size())+" documents in one request");
+        rval.add(new QueuedDocumentSet(set,jobs[i],connections[i]));
+        set.clear();
+      }
+    }
+
+    // Everything left becomes a set too.
+    for (int i = 0; i < descs.length; i++)
+    {
+      Long jobID = jobs[i].getID();
+      List<QueuedDocument> x = documentSets.get(jobID);
+      if (x != null && x.size() > 0)
+      {
+        rval.add(new QueuedDocumentSet(x,jobs[i],connections[i]));
+        documentSets.remove(jobID);
+      }
+    }
+
+    return rval;
+  }
+
+  /** Put resolved document sets onto the document queue, noting the queuing activity
+  * in the queue tracker.
+  *@param documentQueue is the document queue.
+  *@param queueTracker is the queue tracker.
+  *@param documentSets are the sets to queue.
+  */
+  protected static void queueDocumentSets(DocumentQueue documentQueue, QueueTracker queueTracker, List<QueuedDocumentSet> documentSets)
+  {
+    for (QueuedDocumentSet qds : documentSets)
+    {
+      // Note the queuing activity
+      for (int i = 0; i < qds.getCount(); i++)
+      {
+        queueTracker.addRecord(qds.getDocument(i).getBinNames());
+      }
+      documentQueue.addDocument(qds);
+    }
+  }
+
   protected static long readLastTime(ILockManager lockManager)
     throws ManifoldCFException
   {
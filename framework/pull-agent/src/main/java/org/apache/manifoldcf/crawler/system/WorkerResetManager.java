@@ -34,13 +34,24 @@ public class WorkerResetManager extends ResetManager
   protected final DocumentQueue dq;
   /** The expiration queue */
   protected final DocumentCleanupQueue eq;
+  /** The pipelined stuffer's hand-off queue, or null */
+  protected final StufferBatchQueue bq;
 
   /** Constructor. */
   public WorkerResetManager(DocumentQueue dq, DocumentCleanupQueue eq, String processID)
+  {
+    this(dq,eq,null,processID);
+  }
+
+  /** Constructor.
+  *@param bq is the hand-off queue between the stuffer and resolver threads, or null if the stuffer is not pipelined.
+  */
+  public WorkerResetManager(DocumentQueue dq, DocumentCleanupQueue eq, StufferBatchQueue bq, String processID)
   {
     super(processID);
     this.dq = dq;
     this.eq = eq;
+    this.bq = bq;
   }
 
   /** Reset */
@@ -52,6 +63,8 @@ public class WorkerResetManager extends ResetManager
     jobManager.resetDocumentWorkerStatus(processID);
     dq.clear();
     eq.clear();
+    if (bq != null)
+      bq.clear();
   }
   
   /** Do the wakeup logic.
@@ -62,6 +75,8 @@ public class WorkerResetManager extends ResetManager
     // Wake up all sleeping worker threads
     dq.reset();
     eq.reset();
+    if (bq != null)
+      bq.reset();
   }
 }
 
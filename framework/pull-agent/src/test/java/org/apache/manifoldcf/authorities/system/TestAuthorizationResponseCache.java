@@ -0,0 +1,286 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.authorities.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.authorities.interfaces.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestAuthorizationResponseCache extends org.apache.manifoldcf.core.tests.Base
+{
+  protected static final String lifetimeProperty = "org.apache.manifoldcf.authorityservice.cache.lifetime";
+  protected static final String unreachableLifetimeProperty = "org.apache.manifoldcf.authorityservice.cache.unreachablelifetime";
+  protected static final String maxSizeProperty = "org.apache.manifoldcf.authorityservice.cache.maxsize";
+
+  @Override
+  protected void writeProperties(StringBuilder output)
+    throws Exception
+  {
+    super.writeProperties(output);
+    writeProperty(output,lifetimeProperty,"60000");
+    writeProperty(output,lifetimeProperty+".shortlived","200");
+    writeProperty(output,unreachableLifetimeProperty+".down","200");
+    writeProperty(output,maxSizeProperty+".small","1");
+  }
+
+  protected static void writeProperty(StringBuilder output, String name, String value)
+  {
+    output.append("  <property name=\""+name+"\" value=\""+value+"\"/>\n");
+  }
+
+  // The cache needs only the configuration, so there is no database to set up
+
+  @Override
+  protected void localSetUp()
+    throws Exception
+  {
+  }
+
+  @Override
+  protected void localReset()
+    throws Exception
+  {
+  }
+
+  @Override
+  protected void localCleanUp()
+    throws Exception
+  {
+  }
+
+  @Test(timeout=60000)
+  public void concurrentRequestsAreCoalesced()
+    throws Exception
+  {
+    IThreadContext threadContext = ThreadContextFactory.make();
+    AuthorizationResponseCache cache = new AuthorizationResponseCache(threadContext);
+    AtomicInteger fetchCount = new AtomicInteger(0);
+    AuthorizationResponse answer = new AuthorizationResponse(new String[]{"token"},AuthorizationResponse.RESPONSE_OK);
+
+    // Hold the first claim until every other thread is waiting on it
+    AuthorizationResponseCache.Entry first = cache.lookup(threadContext,"conn","user");
+    assertTrue(first.claim());
+
+    Requester[] requesters = new Requester[5];
+    for (int i = 0; i < requesters.length; i++)
+    {
+      requesters[i] = new Requester(cache,"conn","user",answer,false,fetchCount);
+      requesters[i].start();
+    }
+    // None of them can get anywhere until the first claim completes
+    Thread.sleep(200L);
+    for (Requester r : requesters)
+    {
+      assertTrue(r.isAlive());
+    }
+    fetchCount.incrementAndGet();
+    cache.complete(threadContext,"conn",first,answer,null,false);
+    cache.release(threadContext,"conn",first);
+    for (Requester r : requesters)
+    {
+      r.join();
+      r.rethrow();
+      assertSame(answer,r.getResponse());
+    }
+    assertEquals(1,fetchCount.get());
+    // And the answer is now cached
+    assertSame(first,cache.lookup(threadContext,"conn","user"));
+  }
+
+  @Test(timeout=60000)
+  public void pendingRequestsAreNotEvicted()
+    throws Exception
+  {
+    IThreadContext threadContext = ThreadContextFactory.make();
+    AuthorizationResponseCache cache = new AuthorizationResponseCache(threadContext);
+    AuthorizationResponse answer = new AuthorizationResponse(new String[]{"token"},AuthorizationResponse.RESPONSE_OK);
+
+    // The "small" connection keeps only one completed response
+    AuthorizationResponseCache.Entry pending = cache.lookup(threadContext,"small","pending");
+    assertTrue(pending.claim());
+    for (int i = 0; i < 3; i++)
+    {
+      AuthorizationResponseCache.Entry other = cache.lookup(threadContext,"small","user"+i);
+      assertTrue(other.claim());
+      cache.complete(threadContext,"small",other,answer,null,false);
+      cache.release(threadContext,"small",other);
+    }
+    // The request under way is still the one everybody gets
+    assertSame(pending,cache.lookup(threadContext,"small","pending"));
+    // Only the latest completed response is kept
+    assertNotSame(pending,cache.lookup(threadContext,"small","user0"));
+    cache.complete(threadContext,"small",pending,answer,null,false);
+    cache.release(threadContext,"small",pending);
+    assertSame(pending,cache.lookup(threadContext,"small","pending"));
+  }
+
+  @Test(timeout=60000)
+  public void responsesExpire()
+    throws Exception
+  {
+    IThreadContext threadContext = ThreadContextFactory.make();
+    AuthorizationResponseCache cache = new AuthorizationResponseCache(threadContext);
+    AuthorizationResponse answer = new AuthorizationResponse(new String[]{"token"},AuthorizationResponse.RESPONSE_OK);
+
+    AuthorizationResponseCache.Entry entry = cache.lookup(threadContext,"shortlived","user");
+    assertTrue(entry.claim());
+    cache.complete(threadContext,"shortlived",entry,answer,null,false);
+    cache.release(threadContext,"shortlived",entry);
+    assertSame(entry,cache.lookup(threadContext,"shortlived","user"));
+    Thread.sleep(400L);
+    AuthorizationResponseCache.Entry newEntry = cache.lookup(threadContext,"shortlived","user");
+    assertNotSame(entry,newEntry);
+    assertTrue(newEntry.claim());
+  }
+
+  @Test(timeout=60000)
+  public void errorsUseTheUnreachableLifetime()
+    throws Exception
+  {
+    IThreadContext threadContext = ThreadContextFactory.make();
+    AuthorizationResponseCache cache = new AuthorizationResponseCache(threadContext);
+    AuthorizationResponse fallback = new AuthorizationResponse(new String[0],AuthorizationResponse.RESPONSE_USERUNAUTHORIZED);
+
+    // By default, a response standing in for an error is not kept at all, even though the connection keeps answers for a minute
+    AuthorizationResponseCache.Entry entry = cache.lookup(threadContext,"conn","failing");
+    assertTrue(entry.claim());
+    cache.complete(threadContext,"conn",entry,fallback,null,true);
+    cache.release(threadContext,"conn",entry);
+    assertSame(fallback,entry.getResponse());
+    assertNotSame(entry,cache.lookup(threadContext,"conn","failing"));
+
+    // The "down" connection keeps them briefly
+    entry = cache.lookup(threadContext,"down","failing");
+    assertTrue(entry.claim());
+    cache.complete(threadContext,"down",entry,fallback,null,true);
+    cache.release(threadContext,"down",entry);
+    assertSame(entry,cache.lookup(threadContext,"down","failing"));
+    Thread.sleep(400L);
+    assertNotSame(entry,cache.lookup(threadContext,"down","failing"));
+
+    // An exception is handed to the waiters, but never kept
+    ManifoldCFException failure = new ManifoldCFException("Authority failed");
+    entry = cache.lookup(threadContext,"conn","exception");
+    assertTrue(entry.claim());
+    AuthorizationResponseCache.Entry waiting = cache.lookup(threadContext,"conn","exception");
+    assertSame(entry,waiting);
+    assertFalse(waiting.claim());
+    cache.complete(threadContext,"conn",entry,null,failure,false);
+    cache.release(threadContext,"conn",entry);
+    assertTrue(waiting.waitForComplete());
+    assertSame(failure,waiting.getException());
+    assertNotSame(entry,cache.lookup(threadContext,"conn","exception"));
+  }
+
+  @Test(timeout=60000)
+  public void abandonedClaimsAreDropped()
+    throws Exception
+  {
+    IThreadContext threadContext = ThreadContextFactory.make();
+    AuthorizationResponseCache cache = new AuthorizationResponseCache(threadContext);
+
+    // A claim released without an answer sends the waiters back to look again
+    AuthorizationResponseCache.Entry entry = cache.lookup(threadContext,"conn","user");
+    assertTrue(entry.claim());
+    AuthorizationResponseCache.Entry waiting = cache.lookup(threadContext,"conn","user");
+    assertFalse(waiting.claim());
+    cache.release(threadContext,"conn",entry);
+    assertFalse(waiting.waitForComplete());
+    AuthorizationResponseCache.Entry newEntry = cache.lookup(threadContext,"conn","user");
+    assertNotSame(entry,newEntry);
+    assertTrue(newEntry.claim());
+  }
+
+  /** Does what AuthCheckThread does for a request. */
+  protected static class Requester extends Thread
+  {
+    protected final AuthorizationResponseCache cache;
+    protected final String connectionName;
+    protected final String userID;
+    protected final AuthorizationResponse answer;
+    protected final boolean isDefaultResponse;
+    protected final AtomicInteger fetchCount;
+    protected AuthorizationResponse response = null;
+    protected Throwable exception = null;
+
+    public Requester(AuthorizationResponseCache cache, String connectionName, String userID,
+      AuthorizationResponse answer, boolean isDefaultResponse, AtomicInteger fetchCount)
+    {
+      super();
+      setDaemon(true);
+      this.cache = cache;
+      this.connectionName = connectionName;
+      this.userID = userID;
+      this.answer = answer;
+      this.isDefaultResponse = isDefaultResponse;
+      this.fetchCount = fetchCount;
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        IThreadContext threadContext = ThreadContextFactory.make();
+        while (true)
+        {
+          AuthorizationResponseCache.Entry entry = cache.lookup(threadContext,connectionName,userID);
+          if (entry.claim())
+          {
+            try
+            {
+              fetchCount.incrementAndGet();
+              cache.complete(threadContext,connectionName,entry,answer,null,isDefaultResponse);
+            }
+            finally
+            {
+              cache.release(threadContext,connectionName,entry);
+            }
+          }
+          else if (!entry.waitForComplete())
+            continue;
+          response = entry.getResponse();
+          break;
+        }
+      }
+      catch (Throwable e)
+      {
+        exception = e;
+      }
+    }
+
+    public AuthorizationResponse getResponse()
+    {
+      return response;
+    }
+
+    public void rethrow()
+      throws Exception
+    {
+      if (exception instanceof Exception)
+        throw (Exception)exception;
+      if (exception instanceof Error)
+        throw (Error)exception;
+    }
+  }
+
+}
@@ -0,0 +1,67 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.bins;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestBinLease
+{
+
+  @Test
+  public void valuesComeFromTheRangeInOrder()
+  {
+    BinManager.BinLease lease = new BinManager.BinLease();
+    assertNull(lease.allocate(0.0,1,1000L));
+    double[] values = lease.renew(5.0,10,0.0,2,1000L);
+    assertEquals(5.0,values[0],0.0);
+    assertEquals(6.0,values[1],0.0);
+    assertEquals(7.0,lease.allocate(0.0,1,1000L)[0],0.0);
+    // Values below the minimum are skipped
+    assertEquals(10.0,lease.allocate(10.0,1,1000L)[0],0.0);
+    // Not enough left
+    assertNull(lease.allocate(0.0,5,1000L));
+    // The next range starts past this one
+    assertEquals(15.0,lease.getFloor(0.0,1000L),0.0);
+    assertEquals(20.0,lease.getFloor(20.0,1000L),0.0);
+  }
+
+  @Test
+  public void expiredRangeIsAbandoned()
+  {
+    BinManager.BinLease lease = new BinManager.BinLease();
+    lease.renew(100.0,10,0.0,1,1000L);
+    long later = 1000L + BinManager.leaseLifetime;
+    assertNull(lease.allocate(0.0,1,later));
+    assertEquals(0.0,lease.getFloor(0.0,later),0.0);
+    // After a reset elsewhere, a lower range is accepted once the old one has expired
+    assertEquals(0.0,lease.renew(0.0,10,0.0,1,later)[0],0.0);
+  }
+
+  @Test
+  public void olderRangeDoesNotReplaceNewerOne()
+  {
+    BinManager.BinLease lease = new BinManager.BinLease();
+    lease.renew(20.0,10,0.0,1,1000L);
+    // A thread that reserved earlier gets its own values, but the lease keeps the later range
+    assertEquals(10.0,lease.renew(10.0,10,0.0,1,1000L)[0],0.0);
+    assertEquals(21.0,lease.allocate(0.0,1,1000L)[0],0.0);
+  }
+
+}
@@ -0,0 +1,62 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.interfaces;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class StufferShardTest
+{
+
+  @Test
+  public void everyHashInExactlyOneShard()
+    throws Exception
+  {
+    String[] hashes = new String[]{"0000","0FFF","7A3C","8000","9FFF","A000","C0DE","FFFF"};
+    for (int count = 1; count <= 20; count++)
+    {
+      for (String hash : hashes)
+      {
+        int owners = 0;
+        for (int index = 0; index < count; index++)
+        {
+          if (StufferShard.makeShard(index,count).contains(hash))
+            owners++;
+        }
+        assertEquals("Hash "+hash+" with "+count+" shards",1,owners);
+      }
+    }
+  }
+
+  @Test
+  public void boundsAndLocks()
+    throws Exception
+  {
+    StufferShard first = StufferShard.makeShard(0,3);
+    assertNull(first.getLowerHashBound());
+    assertEquals("5",first.getUpperHashBound());
+    StufferShard last = StufferShard.makeShard(2,3);
+    assertEquals("A",last.getLowerHashBound());
+    assertNull(last.getUpperHashBound());
+    assertArrayEquals(new String[]{"_L_A","_L_B","_L_C","_L_D","_L_E","_L_F"},last.getBucketLockNames("_L_"));
+    // More participants than buckets leaves some with nothing
+    assertTrue(StufferShard.makeShard(0,17).isEmpty());
+  }
+
+}
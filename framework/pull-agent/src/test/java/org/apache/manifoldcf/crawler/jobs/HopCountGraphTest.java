@@ -0,0 +1,319 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class HopCountGraphTest
+{
+  protected static final String[] linkTypes = new String[]{"link","redirect"};
+
+  @Test
+  public void addAndRemoveLinks()
+    throws Exception
+  {
+    HopCountGraph graph = new HopCountGraph(new Long(1L));
+    graph.recordLinks(linkTypes,"",new String[]{"A"},"",set("A"));
+    graph.recordLinks(linkTypes,"A",new String[]{"B","C"},"link",set("B","C"));
+    graph.recordLinks(linkTypes,"B",new String[]{"D"},"link",set("D"));
+    assertArrayEquals(new int[]{0,1,1,2,-1},graph.getDistances(new String[]{"A","B","C","D","E"},"link"));
+    assertArrayEquals(new int[]{0,0,0,0},graph.getDistances(new String[]{"A","B","C","D"},"redirect"));
+
+    // A redirect does not count as a hop for "link"
+    boolean[] changed = graph.recordLinks(linkTypes,"A",new String[]{"D"},"redirect",set("D"));
+    assertTrue(changed[0]);
+    assertArrayEquals(new int[]{0,1,1,0},graph.getDistances(new String[]{"A","B","C","D"},"link"));
+
+    // Recording the same link again in the pass, as a retried transaction would, gives the same answer
+    changed = graph.recordLinks(linkTypes,"A",new String[]{"D"},"redirect",set("D"));
+    assertTrue(changed[0]);
+
+    // A path no shorter is not a change
+    changed = graph.recordLinks(linkTypes,"C",new String[]{"D"},"link",set("D"));
+    assertFalse(changed[0]);
+
+    // Everything was seen in this pass, so finishing removes nothing
+    graph.finishSources(linkTypes,new String[]{"","A","B","C"},true);
+    assertArrayEquals(new int[]{0,1,1,0},graph.getDistances(new String[]{"A","B","C","D"},"link"));
+
+    // The next pass over A does not find the redirect, which leaves D two hops out
+    graph.recordLinks(linkTypes,"A",new String[]{"B","C"},"link",new HashSet<String>());
+    graph.finishSources(linkTypes,new String[]{"A"},true);
+    assertArrayEquals(new int[]{2},graph.getDistances(new String[]{"D"},"link"));
+
+    // Removing A's links cuts everything off
+    graph.removeSources(linkTypes,new String[]{"A"});
+    assertArrayEquals(new int[]{0,-1,-1,-1},graph.getDistances(new String[]{"A","B","C","D"},"link"));
+  }
+
+  @Test
+  public void changesTrackTheTable()
+    throws Exception
+  {
+    HopCountGraph graph = new HopCountGraph(new Long(1L));
+    graph.loadLink(null,"A","",false,false);
+    graph.loadLink("A","B","link",false,false);
+    graph.loadDistance("A","link",0);
+    graph.loadDistance("B","link",5);
+    graph.loadDistance("B","redirect",0);
+    // Only B's "link" distance is wrong; A's "redirect" row is missing
+    graph.getDistances(new String[]{"A"},"link");
+    graph.getDistances(new String[]{"A"},"redirect");
+    Map<String,HopCountGraph.DistanceChange> changes = new HashMap<String,HopCountGraph.DistanceChange>();
+    for (HopCountGraph.DistanceChange change : graph.takeChanges())
+    {
+      changes.put(change.getDocumentIDHash()+":"+change.getLinkType(),change);
+    }
+    assertEquals(2,changes.size());
+    assertEquals(1,changes.get("B:link").getDistance());
+    assertFalse(changes.get("B:link").isNew());
+    assertEquals(0,changes.get("A:redirect").getDistance());
+    assertTrue(changes.get("A:redirect").isNew());
+    assertEquals(0,graph.getChangeCount());
+
+    // A change that is undone before it is written needs no writing
+    graph.recordLinks(linkTypes,"",new String[]{"A","B"},"",set("B"));
+    graph.finishSources(linkTypes,new String[]{""},true);
+    assertEquals(1,graph.getChangeCount());
+    graph.recordLinks(linkTypes,"",new String[]{"A"},"",new HashSet<String>());
+    graph.finishSources(linkTypes,new String[]{""},true);
+    assertEquals(0,graph.getChangeCount());
+  }
+
+  @Test
+  public void rolledBackTransactionsDiscardTheGraph()
+    throws Exception
+  {
+    // What the tables hold
+    HopCountGraph graph = loadCommitted();
+    assertArrayEquals(new int[]{1,-1},graph.getDistances(new String[]{"B","C"},"link"));
+
+    // Two transactions change the graph, and the first one is rolled back after its distances were written
+    assertTrue(graph.enterTransaction());
+    assertTrue(graph.enterTransaction());
+    graph.recordLinks(linkTypes,"A",new String[]{"C"},"link",set("C"));
+    assertEquals(1,findChange(graph.takeChanges(),"C","link").getDistance());
+    assertFalse(graph.leaveTransaction(false));
+    assertTrue(graph.isStale());
+
+    // The second transaction is still going, and may commit, so the graph cannot be replaced yet; meanwhile,
+    // it is still the graph to use
+    assertTrue(graph.enterTransaction());
+    assertFalse(graph.leaveTransaction(true));
+    // Now nobody is using it
+    assertTrue(graph.leaveTransaction(true));
+    assertFalse(graph.enterTransaction());
+
+    // The reloaded graph has no trace of the rolled-back link, and puts the hopcount table right
+    graph = loadCommitted();
+    graph.loadDistance("C","link",2);
+    assertArrayEquals(new int[]{1,-1},graph.getDistances(new String[]{"B","C"},"link"));
+    assertEquals(-1,findChange(graph.takeChanges(),"C","link").getDistance());
+
+    // A committed transaction leaves the graph alone
+    assertTrue(graph.enterTransaction());
+    graph.recordLinks(linkTypes,"A",new String[]{"C"},"link",set("C"));
+    assertFalse(graph.leaveTransaction(true));
+    assertFalse(graph.isStale());
+    assertTrue(graph.enterTransaction());
+  }
+
+  @Test
+  public void markedStaleGraphsAreDiscardedOnceUnused()
+    throws Exception
+  {
+    HopCountGraph graph = loadCommitted();
+    assertTrue(graph.enterTransaction());
+    assertTrue(graph.enterTransaction());
+    graph.markStale();
+    // Still in use by the other transaction, even though this one committed
+    assertFalse(graph.leaveTransaction(true));
+    assertTrue(graph.enterTransaction());
+    assertFalse(graph.leaveTransaction(true));
+    assertTrue(graph.leaveTransaction(true));
+    assertFalse(graph.enterTransaction());
+  }
+
+  @Test
+  public void revertRemovesLinksAddedInThePass()
+    throws Exception
+  {
+    HopCountGraph graph = loadCommitted();
+    // A pass over A sees B again, and finds C
+    graph.recordLinks(linkTypes,"A",new String[]{"B","C"},"link",set("C"));
+    assertArrayEquals(new int[]{1,1},graph.getDistances(new String[]{"B","C"},"link"));
+    graph.revertSources(new String[]{"A"});
+    assertArrayEquals(new int[]{1,-1},graph.getDistances(new String[]{"B","C"},"link"));
+    // B is no longer marked as seen, so a pass that does not see it removes it
+    graph.finishSources(linkTypes,new String[]{"A"},true);
+    assertArrayEquals(new int[]{-1},graph.getDistances(new String[]{"B"},"link"));
+
+    // Links loaded from the tables in the middle of a pass are reverted the same way
+    graph = loadCommitted();
+    graph.loadLink("A","B","redirect",true,false);
+    graph.loadLink("A","C","link",true,true);
+    assertArrayEquals(new int[]{0,1},graph.getDistances(new String[]{"B","C"},"link"));
+    // The redirect was already there before the pass, so it stays
+    graph.revertSources(new String[]{"A"});
+    assertArrayEquals(new int[]{0,-1},graph.getDistances(new String[]{"B","C"},"link"));
+  }
+
+  @Test
+  public void matchesBruteForce()
+    throws Exception
+  {
+    Random random = new Random(42L);
+    for (int round = 0; round < 20; round++)
+    {
+      HopCountGraph graph = new HopCountGraph(new Long(round));
+      int nodeCount = 2 + random.nextInt(200);
+      // Links, and links seen in the current pass, as source -> "target:type"
+      Map<String,Set<String>> links = new HashMap<String,Set<String>>();
+      Map<String,Set<String>> seen = new HashMap<String,Set<String>>();
+      // Links added in the current pass
+      Map<String,Set<String>> added = new HashMap<String,Set<String>>();
+      for (int step = 0; step < 2000; step++)
+      {
+        String source = (random.nextInt(10) == 0)?"":Integer.toString(random.nextInt(nodeCount));
+        int action = random.nextInt(10);
+        if (action < 7)
+        {
+          String target = Integer.toString(random.nextInt(nodeCount));
+          String type = (source.length() == 0)?"":linkTypes[random.nextInt(2)];
+          graph.recordLinks(linkTypes,source,new String[]{target},type,set(target));
+          if (find(links,source).add(target+":"+type))
+            find(added,source).add(target+":"+type);
+          find(seen,source).add(target+":"+type);
+        }
+        else if (action < 8)
+        {
+          graph.finishSources(linkTypes,new String[]{source},true);
+          links.put(source,find(seen,source));
+          seen.remove(source);
+          added.remove(source);
+        }
+        else if (action < 9)
+        {
+          graph.revertSources(new String[]{source});
+          find(links,source).removeAll(find(added,source));
+          seen.remove(source);
+          added.remove(source);
+        }
+        else
+        {
+          graph.removeSources(linkTypes,new String[]{source});
+          links.remove(source);
+          seen.remove(source);
+          added.remove(source);
+        }
+        if (action >= 7 || step % 100 == 0)
+        {
+          for (String linkType : linkTypes)
+          {
+            checkDistances(graph,links,nodeCount,linkType);
+          }
+        }
+      }
+    }
+  }
+
+  /** Build a graph holding root -> A -> B, as it would be loaded from the tables. */
+  protected static HopCountGraph loadCommitted()
+    throws Exception
+  {
+    HopCountGraph graph = new HopCountGraph(new Long(1L));
+    graph.loadLink(null,"A","",false,false);
+    graph.loadLink("A","B","link",false,false);
+    graph.loadDistance("A","link",0);
+    graph.loadDistance("B","link",1);
+    return graph;
+  }
+
+  protected static HopCountGraph.DistanceChange findChange(List<HopCountGraph.DistanceChange> changes, String documentIDHash, String linkType)
+  {
+    for (HopCountGraph.DistanceChange change : changes)
+    {
+      if (change.getDocumentIDHash().equals(documentIDHash) && change.getLinkType().equals(linkType))
+        return change;
+    }
+    fail("No change for "+documentIDHash+":"+linkType);
+    return null;
+  }
+
+  protected static Set<String> find(Map<String,Set<String>> map, String key)
+  {
+    Set<String> rval = map.get(key);
+    if (rval == null)
+    {
+      rval = new HashSet<String>();
+      map.put(key,rval);
+    }
+    return rval;
+  }
+
+  protected static void checkDistances(HopCountGraph graph, Map<String,Set<String>> links, int nodeCount, String linkType)
+    throws Exception
+  {
+    // Bellman-Ford, good enough for a few hundred nodes
+    Map<String,Integer> d = new HashMap<String,Integer>();
+    d.put("",new Integer(0));
+    boolean changed = true;
+    while (changed)
+    {
+      changed = false;
+      for (Map.Entry<String,Set<String>> entry : links.entrySet())
+      {
+        Integer sourceDistance = d.get(entry.getKey());
+        if (sourceDistance == null)
+          continue;
+        for (String link : entry.getValue())
+        {
+          int index = link.indexOf(":");
+          String target = link.substring(0,index);
+          int newDistance = sourceDistance.intValue() + (link.substring(index+1).equals(linkType)?1:0);
+          Integer old = d.get(target);
+          if (old == null || newDistance < old.intValue())
+          {
+            d.put(target,new Integer(newDistance));
+            changed = true;
+          }
+        }
+      }
+    }
+    String[] nodes = new String[nodeCount];
+    for (int i = 0; i < nodeCount; i++)
+    {
+      nodes[i] = Integer.toString(i);
+    }
+    int[] distances = graph.getDistances(nodes,linkType);
+    for (int i = 0; i < nodeCount; i++)
+    {
+      Integer expected = d.get(nodes[i]);
+      assertEquals("Node "+nodes[i]+" linktype "+linkType,(expected == null)?-1:expected.intValue(),distances[i]);
+    }
+  }
+
+  protected static Set<String> set(String... values)
+  {
+    return new HashSet<String>(Arrays.asList(values));
+  }
+
+}
@@ -0,0 +1,117 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.crawler.interfaces.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Check that IndexedDocumentQueue hands out document sets in exactly the order DocumentQueue does. */
+public class TestDocumentQueue
+{
+  @Before
+  public void setupLogging()
+  {
+    if (Logging.scheduling == null)
+      Logging.scheduling = org.apache.log4j.Logger.getLogger("org.apache.manifoldcf.scheduling");
+  }
+
+  @Test
+  public void sameOrderAsDocumentQueue()
+    throws Exception
+  {
+    compareQueues(new Random(42L),1);
+  }
+
+  /** Documents with no bins give their sets a NaN rating in DocumentQueue. */
+  @Test
+  public void sameOrderWithUnbinnedDocuments()
+    throws Exception
+  {
+    compareQueues(new Random(17L),0);
+  }
+
+  protected void compareQueues(Random r, int minBins)
+    throws Exception
+  {
+    String[] bins = new String[]{"a.com","b.com","c.com","d.com","e.com","f.com","g.com"};
+
+    QueueTracker legacyTracker = new QueueTracker();
+    QueueTracker indexedTracker = new QueueTracker();
+    DocumentQueue legacyQueue = new DocumentQueue();
+    DocumentQueue indexedQueue = new IndexedDocumentQueue();
+
+    // Sets currently "being processed", in the order they were handed out
+    List<QueuedDocumentSet> legacyActive = new ArrayList<QueuedDocumentSet>();
+    List<QueuedDocumentSet> indexedActive = new ArrayList<QueuedDocumentSet>();
+
+    long docID = 0L;
+    for (int round = 0; round < 2000; round++)
+    {
+      int action = r.nextInt(3);
+      if (action == 0)
+      {
+        // Queue a new set in both queues
+        int docCount = 1 + r.nextInt(3);
+        List<QueuedDocument> docs = new ArrayList<QueuedDocument>();
+        for (int i = 0; i < docCount; i++)
+        {
+          String[] docBins = new String[minBins + r.nextInt(3 - minBins)];
+          for (int j = 0; j < docBins.length; j++)
+          {
+            docBins[j] = bins[r.nextInt(bins.length)];
+          }
+          String id = Long.toString(docID++);
+          docs.add(new QueuedDocument(new DocumentDescription(new Long(docID),new Long(1L),id,id),null,docBins));
+        }
+        QueuedDocumentSet qds = new QueuedDocumentSet(docs,null,null);
+        legacyQueue.addDocument(qds);
+        indexedQueue.addDocument(qds);
+      }
+      else if (action == 1 && !legacyQueue.checkIfEmpty(0))
+      {
+        // Dequeue from both and start processing
+        QueuedDocumentSet legacy = legacyQueue.getDocument(legacyTracker);
+        QueuedDocumentSet indexed = indexedQueue.getDocument(indexedTracker);
+        assertSame(legacy,indexed);
+        legacy.beginProcessing(legacyTracker);
+        indexed.beginProcessing(indexedTracker);
+        legacyActive.add(legacy);
+        indexedActive.add(indexed);
+      }
+      else if (legacyActive.size() > 0)
+      {
+        // Finish a random in-progress set
+        int index = r.nextInt(legacyActive.size());
+        legacyActive.remove(index).endProcessing(legacyTracker);
+        indexedActive.remove(index).endProcessing(indexedTracker);
+      }
+    }
+
+    // Drain what's left
+    while (!legacyQueue.checkIfEmpty(0))
+    {
+      assertFalse(indexedQueue.checkIfEmpty(0));
+      assertSame(legacyQueue.getDocument(legacyTracker),indexedQueue.getDocument(indexedTracker));
+    }
+    assertTrue(indexedQueue.checkIfEmpty(0));
+  }
+
+}
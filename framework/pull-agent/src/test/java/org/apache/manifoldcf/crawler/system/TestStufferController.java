@@ -0,0 +1,106 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Check the decisions StufferController makes from given measurements. */
+public class TestStufferController
+{
+  protected static final long second = 1000000000L;
+
+  @Before
+  public void setupLogging()
+  {
+    if (Logging.threads == null)
+      Logging.threads = org.apache.log4j.Logger.getLogger("org.apache.manifoldcf.threads");
+  }
+
+  @Test
+  public void starvationRaisesBoth()
+    throws Exception
+  {
+    // Ten workers, starting from a low-water mark of 50 sets and 5 documents per claim
+    StufferController controller = new StufferController(new DocumentQueue(),10,50,5);
+    controller.noteClaim(100L,5,5);
+    controller.adjust(0L,0L,0L,0L);
+    // One second later: 100 sets dequeued, and the workers spent half their time waiting
+    int stuffAmount = controller.adjust(second,100L,100L,5L * second);
+    assertEquals(0.5,controller.getIdleFraction(),0.001);
+    assertEquals(1L,controller.getStarvationCount());
+    assertEquals(75,controller.getLowWaterMark());
+    assertEquals(10,stuffAmount);
+    assertEquals(1L,controller.getAdjustmentCount());
+  }
+
+  @Test
+  public void followsTheDequeueRate()
+    throws Exception
+  {
+    StufferController controller = new StufferController(new DocumentQueue(),10,50,5);
+    controller.noteClaim(100L,5,5);
+    controller.noteResolve(50L);
+    controller.adjust(0L,0L,0L,0L);
+    // 100 documents a second and no waiting: refill takes 150ms, so 30 sets cover it twice over,
+    // and a batch of 40 lasts four claim times
+    long sets = 0L;
+    for (int i = 1; i <= 10; i++)
+    {
+      sets += 100L;
+      controller.adjust(i * second,sets,sets,0L);
+    }
+    assertEquals(0.0,controller.getIdleFraction(),0.001);
+    assertEquals(0L,controller.getStarvationCount());
+    assertEquals(30,controller.getLowWaterMark());
+    assertEquals(40,controller.getStuffAmount());
+  }
+
+  @Test
+  public void noGrowthWhenClaimsComeUpShort()
+    throws Exception
+  {
+    StufferController controller = new StufferController(new DocumentQueue(),10,50,5);
+    controller.noteClaim(100L,5,2);
+    controller.adjust(0L,0L,0L,0L);
+    // Workers are waiting, but only because there is nothing more to claim
+    controller.adjust(second,100L,100L,5L * second);
+    assertEquals(0L,controller.getStarvationCount());
+    assertEquals(5,controller.getStuffAmount());
+    assertEquals(25,controller.getLowWaterMark());
+  }
+
+  @Test
+  public void staysWithinBounds()
+    throws Exception
+  {
+    StufferController controller = new StufferController(new DocumentQueue(),10,50,5);
+    controller.adjust(0L,0L,0L,0L);
+    long sets = 0L;
+    for (int i = 1; i <= 100; i++)
+    {
+      controller.noteClaim(1000L,controller.getStuffAmount(),controller.getStuffAmount());
+      sets += 100000L;
+      controller.adjust(i * second,sets,sets,10L * second);
+    }
+    assertEquals(200,controller.getLowWaterMark());
+    assertEquals(640,controller.getStuffAmount());
+  }
+
+}